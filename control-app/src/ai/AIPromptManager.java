@@ -1,5 +1,6 @@
 package ai;
 
+import app.StartupProfiler;
 import model.Event;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -30,6 +31,7 @@ public class AIPromptManager{
         loadPrompts();
     }
     private void loadPrompts(){
+        long started=StartupProfiler.start();
         try{
             if (!Files.exists(promptsPath)){
                 System.err.println("Warning: Prompts file not found at "+promptsPath);
@@ -44,6 +46,9 @@ public class AIPromptManager{
             System.err.println("Failed to load prompts file: "+e.getMessage());
             loadDefaultPrompts();
         }
+        finally{
+            StartupProfiler.stop(StartupProfiler.Phase.AI_PROMPTS, started);
+        }
     }
     private void parsePrompts(String content){
         String[] lines=content.split("\n");
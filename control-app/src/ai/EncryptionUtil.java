@@ -6,9 +6,12 @@ import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.SecretKeySpec;
 import javax.crypto.spec.GCMParameterSpec;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.security.spec.KeySpec;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.nio.charset.StandardCharsets;
 
 /*
@@ -19,12 +22,14 @@ import java.nio.charset.StandardCharsets;
  * - Decrypt stored API keys when needed
  * - Generate secure random passwords
  * - Validate encrypted data format
+ * - Cache derived keys for the rest of the session
  *
  * Java data types used:
  * - String
  * - byte[]
  * - SecretKey
  * - Cipher
+ * - Map<String, SecretKey>
  *
  * Java technologies involved:
  * - javax.crypto (AES-256-GCM, PBKDF2)
@@ -35,6 +40,9 @@ import java.nio.charset.StandardCharsets;
  * API keys are NEVER stored in plain text.
  * All encryption uses password-based key derivation with salt.
  * Each encryption generates unique IV for semantic security.
+ * PBKDF2 is deliberately slow, so each password and salt pair is derived
+ * once per session; encryptions reuse the session's salt and differ only
+ * in their IV.
  */
 public class EncryptionUtil{
     private static final String ALGORITHM="AES/GCM/NoPadding";
@@ -43,6 +51,8 @@ public class EncryptionUtil{
     private static final int IV_LENGTH=12;
     private static final int TAG_LENGTH=128;
     private static final int ITERATIONS=65536;
+    private static final Map<String, SecretKey> KEY_CACHE=new ConcurrentHashMap<>();
+    private static final Map<String, byte[]> SESSION_SALTS=new ConcurrentHashMap<>();
     private EncryptionUtil(){
         
     }
@@ -58,12 +68,10 @@ public class EncryptionUtil{
         if (data==null||data.isEmpty()){
             return "";
         }
-        SecureRandom random=new SecureRandom();
-        byte[] salt=new byte[SALT_LENGTH];
-        byte[] iv=new byte[IV_LENGTH];
-        random.nextBytes(salt);
-        random.nextBytes(iv);
-        SecretKey key=deriveKey(password, salt);
+        String passwordId=passwordId(password);
+        byte[] salt=SESSION_SALTS.computeIfAbsent(passwordId, id->randomBytes(SALT_LENGTH));
+        byte[] iv=randomBytes(IV_LENGTH);
+        SecretKey key=getKey(password, passwordId, salt);
         Cipher cipher=Cipher.getInstance(ALGORITHM);
         GCMParameterSpec gcmSpec=new GCMParameterSpec(TAG_LENGTH, iv);
         cipher.init(Cipher.ENCRYPT_MODE, key, gcmSpec);
@@ -93,13 +101,47 @@ public class EncryptionUtil{
         System.arraycopy(combined, 0, salt, 0, SALT_LENGTH);
         System.arraycopy(combined, SALT_LENGTH, iv, 0, IV_LENGTH);
         System.arraycopy(combined, SALT_LENGTH+IV_LENGTH, ciphertext, 0, ciphertext.length);
-        SecretKey key=deriveKey(password, salt);
+        String passwordId=passwordId(password);
+        SecretKey key=getKey(password, passwordId, salt);
         Cipher cipher=Cipher.getInstance(ALGORITHM);
         GCMParameterSpec gcmSpec=new GCMParameterSpec(TAG_LENGTH, iv);
         cipher.init(Cipher.DECRYPT_MODE, key, gcmSpec);
         byte[] plaintext=cipher.doFinal(ciphertext);
+        SESSION_SALTS.putIfAbsent(passwordId, salt);
         return new String(plaintext, StandardCharsets.UTF_8);
     }
+    /**
+     * Returns the cached key for a password and salt, deriving it on first
+     * use.
+     */
+    private static SecretKey getKey(String password, String passwordId, byte[] salt) throws Exception{
+        String cacheKey=passwordId+":"+Base64.getEncoder().encodeToString(salt);
+        SecretKey key=KEY_CACHE.get(cacheKey);
+        if (key==null){
+            key=deriveKey(password, salt);
+            KEY_CACHE.put(cacheKey, key);
+        }
+        return key;
+    }
+    /**
+     * Identifies a password in the cache without keeping it as a map key.
+     */
+    private static String passwordId(String password) throws Exception{
+        byte[] hash=MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+        return Base64.getEncoder().encodeToString(hash);
+    }
+    private static byte[] randomBytes(int length){
+        byte[] bytes=new byte[length];
+        new SecureRandom().nextBytes(bytes);
+        return bytes;
+    }
+    /**
+     * Forgets every derived key and session salt.
+     */
+    public static void clearKeyCache(){
+        KEY_CACHE.clear();
+        SESSION_SALTS.clear();
+    }
     /**
      * Derives a secret key from a password and salt using PBKDF2.
      */
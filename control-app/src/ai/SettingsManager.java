@@ -6,12 +6,18 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
 
 /**
  * Manages loading and saving of encrypted configuration settings.
  * Stores data in: ${user.home}/.calendarapp/config.dat
  * Master password is stored in: ${user.home}/.calendarapp/master.key
+ *
+ * The file is decrypted once, on first access, and the settings are then
+ * served from memory. Every save writes the file; {@link #saveSettings(Map)}
+ * changes several settings with a single encryption and write.
  */
 public class SettingsManager {
     private static final String APP_DIR = ".calendarapp";
@@ -20,6 +26,7 @@ public class SettingsManager {
     private final Path configPath;
     private final Path masterKeyPath;
     private String masterPassword;
+    private Properties settings;
 
     public SettingsManager() throws IOException {
         Path homeDir = Paths.get(System.getProperty("user.home"));
@@ -61,21 +68,51 @@ public class SettingsManager {
      * Uses Properties to store multiple settings.
      */
     public void saveSetting(String key, String value) throws Exception {
-        Properties props = loadAllSettings();
-        if (value == null || value.isEmpty()) {
-            props.remove(key);
-        } else {
-            props.setProperty(key, value);
+        saveSettings(Collections.singletonMap(key, value));
+    }
+
+    /**
+     * Saves several key-value pairs with one write of the encrypted config
+     * file. A null or empty value removes the key. Nothing is written when
+     * no value changed.
+     */
+    public synchronized void saveSettings(Map<String, String> values) throws Exception {
+        Properties props = getSettings();
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String value = entry.getValue();
+            if (value == null || value.isEmpty()) {
+                changed |= props.remove(entry.getKey()) != null;
+            } else {
+                changed |= !value.equals(props.setProperty(entry.getKey(), value));
+            }
+        }
+        if (changed) {
+            try {
+                saveAllSettings(props);
+            } catch (Exception e) {
+                // Reread the file next time instead of serving unsaved values
+                settings = null;
+                throw e;
+            }
         }
-        saveAllSettings(props);
     }
 
     /**
      * Loads a single setting by key.
      */
-    public String loadSetting(String key) throws Exception {
-        Properties props = loadAllSettings();
-        return props.getProperty(key);
+    public synchronized String loadSetting(String key) throws Exception {
+        return getSettings().getProperty(key);
+    }
+
+    /**
+     * Returns the in-memory settings, decrypting the config file on first use.
+     */
+    private Properties getSettings() throws Exception {
+        if (settings == null) {
+            settings = loadAllSettings();
+        }
+        return settings;
     }
 
     /**
@@ -1,10 +1,14 @@
 package app;
 
 import state.AppState;
-import storage.JsonStore;
+import state.UserPrefaces;
+import storage.StorageBackend;
+import storage.StorageBackends;
 import ui.CalendarFrame;
 import javax.swing.SwingUtilities;
 import javax.swing.JOptionPane;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
 import java.util.Locale;
 
 /*
@@ -35,47 +39,34 @@ public class AppLauncher{
         System.setProperty("sun.jnu.encoding", "UTF-8");
     }
     public void launch(){
-        Locale.setDefault(Locale.ENGLISH);
-        AppState appState=new AppState();
-        JsonStore storage=new JsonStore();
-        CalendarController controller=new CalendarController(appState, storage);
-        SwingUtilities.invokeLater(()->{
-            try{
-                new CalendarFrame(controller);
-            }
-            catch (Exception e){
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(null, "Failed to start Calendar App: "+e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
+        launchWithComponents(new AppState(), StorageBackends.createDefault());
     }
     public void launch(String storagePath){
-        Locale.setDefault(Locale.ENGLISH);
-        AppState appState=new AppState();
-        JsonStore storage=new JsonStore(storagePath);
-        CalendarController controller=new CalendarController(appState, storage);
-        SwingUtilities.invokeLater(()->{
-            try{
-                new CalendarFrame(controller);
-            }
-            catch (Exception e){
-                e.printStackTrace();
-                JOptionPane.showMessageDialog(null, "Failed to start Calendar App: "+e.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
-        });
+        StorageBackend storage=StorageBackends.create(System.getProperty(StorageBackends.BACKEND_PROPERTY, StorageBackends.JSON), Paths.get(storagePath));
+        launchWithComponents(new AppState(), storage);
     }
     public CalendarController launchHeadless(){
+        return launchHeadless(StorageBackends.createDefault());
+    }
+    /**
+     * Wires a controller for the given storage without any Swing component.
+     * State listeners run on the thread that changed the state.
+     */
+    public CalendarController launchHeadless(StorageBackend storage){
         Locale.setDefault(Locale.ENGLISH);
         AppState appState=new AppState();
-        JsonStore storage=new JsonStore();
+        appState.setListenerExecutor(Runnable::run);
         return new CalendarController(appState, storage);
     }
-    public void launchWithComponents(AppState appState, JsonStore storage){
+    public void launchWithComponents(AppState appState, StorageBackend storage){
+        long wiringStarted=StartupProfiler.start();
         Locale.setDefault(Locale.ENGLISH);
-        CalendarController controller=new CalendarController(appState, storage);
+        CalendarController controller=new CalendarController(appState, storage, new UserPrefaces(), true);
+        startApiServerIfConfigured(controller);
+        StartupProfiler.stop(StartupProfiler.Phase.LAUNCHER_WIRING, wiringStarted);
         SwingUtilities.invokeLater(()->{
             try{
-                new CalendarFrame(controller);
+                showFrame(controller);
             }
             catch (Exception e){
                 e.printStackTrace();
@@ -83,4 +74,28 @@ public class AppLauncher{
             }
         });
     }
+    /**
+     * Starts the local API when -Dcalendar.api.port is given; 0 picks a
+     * free port.
+     */
+    private void startApiServerIfConfigured(CalendarController controller){
+        Integer port=Integer.getInteger(LocalApiServer.PORT_PROPERTY);
+        if (port!=null){
+            controller.startApiServer(port);
+        }
+    }
+    /**
+     * Shows the window while the calendar is still loading and logs how long
+     * after JVM start it first painted. Startup ends once the window has
+     * painted and the calendar is loaded.
+     */
+    private void showFrame(CalendarController controller){
+        long frameStarted=StartupProfiler.start();
+        CalendarFrame frame=new CalendarFrame(controller);
+        frame.addPropertyChangeListener(CalendarFrame.PROPERTY_FIRST_PAINT, evt->{
+            StartupProfiler.markFirstPaint(frameStarted);
+            System.out.println("Startup: first paint after "+ManagementFactory.getRuntimeMXBean().getUptime()+" ms");
+            controller.getInitialLoad().thenRun(StartupProfiler::finish);
+        });
+    }
 }
\ No newline at end of file
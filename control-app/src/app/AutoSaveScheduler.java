@@ -0,0 +1,152 @@
+package app;
+/*
+ * Background autosave scheduler.
+ *
+ * Responsibilities:
+ * - Save on a background thread instead of the EDT
+ * - Skip saves when nothing changed since the last one
+ * - Merge bursts of edits into one write after a quiet period
+ * - Cap the delay at the user's autosave interval
+ * - Follow changes to the autosave interval preference
+ *
+ * Java data types used:
+ * - ScheduledExecutorService
+ * - ScheduledFuture<?>
+ * - PropertyChangeEvent
+ *
+ * Java technologies involved:
+ * - java.util.concurrent scheduling
+ * - Observer pattern
+ *
+ * Design intent:
+ * Exactly one scheduler per controller; autosave never blocks the UI.
+ */
+import state.AppState;
+import state.UserPrefaces;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class AutoSaveScheduler implements PropertyChangeListener{
+    private static long DEFAULT_QUIET_PERIOD_MILLIS=2000;
+    private CalendarController controller;
+    private AppState appState;
+    private UserPrefaces preferences;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> pendingSave;
+    private ScheduledFuture<?> periodicCheck;
+    private long quietPeriodMillis=DEFAULT_QUIET_PERIOD_MILLIS;
+    private long firstUnsavedChangeAt;
+    private volatile long lastSavedVersion;
+    private PropertyChangeListener intervalListener=evt->restartPeriodicCheck();
+    public AutoSaveScheduler(CalendarController controller, UserPrefaces preferences){
+        this.controller=controller;
+        this.appState=controller.getAppState();
+        this.preferences=preferences;
+    }
+    public synchronized void start(){
+        if (executor!=null){
+            return;
+        }
+        lastSavedVersion=appState.getModelVersion();
+        executor=Executors.newSingleThreadScheduledExecutor(runnable->{
+            Thread thread=new Thread(runnable, "calendar-autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+        restartPeriodicCheck();
+        appState.addPropertyChangeListener(AppState.PROPERTY_CHANGE_BATCH, this);
+        preferences.addPropertyChangeListener(UserPrefaces.KEY_AUTO_SAVE_INTERVAL, intervalListener);
+    }
+    public synchronized void stop(){
+        if (executor==null){
+            return;
+        }
+        appState.removePropertyChangeListener(AppState.PROPERTY_CHANGE_BATCH, this);
+        preferences.removePropertyChangeListener(UserPrefaces.KEY_AUTO_SAVE_INTERVAL, intervalListener);
+        executor.shutdownNow();
+        executor=null;
+        pendingSave=null;
+        periodicCheck=null;
+    }
+    /**
+     * Schedules the periodic check at the current autosave interval.
+     */
+    private synchronized void restartPeriodicCheck(){
+        if (executor==null){
+            return;
+        }
+        if (periodicCheck!=null){
+            periodicCheck.cancel(false);
+        }
+        long intervalMillis=getIntervalMillis();
+        periodicCheck=executor.scheduleWithFixedDelay(this::saveIfNeeded, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+    @Override
+    public void propertyChange(PropertyChangeEvent evt){
+        if (appState.isUnsaved()||appState.getModelVersion()!=lastSavedVersion){
+            scheduleSave();
+        }
+    }
+    /**
+     * Restarts the quiet-period countdown, unless changes have been waiting
+     * longer than the autosave interval, in which case they are saved now.
+     */
+    private synchronized void scheduleSave(){
+        if (executor==null){
+            return;
+        }
+        long now=System.currentTimeMillis();
+        if (firstUnsavedChangeAt==0){
+            firstUnsavedChangeAt=now;
+        }
+        if (pendingSave!=null){
+            pendingSave.cancel(false);
+        }
+        long delay=quietPeriodMillis;
+        long deadline=firstUnsavedChangeAt+getIntervalMillis();
+        if (now+delay>deadline){
+            delay=Math.max(0, deadline-now);
+        }
+        pendingSave=executor.schedule(this::saveIfNeeded, delay, TimeUnit.MILLISECONDS);
+    }
+    /**
+     * Ends the current wait whether or not it saves, so with autosave
+     * turned off the next change starts a fresh interval instead of
+     * saving at once against a deadline that passed long ago.
+     */
+    private void saveIfNeeded(){
+        synchronized (this){
+            firstUnsavedChangeAt=0;
+        }
+        if (!preferences.getAutoSave()){
+            return;
+        }
+        long version=appState.getModelVersion();
+        if (!appState.isUnsaved()&&version==lastSavedVersion){
+            return;
+        }
+        if (controller.saveCalendar()){
+            lastSavedVersion=version;
+        }
+        else{
+            System.err.println("Auto-save failed at "+new java.util.Date());
+        }
+    }
+    private long getIntervalMillis(){
+        int minutes=preferences.getAutoSaveInterval();
+        if (minutes<=0){
+            minutes=UserPrefaces.DEFAULT_AUTO_SAVE_INTERVAL;
+        }
+        return TimeUnit.MINUTES.toMillis(minutes);
+    }
+    public void setQuietPeriodMillis(long quietPeriodMillis){
+        this.quietPeriodMillis=quietPeriodMillis;
+    }
+    public long getQuietPeriodMillis(){
+        return quietPeriodMillis;
+    }
+}
@@ -0,0 +1,482 @@
+package app;
+
+import model.CalendarModel;
+import model.Event;
+import service.CalendarValidationService;
+import storage.CalendarCipher;
+import storage.CalendarSchema;
+import storage.CalendarSchemaValidator;
+import storage.ImportListener;
+import storage.JsonStore;
+import storage.StorageBackend;
+import storage.StorageBackends;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+ * Command line mode for bulk work on calendar files, without Swing.
+ *
+ * Responsibilities:
+ * - Validate, report overlaps in, and query calendar files
+ * - Export stores to JSON, convert them between backends, and import
+ *   exports into a store through CalendarController
+ * - Spread the files over a pool of threads
+ * - Report files, events and bytes per second when done
+ *
+ * Java data types used:
+ * - ExecutorService
+ * - Future<FileResult>
+ * - StringBuilder
+ *
+ * Java technologies involved:
+ * - Thread pools
+ * - Streaming JSON reading
+ *
+ * Design intent:
+ * Every file is an independent task, so a nightly job over hundreds of
+ * calendars keeps all cores busy. JSON files are streamed event by event;
+ * only overlap reports and conversions hold a whole calendar. Each task
+ * writes into its own buffer and the buffers are printed in the order the
+ * files were given, so the output of two runs can be compared line by line.
+ * Imports parse the exports in parallel but add them one at a time, since
+ * a store has a single writer.
+ */
+
+public class BatchCli{
+    public static String COMMAND="batch";
+    public static int EXIT_OK=0;
+    public static int EXIT_PROBLEMS=1;
+    public static int EXIT_USAGE=2;
+    private static String USAGE=String.join("\n",
+        "Usage: batch <command> [options] <file_or_directory>...",
+        "Commands:",
+        "  validate                      check files against the calendar schema",
+        "  overlaps                      list overlapping events",
+        "  query [--from d] [--to d] [--title text]",
+        "                                list events in a date range or with a title",
+        "  export --out-dir dir          write stores as JSON exports",
+        "  convert --to backend --out-dir dir",
+        "                                rewrite stores with another backend ("+StorageBackends.names()+")",
+        "  import --store file           add exports to a store",
+        "Options:",
+        "  -j n                          threads (default: number of processors)",
+        "  --quiet                       print only files with problems, and the summary"
+    );
+    private String command;
+    private List<Path> inputs=new ArrayList<>();
+    private int threads=Runtime.getRuntime().availableProcessors();
+    private boolean quiet;
+    private LocalDate from;
+    private LocalDate to;
+    private String title;
+    private Path outputDirectory;
+    private String targetBackend;
+    private Path store;
+    private CalendarValidationService validationService=new CalendarValidationService();
+    /**
+     * Runs one batch command.
+     *
+     * @return the process exit code: EXIT_OK, EXIT_PROBLEMS when a file
+     * failed or had findings, or EXIT_USAGE
+     */
+    public static int run(String[] args){
+        Locale.setDefault(Locale.ENGLISH);
+        BatchCli cli=new BatchCli();
+        String error=cli.parse(args);
+        if (error!=null){
+            System.err.println(error);
+            System.err.println(USAGE);
+            return EXIT_USAGE;
+        }
+        return cli.execute();
+    }
+    private String parse(String[] args){
+        if (args.length==0){
+            return "No command given";
+        }
+        command=args[0];
+        if (!Arrays.asList("validate", "overlaps", "query", "export", "convert", "import").contains(command)){
+            return "Unknown command: "+command;
+        }
+        try{
+            for (int i=1;i<args.length;i++){
+                String arg=args[i];
+                if ("-j".equals(arg)){
+                    threads=Math.max(1, Integer.parseInt(value(args, ++i, arg)));
+                }
+                else if ("--quiet".equals(arg)){
+                    quiet=true;
+                }
+                else if ("--to".equals(arg)&&"convert".equals(command)){
+                    targetBackend=value(args, ++i, arg);
+                }
+                else if ("--from".equals(arg)){
+                    from=LocalDate.parse(value(args, ++i, arg));
+                }
+                else if ("--to".equals(arg)){
+                    to=LocalDate.parse(value(args, ++i, arg));
+                }
+                else if ("--title".equals(arg)){
+                    title=value(args, ++i, arg).toLowerCase();
+                }
+                else if ("--out-dir".equals(arg)){
+                    outputDirectory=Paths.get(value(args, ++i, arg));
+                }
+                else if ("--store".equals(arg)){
+                    store=Paths.get(value(args, ++i, arg));
+                }
+                else if (arg.startsWith("-")){
+                    return "Unknown option: "+arg;
+                }
+                else{
+                    addInputs(Paths.get(arg));
+                }
+            }
+        }
+        catch (NumberFormatException|DateTimeParseException e){
+            return "Invalid value: "+e.getMessage();
+        }
+        catch (IllegalArgumentException e){
+            return e.getMessage();
+        }
+        if (inputs.isEmpty()){
+            return "No input files";
+        }
+        if (("export".equals(command)||"convert".equals(command))&&outputDirectory==null){
+            return command+" needs --out-dir";
+        }
+        if ("convert".equals(command)&&!StorageBackends.names().contains(targetBackend)){
+            return "convert needs --to with one of "+StorageBackends.names();
+        }
+        if ("import".equals(command)&&store==null){
+            return "import needs --store";
+        }
+        return null;
+    }
+    private static String value(String[] args, int index, String option){
+        if (index>=args.length){
+            throw new IllegalArgumentException(option+" needs a value");
+        }
+        return args[index];
+    }
+    /**
+     * Adds a file, or the calendar files directly inside a directory.
+     */
+    private void addInputs(Path path){
+        File target=path.toFile();
+        if (!target.isDirectory()){
+            inputs.add(path);
+            return;
+        }
+        File[] files=target.listFiles((dir, name)->isCalendarFile(name));
+        if (files==null){
+            return;
+        }
+        Arrays.sort(files);
+        for (File file:files){
+            inputs.add(file.toPath());
+        }
+    }
+    private static boolean isCalendarFile(String name){
+        String lower=name.toLowerCase();
+        return lower.endsWith(".json")||lower.endsWith(".bin")||lower.endsWith(".caldb");
+    }
+    private int execute(){
+        long started=System.nanoTime();
+        if (outputDirectory!=null){
+            try{
+                Files.createDirectories(outputDirectory);
+            }
+            catch (IOException e){
+                System.err.println("Cannot create "+outputDirectory+": "+e.getMessage());
+                return EXIT_PROBLEMS;
+            }
+        }
+        ExecutorService pool=Executors.newFixedThreadPool(Math.min(threads, inputs.size()), runnable->{
+            Thread thread=new Thread(runnable, "batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Future<FileResult>> pending=new ArrayList<>();
+        CalendarController controller=null;
+        if ("import".equals(command)){
+            controller=new AppLauncher().launchHeadless(StorageBackends.create(backendFor(store), store));
+        }
+        for (Path input:inputs){
+            pending.add(pool.submit(()->process(input)));
+        }
+        int files=0;
+        int failed=0;
+        long events=0;
+        long bytes=0;
+        try{
+            for (Future<FileResult> future:pending){
+                FileResult result=future.get();
+                if (controller!=null&&result.imported!=null){
+                    int added=controller.importEventsFromModel(result.imported);
+                    result.imported=null;
+                    result.line(added+" of "+result.events+" events added");
+                }
+                files++;
+                events+=result.events;
+                bytes+=result.bytes;
+                if (result.problems>0){
+                    failed++;
+                }
+                if (!quiet||result.problems>0){
+                    System.out.print(result.output);
+                }
+            }
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            System.err.println("Batch interrupted");
+            return EXIT_PROBLEMS;
+        }
+        catch (ExecutionException e){
+            System.err.println("Batch task failed: "+e.getCause());
+            return EXIT_PROBLEMS;
+        }
+        finally{
+            pool.shutdownNow();
+            if (controller!=null){
+                if (controller.hasUnsavedChanges()&&!controller.saveCalendar()){
+                    System.err.println("Failed to save "+store);
+                    failed++;
+                }
+                controller.shutdown();
+            }
+        }
+        printSummary(files, failed, events, bytes, System.nanoTime()-started);
+        return failed>0?EXIT_PROBLEMS:EXIT_OK;
+    }
+    private void printSummary(int files, int failed, long events, long bytes, long nanos){
+        double seconds=Math.max(nanos, 1)/1e9;
+        double megabytes=bytes/(1024.0*1024.0);
+        System.out.println(String.format("%s: %d files, %d with problems, %d events, %.1f MB in %.2f s (%.0f events/s, %.1f MB/s, %d threads)",
+            command,
+            files,
+            failed,
+            events,
+            megabytes,
+            seconds,
+            events/seconds,
+            megabytes/seconds,
+            Math.min(threads, files)
+        ));
+    }
+    private FileResult process(Path input){
+        FileResult result=new FileResult(input);
+        try{
+            result.bytes=Files.size(input);
+            switch (command){
+                case "validate":
+                    validate(result);
+                    break;
+                case "overlaps":
+                    overlaps(result);
+                    break;
+                case "query":
+                    query(result);
+                    break;
+                case "export":
+                    export(result);
+                    break;
+                case "convert":
+                    convert(result);
+                    break;
+                default:
+                    parseExport(result);
+                    break;
+            }
+        }
+        catch (IOException|RuntimeException e){
+            result.problem(e.getMessage()!=null?e.getMessage():e.toString());
+        }
+        return result;
+    }
+    /**
+     * Plain JSON files are checked against the schema in the same pass
+     * that counts their events; other files only have their time ranges
+     * checked.
+     */
+    private void validate(FileResult result) throws IOException{
+        if (isJson(result.file)&&!CalendarCipher.isEncrypted(result.file)){
+            AtomicInteger events=new AtomicInteger();
+            List<CalendarSchemaValidator.Violation> violations=CalendarSchemaValidator.validate(result.file, CalendarSchema.getDefault(), event->events.incrementAndGet());
+            result.events=events.get();
+            for (CalendarSchemaValidator.Violation violation:violations){
+                result.problem(violation.toString());
+            }
+        }
+        else{
+            result.events=read(result.file, event->{
+                if (!validationService.isTimeRangeValid(event)){
+                    result.problem(describe(event)+" does not end after it starts");
+                }
+            });
+        }
+        if (result.problems==0){
+            result.line(result.events+" events, valid");
+        }
+    }
+    private void overlaps(FileResult result) throws IOException{
+        List<Event> events=new ArrayList<>();
+        result.events=read(result.file, events::add);
+        events.sort(Event.START_ORDER);
+        validationService.forEachOverlap(events, (first, second)->result.problem(describe(first)+" overlaps with "+describe(second)));
+        if (result.problems==0){
+            result.line(result.events+" events, no overlaps");
+        }
+    }
+    private void query(FileResult result) throws IOException{
+        AtomicInteger matches=new AtomicInteger();
+        result.events=read(result.file, event->{
+            if (matches(event)){
+                matches.incrementAndGet();
+                result.line(describe(event));
+            }
+        });
+        result.line(matches.get()+" of "+result.events+" events match");
+    }
+    private boolean matches(Event event){
+        LocalDate date=event.getDate();
+        if (from!=null&&date.isBefore(from)){
+            return false;
+        }
+        if (to!=null&&date.isAfter(to)){
+            return false;
+        }
+        return title==null||event.getTitle().toLowerCase().contains(title);
+    }
+    private void export(FileResult result){
+        Path target=outputFile(result.file, StorageBackends.JSON);
+        StorageBackend source=open(result.file);
+        try{
+            CalendarModel model=source.loadCalendar();
+            result.events=model.getEventCount();
+            if (!source.exportCalendar(source.captureSnapshot(model), target)){
+                result.problem("export to "+target+" failed");
+                return;
+            }
+        }
+        finally{
+            source.close();
+        }
+        result.line(result.events+" events exported to "+target);
+    }
+    private void convert(FileResult result){
+        Path target=outputFile(result.file, targetBackend);
+        StorageBackend source=open(result.file);
+        StorageBackend destination=StorageBackends.create(targetBackend, target);
+        try{
+            CalendarModel model=source.loadCalendar();
+            result.events=model.getEventCount();
+            if (!destination.compact(model)){
+                result.problem("conversion to "+target+" failed");
+                return;
+            }
+        }
+        finally{
+            source.close();
+            destination.close();
+        }
+        result.line(result.events+" events converted to "+target);
+    }
+    /**
+     * Parses an export on a worker thread; execute() adds its events to
+     * the store in input order.
+     */
+    private void parseExport(FileResult result){
+        StorageBackend reader=open(result.file);
+        try{
+            result.imported=reader.importCalendar(result.file, ImportListener.NONE);
+            result.events=result.imported!=null?result.imported.getEventCount():0;
+        }
+        finally{
+            reader.close();
+        }
+    }
+    /**
+     * Streams the events of a JSON file, or loads a store of another
+     * backend and hands over its events.
+     *
+     * @return the number of events read
+     */
+    private int read(Path file, Consumer<Event> sink) throws IOException{
+        StorageBackend source=open(file);
+        try{
+            if (source instanceof JsonStore){
+                return ((JsonStore) source).readEvents(file, sink);
+            }
+            List<Event> events=source.loadCalendar().getEvents();
+            events.forEach(sink);
+            return events.size();
+        }
+        finally{
+            source.close();
+        }
+    }
+    private static StorageBackend open(Path file){
+        return StorageBackends.create(backendFor(file), file);
+    }
+    private static String backendFor(Path file){
+        String name=file.getFileName().toString().toLowerCase();
+        if (name.endsWith(".bin")){
+            return StorageBackends.BINARY;
+        }
+        if (name.endsWith(".caldb")){
+            return StorageBackends.LOG;
+        }
+        return StorageBackends.JSON;
+    }
+    private static boolean isJson(Path file){
+        return StorageBackends.JSON.equals(backendFor(file));
+    }
+    private Path outputFile(Path input, String backend){
+        String name=input.getFileName().toString();
+        int dot=name.lastIndexOf('.');
+        String base=dot>0?name.substring(0, dot):name;
+        String defaultName=StorageBackends.getDefaultFileName(backend);
+        return outputDirectory.resolve(base+defaultName.substring(defaultName.lastIndexOf('.')));
+    }
+    private static String describe(Event event){
+        return event.getDate()+" "+event.getStartTime().toLocalTime()+"-"+event.getEndTime().toLocalTime()+" "+event.getTitle();
+    }
+    /**
+     * What one task found, buffered until its turn to be printed.
+     */
+    private static class FileResult{
+        private Path file;
+        private long bytes;
+        private int events;
+        private int problems;
+        private CalendarModel imported;
+        private StringBuilder output=new StringBuilder();
+        private FileResult(Path file){
+            this.file=file;
+        }
+        private void line(String text){
+            output.append(file).append(": ").append(text).append('\n');
+        }
+        private void problem(String text){
+            problems++;
+            line(text);
+        }
+    }
+}
@@ -23,15 +23,36 @@ package app;
  */
 import model.CalendarModel;
 import model.Event;
+import model.PersistentEventSet;
 import service.CalendarValidationService;
 import state.AppState;
+import state.UndoHistory;
+import state.UserPrefaces;
+import storage.AsyncStorageService;
+import storage.BackupStore;
+import storage.ImportListener;
 import storage.JsonStore;
+import storage.StorageBackend;
+import storage.StorageBackends;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 
 import calendar.CalendarQuery;
 import ai.*;
@@ -41,116 +62,420 @@ import java.awt.*;
 
 import ui.AIProgressDialog;
 public class CalendarController {
+	private static int LOAD_STAGE_EVENTS=20000;
 	private CalendarModel model;
 	private CalendarValidationService validationService;
 	private CalendarQuery query;
 	private AppState appState;
-	private JsonStore storage;
-	public CalendarController(AppState appState, JsonStore storage){
+	private StorageBackend storage;
+	private AutoSaveScheduler autoSaveScheduler;
+	private MonthPreloader monthPreloader;
+	private AsyncStorageService storageService;
+	private StorageFileWatcher fileWatcher;
+	private LocalApiServer apiServer;
+	private volatile CompletableFuture<Boolean> initialLoad=CompletableFuture.completedFuture(true);
+	private volatile CompletableFuture<Boolean> initialParse=CompletableFuture.completedFuture(true);
+	private ConcurrentLinkedQueue<List<Event>> pendingStages=new ConcurrentLinkedQueue<>();
+	private long loadStarted;
+	private int loadedEventCount;
+	private int loadedStageCount;
+	public CalendarController(AppState appState, StorageBackend storage, UserPrefaces preferences){
+		this(appState, storage, preferences, false);
+	}
+	/**
+	 * @param loadInBackground start with an empty calendar and load it with
+	 * loadCalendarInBackground(), so a window can be shown right away
+	 */
+	public CalendarController(AppState appState, StorageBackend storage, UserPrefaces preferences, boolean loadInBackground){
 		this.appState=appState;
 		this.model=appState.getCalendarModel();
 		this.storage=storage;
 		this.validationService=new CalendarValidationService();
 		this.query=new CalendarQuery(this.model);
-		loadCalendar();
-		Timer autoSaveTimer=new Timer(30000, e->{
-			if (hasUnsavedChanges()){
-				saveCalendar();
-				System.out.println("Auto-saved at "+new java.util.Date());
-			}
-		});
-		autoSaveTimer.start();
+		this.storageService=new AsyncStorageService(storage);
+		storageService.start();
+		if (loadInBackground){
+			loadCalendarInBackground();
+		}
+		else{
+			loadCalendar();
+		}
+		this.autoSaveScheduler=new AutoSaveScheduler(this, preferences);
+		autoSaveScheduler.start();
+		this.monthPreloader=new MonthPreloader(this);
+		monthPreloader.start();
+		this.fileWatcher=new StorageFileWatcher(this);
+		fileWatcher.start();
+	}
+	public CalendarController(AppState appState, StorageBackend storage){
+		this(appState, storage, new UserPrefaces());
 	}
 	public CalendarController(){
-		this.appState=new AppState();
-		this.model=appState.getCalendarModel();
-		this.storage=new JsonStore();
-		this.validationService=new CalendarValidationService();
-		this.query=new CalendarQuery(this.model);
-		loadCalendar();
-		Timer autoSaveTimer=new Timer(30000, e->{
-			if (hasUnsavedChanges()){
-				saveCalendar();
-				System.out.println("Auto-saved at "+new java.util.Date());
-			}
-		});
-		autoSaveTimer.start();
+		this(new AppState(), StorageBackends.createDefault());
 	}
 	public CalendarController(AppState appState){
-		this.appState=appState;
-		this.model=appState.getCalendarModel();
-		this.validationService=new CalendarValidationService();
-		this.query=new CalendarQuery(this.model);
-		loadCalendar();
-		Timer autoSaveTimer=new Timer(30000, e->{
-			if (hasUnsavedChanges()){
-				saveCalendar();
-				System.out.println("Auto-saved at "+new java.util.Date());
+		this(appState, StorageBackends.createDefault());
+	}
+	/**
+	 * Queues a save on the storage writer thread. The calendar is marked
+	 * clean only if nothing changed while the save was pending. An external
+	 * write the file watcher has not merged yet is merged first, so the save
+	 * does not replace it.
+	 */
+	public CompletableFuture<Boolean> saveCalendarAsync(){
+		awaitInitialLoad();
+		fileWatcher.mergePendingChanges();
+		long version=appState.getModelVersion();
+		return storageService.save(model).thenApply(success->{
+			if (success){
+				appState.markAsClean(version);
 			}
+			return success;
 		});
-		autoSaveTimer.start();
 	}
 	public boolean saveCalendar(){
-		boolean success=storage.saveCalendar(model);
-		if (success){
-			appState.markAsClean();
-		}
-		return success;
+		return saveCalendarAsync().join();
 	}
+	/**
+	 * Writes the calendar as a plain JSON file at the given path. Unlike the
+	 * store's own file, no checksum or backup generations are kept next to it.
+	 */
 	public boolean saveCalendarToFile(String filePath){
-		JsonStore customStorage=new JsonStore(filePath);
-		boolean success=customStorage.saveCalendar(model);
+		awaitInitialLoad();
+		boolean success=storage.exportCalendar(storage.captureSnapshot(model), java.nio.file.Paths.get(filePath));
 		if (success){
 			appState.markAsClean();
 		}
 		return success;
 	}
 	public boolean loadCalendar(){
-		CalendarModel loadedModel=storage.loadCalendar();
+		long loadStarted=StartupProfiler.start();
+		CalendarModel loadedModel=storage.loadCalendarAround(appState.getSelectedDate());
+		StartupProfiler.stop(StartupProfiler.Phase.STORAGE_LOAD, loadStarted);
 		if (loadedModel!=null){
 			model.clearEvents();
-			List<Event> events=loadedModel.getEvents();
-			for (Event event:events){
-				if (validationService.isValid(event, model)){
-					model.addEvent(event);
-				}
+			long validationStarted=StartupProfiler.start();
+			List<Event> accepted=validationService.selectValid(loadedModel.getEvents(), model);
+			StartupProfiler.stop(StartupProfiler.Phase.VALIDATION, validationStarted);
+			model.addEvents(accepted);
+			appState.beginBatch();
+			try{
+				appState.markAsClean();
+				appState.notifyEventsChanged();
+				appState.resetUndoHistory();
+			}
+			finally{
+				appState.endBatch();
 			}
-			appState.markAsClean();
-			appState.notifyEventsChanged();
 			return true;
 		}
 		return false;
 	}
+	/**
+	 * Reads the calendar on a background thread and adds it on the event
+	 * dispatch thread in stages: the month of the selected date first, so
+	 * the visible month fills in as soon as the file is parsed, then the
+	 * other months outward from it, about LOAD_STAGE_EVENTS at a time.
+	 * Events are validated as in loadCalendar; edits made before a stage
+	 * arrives are kept, like events merged by the MonthPreloader. Saves,
+	 * backups and exports wait for the load, so a partly loaded calendar is
+	 * never written.
+	 *
+	 * @return completes with whether the calendar could be read
+	 */
+	public synchronized CompletableFuture<Boolean> loadCalendarInBackground(){
+		if (!initialLoad.isDone()){
+			return initialLoad;
+		}
+		LocalDate focusDate=appState.getSelectedDate();
+		loadStarted=System.nanoTime();
+		loadedEventCount=0;
+		loadedStageCount=0;
+		initialLoad=new CompletableFuture<>();
+		initialParse=CompletableFuture.supplyAsync(()->{
+			long parseStarted=StartupProfiler.start();
+			CalendarModel loadedModel=storage.loadCalendarAround(focusDate);
+			StartupProfiler.stop(StartupProfiler.Phase.STORAGE_LOAD, parseStarted);
+			if (loadedModel==null){
+				return false;
+			}
+			for (List<Event> stage:splitIntoStages(loadedModel.getEvents(), YearMonth.from(focusDate))){
+				pendingStages.add(stage);
+				SwingUtilities.invokeLater(()->applyLoadedStages(1));
+			}
+			return true;
+		}, runnable->{
+			Thread thread=new Thread(runnable, "calendar-loader");
+			thread.setDaemon(true);
+			thread.start();
+		});
+		initialParse.whenComplete((loaded, error)->{
+			if (error!=null){
+				System.err.println("Failed to load calendar: "+error.getMessage());
+			}
+			SwingUtilities.invokeLater(()->applyLoadedStages(0));
+		});
+		return initialLoad;
+	}
+	/**
+	 * Completes once a background load has added every event; already
+	 * complete when the calendar was loaded in the constructor.
+	 */
+	public CompletableFuture<Boolean> getInitialLoad(){
+		return initialLoad;
+	}
+	public boolean isLoading(){
+		return !initialLoad.isDone();
+	}
+	/**
+	 * Groups events by month, nearest months to the focus first, and packs
+	 * whole months into stages. The focus month is always a stage of its
+	 * own. Months never share a date, so validating stage by stage accepts
+	 * the same events as validating the whole file.
+	 */
+	private static List<List<Event>> splitIntoStages(List<Event> events, YearMonth focusMonth){
+		Map<YearMonth, List<Event>> byMonth=new HashMap<>();
+		for (Event event:events){
+			byMonth.computeIfAbsent(YearMonth.from(event.getDate()), month->new ArrayList<>()).add(event);
+		}
+		List<YearMonth> months=new ArrayList<>(byMonth.keySet());
+		months.sort(Comparator.comparingLong((YearMonth month)->Math.abs(focusMonth.until(month, ChronoUnit.MONTHS))).thenComparing(Comparator.naturalOrder()));
+		List<List<Event>> stages=new ArrayList<>();
+		List<Event> stage=new ArrayList<>();
+		for (YearMonth month:months){
+			stage.addAll(byMonth.get(month));
+			if (month.equals(focusMonth)||stage.size()>=LOAD_STAGE_EVENTS){
+				stages.add(stage);
+				stage=new ArrayList<>();
+			}
+		}
+		if (!stage.isEmpty()){
+			stages.add(stage);
+		}
+		return stages;
+	}
+	/**
+	 * Adds up to the given number of parsed stages, and finishes the load
+	 * once the parse is over and no stage is left. Runs on the event
+	 * dispatch thread.
+	 */
+	private void applyLoadedStages(int maxStages){
+		for (int i=0;i<maxStages;i++){
+			List<Event> stage=pendingStages.poll();
+			if (stage==null){
+				break;
+			}
+			long validationStarted=StartupProfiler.start();
+			List<Event> accepted=validationService.selectValid(stage, model);
+			StartupProfiler.stop(StartupProfiler.Phase.VALIDATION, validationStarted);
+			if (!accepted.isEmpty()){
+				model.addEvents(accepted);
+				appState.notifyEventsLoaded(accepted);
+			}
+			if (loadedStageCount++==0){
+				System.out.println("Startup: first "+accepted.size()+" events shown after "+elapsedMillis(loadStarted)+" ms of loading");
+			}
+			loadedEventCount+=accepted.size();
+		}
+		if (pendingStages.isEmpty()&&initialParse.isDone()&&!initialLoad.isDone()){
+			boolean loaded=!initialParse.isCompletedExceptionally()&&initialParse.join();
+			System.out.println("Startup: "+loadedEventCount+" events loaded after "+elapsedMillis(loadStarted)+" ms");
+			initialLoad.complete(loaded);
+		}
+	}
+	/**
+	 * Blocks until a background load is complete. On the event dispatch
+	 * thread, which the remaining stages are waiting for, the parse is
+	 * awaited and the stages are added right here. Every operation that
+	 * writes the calendar out, or replaces, clears or merges into it, waits
+	 * first, so stages still queued are never applied on top of its result.
+	 */
+	private void awaitInitialLoad(){
+		if (initialLoad.isDone()){
+			return;
+		}
+		if (SwingUtilities.isEventDispatchThread()){
+			try{
+				initialParse.join();
+			}
+			catch (RuntimeException e){
+				// Reported by the loader; finish with what was read
+			}
+			applyLoadedStages(Integer.MAX_VALUE);
+		}
+		else{
+			initialLoad.join();
+		}
+	}
+	private static long elapsedMillis(long startNanos){
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime()-startNanos);
+	}
 	public boolean loadCalendarFromFile(String filePath){
+		awaitInitialLoad();
 		JsonStore customStorage=new JsonStore(filePath);
 		CalendarModel loadedModel=customStorage.loadCalendar();
 		if (loadedModel!=null){
+			synchronized (model){
+				model.clearEvents();
+				storage.recordEventsCleared();
+				List<Event> accepted=validationService.selectValid(loadedModel.getEvents(), model);
+				model.addEvents(accepted);
+				for (Event event:accepted){
+					storage.recordEventAdded(event);
+				}
+			}
+			appState.beginBatch();
+			try{
+				appState.markAsClean();
+				appState.notifyEventsChanged();
+				appState.resetUndoHistory();
+			}
+			finally{
+				appState.endBatch();
+			}
+			return true;
+		}
+		return false;
+	}
+	/**
+	 * Adds a month read in the background by the MonthPreloader. Events the
+	 * model already holds, such as ones imported before the month was read,
+	 * are skipped.
+	 */
+	public void mergeLoadedMonth(YearMonth month, List<Event> events){
+		if (storage.isMonthLoaded(month)){
+			return;
+		}
+		LocalDateTime from=month.atDay(1).atStartOfDay();
+		LocalDateTime to=month.plusMonths(1).atDay(1).atStartOfDay();
+		Set<Event> present=new HashSet<>(model.getEventsBetween(from, to));
+		List<Event> loaded=new ArrayList<>();
+		for (Event event:events){
+			if (!present.contains(event)&&validationService.isValid(event, model)){
+				model.addEvent(event);
+				loaded.add(event);
+			}
+		}
+		storage.markMonthLoaded(month);
+		if (!loaded.isEmpty()){
+			appState.notifyEventsLoaded(loaded);
+		}
+	}
+	/**
+	 * Applies events that another program added to or removed from the
+	 * storage file. Local edits made since are kept; the merged calendar is
+	 * saved like any other edit.
+	 */
+	public void mergeExternalChanges(List<Event> added, List<Event> removed){
+		awaitInitialLoad();
+		List<Event> appliedAdds=new ArrayList<>();
+		List<Event> appliedRemovals=new ArrayList<>();
+		appState.beginBatch();
+		try{
+			synchronized (model){
+				for (Event event:removed){
+					if (model.removeEvent(event)){
+						storage.recordEventDeleted(event);
+						appliedRemovals.add(event);
+					}
+				}
+				for (Event event:added){
+					if (!model.containsEvent(event)&&validationService.isValid(event, model)){
+						model.addEvent(event);
+						storage.recordEventAdded(event);
+						appliedAdds.add(event);
+					}
+				}
+			}
+			Event selected=appState.getSelectedEvent();
+			if (selected!=null&&appliedRemovals.contains(selected)){
+				appState.clearSelectedEvent();
+			}
+			int applied=appliedAdds.size()+appliedRemovals.size();
+			if (applied>0){
+				System.out.println("Merged "+applied+" external calendar changes");
+				appState.notifyEventsChanged(appliedAdds, appliedRemovals);
+			}
+		}
+		finally{
+			appState.endBatch();
+		}
+	}
+	public void shutdown(){
+		awaitInitialLoad();
+		stopApiServer();
+		autoSaveScheduler.stop();
+		monthPreloader.stop();
+		fileWatcher.mergePendingChanges();
+		fileWatcher.stop();
+		if (!hasUnsavedChanges()){
+			storageService.compact(model).join();
+		}
+		storageService.close();
+	}
+	public CompletableFuture<Boolean> createBackupAsync(){
+		awaitInitialLoad();
+		return storageService.backup(model);
+	}
+	public boolean createBackup(){
+		return createBackupAsync().join();
+	}
+	public List<BackupStore.Entry> listBackups(){
+		return storage.listBackups();
+	}
+	/**
+	 * Replaces the calendar with the newest backup taken at or before the
+	 * given time. The restored calendar is saved like any other edit.
+	 */
+	public boolean restoreBackup(Instant pointInTime){
+		awaitInitialLoad();
+		CalendarModel restoredModel=storage.restoreBackup(pointInTime);
+		if (restoredModel==null){
+			return false;
+		}
+		synchronized (model){
 			model.clearEvents();
-			List<Event> events=loadedModel.getEvents();
-			for (Event event:events){
+			storage.recordEventsCleared();
+			for (Event event:restoredModel.getEvents()){
 				if (validationService.isValid(event, model)){
 					model.addEvent(event);
+					storage.recordEventAdded(event);
 				}
 			}
-			appState.markAsClean();
+		}
+		appState.beginBatch();
+		try{
+			appState.clearSelectedEvent();
 			appState.notifyEventsChanged();
-			return true;
 		}
-		return false;
+		finally{
+			appState.endBatch();
+		}
+		return true;
 	}
-	public boolean createBackup(){
-		return storage.createManualBackup(model);
+	public CompletableFuture<Boolean> exportCalendarAsync(String exportPath){
+		awaitInitialLoad();
+		return storageService.export(model, java.nio.file.Paths.get(exportPath));
 	}
 	public boolean exportCalendar(String exportPath){
-		return storage.exportCalendar(model, java.nio.file.Paths.get(exportPath));
+		return exportCalendarAsync(exportPath).join();
 	}
 	public boolean importCalendar(String importPath){
-		CalendarModel importedModel=storage.importCalendar(java.nio.file.Paths.get(importPath));
-		if (importedModel!=null){
-			int importedCount=importEventsFromModel(importedModel);
-			return importedCount>0;
+		return importCalendar(java.nio.file.Paths.get(importPath), ImportListener.NONE)>0;
+	}
+	/**
+	 * Imports a JSON export with progress reporting. The file is parsed on
+	 * the calling thread, so callers with a UI should run this off the event
+	 * thread.
+	 *
+	 * @return the number of events added, 0 if the import was cancelled
+	 */
+	public int importCalendar(java.nio.file.Path importPath, ImportListener listener){
+		CalendarModel importedModel=storage.importCalendar(importPath, listener);
+		if (importedModel==null){
+			return 0;
 		}
-		return false;
+		return importEventsFromModel(importedModel);
 	}
 	public boolean hasUnsavedChanges(){
 		return appState.isUnsaved();
@@ -159,18 +484,20 @@ public class CalendarController {
 		return storage.saveFileExists();
 	}
 	public String getStorageInfo(){
-		return storage.getStorageInfo();
+		return storage.getStorageInfo()+"Writer: "+storageService.getMetrics()+"\n";
 	}
 	public Optional<Event> createEvent(String title, LocalDate date, LocalTime startTime, LocalTime endTime){
 		try{
 			Event newEvent=new Event(title, date, startTime, endTime);
-			if (validationService.isValid(newEvent, model)){
+			synchronized (model){
+				if (!validationService.isValid(newEvent, model)){
+					return Optional.empty();
+				}
 				model.addEvent(newEvent);
-				appState.notifyEventAdded(newEvent);
-				appState.markAsDirty();
-				return Optional.of(newEvent);
+				storage.recordEventAdded(newEvent);
 			}
-			return Optional.empty();
+			appState.notifyEventAdded(newEvent);
+			return Optional.of(newEvent);
 		}
 		catch (IllegalArgumentException exception){
 			return Optional.empty();
@@ -178,9 +505,11 @@ public class CalendarController {
 	}
 	public boolean createEventUnsafe(Event event){
 		try{
-			model.addEvent(event);
+			synchronized (model){
+				model.addEvent(event);
+				storage.recordEventAdded(event);
+			}
 			appState.notifyEventAdded(event);
-			appState.markAsDirty();
 			return true;
 		}
 		catch (Exception exception){
@@ -188,10 +517,6 @@ public class CalendarController {
 		}
 	}
 	public Optional<Event> updateEvent(Event originalEvent, String newTitle, LocalDate newDate, LocalTime newStartTime, LocalTime newEndTime){
-		boolean removed=model.removeEvent(originalEvent);
-		if (!removed){
-			return Optional.empty();
-		}
 		String titleUse;
 		LocalDate dateUse;
 		LocalTime startTimeUse;
@@ -220,43 +545,174 @@ public class CalendarController {
 		else{
 			endTimeUse=originalEvent.getEndTime().toLocalTime();
 		}
+		Event updatedEvent;
 		try{
-			Event updatedEvent=new Event(titleUse, dateUse, startTimeUse, endTimeUse);
-			if (validationService.isValid(updatedEvent, model)){
-				model.addEvent(updatedEvent);
-				appState.notifyEventModified(updatedEvent);
-				appState.markAsDirty();
-				if (originalEvent.equals(appState.getSelectedEvent())){
-					appState.setSelectedEvent(updatedEvent);
-				}
-				return Optional.of(updatedEvent);
+			updatedEvent=new Event(titleUse, dateUse, startTimeUse, endTimeUse);
+		}
+		catch (IllegalArgumentException exception){
+			return Optional.empty();
+		}
+		synchronized (model){
+			if (!model.removeEvent(originalEvent)){
+				return Optional.empty();
 			}
-			else{
+			if (!validationService.isValid(updatedEvent, model)){
 				model.addEvent(originalEvent);
 				return Optional.empty();
 			}
+			model.addEvent(updatedEvent);
+			storage.recordEventUpdated(originalEvent, updatedEvent);
 		}
-		catch (IllegalArgumentException exception){
-			model.addEvent(originalEvent);
-			return Optional.empty();
+		appState.beginBatch();
+		try{
+			appState.notifyEventModified(originalEvent, updatedEvent);
+			if (originalEvent.equals(appState.getSelectedEvent())){
+				appState.setSelectedEvent(updatedEvent);
+			}
+		}
+		finally{
+			appState.endBatch();
 		}
+		return Optional.of(updatedEvent);
 	}
 	public boolean deleteEvent(Event event){
-		boolean result=model.removeEvent(event);
+		boolean result;
+		synchronized (model){
+			result=model.removeEvent(event);
+			if (result){
+				storage.recordEventDeleted(event);
+			}
+		}
 		if (result){
-			appState.notifyEventDeleted(event);
-			appState.markAsDirty();
-			if (event.equals(appState.getSelectedEvent())){
-				appState.clearSelectedEvent();
+			appState.beginBatch();
+			try{
+				appState.notifyEventDeleted(event);
+				if (event.equals(appState.getSelectedEvent())){
+					appState.clearSelectedEvent();
+				}
+			}
+			finally{
+				appState.endBatch();
 			}
 		}
 		return result;
 	}
 	public void clearAllEvents(){
-		model.clearEvents();
-		appState.notifyEventsChanged();
-		appState.markAsDirty();
-		appState.clearSelectedEvent();
+		awaitInitialLoad();
+		synchronized (model){
+			model.clearEvents();
+			storage.recordEventsCleared();
+		}
+		appState.beginBatch();
+		try{
+			appState.notifyEventsChanged();
+			appState.clearSelectedEvent();
+		}
+		finally{
+			appState.endBatch();
+		}
+	}
+	/**
+	 * Reverts the last edit batch, such as a created, edited or deleted
+	 * event or a whole import. Events that no longer fit the calendar are
+	 * left out, and the undo step then keeps only what was applied.
+	 *
+	 * @return false when there is nothing to undo or only part of the step
+	 * could be applied
+	 */
+	public boolean undo(){
+		return applyHistoryChange(appState.getUndoHistory().undo());
+	}
+	public boolean redo(){
+		return applyHistoryChange(appState.getUndoHistory().redo());
+	}
+	public boolean canUndo(){
+		return appState.getUndoHistory().canUndo();
+	}
+	public boolean canRedo(){
+		return appState.getUndoHistory().canRedo();
+	}
+	private boolean applyHistoryChange(UndoHistory.Change change){
+		if (change==null){
+			return false;
+		}
+		List<Event> appliedAdds=new ArrayList<>();
+		List<Event> appliedRemovals=new ArrayList<>();
+		appState.beginBatch();
+		try{
+			synchronized (model){
+				for (Event event:change.getRemoved()){
+					if (model.removeEvent(event)){
+						storage.recordEventDeleted(event);
+						appliedRemovals.add(event);
+					}
+				}
+				for (Event event:change.getAdded()){
+					if (validationService.isValid(event, model)){
+						model.addEvent(event);
+						storage.recordEventAdded(event);
+						appliedAdds.add(event);
+					}
+				}
+			}
+			Event selected=appState.getSelectedEvent();
+			if (selected!=null&&appliedRemovals.contains(selected)){
+				appState.clearSelectedEvent();
+			}
+			if (!appliedAdds.isEmpty()||!appliedRemovals.isEmpty()){
+				appState.notifyHistoryApplied(appliedAdds, appliedRemovals);
+			}
+		}
+		finally{
+			appState.endBatch();
+		}
+		int skipped=change.getAdded().size()+change.getRemoved().size()-appliedAdds.size()-appliedRemovals.size();
+		if (skipped>0){
+			appState.getUndoHistory().applyPartially(change, appliedAdds, appliedRemovals);
+			System.err.println("Undo history step applied partially, "+skipped+" events skipped");
+			return false;
+		}
+		return true;
+	}
+	/**
+	 * Puts the calendar back to a snapshot taken with
+	 * AppState.createSnapshot(). Only the events that differ are added and
+	 * removed; they are recorded for storage like any edit and become one
+	 * undo step, and the selection and view follow the snapshot.
+	 */
+	public void restoreSnapshot(AppState.StateSnapshot snapshot){
+		awaitInitialLoad();
+		if (snapshot==null){
+			return;
+		}
+		appState.beginBatch();
+		try{
+			if (snapshot.getModel()==model){
+				List<Event> added=new ArrayList<>();
+				List<Event> removed=new ArrayList<>();
+				List<Event> appliedRemovals=new ArrayList<>();
+				synchronized (model){
+					PersistentEventSet.of(model.getSortedEvents()).diff(snapshot.getEvents(), added, removed);
+					for (Event event:removed){
+						if (model.removeEvent(event)){
+							storage.recordEventDeleted(event);
+							appliedRemovals.add(event);
+						}
+					}
+					for (Event event:added){
+						model.addEvent(event);
+						storage.recordEventAdded(event);
+					}
+				}
+				if (!added.isEmpty()||!appliedRemovals.isEmpty()){
+					appState.notifyEventsChanged(added, appliedRemovals);
+				}
+			}
+			appState.restoreFromSnapshot(snapshot);
+		}
+		finally{
+			appState.endBatch();
+		}
 	}
 	public List<Event> getEventsbyDate(LocalDate date){
 		return query.getEventsbyDate(date);
@@ -280,6 +736,9 @@ public class CalendarController {
 	public List<Event> searchEventsByTitle(String search){
 		return query.searchEventsByTitle(search);
 	}
+	public List<CalendarQuery.TimeSlot> getFreeSlots(LocalDate date, LocalTime dayStart, LocalTime dayEnd, Duration minimumLength){
+		return query.getFreeSlots(date, dayStart, dayEnd, minimumLength);
+	}
 	public boolean isValidEvent(Event event){
 		return validationService.isValid(event, model);
 	}
@@ -297,37 +756,132 @@ public class CalendarController {
 	}
 	public List<Event> addMultipleEvents(List<Event> events){
 		List<Event> added=new ArrayList<>();
-		for (Event event:events){
-			if (validationService.isValid(event, model)){
-				model.addEvent(event);
-				added.add(event);
+		synchronized (model){
+			for (Event event:events){
+				if (validationService.isValid(event, model)){
+					model.addEvent(event);
+					storage.recordEventAdded(event);
+					added.add(event);
+				}
 			}
 		}
 		if (!added.isEmpty()){
-			appState.notifyEventsChanged();
-			appState.markAsDirty();
+			appState.notifyEventsChanged(added, Collections.emptyList());
 		}
 		return added;
 	}
+	/**
+	 * Adds every event of another model that passes validation. The events
+	 * are validated as a batch and added with a single sort, so importing a
+	 * large file does not shift the event list once per event.
+	 */
 	public int importEventsFromModel(CalendarModel otherModel){
-		int num=0;
-		List<Event> events=otherModel.getEvents();
-		for (Event event:events){
-			if (validationService.isValid(event, model)){
-				model.addEvent(event);
-				num++;
+		awaitInitialLoad();
+		List<Event> accepted;
+		synchronized (model){
+			accepted=validationService.selectValid(otherModel.getEvents(), model);
+			if (accepted.isEmpty()){
+				return 0;
+			}
+			model.addEvents(accepted);
+			for (Event event:accepted){
+				storage.recordEventAdded(event);
 			}
 		}
-		if (num>0){
-			appState.notifyEventsChanged();
-			appState.markAsDirty();
+		appState.notifyEventsChanged(accepted, Collections.emptyList());
+		return accepted.size();
+	}
+	/**
+	 * Serves this controller over HTTP on the loopback interface. Port 0
+	 * picks a free port; getApiServer().getPort() tells which.
+	 *
+	 * @return false if the server is already running or the port is taken
+	 */
+	public synchronized boolean startApiServer(int port){
+		if (apiServer!=null){
+			return false;
+		}
+		LocalApiServer server=new LocalApiServer(this, port);
+		if (!server.start()){
+			return false;
+		}
+		apiServer=server;
+		return true;
+	}
+	public synchronized void stopApiServer(){
+		if (apiServer!=null){
+			apiServer.stop();
+			apiServer=null;
 		}
-		return num;
+	}
+	public synchronized LocalApiServer getApiServer(){
+		return apiServer;
+	}
+	/**
+	 * Starts collecting edits that are validated together and applied as
+	 * one change by EventTransaction.commit().
+	 */
+	public EventTransaction beginTransaction(){
+		return new EventTransaction(this);
+	}
+	/**
+	 * Applies a validated transaction: the event list is rebuilt once and
+	 * one batch announces every added and removed event.
+	 *
+	 * @param replacements what each edited event became, null if deleted,
+	 * so the selection can follow it
+	 * @return false, changing nothing, if a removed event is not held
+	 */
+	boolean applyTransaction(List<Event> removed, List<Event> added, Map<Event, Event> replacements){
+		appState.beginBatch();
+		try{
+			synchronized (model){
+				if (!model.replaceEvents(removed, added)){
+					return false;
+				}
+				for (Event event:removed){
+					storage.recordEventDeleted(event);
+				}
+				for (Event event:added){
+					storage.recordEventAdded(event);
+				}
+			}
+			appState.notifyEventsChanged(added, removed);
+			Event selected=appState.getSelectedEvent();
+			if (selected!=null&&replacements.containsKey(selected)){
+				Event replacement=replacements.get(selected);
+				if (replacement!=null){
+					appState.setSelectedEvent(replacement);
+				}
+				else{
+					appState.clearSelectedEvent();
+				}
+			}
+			else if (selected!=null&&removed.contains(selected)){
+				appState.clearSelectedEvent();
+			}
+			return true;
+		}
+		finally{
+			appState.endBatch();
+		}
+	}
+	public MonthPreloader getMonthPreloader(){
+		return monthPreloader;
+	}
+	public AutoSaveScheduler getAutoSaveScheduler(){
+		return autoSaveScheduler;
 	}
 	public AppState getAppState(){
 		return appState;
 	}
-	public JsonStore getStorage(){
+	public StorageFileWatcher getFileWatcher(){
+		return fileWatcher;
+	}
+	public AsyncStorageService getStorageService(){
+		return storageService;
+	}
+	public StorageBackend getStorage(){
 		return storage;
 	}
 	public void setSelectedDate(LocalDate date){
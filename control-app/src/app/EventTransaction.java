@@ -0,0 +1,188 @@
+package app;
+/*
+ * A set of event edits applied all at once.
+ *
+ * Responsibilities:
+ * - Collect additions, updates and deletions, including shifting,
+ *   renaming and deleting many events
+ * - Validate the calendar they would produce once, on commit
+ * - Apply everything or nothing through CalendarController
+ *
+ * Java data types used:
+ * - List<Event>
+ * - Map<Event, Event> (what each edited calendar event became)
+ *
+ * Java technologies involved:
+ * - Unit of work pattern
+ *
+ * Design intent:
+ * Operations only change the transaction's own lists; the calendar is not
+ * touched until commit. An event added and then edited or deleted inside
+ * the same transaction never reaches the calendar, so moving a week of
+ * events past each other only has to be valid at the end, not after
+ * every step. Committing rebuilds the event list once and announces one
+ * change batch, which marks the calendar unsaved once and is one undo
+ * step.
+ */
+import model.Event;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class EventTransaction{
+    private CalendarController controller;
+    private List<Event> added=new ArrayList<>();
+    private List<Event> removed=new ArrayList<>();
+    private Map<Event, Event> replacements=new HashMap<>();
+    private Map<Event, Event> originals=new HashMap<>();
+    private Map<Event, Integer> addedCounts=new HashMap<>();
+    private List<String> problems=new ArrayList<>();
+    private boolean finished;
+    EventTransaction(CalendarController controller){
+        this.controller=controller;
+    }
+    public EventTransaction add(Event event){
+        if (checkOpen()){
+            append(event);
+        }
+        return this;
+    }
+    public EventTransaction delete(Event event){
+        if (checkOpen()){
+            remove(event);
+        }
+        return this;
+    }
+    public EventTransaction update(Event originalEvent, Event updatedEvent){
+        if (checkOpen()){
+            Event original=originals.getOrDefault(originalEvent, originalEvent);
+            remove(originalEvent);
+            append(updatedEvent);
+            replacements.put(original, updatedEvent);
+            originals.put(updatedEvent, original);
+        }
+        return this;
+    }
+    /**
+     * Moves events by the given amount, keeping their length. An event
+     * that would no longer start and end on the same day fails the commit.
+     */
+    public EventTransaction shift(Collection<Event> events, Duration amount){
+        for (Event event:events){
+            LocalDateTime start=event.getStartTime().plus(amount);
+            LocalDateTime end=event.getEndTime().plus(amount);
+            if (!start.toLocalDate().equals(end.toLocalDate())){
+                fail(event.getTitle()+" would end on another day");
+                continue;
+            }
+            update(event, new Event(event.getTitle(), start.toLocalDate(), start.toLocalTime(), end.toLocalTime()));
+        }
+        return this;
+    }
+    public EventTransaction rename(Collection<Event> events, String newTitle){
+        for (Event event:events){
+            update(event, new Event(newTitle, event.getDate(), event.getStartTime().toLocalTime(), event.getEndTime().toLocalTime()));
+        }
+        return this;
+    }
+    /**
+     * Deletes every event dated from startDate to endDate, inclusive.
+     */
+    public EventTransaction deleteRange(LocalDate startDate, LocalDate endDate){
+        for (Event event:controller.getModel().getEventsBetween(startDate.atStartOfDay(), endDate.plusDays(1).atStartOfDay())){
+            delete(event);
+        }
+        return this;
+    }
+    /**
+     * Validates the resulting calendar and applies the transaction as one
+     * change. A transaction can be committed or rolled back only once.
+     *
+     * @return false, leaving the calendar unchanged, when an operation or
+     * the resulting calendar is not valid; getProblems() says why
+     */
+    public boolean commit(){
+        if (!checkOpen()){
+            return false;
+        }
+        finished=true;
+        if (!problems.isEmpty()){
+            return false;
+        }
+        if (added.isEmpty()&&removed.isEmpty()){
+            return true;
+        }
+        problems.addAll(controller.getValidationService().findConflicts(controller.getModel(), removed, added));
+        if (!problems.isEmpty()){
+            return false;
+        }
+        if (!controller.applyTransaction(removed, added, replacements)){
+            problems.add("An edited or deleted event is not in the calendar");
+            return false;
+        }
+        return true;
+    }
+    /**
+     * Drops every collected operation without touching the calendar.
+     */
+    public void rollback(){
+        finished=true;
+        added.clear();
+        removed.clear();
+        replacements.clear();
+        originals.clear();
+        addedCounts.clear();
+    }
+    public boolean isFinished(){
+        return finished;
+    }
+    public int getOperationCount(){
+        return added.size()+removed.size();
+    }
+    public List<String> getProblems(){
+        return Collections.unmodifiableList(problems);
+    }
+    /**
+     * Takes back an addition made earlier in this transaction, or removes
+     * the event from the calendar on commit.
+     */
+    private void remove(Event event){
+        Integer count=addedCounts.get(event);
+        if (count==null){
+            removed.add(event);
+            return;
+        }
+        if (count==1){
+            addedCounts.remove(event);
+        }
+        else{
+            addedCounts.put(event, count-1);
+        }
+        added.remove(added.lastIndexOf(event));
+        Event original=originals.remove(event);
+        if (original!=null){
+            replacements.put(original, null);
+        }
+    }
+    private void append(Event event){
+        added.add(event);
+        addedCounts.merge(event, 1, Integer::sum);
+    }
+    private boolean checkOpen(){
+        if (finished){
+            fail("The transaction was already committed or rolled back");
+            return false;
+        }
+        return true;
+    }
+    private void fail(String problem){
+        problems.add(problem);
+    }
+}
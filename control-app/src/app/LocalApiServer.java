@@ -0,0 +1,644 @@
+package app;
+/*
+ * Local HTTP/JSON API for the calendar.
+ *
+ * Responsibilities:
+ * - Serve events by date, date range and title search, and the free slots
+ *   of a day, on the loopback interface
+ * - Create, update and delete events through CalendarController
+ * - Answer repeated queries with 304 Not Modified while the model version
+ *   is unchanged
+ * - Split large event lists into pages
+ * - Admit only requests that carry this session's bearer token and name
+ *   the loopback address as their host
+ *
+ * Java data types used:
+ * - HttpServer
+ * - ExecutorService
+ * - Map<String, String>
+ *
+ * Java technologies involved:
+ * - com.sun.net.httpserver
+ * - Virtual threads, where the JVM has them
+ * - HTTP conditional requests (ETag, If-None-Match, If-Match)
+ *
+ * Design intent:
+ * Event lists are written as calendar documents with JsonEventWriter, so
+ * a page can be read by JsonEventReader and every tool that reads an
+ * export; totals and the next page travel in headers. The ETag is the
+ * model version, which every edit bumps, so an overlay polling a view
+ * gets an empty 304 until something changes. The version starts over at
+ * every launch, so the ETag also carries a random id for this process and
+ * a tag from before a restart never matches. Mutations run on the event
+ * dispatch thread like edits made in the UI, and If-Match lets a script
+ * refuse to overwrite changes it has not seen. Requests are handled on
+ * virtual threads on JVMs that have them and a cached pool otherwise.
+ * Binding to loopback does not keep web pages out: a page can POST to
+ * 127.0.0.1 without a preflight, and DNS rebinding lets it read replies.
+ * So every start writes a new random token to an owner-only file next to
+ * the settings, and requests without it, with a foreign Host, with any
+ * Origin, or with a body that is not JSON are turned away.
+ */
+import calendar.CalendarQuery;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import model.Event;
+import storage.JsonEventReader;
+import storage.JsonEventWriter;
+import java.awt.EventQueue;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+public class LocalApiServer{
+    public static String PORT_PROPERTY="calendar.api.port";
+    public static int DEFAULT_PAGE_SIZE=500;
+    public static int MAX_PAGE_SIZE=5000;
+    private static LocalTime DEFAULT_DAY_START=LocalTime.of(8, 0);
+    private static LocalTime DEFAULT_DAY_END=LocalTime.of(18, 0);
+    private static int DEFAULT_SLOT_MINUTES=30;
+    private static String PROCESS_EPOCH=Long.toString(ThreadLocalRandom.current().nextLong()&Long.MAX_VALUE, 36);
+    private static String TOKEN_FILE_NAME="api.token";
+    private static int MAX_BODY_BYTES=8*1024*1024;
+    private CalendarController controller;
+    private int port;
+    private String token;
+    private Path tokenPath=Paths.get(System.getProperty("user.home"), ".calendarapp", TOKEN_FILE_NAME);
+    private HttpServer server;
+    private ExecutorService executor;
+    public LocalApiServer(CalendarController controller, int port){
+        this.controller=controller;
+        this.port=port;
+    }
+    /**
+     * @return false if the port could not be bound
+     */
+    public synchronized boolean start(){
+        if (server!=null){
+            return true;
+        }
+        try{
+            server=HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        }
+        catch (IOException e){
+            System.err.println("Failed to start API server on port "+port+": "+e.getMessage());
+            return false;
+        }
+        try{
+            token=createToken();
+            writeToken();
+        }
+        catch (IOException e){
+            System.err.println("Failed to write API token to "+tokenPath+": "+e.getMessage());
+            server=null;
+            return false;
+        }
+        server.createContext("/api/version", handler(this::handleVersion));
+        server.createContext("/api/events", handler(this::handleEvents));
+        server.createContext("/api/free-slots", handler(this::handleFreeSlots));
+        executor=createExecutor();
+        server.setExecutor(executor);
+        server.start();
+        port=server.getAddress().getPort();
+        System.out.println("Calendar API listening on http://"+server.getAddress().getHostString()+":"+port+"/api/, token in "+tokenPath);
+        return true;
+    }
+    private static String createToken(){
+        byte[] bytes=new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    /**
+     * Writes the token readable by the owner only, like the settings key.
+     */
+    private void writeToken() throws IOException{
+        Files.createDirectories(tokenPath.getParent());
+        Files.deleteIfExists(tokenPath);
+        Files.createFile(tokenPath);
+        try{
+            Files.setPosixFilePermissions(tokenPath, PosixFilePermissions.fromString("rw-------"));
+        }
+        catch (UnsupportedOperationException e){
+            // Windows: rely on the permissions of the user's directory
+        }
+        Files.writeString(tokenPath, token);
+    }
+    public synchronized void stop(){
+        if (server==null){
+            return;
+        }
+        server.stop(0);
+        try{
+            Files.deleteIfExists(tokenPath);
+        }
+        catch (IOException e){
+            System.err.println("Failed to remove API token: "+e.getMessage());
+        }
+        executor.shutdown();
+        try{
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        server=null;
+        executor=null;
+    }
+    public synchronized boolean isRunning(){
+        return server!=null;
+    }
+    /**
+     * The bound port, once started; the requested one before that.
+     */
+    public synchronized int getPort(){
+        return port;
+    }
+    /**
+     * The token clients send as "Authorization: Bearer <token>"; a new one
+     * is made on every start.
+     */
+    public synchronized String getToken(){
+        return token;
+    }
+    public Path getTokenPath(){
+        return tokenPath;
+    }
+    public void setTokenPath(Path tokenPath){
+        this.tokenPath=tokenPath;
+    }
+    /**
+     * Virtual threads make a blocked request cost almost nothing, but they
+     * are only final from Java 21, so the factory is looked up at runtime.
+     */
+    private static ExecutorService createExecutor(){
+        try{
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException|RuntimeException e){
+            return Executors.newCachedThreadPool(runnable->{
+                Thread thread=new Thread(runnable, "calendar-api");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    private interface Route{
+        void handle(HttpExchange exchange, Map<String, String> parameters) throws IOException;
+    }
+    private HttpHandler handler(Route route){
+        return exchange->{
+            try{
+                checkAccess(exchange);
+                route.handle(exchange, parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+            catch (RequestException e){
+                sendError(exchange, e.status, e.getMessage());
+            }
+            catch (DateTimeParseException|IllegalArgumentException e){
+                sendError(exchange, 400, e.getMessage());
+            }
+            catch (IOException|RuntimeException e){
+                System.err.println("API request failed: "+exchange.getRequestMethod()+" "+exchange.getRequestURI()+": "+e);
+                sendError(exchange, 500, String.valueOf(e.getMessage()));
+            }
+            finally{
+                exchange.close();
+            }
+        };
+    }
+    /**
+     * Refuses requests that do not come from a local client holding the
+     * token.
+     */
+    private void checkAccess(HttpExchange exchange){
+        Headers headers=exchange.getRequestHeaders();
+        String host=headers.getFirst("Host");
+        if (host==null||!(host.equals("127.0.0.1:"+port)||host.equals("localhost:"+port))){
+            throw new RequestException(403, "Host must be 127.0.0.1:"+port+" or localhost:"+port);
+        }
+        if (headers.containsKey("Origin")){
+            throw new RequestException(403, "Requests from web pages are not accepted");
+        }
+        String authorization=headers.getFirst("Authorization");
+        String expected="Bearer "+token;
+        if (authorization==null||!MessageDigest.isEqual(authorization.getBytes(StandardCharsets.UTF_8), expected.getBytes(StandardCharsets.UTF_8))){
+            exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+            throw new RequestException(401, "Missing or wrong bearer token");
+        }
+    }
+    private void handleVersion(HttpExchange exchange, Map<String, String> parameters) throws IOException{
+        if (!allowMethods(exchange, "GET")){
+            return;
+        }
+        long version=controller.getAppState().getModelVersion();
+        if (notModified(exchange, version)){
+            return;
+        }
+        sendJson(exchange, 200, "{\"version\": "+version
+            +", \"events\": "+controller.getEventCount()
+            +", \"unsaved\": "+controller.hasUnsavedChanges()+"}");
+    }
+    /**
+     * GET takes one of date, from and to, or q, plus offset and limit.
+     * POST adds the events of a calendar document. PUT replaces the event
+     * named by title, date, startTime and endTime with the single event in
+     * the body, and DELETE removes it.
+     */
+    private void handleEvents(HttpExchange exchange, Map<String, String> parameters) throws IOException{
+        if (!allowMethods(exchange, "GET", "POST", "PUT", "DELETE")){
+            return;
+        }
+        switch (exchange.getRequestMethod()){
+            case "GET":
+                getEvents(exchange, parameters);
+                break;
+            case "POST":
+                createEvents(exchange);
+                break;
+            case "PUT":
+                updateEvent(exchange, parameters);
+                break;
+            default:
+                deleteEvent(exchange, parameters);
+                break;
+        }
+    }
+    private void getEvents(HttpExchange exchange, Map<String, String> parameters) throws IOException{
+        long version=controller.getAppState().getModelVersion();
+        if (notModified(exchange, version)){
+            return;
+        }
+        List<Event> events;
+        if (parameters.containsKey("date")){
+            events=controller.getEventsbyDate(LocalDate.parse(parameters.get("date")));
+        }
+        else if (parameters.containsKey("from")||parameters.containsKey("to")){
+            LocalDate from=LocalDate.parse(required(parameters, "from"));
+            LocalDate to=LocalDate.parse(required(parameters, "to"));
+            events=controller.getEventsByDateRange(from, to);
+        }
+        else if (parameters.containsKey("q")){
+            events=controller.searchEventsByTitle(parameters.get("q"));
+        }
+        else{
+            events=controller.getSortedEvents();
+        }
+        sendPage(exchange, 200, events, parameters);
+    }
+    private void createEvents(HttpExchange exchange) throws IOException{
+        List<Event> events=readBody(exchange);
+        Reply reply=onEventThread(()->{
+            Reply conflict=checkIfMatch(exchange);
+            if (conflict!=null){
+                return conflict;
+            }
+            List<Event> added=controller.addMultipleEvents(events);
+            exchange.getResponseHeaders().set("X-Rejected-Count", String.valueOf(events.size()-added.size()));
+            if (added.isEmpty()){
+                return Reply.error(409, "No event was added; they overlap existing events or are not valid");
+            }
+            return new Reply(201, added);
+        });
+        send(exchange, reply);
+    }
+    private void updateEvent(HttpExchange exchange, Map<String, String> parameters) throws IOException{
+        Event original=eventFrom(parameters);
+        List<Event> body=readBody(exchange);
+        if (body.size()!=1){
+            sendError(exchange, 400, "Expected exactly one event in the body, got "+body.size());
+            return;
+        }
+        Event replacement=body.get(0);
+        Reply reply=onEventThread(()->{
+            Reply conflict=checkIfMatch(exchange);
+            if (conflict!=null){
+                return conflict;
+            }
+            if (!controller.getModel().getEventsByDate(original.getDate()).contains(original)){
+                return Reply.error(404, "No such event");
+            }
+            Optional<Event> updated=controller.updateEvent(original, replacement.getTitle(), replacement.getDate(), replacement.getStartTime().toLocalTime(), replacement.getEndTime().toLocalTime());
+            if (!updated.isPresent()){
+                return Reply.error(409, "The changed event overlaps another event or is not valid");
+            }
+            List<Event> result=new ArrayList<>();
+            result.add(updated.get());
+            return new Reply(200, result);
+        });
+        send(exchange, reply);
+    }
+    private void deleteEvent(HttpExchange exchange, Map<String, String> parameters) throws IOException{
+        Event event=eventFrom(parameters);
+        Reply reply=onEventThread(()->{
+            Reply conflict=checkIfMatch(exchange);
+            if (conflict!=null){
+                return conflict;
+            }
+            if (!controller.deleteEvent(event)){
+                return Reply.error(404, "No such event");
+            }
+            return new Reply(204, null);
+        });
+        send(exchange, reply);
+    }
+    /**
+     * GET with date and optionally dayStart, dayEnd and minutes, the
+     * shortest slot worth listing.
+     */
+    private void handleFreeSlots(HttpExchange exchange, Map<String, String> parameters) throws IOException{
+        if (!allowMethods(exchange, "GET")){
+            return;
+        }
+        long version=controller.getAppState().getModelVersion();
+        if (notModified(exchange, version)){
+            return;
+        }
+        LocalDate date=LocalDate.parse(required(parameters, "date"));
+        LocalTime dayStart=parameters.containsKey("dayStart")?LocalTime.parse(parameters.get("dayStart")):DEFAULT_DAY_START;
+        LocalTime dayEnd=parameters.containsKey("dayEnd")?LocalTime.parse(parameters.get("dayEnd")):DEFAULT_DAY_END;
+        int minutes=parameters.containsKey("minutes")?Integer.parseInt(parameters.get("minutes")):DEFAULT_SLOT_MINUTES;
+        List<CalendarQuery.TimeSlot> slots=controller.getFreeSlots(date, dayStart, dayEnd, Duration.ofMinutes(Math.max(1, minutes)));
+        StringBuilder json=new StringBuilder();
+        json.append("{\"date\": \"").append(date).append("\", \"slots\": [");
+        for (int i=0;i<slots.size();i++){
+            CalendarQuery.TimeSlot slot=slots.get(i);
+            json.append(i>0?", ":"")
+                .append("{\"start\": \"").append(slot.getStart())
+                .append("\", \"end\": \"").append(slot.getEnd())
+                .append("\", \"minutes\": ").append(slot.getDuration().toMinutes())
+                .append('}');
+        }
+        json.append("]}");
+        sendJson(exchange, 200, json.toString());
+    }
+    /**
+     * Writes one page of events. X-Total-Count holds the number of events
+     * on all pages and a Link header points to the next page, if any.
+     */
+    private void sendPage(HttpExchange exchange, int status, List<Event> events, Map<String, String> parameters) throws IOException{
+        int offset=Math.max(0, parameters.containsKey("offset")?Integer.parseInt(parameters.get("offset")):0);
+        int limit=parameters.containsKey("limit")?Integer.parseInt(parameters.get("limit")):DEFAULT_PAGE_SIZE;
+        limit=Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+        int end=(int) Math.min((long) offset+limit, events.size());
+        List<Event> page=offset<end?events.subList(offset, end):new ArrayList<>();
+        Headers headers=exchange.getResponseHeaders();
+        headers.set("X-Total-Count", String.valueOf(events.size()));
+        if (end<events.size()){
+            Map<String, String> next=new LinkedHashMap<>(parameters);
+            next.put("offset", String.valueOf(end));
+            next.put("limit", String.valueOf(limit));
+            headers.set("Link", "<"+exchange.getRequestURI().getPath()+"?"+formatQuery(next)+">; rel=\"next\"");
+        }
+        headers.set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+        JsonEventWriter writer=new JsonEventWriter(exchange.getResponseBody());
+        writer.writeCalendar(page, LocalDateTime.now());
+        writer.close();
+    }
+    private void send(HttpExchange exchange, Reply reply) throws IOException{
+        if (reply.error!=null){
+            sendError(exchange, reply.status, reply.error);
+        }
+        else if (reply.events==null){
+            setETag(exchange, controller.getAppState().getModelVersion());
+            exchange.sendResponseHeaders(reply.status, -1);
+        }
+        else{
+            setETag(exchange, controller.getAppState().getModelVersion());
+            sendPage(exchange, reply.status, reply.events, new LinkedHashMap<>());
+        }
+    }
+    private void sendJson(HttpExchange exchange, int status, String json) throws IOException{
+        byte[] body=json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out=exchange.getResponseBody()){
+            out.write(body);
+        }
+    }
+    private void sendError(HttpExchange exchange, int status, String message){
+        try{
+            sendJson(exchange, status, "{\"error\": \""+escape(message)+"\"}");
+        }
+        catch (IOException e){
+            System.err.println("Failed to send API error: "+e.getMessage());
+        }
+    }
+    private boolean allowMethods(HttpExchange exchange, String... methods) throws IOException{
+        for (String method:methods){
+            if (method.equals(exchange.getRequestMethod())){
+                return true;
+            }
+        }
+        exchange.getResponseHeaders().set("Allow", String.join(", ", methods));
+        sendError(exchange, 405, exchange.getRequestMethod()+" is not allowed here");
+        return false;
+    }
+    /**
+     * Sets the ETag for the version and answers 304 when the client
+     * already holds it.
+     */
+    private boolean notModified(HttpExchange exchange, long version) throws IOException{
+        String etag=setETag(exchange, version);
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)){
+            exchange.sendResponseHeaders(304, -1);
+            return true;
+        }
+        return false;
+    }
+    private Reply checkIfMatch(HttpExchange exchange){
+        String ifMatch=exchange.getRequestHeaders().getFirst("If-Match");
+        if (ifMatch==null||matches(ifMatch, etag(controller.getAppState().getModelVersion()))){
+            return null;
+        }
+        return Reply.error(412, "The calendar changed since version "+ifMatch);
+    }
+    private static String setETag(HttpExchange exchange, long version){
+        String etag=etag(version);
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        return etag;
+    }
+    private static String etag(long version){
+        return "\""+PROCESS_EPOCH+"-v"+version+"\"";
+    }
+    private static boolean matches(String header, String etag){
+        if (header==null){
+            return false;
+        }
+        for (String candidate:header.split(",")){
+            String tag=candidate.trim();
+            if (tag.startsWith("W/")){
+                tag=tag.substring(2);
+            }
+            if (tag.equals("*")||tag.equals(etag)){
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Reads a calendar document of at most MAX_BODY_BYTES sent as
+     * application/json.
+     */
+    private static List<Event> readBody(HttpExchange exchange) throws IOException{
+        String contentType=exchange.getRequestHeaders().getFirst("Content-Type");
+        if (contentType==null||!contentType.toLowerCase().split(";")[0].trim().equals("application/json")){
+            throw new RequestException(415, "Content-Type must be application/json");
+        }
+        byte[] body;
+        try (InputStream in=exchange.getRequestBody()){
+            body=in.readNBytes(MAX_BODY_BYTES+1);
+        }
+        if (body.length>MAX_BODY_BYTES){
+            throw new RequestException(413, "Request body is larger than "+MAX_BODY_BYTES+" bytes");
+        }
+        List<Event> events=new ArrayList<>();
+        try (JsonEventReader reader=new JsonEventReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))){
+            reader.readEvents(events::add);
+        }
+        catch (IOException e){
+            throw new IllegalArgumentException("Malformed calendar document: "+e.getMessage());
+        }
+        return events;
+    }
+    private static Event eventFrom(Map<String, String> parameters){
+        return new Event(required(parameters, "title"),
+            LocalDate.parse(required(parameters, "date")),
+            LocalTime.parse(required(parameters, "startTime")),
+            LocalTime.parse(required(parameters, "endTime")));
+    }
+    private static String required(Map<String, String> parameters, String name){
+        String value=parameters.get(name);
+        if (value==null||value.isEmpty()){
+            throw new IllegalArgumentException("Missing parameter: "+name);
+        }
+        return value;
+    }
+    /**
+     * Runs an edit on the event dispatch thread, where the UI makes its
+     * edits, and waits for it.
+     */
+    private static Reply onEventThread(Supplier<Reply> action) throws IOException{
+        if (EventQueue.isDispatchThread()){
+            return action.get();
+        }
+        AtomicReference<Reply> reply=new AtomicReference<>();
+        try{
+            EventQueue.invokeAndWait(()->reply.set(action.get()));
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the event thread");
+        }
+        catch (InvocationTargetException e){
+            Throwable cause=e.getCause();
+            if (cause instanceof RuntimeException){
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        return reply.get();
+    }
+    private static Map<String, String> parseQuery(String rawQuery){
+        Map<String, String> parameters=new LinkedHashMap<>();
+        if (rawQuery==null||rawQuery.isEmpty()){
+            return parameters;
+        }
+        for (String pair:rawQuery.split("&")){
+            int equals=pair.indexOf('=');
+            String name=equals<0?pair:pair.substring(0, equals);
+            String value=equals<0?"":pair.substring(equals+1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+    private static String formatQuery(Map<String, String> parameters){
+        StringBuilder query=new StringBuilder();
+        for (Map.Entry<String, String> parameter:parameters.entrySet()){
+            if (query.length()>0){
+                query.append('&');
+            }
+            query.append(URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8))
+                .append('=')
+                .append(URLEncoder.encode(parameter.getValue(), StandardCharsets.UTF_8));
+        }
+        return query.toString();
+    }
+    private static String escape(String text){
+        StringBuilder escaped=new StringBuilder(text.length());
+        for (int i=0;i<text.length();i++){
+            char c=text.charAt(i);
+            if (c=='"'||c=='\\'){
+                escaped.append('\\').append(c);
+            }
+            else if (c<0x20){
+                escaped.append(String.format("\\u%04x", (int) c));
+            }
+            else{
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+    /**
+     * A request refused with a specific status.
+     */
+    private static class RequestException extends RuntimeException{
+        private int status;
+        private RequestException(int status, String message){
+            super(message);
+            this.status=status;
+        }
+    }
+    /**
+     * The outcome of an edit, decided on the event thread and sent after.
+     */
+    private static class Reply{
+        private int status;
+        private List<Event> events;
+        private String error;
+        private Reply(int status, List<Event> events){
+            this.status=status;
+            this.events=events;
+        }
+        private static Reply error(int status, String message){
+            Reply reply=new Reply(status, null);
+            reply.error=message;
+            return reply;
+        }
+    }
+}
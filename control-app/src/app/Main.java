@@ -5,6 +5,7 @@ package app;
  * Responsibilities:
  * - Contain the public static void main(String[] args)
  * - Delegate startup to AppLauncher
+ * - Hand "batch" command lines to BatchCli
  *
  * Java data types used:
  * - String[]
@@ -16,8 +17,15 @@ package app;
  * Keeps startup logic separate from application wiring.
  * Makes future testing and alternate launch modes easier.
  */
+
+import java.util.Arrays;
+
 public class Main {
     public static void main(String[] args){
+        StartupProfiler.markMainEntered();
+        if (args.length>0&&BatchCli.COMMAND.equals(args[0])){
+            System.exit(BatchCli.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
         AppLauncher launcher=new AppLauncher();
         if (args.length>0){
             String storagePath=args[0];
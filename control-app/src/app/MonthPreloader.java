@@ -0,0 +1,119 @@
+package app;
+/*
+ * Background loader for month-partitioned storage.
+ *
+ * Responsibilities:
+ * - Watch the selected date
+ * - Read the selected month and its neighbours off the EDT
+ * - Hand loaded months to the controller on the EDT
+ *
+ * Java data types used:
+ * - ExecutorService
+ * - YearMonth
+ * - Set<YearMonth>
+ *
+ * Java technologies involved:
+ * - java.util.concurrent executors
+ * - Observer pattern
+ * - SwingUtilities.invokeLater
+ *
+ * Design intent:
+ * Navigating to a month never blocks on disk; does nothing unless the
+ * store uses month partitions.
+ */
+import model.Event;
+import state.AppState;
+import storage.StorageBackend;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
+
+public class MonthPreloader implements PropertyChangeListener{
+    private static int DEFAULT_RADIUS=1;
+    private CalendarController controller;
+    private AppState appState;
+    private StorageBackend storage;
+    private ExecutorService executor;
+    private Set<YearMonth> inFlight=new HashSet<>();
+    private int radius=DEFAULT_RADIUS;
+    public MonthPreloader(CalendarController controller){
+        this.controller=controller;
+        this.appState=controller.getAppState();
+        this.storage=controller.getStorage();
+    }
+    public synchronized void start(){
+        if (executor!=null){
+            return;
+        }
+        executor=Executors.newSingleThreadExecutor(runnable->{
+            Thread thread=new Thread(runnable, "calendar-month-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        appState.addPropertyChangeListener(AppState.PROPERTY_SELECTED_DATE, this);
+    }
+    public synchronized void stop(){
+        if (executor==null){
+            return;
+        }
+        appState.removePropertyChangeListener(AppState.PROPERTY_SELECTED_DATE, this);
+        executor.shutdownNow();
+        executor=null;
+        inFlight.clear();
+    }
+    @Override
+    public void propertyChange(PropertyChangeEvent evt){
+        if (evt.getNewValue() instanceof LocalDate){
+            requestMonthsAround((LocalDate) evt.getNewValue());
+        }
+    }
+    /**
+     * Queues the month of the given date first, then its neighbours.
+     */
+    public synchronized void requestMonthsAround(LocalDate date){
+        if (executor==null||!storage.isPartitionedStorageEnabled()){
+            return;
+        }
+        YearMonth center=YearMonth.from(date);
+        request(center);
+        for (int offset=1;offset<=radius;offset++){
+            request(center.minusMonths(offset));
+            request(center.plusMonths(offset));
+        }
+    }
+    private void request(YearMonth month){
+        if (!storage.isMonthLoaded(month)&&inFlight.add(month)){
+            executor.execute(()->load(month));
+        }
+    }
+    private void load(YearMonth month){
+        try{
+            List<Event> events=storage.loadMonth(month);
+            SwingUtilities.invokeLater(()->{
+                controller.mergeLoadedMonth(month, events);
+                finished(month);
+            });
+        }
+        catch (IOException e){
+            System.err.println("Failed to load "+month+": "+e.getMessage());
+            finished(month);
+        }
+    }
+    private synchronized void finished(YearMonth month){
+        inFlight.remove(month);
+    }
+    public int getRadius(){
+        return radius;
+    }
+    public void setRadius(int radius){
+        this.radius=Math.max(0, radius);
+    }
+}
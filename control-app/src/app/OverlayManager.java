@@ -1,7 +1,12 @@
 package app;
 
+import state.AppState;
+import state.EventDelta;
+
+import java.beans.PropertyChangeEvent;
 import java.io.*;
 import java.nio.file.*;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
@@ -16,9 +21,27 @@ public class OverlayManager {
     private Process overlayProcess;
     private ScheduledExecutorService scheduler;
     private CalendarController controller;
+    private volatile boolean dataStale=true;
+    private volatile LocalDate dataDate;
     public OverlayManager(CalendarController controller){
         this.controller=controller;
         ensureDataDirectory();
+        controller.getAppState().addPropertyChangeListener(AppState.PROPERTY_EVENT_DELTA, this::eventsChanged);
+    }
+    /**
+     * The overlay only shows today's events, so only changes touching today
+     * trigger a rewrite of its data file.
+     */
+    private void eventsChanged(PropertyChangeEvent evt){
+        EventDelta delta=(EventDelta) evt.getNewValue();
+        if (!delta.affects(LocalDate.now())){
+            return;
+        }
+        dataStale=true;
+        ScheduledExecutorService current=scheduler;
+        if (current!=null&&!current.isShutdown()){
+            current.execute(this::updateOverlayDataIfStale);
+        }
     }
     public void startOverlay(){
         if (isOverlayRunning()){
@@ -70,9 +93,23 @@ public class OverlayManager {
             System.err.println("Failed to update overlay data: "+e.getMessage());
         }
     }
+    /**
+     * Rewrites the data file when today's events changed or the day rolled
+     * over since it was last written.
+     */
+    private void updateOverlayDataIfStale(){
+        LocalDate today=LocalDate.now();
+        if (!dataStale&&today.equals(dataDate)){
+            return;
+        }
+        dataStale=false;
+        dataDate=today;
+        updateOverlayData();
+    }
     private void startDataSync(){
         scheduler=Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(()->updateOverlayData(), 0, 30, TimeUnit.SECONDS);
+        dataStale=true;
+        scheduler.scheduleAtFixedRate(()->updateOverlayDataIfStale(), 0, 30, TimeUnit.SECONDS);
     }
     private String generateEventsJson(){
         StringBuilder json=new StringBuilder();
@@ -0,0 +1,179 @@
+package app;
+/*
+ * Startup phase timings and budgets.
+ *
+ * Responsibilities:
+ * - Time each startup phase, from JVM start to main through the first
+ *   paint of the window
+ * - Compare every phase with its budget
+ * - Print a startup report, and end a measurement run with a failing exit
+ *   code when a phase is over budget
+ *
+ * Java data types used:
+ * - Phase (enum)
+ * - ConcurrentHashMap<Phase, Long>
+ *
+ * Java technologies involved:
+ * - System.nanoTime
+ * - java.lang.management (JVM start time)
+ *
+ * Design intent:
+ * Phases run on different threads (the loader, the event dispatch thread)
+ * and some run several times, such as validation once per load stage, so
+ * durations are added up per phase. Nothing is recorded once startup has
+ * finished, which keeps later prompt reloads and audio scans out of the
+ * report. Budgets default to generous values and are set per phase with
+ * -Dcalendar.startup.budget.<phase>=<ms>. The report is printed only when
+ * asked for; an ordinary launch that runs over budget, such as a cold
+ * first start, logs one line to System.err. With
+ * -Dcalendar.startup.failOnBudget=true the launch is a measurement run:
+ * the report is printed once the calendar is loaded and painted, and the
+ * JVM exits with 1 if any phase went over budget and 0 otherwise, which
+ * is the exit code scripts/check_startup_budget.py checks.
+ */
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class StartupProfiler{
+    public static String REPORT_PROPERTY="calendar.startup.report";
+    public static String FAIL_ON_BUDGET_PROPERTY="calendar.startup.failOnBudget";
+    public static String BUDGET_PROPERTY_PREFIX="calendar.startup.budget.";
+    public static int EXIT_OVER_BUDGET=1;
+    private static Map<Phase, Long> durations=new ConcurrentHashMap<>();
+    private static volatile boolean finished;
+    private static long firstPaintAtMillis=-1;
+    private static long finishedAtMillis=-1;
+    private StartupProfiler(){
+
+    }
+    public enum Phase{
+        JVM_TO_MAIN("jvm-to-main", 1000),
+        LAUNCHER_WIRING("launcher-wiring", 500),
+        STORAGE_LOAD("storage-load", 2000),
+        VALIDATION("validation", 500),
+        FIRST_PAINT("first-paint", 1500),
+        AI_PROMPTS("ai-prompts", 200),
+        AUDIO_SCAN("audio-scan", 200);
+        private String key;
+        private long defaultBudgetMillis;
+        Phase(String key, long defaultBudgetMillis){
+            this.key=key;
+            this.defaultBudgetMillis=defaultBudgetMillis;
+        }
+        public String getKey(){
+            return key;
+        }
+        public long getBudgetMillis(){
+            return Long.getLong(BUDGET_PROPERTY_PREFIX+key, defaultBudgetMillis);
+        }
+    }
+    /**
+     * @return a start time to hand to stop()
+     */
+    public static long start(){
+        return System.nanoTime();
+    }
+    /**
+     * Adds the time since startNanos to the phase.
+     */
+    public static void stop(Phase phase, long startNanos){
+        record(phase, System.nanoTime()-startNanos);
+    }
+    public static void record(Phase phase, long nanos){
+        if (!finished){
+            durations.merge(phase, nanos, Long::sum);
+        }
+    }
+    /**
+     * Records the time from JVM start to now as JVM_TO_MAIN; call first
+     * thing in main.
+     */
+    public static void markMainEntered(){
+        long startedAt=ManagementFactory.getRuntimeMXBean().getStartTime();
+        record(Phase.JVM_TO_MAIN, TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis()-startedAt)));
+    }
+    /**
+     * Records the paint of the window and when it happened after JVM start.
+     */
+    public static synchronized void markFirstPaint(long frameCreatedNanos){
+        if (firstPaintAtMillis<0){
+            firstPaintAtMillis=ManagementFactory.getRuntimeMXBean().getUptime();
+            stop(Phase.FIRST_PAINT, frameCreatedNanos);
+        }
+    }
+    /**
+     * Ends startup: stops recording, prints the report when asked to, and
+     * ends a measurement run. Only the first call does anything.
+     */
+    public static synchronized void finish(){
+        if (finished){
+            return;
+        }
+        finished=true;
+        finishedAtMillis=ManagementFactory.getRuntimeMXBean().getUptime();
+        boolean failOnBudget=Boolean.getBoolean(FAIL_ON_BUDGET_PROPERTY);
+        boolean withinBudget=isWithinBudget();
+        if (failOnBudget||Boolean.getBoolean(REPORT_PROPERTY)){
+            System.out.print(getReport());
+        }
+        else if (!withinBudget){
+            System.err.println("Startup over budget: "+getOverBudgetPhases());
+        }
+        if (failOnBudget){
+            System.exit(withinBudget?0:EXIT_OVER_BUDGET);
+        }
+    }
+    public static boolean isFinished(){
+        return finished;
+    }
+    /**
+     * @return the phase's total time, or -1 if it did not run
+     */
+    public static long getMillis(Phase phase){
+        Long nanos=durations.get(phase);
+        return nanos==null?-1:TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+    /**
+     * Phases that did not run, such as the audio scan when the player was
+     * not opened, are within budget.
+     */
+    public static boolean isWithinBudget(){
+        for (Phase phase:Phase.values()){
+            if (getMillis(phase)>phase.getBudgetMillis()){
+                return false;
+            }
+        }
+        return true;
+    }
+    private static String getOverBudgetPhases(){
+        StringBuilder phases=new StringBuilder();
+        for (Phase phase:Phase.values()){
+            long millis=getMillis(phase);
+            if (millis>phase.getBudgetMillis()){
+                if (phases.length()>0){
+                    phases.append(", ");
+                }
+                phases.append(phase.getKey()).append(' ').append(millis).append('/').append(phase.getBudgetMillis()).append(" ms");
+            }
+        }
+        return phases.toString();
+    }
+    public static synchronized String getReport(){
+        StringBuilder report=new StringBuilder("Startup report\n");
+        report.append(String.format("  %-16s %8s %8s  %s%n", "phase", "ms", "budget", "status"));
+        for (Phase phase:Phase.values()){
+            long millis=getMillis(phase);
+            String status=millis<0?"not run":millis>phase.getBudgetMillis()?"OVER BUDGET":"ok";
+            report.append(String.format("  %-16s %8s %8d  %s%n", phase.getKey(), millis<0?"-":String.valueOf(millis), phase.getBudgetMillis(), status));
+        }
+        if (firstPaintAtMillis>=0){
+            report.append("  first paint at ").append(firstPaintAtMillis).append(" ms after JVM start\n");
+        }
+        if (finishedAtMillis>=0){
+            report.append("  startup finished at ").append(finishedAtMillis).append(" ms after JVM start\n");
+        }
+        return report.toString();
+    }
+}
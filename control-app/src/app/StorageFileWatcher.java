@@ -0,0 +1,281 @@
+package app;
+/*
+ * Watcher for external changes to the calendar file.
+ *
+ * Responsibilities:
+ * - Watch the storage directory with a WatchService
+ * - Debounce bursts of change events into one check
+ * - Skip files whose SHA-256 did not change or that this app wrote
+ * - Diff the file against the version last seen and hand the
+ *   added and removed events to the controller on the EDT
+ * - Run a check still waiting out its debounce before a save, so
+ *   the save merges the external write instead of replacing it
+ *
+ * Java data types used:
+ * - WatchService
+ * - ScheduledExecutorService
+ * - Set<Event>
+ *
+ * Java technologies involved:
+ * - java.nio.file watch service
+ * - SwingUtilities.invokeLater
+ *
+ * Design intent:
+ * The overlay, a second instance or a sync script can rewrite the file
+ * without their changes being lost on the next autosave, and without
+ * reloading the whole calendar.
+ */
+import model.Event;
+import storage.JsonStore;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+public class StorageFileWatcher{
+    private static long DEFAULT_DEBOUNCE_MILLIS=500;
+    private CalendarController controller;
+    private JsonStore storage;
+    private Path watchedFile;
+    private WatchService watchService;
+    private Thread watchThread;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> pendingCheck;
+    private long debounceMillis=DEFAULT_DEBOUNCE_MILLIS;
+    private byte[] lastSeenDigest;
+    private volatile FileTime lastSeenModified;
+    private Set<Event> lastSeenEvents;
+    public StorageFileWatcher(CalendarController controller){
+        this.controller=controller;
+        if (controller.getStorage() instanceof JsonStore){
+            this.storage=(JsonStore) controller.getStorage();
+        }
+    }
+    /**
+     * Starts watching, unless the controller stores its calendar somewhere
+     * other than a single JSON file. The current file contents become the base that later
+     * versions are diffed against; that first read happens in the background.
+     */
+    public synchronized void start(){
+        if (executor!=null||storage==null||storage.isPartitionedStorageEnabled()){
+            return;
+        }
+        watchedFile=storage.getStoragePath().toAbsolutePath();
+        Path directory=watchedFile.getParent();
+        try{
+            watchService=FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+        catch (IOException e){
+            System.err.println("Failed to watch "+directory+": "+e.getMessage());
+            closeWatchService();
+            return;
+        }
+        executor=Executors.newSingleThreadScheduledExecutor(runnable->{
+            Thread thread=new Thread(runnable, "calendar-file-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::readBase);
+        watchThread=new Thread(this::watchLoop, "calendar-file-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+    public synchronized void stop(){
+        if (executor==null){
+            return;
+        }
+        closeWatchService();
+        executor.shutdownNow();
+        executor=null;
+        pendingCheck=null;
+        watchThread=null;
+    }
+    private void closeWatchService(){
+        if (watchService!=null){
+            try{
+                watchService.close();
+            }
+            catch (IOException e){
+                System.err.println("Failed to close file watcher: "+e.getMessage());
+            }
+            watchService=null;
+        }
+    }
+    private void watchLoop(){
+        WatchService service=watchService;
+        while (service!=null){
+            WatchKey key;
+            try{
+                key=service.take();
+            }
+            catch (InterruptedException|ClosedWatchServiceException e){
+                return;
+            }
+            boolean relevant=false;
+            for (WatchEvent<?> event:key.pollEvents()){
+                Object context=event.context();
+                if (event.kind()==StandardWatchEventKinds.OVERFLOW||(context instanceof Path&&watchedFile.getFileName().equals(context))){
+                    relevant=true;
+                }
+            }
+            if (relevant){
+                scheduleCheck();
+            }
+            if (!key.reset()){
+                return;
+            }
+        }
+    }
+    /**
+     * Restarts the debounce countdown, so a burst of writes is checked once.
+     */
+    private synchronized void scheduleCheck(){
+        if (executor==null){
+            return;
+        }
+        if (pendingCheck!=null){
+            pendingCheck.cancel(false);
+        }
+        pendingCheck=executor.schedule(this::checkForChanges, debounceMillis, TimeUnit.MILLISECONDS);
+    }
+    private void readBase(){
+        try{
+            if (Files.exists(watchedFile)){
+                lastSeenModified=Files.getLastModifiedTime(watchedFile);
+                lastSeenDigest=storage.digestStorageFile();
+                lastSeenEvents=new HashSet<>(storage.readEvents(watchedFile));
+            }
+            else{
+                lastSeenEvents=new HashSet<>();
+            }
+        }
+        catch (IOException e){
+            System.err.println("Failed to read calendar file for watching: "+e.getMessage());
+            lastSeenEvents=new HashSet<>();
+        }
+    }
+    /**
+     * Runs on the check thread and hands any external changes to the
+     * controller on the EDT.
+     */
+    void checkForChanges(){
+        List<List<Event>> changes=readChanges();
+        if (changes!=null){
+            SwingUtilities.invokeLater(()->controller.mergeExternalChanges(changes.get(0), changes.get(1)));
+        }
+    }
+    /**
+     * Merges an external write that the debounced check has not handled yet,
+     * before the caller saves over it. The check runs on the check thread
+     * and is skipped when the file has not been modified since it was last
+     * seen; the merge runs on the calling thread.
+     */
+    public void mergePendingChanges(){
+        ScheduledExecutorService checker;
+        synchronized (this){
+            checker=executor;
+        }
+        if (checker==null){
+            return;
+        }
+        try{
+            if (!Files.exists(watchedFile)||Files.getLastModifiedTime(watchedFile).equals(lastSeenModified)){
+                return;
+            }
+            List<List<Event>> changes=checker.submit(this::readChanges).get();
+            if (changes!=null){
+                controller.mergeExternalChanges(changes.get(0), changes.get(1));
+            }
+        }
+        catch (IOException|ExecutionException e){
+            System.err.println("Failed to check calendar file before saving: "+e.getMessage());
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        catch (RejectedExecutionException e){
+            // Stopped meanwhile
+        }
+    }
+    /**
+     * Only files whose digest changed are parsed, and files this app wrote
+     * itself only move the base forward. While the app is still writing the
+     * file the check is put off, since the file on disk may not be the one
+     * the store has remembered yet.
+     *
+     * @return the added and removed events, or null when there are none
+     */
+    private List<List<Event>> readChanges(){
+        if (storage.isWriteInProgress()){
+            scheduleCheck();
+            return null;
+        }
+        try{
+            if (!Files.exists(watchedFile)){
+                return null;
+            }
+            FileTime modified=Files.getLastModifiedTime(watchedFile);
+            byte[] digest=storage.digestStorageFile();
+            if (Arrays.equals(digest, lastSeenDigest)){
+                lastSeenModified=modified;
+                return null;
+            }
+            List<Event> ownWrite=storage.getWrittenEvents(digest);
+            if (ownWrite!=null){
+                lastSeenDigest=digest;
+                lastSeenModified=modified;
+                lastSeenEvents=new HashSet<>(ownWrite);
+                return null;
+            }
+            Set<Event> current=new HashSet<>(storage.readEvents(watchedFile));
+            List<Event> added=new ArrayList<>();
+            List<Event> removed=new ArrayList<>();
+            for (Event event:current){
+                if (!lastSeenEvents.contains(event)){
+                    added.add(event);
+                }
+            }
+            for (Event event:lastSeenEvents){
+                if (!current.contains(event)){
+                    removed.add(event);
+                }
+            }
+            lastSeenDigest=digest;
+            lastSeenModified=modified;
+            lastSeenEvents=current;
+            if (added.isEmpty()&&removed.isEmpty()){
+                return null;
+            }
+            return Arrays.asList(added, removed);
+        }
+        catch (IOException e){
+            System.err.println("Ignoring unreadable calendar file change: "+e.getMessage());
+            return null;
+        }
+    }
+    public long getDebounceMillis(){
+        return debounceMillis;
+    }
+    public void setDebounceMillis(long debounceMillis){
+        this.debounceMillis=debounceMillis;
+    }
+}
@@ -1,5 +1,6 @@
 package audio;
 
+import app.StartupProfiler;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
@@ -55,6 +56,7 @@ public class AudioFileManager{
         if (!Files.exists(audioDirectory)){
             return tracks;
         }
+        long started=StartupProfiler.start();
         try{
             List<Path> files=Files.list(audioDirectory).filter(Files::isRegularFile).filter(path ->{
                 String fileName=path.getFileName().toString();
@@ -80,6 +82,9 @@ public class AudioFileManager{
         catch (IOException e){
             System.err.println("Error scanning audio files: "+e.getMessage());
         }
+        finally{
+            StartupProfiler.stop(StartupProfiler.Phase.AUDIO_SCAN, started);
+        }
         return tracks;
     }
     public int getNextTrackNumber(){
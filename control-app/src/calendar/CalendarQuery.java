@@ -6,6 +6,7 @@ package calendar;
  * - Retrieve events by date
  * - Retrieve events by time range
  * - Retrieve upcoming or active events
+ * - Find the free time between the events of a day
  *
  * Java data types used:
  * - List<Event>
@@ -26,6 +27,7 @@ import model.CalendarModel;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Predicate;
@@ -163,6 +165,32 @@ public class CalendarQuery {
         }
         return result;
     }
+    /**
+     * Lists the gaps of at least the given length between dayStart and
+     * dayEnd on a date. Events are taken in start order, so a long event
+     * keeps covering the time after the shorter ones inside it.
+     */
+    public List<TimeSlot> getFreeSlots(LocalDate date, LocalTime dayStart, LocalTime dayEnd, Duration minimumLength){
+        List<TimeSlot> result=new ArrayList<>();
+        LocalDateTime free=date.atTime(dayStart);
+        LocalDateTime end=date.atTime(dayEnd);
+        for (Event event:model.getEventsByDate(date)){
+            if (!event.getStartTime().isBefore(end)){
+                break;
+            }
+            addSlot(result, free, event.getStartTime(), minimumLength);
+            if (event.getEndTime().isAfter(free)){
+                free=event.getEndTime();
+            }
+        }
+        addSlot(result, free, end, minimumLength);
+        return result;
+    }
+    private static void addSlot(List<TimeSlot> slots, LocalDateTime start, LocalDateTime end, Duration minimumLength){
+        if (end.isAfter(start)&&Duration.between(start, end).compareTo(minimumLength)>=0){
+            slots.add(new TimeSlot(start, end));
+        }
+    }
     public static Predicate<Event> createDateRangePredicate(final LocalDate startDate, final LocalDate endDate){
         return new Predicate<Event>(){
             public boolean test(Event event){
@@ -186,4 +214,24 @@ public class CalendarQuery {
             }
         };
     }
+    /**
+     * A stretch of time with no events in it.
+     */
+    public static class TimeSlot {
+        private LocalDateTime start;
+        private LocalDateTime end;
+        public TimeSlot(LocalDateTime start, LocalDateTime end){
+            this.start=start;
+            this.end=end;
+        }
+        public LocalDateTime getStart(){
+            return start;
+        }
+        public LocalDateTime getEnd(){
+            return end;
+        }
+        public Duration getDuration(){
+            return Duration.between(start, end);
+        }
+    }
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ package model;
  *
 *Responsibilities:
 *- Store all calendar events
+*- Keep events in start order
 *- Provide basic accessors
  *
 *Java data types used:
@@ -14,77 +15,199 @@ package model;
 *- Java Collections Framework
  *
 *Design intent:
-*This class is a data holder, not a rule enforcer.
+*This class is a data holder, not a rule enforcer. The event list handed
+*out by getEvents is never changed afterwards: the next edit copies it
+*first, so other threads can read it without holding the model's lock.
  */
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class CalendarModel{
-    public List<Event> allEvents;
+    private List<Event> allEvents;
+    private boolean mutable;
     public CalendarModel(){
         this.allEvents=new ArrayList<>();
+        this.mutable=true;
     }
-    public void addEvent(Event newEvent){
-        this.allEvents.add(newEvent);
-        sortEvents();
+    public synchronized void addEvent(Event newEvent){
+        ensureMutable();
+        this.allEvents.add(upperBound(newEvent.getStartTime()), newEvent);
     }
-    public void addEvents(List<Event> newEvents){
-        sortEvents();
+    public synchronized void addEvents(List<Event> newEvents){
+        ensureMutable();
         this.allEvents.addAll(newEvents);
         sortEvents();
     }
-    public boolean removeEvent(Event eventToRemove){
-        sortEvents();
-        for (int i=0;i<allEvents.size();i++){
-            if (eventToRemove.equals(this.allEvents.get(i))){
+    /**
+     * Adopts a list that is already in start order, such as a lazily decoded
+     * snapshot. The list is only copied once the model is first modified.
+     */
+    public synchronized void loadSortedEvents(List<Event> sortedEvents){
+        this.allEvents=sortedEvents;
+        this.mutable=false;
+    }
+    public synchronized boolean removeEvent(Event eventToRemove){
+        ensureMutable();
+        for (int i=lowerBound(eventToRemove.getStartTime());i<allEvents.size();i++){
+            Event candidate=this.allEvents.get(i);
+            if (Event.START_ORDER.compare(candidate, eventToRemove)!=0){
+                break;
+            }
+            if (eventToRemove.equals(candidate)){
                 this.allEvents.remove(i);
                 return true;
             }
         }
         return false;
     }
-    public void clearEvents(){
-        this.allEvents.clear();
+    /**
+     * Removes and adds events in one pass over the list and swaps it in, so
+     * readers see either the old contents or the new ones. Added events go
+     * after held events with the same start, as with addEvent.
+     *
+     * @return false, changing nothing, if a removed event is not held
+     */
+    public synchronized boolean replaceEvents(Collection<Event> removed, Collection<Event> added){
+        Map<Event, Integer> pending=new HashMap<>();
+        for (Event event:removed){
+            pending.merge(event, 1, Integer::sum);
+        }
+        List<Event> kept=new ArrayList<>(allEvents.size());
+        for (Event event:allEvents){
+            Integer count=pending.isEmpty()?null:pending.get(event);
+            if (count==null){
+                kept.add(event);
+            }
+            else if (count==1){
+                pending.remove(event);
+            }
+            else{
+                pending.put(event, count-1);
+            }
+        }
+        if (!pending.isEmpty()){
+            return false;
+        }
+        List<Event> sortedAdded=new ArrayList<>(added);
+        sortedAdded.sort(Event.START_ORDER);
+        List<Event> merged=new ArrayList<>(kept.size()+sortedAdded.size());
+        int next=0;
+        for (Event event:sortedAdded){
+            while (next<kept.size()&&!kept.get(next).getStartTime().isAfter(event.getStartTime())){
+                merged.add(kept.get(next++));
+            }
+            merged.add(event);
+        }
+        merged.addAll(kept.subList(next, kept.size()));
+        this.allEvents=merged;
+        this.mutable=true;
+        return true;
     }
-    public int getEventCount(){
+    public synchronized boolean containsEvent(Event event){
+        for (int i=lowerBound(event.getStartTime());i<allEvents.size();i++){
+            Event candidate=this.allEvents.get(i);
+            if (Event.START_ORDER.compare(candidate, event)!=0){
+                return false;
+            }
+            if (event.equals(candidate)){
+                return true;
+            }
+        }
+        return false;
+    }
+    public synchronized void clearEvents(){
+        this.allEvents=new ArrayList<>();
+        this.mutable=true;
+    }
+    public synchronized int getEventCount(){
         return this.allEvents.size();
     }
-    public List<Event> getEvents(){
-        sortEvents();
-        return this.allEvents;
+    /**
+     * Returns a read-only snapshot of the events in start order. Taking it
+     * is cheap; the first edit afterwards pays for one copy of the list.
+     */
+    public synchronized List<Event> getEvents(){
+        this.mutable=false;
+        return Collections.unmodifiableList(this.allEvents);
     }
-    public List<Event> getEventsByDate(LocalDate searchingDate){
-        sortEvents();
+    public synchronized List<Event> getEventsByDate(LocalDate searchingDate){
         List<Event> newEventsList=new ArrayList<>();
-        for (int i=0;i<this.allEvents.size();i++){
-            if (this.allEvents.get(i).getDate().equals(searchingDate)){
-                newEventsList.add(new Event(allEvents.get(i).getTitle(), allEvents.get(i).getDate(), allEvents.get(i).getStartTime().toLocalTime(), allEvents.get(i).getEndTime().toLocalTime()));
+        LocalDateTime nextDay=searchingDate.plusDays(1).atStartOfDay();
+        for (int i=lowerBound(searchingDate.atStartOfDay());i<this.allEvents.size();i++){
+            Event event=this.allEvents.get(i);
+            if (!event.getStartTime().isBefore(nextDay)){
+                break;
             }
+            newEventsList.add(new Event(event.getTitle(), event.getDate(), event.getStartTime().toLocalTime(), event.getEndTime().toLocalTime()));
         }
         return newEventsList;
     }
-    public boolean isEmpty(){
+    /**
+     * Returns the events starting in [from, to), in start order.
+     */
+    public synchronized List<Event> getEventsBetween(LocalDateTime from, LocalDateTime to){
+        int start=lowerBound(from);
+        int end=Math.max(start, lowerBound(to));
+        return new ArrayList<>(this.allEvents.subList(start, end));
+    }
+    public synchronized boolean isEmpty(){
         return this.allEvents.isEmpty();
     }
-    public String toString(){
-        sortEvents();
+    public synchronized String toString(){
         String eventsString=new String();
         for (int i=0;i<allEvents.size();i++){
             eventsString.concat("Event "+Integer.toString(i+1)+": "+this.allEvents.get(i).toString()+" \n ");
         }
         return eventsString;
     }
-    public void sortEvents(){
-        Collections.sort(this.allEvents, Comparator.comparing(Event::getDate).thenComparing(Event::getStartTime));
+    public synchronized void sortEvents(){
+        if (mutable){
+            this.allEvents.sort(Event.START_ORDER);
+        }
+    }
+    public synchronized List<Event> getSortedEvents(){
+        return new ArrayList<>(allEvents);
     }
-    public List<Event> getSortedEvents(){
-        List<Event> sortedEvents=new ArrayList<>(allEvents);
-        sortedEvents.sort(Comparator.comparing(Event::getDate).thenComparing(Event::getStartTime));
-        return sortedEvents;
+    private void ensureMutable(){
+        if (!mutable){
+            this.allEvents=new ArrayList<>(this.allEvents);
+            this.mutable=true;
+        }
+    }
+    private int lowerBound(LocalDateTime key){
+        int low=0;
+        int high=allEvents.size();
+        while (low<high){
+            int mid=(low+high)>>>1;
+            if (allEvents.get(mid).getStartTime().isBefore(key)){
+                low=mid+1;
+            }
+            else{
+                high=mid;
+            }
+        }
+        return low;
+    }
+    private int upperBound(LocalDateTime key){
+        int low=0;
+        int high=allEvents.size();
+        while (low<high){
+            int mid=(low+high)>>>1;
+            if (allEvents.get(mid).getStartTime().isAfter(key)){
+                high=mid;
+            }
+            else{
+                low=mid+1;
+            }
+        }
+        return low;
     }
     @Override
     public boolean equals(Object obj){
@@ -23,9 +23,28 @@ package model;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.Comparator;
 import java.util.Objects;
 
 public class Event {
+    /**
+     * Orders events by start date-time without copying the timestamps.
+     */
+    public static Comparator<Event> START_ORDER=(first, second)->first.startTime.compareTo(second.startTime);
+    /**
+     * Start order with ties broken by end time and title, so only equal
+     * events compare as 0.
+     */
+    public static Comparator<Event> TOTAL_ORDER=(first, second)->{
+        int order=first.startTime.compareTo(second.startTime);
+        if (order==0){
+            order=first.endTime.compareTo(second.endTime);
+        }
+        if (order==0){
+            order=first.title.compareTo(second.title);
+        }
+        return order;
+    };
     private String title;
     private LocalDateTime startTime;
     private LocalDateTime endTime;
@@ -0,0 +1,290 @@
+package model;
+/*
+ * Immutable sorted collection of events that shares structure between versions.
+ *
+ * Responsibilities:
+ * - Hold events in Event.TOTAL_ORDER, counting equal events
+ * - Return a new version for every addition or removal
+ * - List the events added and removed between two versions
+ *
+ * Java data types used:
+ * - Node (balanced AVL tree)
+ * - ArrayDeque<Node>
+ *
+ * Java technologies involved:
+ * - Persistent data structures (path copying)
+ *
+ * Design intent:
+ * A change copies only the O(log n) nodes on the path to the event; every
+ * other node is shared with the version it came from. Keeping a version of
+ * a 100k-event calendar per undo step therefore costs a few dozen nodes per
+ * changed event instead of a copy of the calendar. Events must not be
+ * mutated while a version holds them.
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+public class PersistentEventSet implements Iterable<Event>{
+    private static final PersistentEventSet EMPTY=new PersistentEventSet(null);
+    private final Node root;
+    private PersistentEventSet(Node root){
+        this.root=root;
+    }
+    public static PersistentEventSet empty(){
+        return EMPTY;
+    }
+    /**
+     * Builds a balanced version holding the given events in O(n log n).
+     */
+    public static PersistentEventSet of(Collection<Event> events){
+        if (events.isEmpty()){
+            return EMPTY;
+        }
+        List<Event> sorted=new ArrayList<>(events);
+        sorted.sort(Event.TOTAL_ORDER);
+        List<Event> distinct=new ArrayList<>(sorted.size());
+        int[] counts=new int[sorted.size()];
+        for (Event event:sorted){
+            int last=distinct.size()-1;
+            if (last>=0&&Event.TOTAL_ORDER.compare(distinct.get(last), event)==0){
+                counts[last]++;
+            }
+            else{
+                distinct.add(event);
+                counts[last+1]=1;
+            }
+        }
+        return new PersistentEventSet(build(distinct, counts, 0, distinct.size()-1));
+    }
+    public PersistentEventSet with(Event event){
+        return new PersistentEventSet(insert(root, event));
+    }
+    /**
+     * @return this version when the event is not held
+     */
+    public PersistentEventSet without(Event event){
+        if (!contains(event)){
+            return this;
+        }
+        return new PersistentEventSet(remove(root, event));
+    }
+    /**
+     * Applies removals first, then additions, like an EventDelta.
+     */
+    public PersistentEventSet withChanges(Collection<Event> added, Collection<Event> removed){
+        Node node=root;
+        for (Event event:removed){
+            if (find(node, event)!=null){
+                node=remove(node, event);
+            }
+        }
+        for (Event event:added){
+            node=insert(node, event);
+        }
+        return node==root?this:new PersistentEventSet(node);
+    }
+    public boolean contains(Event event){
+        return find(root, event)!=null;
+    }
+    public int size(){
+        return size(root);
+    }
+    public boolean isEmpty(){
+        return root==null;
+    }
+    public List<Event> toList(){
+        List<Event> events=new ArrayList<>(size());
+        for (Event event:this){
+            events.add(event);
+        }
+        return events;
+    }
+    /**
+     * Lists what turns this version into the target one. Both versions are
+     * walked once, in O(n+m).
+     */
+    public void diff(PersistentEventSet target, List<Event> added, List<Event> removed){
+        if (target.root==root){
+            return;
+        }
+        Iterator<Event> from=iterator();
+        Iterator<Event> to=target.iterator();
+        Event current=from.hasNext()?from.next():null;
+        Event next=to.hasNext()?to.next():null;
+        while (current!=null||next!=null){
+            int order;
+            if (current==null){
+                order=1;
+            }
+            else if (next==null){
+                order=-1;
+            }
+            else{
+                order=Event.TOTAL_ORDER.compare(current, next);
+            }
+            if (order<0){
+                removed.add(current);
+                current=from.hasNext()?from.next():null;
+            }
+            else if (order>0){
+                added.add(next);
+                next=to.hasNext()?to.next():null;
+            }
+            else{
+                current=from.hasNext()?from.next():null;
+                next=to.hasNext()?to.next():null;
+            }
+        }
+    }
+    /**
+     * Iterates in Event.TOTAL_ORDER, repeating equal events.
+     */
+    @Override
+    public Iterator<Event> iterator(){
+        return new Iterator<Event>(){
+            private ArrayDeque<Node> path=new ArrayDeque<>();
+            private Node node=descend(root);
+            private int repeated;
+            private Node descend(Node from){
+                while (from!=null){
+                    path.push(from);
+                    from=from.left;
+                }
+                return path.isEmpty()?null:path.peek();
+            }
+            @Override
+            public boolean hasNext(){
+                return node!=null;
+            }
+            @Override
+            public Event next(){
+                if (node==null){
+                    throw new NoSuchElementException();
+                }
+                Event event=node.event;
+                if (++repeated==node.count){
+                    repeated=0;
+                    Node done=path.pop();
+                    node=descend(done.right);
+                }
+                return event;
+            }
+        };
+    }
+    @Override
+    public String toString(){
+        return "PersistentEventSet{size="+size()+"}";
+    }
+    private static Node find(Node node, Event event){
+        while (node!=null){
+            int order=Event.TOTAL_ORDER.compare(event, node.event);
+            if (order==0){
+                return node;
+            }
+            node=order<0?node.left:node.right;
+        }
+        return null;
+    }
+    private static Node insert(Node node, Event event){
+        if (node==null){
+            return new Node(event, 1, null, null);
+        }
+        int order=Event.TOTAL_ORDER.compare(event, node.event);
+        if (order==0){
+            return new Node(node.event, node.count+1, node.left, node.right);
+        }
+        if (order<0){
+            return balance(node.event, node.count, insert(node.left, event), node.right);
+        }
+        return balance(node.event, node.count, node.left, insert(node.right, event));
+    }
+    /**
+     * Removes one occurrence of an event known to be held.
+     */
+    private static Node remove(Node node, Event event){
+        int order=Event.TOTAL_ORDER.compare(event, node.event);
+        if (order<0){
+            return balance(node.event, node.count, remove(node.left, event), node.right);
+        }
+        if (order>0){
+            return balance(node.event, node.count, node.left, remove(node.right, event));
+        }
+        if (node.count>1){
+            return new Node(node.event, node.count-1, node.left, node.right);
+        }
+        if (node.left==null){
+            return node.right;
+        }
+        if (node.right==null){
+            return node.left;
+        }
+        Node first=node.right;
+        while (first.left!=null){
+            first=first.left;
+        }
+        return balance(first.event, first.count, node.left, removeFirst(node.right));
+    }
+    private static Node removeFirst(Node node){
+        if (node.left==null){
+            return node.right;
+        }
+        return balance(node.event, node.count, removeFirst(node.left), node.right);
+    }
+    private static Node balance(Event event, int count, Node left, Node right){
+        int leftHeight=height(left);
+        int rightHeight=height(right);
+        if (leftHeight>rightHeight+1){
+            if (height(left.left)>=height(left.right)){
+                return new Node(left.event, left.count, left.left, new Node(event, count, left.right, right));
+            }
+            Node pivot=left.right;
+            return new Node(pivot.event, pivot.count,
+                new Node(left.event, left.count, left.left, pivot.left),
+                new Node(event, count, pivot.right, right));
+        }
+        if (rightHeight>leftHeight+1){
+            if (height(right.right)>=height(right.left)){
+                return new Node(right.event, right.count, new Node(event, count, left, right.left), right.right);
+            }
+            Node pivot=right.left;
+            return new Node(pivot.event, pivot.count,
+                new Node(event, count, left, pivot.left),
+                new Node(right.event, right.count, pivot.right, right.right));
+        }
+        return new Node(event, count, left, right);
+    }
+    private static Node build(List<Event> events, int[] counts, int from, int to){
+        if (from>to){
+            return null;
+        }
+        int middle=(from+to)>>>1;
+        return new Node(events.get(middle), counts[middle], build(events, counts, from, middle-1), build(events, counts, middle+1, to));
+    }
+    private static int height(Node node){
+        return node==null?0:node.height;
+    }
+    private static int size(Node node){
+        return node==null?0:node.size;
+    }
+    private static class Node{
+        final Event event;
+        final int count;
+        final Node left;
+        final Node right;
+        final int height;
+        final int size;
+        Node(Event event, int count, Node left, Node right){
+            this.event=event;
+            this.count=count;
+            this.left=left;
+            this.right=right;
+            this.height=Math.max(height(left), height(right))+1;
+            this.size=size(left)+size(right)+count;
+        }
+    }
+}
@@ -23,10 +23,19 @@ Tip: Use Streams API for filtering and comparisons.
 import model.CalendarModel;
 import model.Event;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
 public class CalendarValidationService {
     public boolean isValid(Event event, CalendarModel model){
         if (!isTimeRangeValid(event)){
@@ -37,7 +46,44 @@ public class CalendarValidationService {
         }
         return true;
     }
-    private boolean isTimeRangeValid(Event event){
+    /**
+     * Picks the candidates that isValid would accept if they were added one
+     * at a time in order, without touching the model. Each date's accepted
+     * candidates are kept in a TreeMap by start, so a candidate is checked
+     * against its two neighbours instead of the whole day.
+     */
+    public List<Event> selectValid(List<Event> candidates, CalendarModel model){
+        List<Event> accepted=new ArrayList<>();
+        Map<LocalDate, List<Event>> existing=new HashMap<>();
+        Map<LocalDate, TreeMap<LocalDateTime, Event>> added=new HashMap<>();
+        for (Event candidate:candidates){
+            if (!isTimeRangeValid(candidate)){
+                continue;
+            }
+            List<Event> sameDayEvents=existing.computeIfAbsent(candidate.getDate(), model::getEventsByDate);
+            if (overlapsAny(candidate, sameDayEvents)){
+                continue;
+            }
+            TreeMap<LocalDateTime, Event> day=added.computeIfAbsent(candidate.getDate(), date->new TreeMap<>());
+            Map.Entry<LocalDateTime, Event> before=day.floorEntry(candidate.getStartTime());
+            Map.Entry<LocalDateTime, Event> after=day.ceilingEntry(candidate.getStartTime());
+            if ((before!=null&&eventsOverlap(candidate, before.getValue()))||(after!=null&&eventsOverlap(candidate, after.getValue()))){
+                continue;
+            }
+            day.put(candidate.getStartTime(), candidate);
+            accepted.add(candidate);
+        }
+        return accepted;
+    }
+    private boolean overlapsAny(Event event, List<Event> others){
+        for (Event other:others){
+            if (eventsOverlap(event, other)){
+                return true;
+            }
+        }
+        return false;
+    }
+    public boolean isTimeRangeValid(Event event){
         return event.getEndTime().isAfter(event.getStartTime());
     }
     private boolean hasOverlappingEvents(Event newEvent, CalendarModel model){
@@ -83,20 +129,70 @@ public class CalendarValidationService {
         }
         return true;
     }
+    /**
+     * Checks the calendar the model would hold after removing and adding
+     * the given events, without changing it. Only the dates of added events
+     * are looked at, and only conflicts involving an added event count, so
+     * overlaps already in the calendar do not block an edit.
+     *
+     * @return a description of every conflict, empty when the change is valid
+     */
+    public List<String> findConflicts(CalendarModel model, Collection<Event> removed, Collection<Event> added){
+        List<String> conflicts=new ArrayList<>();
+        Map<LocalDate, List<Event>> addedByDate=new HashMap<>();
+        for (Event event:added){
+            if (!isTimeRangeValid(event)){
+                conflicts.add(event.getTitle()+" does not end after it starts");
+            }
+            addedByDate.computeIfAbsent(event.getDate(), date->new ArrayList<>()).add(event);
+        }
+        Map<LocalDate, List<Event>> removedByDate=new HashMap<>();
+        for (Event event:removed){
+            LocalDate date=event.getDate();
+            if (addedByDate.containsKey(date)){
+                removedByDate.computeIfAbsent(date, key->new ArrayList<>()).add(event);
+            }
+        }
+        Set<Event> addedEvents=Collections.newSetFromMap(new IdentityHashMap<>());
+        addedEvents.addAll(added);
+        for (Map.Entry<LocalDate, List<Event>> entry:addedByDate.entrySet()){
+            List<Event> day=model.getEventsByDate(entry.getKey());
+            for (Event event:removedByDate.getOrDefault(entry.getKey(), Collections.emptyList())){
+                day.remove(event);
+            }
+            day.addAll(entry.getValue());
+            day.sort(Event.START_ORDER);
+            forEachOverlap(day, (eventOne, eventTwo)->{
+                if (addedEvents.contains(eventOne)||addedEvents.contains(eventTwo)){
+                    conflicts.add(eventOne.getTitle()+" overlaps with "+eventTwo.getTitle());
+                }
+            });
+        }
+        return conflicts;
+    }
     public List<String> getAllOverlappingEventTitles(CalendarModel model){
         List<String> overlappingPairs=new ArrayList<>();
-        List<Event> events=model.getEvents();
-        for (int i=0;i<events.size();i++){
-            for (int j=i+1;j<events.size();j++){
-                Event eventOne=events.get(i);
-                Event eventTwo=events.get(j);
-                if (eventOne.getDate().equals(eventTwo.getDate())){
-                    if (eventsOverlap(eventOne, eventTwo)){
-                        overlappingPairs.add(eventOne.getTitle()+" overlaps with "+eventTwo.getTitle());
-                    }
+        forEachOverlap(model.getSortedEvents(), (eventOne, eventTwo)->overlappingPairs.add(eventOne.getTitle()+" overlaps with "+eventTwo.getTitle()));
+        return overlappingPairs;
+    }
+    /**
+     * Hands every pair of overlapping events on the same date to the sink,
+     * the earlier-starting event first. The events must be in
+     * Event.START_ORDER. A sweep keeps only the events still running at the
+     * current start, so this takes O(n + pairs) instead of comparing every
+     * pair.
+     */
+    public void forEachOverlap(List<Event> sortedEvents, BiConsumer<Event, Event> sink){
+        List<Event> running=new ArrayList<>();
+        for (Event event:sortedEvents){
+            LocalDateTime start=event.getStartTime();
+            running.removeIf(earlier->!earlier.getEndTime().isAfter(start));
+            for (Event earlier:running){
+                if (earlier.getDate().equals(event.getDate())&&eventsOverlap(earlier, event)){
+                    sink.accept(earlier, event);
                 }
             }
+            running.add(event);
         }
-        return overlappingPairs;
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,20 @@
 package state;
 import model.CalendarModel;
 import model.Event;
+import model.PersistentEventSet;
 
+import java.awt.EventQueue;
+import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
 import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.UnaryOperator;
 /**
  * Global application state holder.
  *
@@ -13,16 +22,42 @@ import java.util.List;
  * - Hold current CalendarModel
  * - Track application lifecycle state
  * - Notify listeners on changes
+ * - Merge the changes of a batch or EDT frame into one ChangeBatch
+ * - Keep the undo history of the calendar contents
  *
  * Java data types used:
  * - CalendarModel
  * - PropertyChangeSupport
+ * - ChangeBatch
+ * - UndoHistory
+ * - ArrayDeque<ChangeBatch>
  *
  * Java technologies involved:
  * - Observer pattern
+ * - Monitor locks
+ * - Executors
  *
  * Design intent:
- * Single source of truth for the running app.
+ * Single source of truth for the running app, safe to change from the
+ * EDT, SwingWorkers, timers and background loaders. Every state
+ * transition, such as a field update together with the version bump and
+ * the dirty flag it implies, happens atomically under one lock.
+ *
+ * Changes are not delivered one by one: inside beginBatch()/endBatch(),
+ * or when made on the EDT, they are collected and delivered together once
+ * the batch or the current EDT event ends. Each property is then fired
+ * once with its first old and last new value, followed by one
+ * PROPERTY_CHANGE_BATCH event carrying the merged ChangeBatch and the
+ * affected dates. When the calendar contents changed, a
+ * PROPERTY_EVENT_DELTA event with the EventDelta listing the added and
+ * removed events goes out just before the batch. Each batch that edited
+ * events becomes one undo step.
+ *
+ * Finished batches wait in an outbox and are delivered in order, never
+ * while the lock is held. By default they are delivered on the EDT,
+ * directly when the change was made there; setListenerExecutor() moves
+ * delivery to an executor instead. A slow listener can also be given its
+ * own executor, so it blocks neither writers nor the other listeners.
  */
 public class AppState {
     public static String PROPERTY_MODEL="calendarModel";
@@ -31,30 +66,36 @@ public class AppState {
     public static String PROPERTY_VIEW_MODE="viewMode";
     public static String PROPERTY_FILTER_TEXT="filterText";
     public static String PROPERTY_EVENTS_CHANGED="eventsChanged";
+    public static String PROPERTY_CHANGE_BATCH="changeBatch";
+    public static String PROPERTY_EVENT_DELTA="eventDelta";
     public enum ViewMode{
         DAY_VIEW,
         WEEK_VIEW,
         MONTH_VIEW,
         AGENDA_VIEW
     }
-    private CalendarModel calendarModel;
-    private LocalDate selectedDate;
-    private Event selectedEvent;
-    private ViewMode currentViewMode;
-    private String filterText;
-    private boolean isUnsaved;
+    private volatile CalendarModel calendarModel;
+    private volatile LocalDate selectedDate;
+    private volatile Event selectedEvent;
+    private volatile ViewMode currentViewMode;
+    private volatile String filterText;
+    private volatile boolean isUnsaved;
+    private volatile long modelVersion;
     private PropertyChangeSupport propertyChangeSupport;
+    private Object stateLock=new Object();
+    private ChangeBatch pendingBatch;
+    private int batchDepth;
+    private boolean frameFlushScheduled;
+    private ArrayDeque<ChangeBatch> outbox=new ArrayDeque<>();
+    private boolean draining;
+    private volatile Executor listenerExecutor;
+    private UndoHistory undoHistory=new UndoHistory();
     public AppState(){
-        this.calendarModel=new CalendarModel();
-        this.selectedDate=LocalDate.now();
-        this.selectedEvent=null;
-        this.currentViewMode=ViewMode.MONTH_VIEW;
-        this.filterText="";
-        this.isUnsaved=false;
-        this.propertyChangeSupport=new PropertyChangeSupport(this);
+        this(new CalendarModel());
     }
     public AppState(CalendarModel model){
         this.calendarModel=model;
+        this.undoHistory.reset(model);
         this.selectedDate=LocalDate.now();
         this.selectedEvent=null;
         this.currentViewMode=ViewMode.MONTH_VIEW;
@@ -66,35 +107,55 @@ public class AppState {
         return calendarModel;
     }
     public void setCalendarModel(CalendarModel newModel){
-        CalendarModel oldModel=this.calendarModel;
-        this.calendarModel=newModel;
-        this.isUnsaved=true;
-        propertyChangeSupport.firePropertyChange(PROPERTY_MODEL, oldModel, newModel);
+        synchronized (stateLock){
+            replaceModel(newModel);
+        }
+        deliverUnlessBatched();
     }
     public void syncWithController(app.CalendarController controller){
         CalendarModel controllerModel=controller.getModel();
-        if (controllerModel!=this.calendarModel){
-            CalendarModel oldModel=this.calendarModel;
-            this.calendarModel=controllerModel;
-            this.isUnsaved=true;
-            propertyChangeSupport.firePropertyChange(PROPERTY_MODEL, oldModel, controllerModel);
+        synchronized (stateLock){
+            if (controllerModel!=this.calendarModel){
+                replaceModel(controllerModel);
+            }
         }
+        deliverUnlessBatched();
+    }
+    private void replaceModel(CalendarModel newModel){
+        CalendarModel oldModel=this.calendarModel;
+        this.calendarModel=newModel;
+        this.isUnsaved=true;
+        modelVersion++;
+        recordChange(PROPERTY_MODEL, oldModel, newModel, null, null);
     }
     public LocalDate getSelectedDate(){
         return selectedDate;
     }
     public void setSelectedDate(LocalDate date){
-        LocalDate oldDate=this.selectedDate;
-        this.selectedDate=date;
-        propertyChangeSupport.firePropertyChange(PROPERTY_SELECTED_DATE, oldDate, date);
+        updateSelectedDate(current->date);
+    }
+    /**
+     * Moves the selected date relative to its current value in one step,
+     * so concurrent navigation never loses a move.
+     */
+    private void updateSelectedDate(UnaryOperator<LocalDate> move){
+        synchronized (stateLock){
+            LocalDate oldDate=this.selectedDate;
+            this.selectedDate=move.apply(oldDate);
+            recordChange(PROPERTY_SELECTED_DATE, oldDate, selectedDate);
+        }
+        deliverUnlessBatched();
     }
     public model.Event getSelectedEvent(){
         return selectedEvent;
     }
     public void setSelectedEvent(model.Event event){
-        model.Event oldEvent=this.selectedEvent;
-        this.selectedEvent=event;
-        propertyChangeSupport.firePropertyChange(PROPERTY_SELECTED_EVENT, oldEvent, event);
+        synchronized (stateLock){
+            model.Event oldEvent=this.selectedEvent;
+            this.selectedEvent=event;
+            recordChange(PROPERTY_SELECTED_EVENT, oldEvent, event);
+        }
+        deliverUnlessBatched();
     }
     public void clearSelectedEvent(){
         setSelectedEvent(null);
@@ -103,9 +164,15 @@ public class AppState {
         return currentViewMode;
     }
     public void setCurrentViewMode(ViewMode viewMode){
-        ViewMode oldMode=this.currentViewMode;
-        this.currentViewMode=viewMode;
-        propertyChangeSupport.firePropertyChange(PROPERTY_VIEW_MODE, oldMode, viewMode);
+        updateViewMode(current->viewMode);
+    }
+    private void updateViewMode(UnaryOperator<ViewMode> change){
+        synchronized (stateLock){
+            ViewMode oldMode=this.currentViewMode;
+            this.currentViewMode=change.apply(oldMode);
+            recordChange(PROPERTY_VIEW_MODE, oldMode, currentViewMode);
+        }
+        deliverUnlessBatched();
     }
     public void switchToDayView(){
         setCurrentViewMode(ViewMode.DAY_VIEW);
@@ -121,17 +188,18 @@ public class AppState {
     }
     public void cycleViewMode(){
         ViewMode[] modes=ViewMode.values();
-        int currentIndex=currentViewMode.ordinal();
-        int nextIndex=(currentIndex+1)%modes.length;
-        setCurrentViewMode(modes[nextIndex]);
+        updateViewMode(current->modes[(current.ordinal()+1)%modes.length]);
     }
     public String getFilterText(){
         return filterText;
     }
     public void setFilterText(String text){
-        String oldText=this.filterText;
-        this.filterText=text;
-        propertyChangeSupport.firePropertyChange(PROPERTY_FILTER_TEXT, oldText, text);
+        synchronized (stateLock){
+            String oldText=this.filterText;
+            this.filterText=text;
+            recordChange(PROPERTY_FILTER_TEXT, oldText, text);
+        }
+        deliverUnlessBatched();
     }
     public void clearFilter(){
         setFilterText("");
@@ -139,18 +207,43 @@ public class AppState {
     public boolean isUnsaved(){
         return isUnsaved;
     }
+    /**
+     * Counter bumped on every change to the calendar contents, so background
+     * savers can tell whether the model moved on while they were writing.
+     */
+    public long getModelVersion(){
+        return modelVersion;
+    }
     public void markAsDirty(){
-        boolean oldDirty=this.isUnsaved;
-        this.isUnsaved=true;
-        if (!oldDirty){
-            propertyChangeSupport.firePropertyChange("dirty", oldDirty, true);
+        synchronized (stateLock){
+            setDirty(true);
         }
+        deliverUnlessBatched();
     }
     public void markAsClean(){
+        synchronized (stateLock){
+            setDirty(false);
+        }
+        deliverUnlessBatched();
+    }
+    /**
+     * Marks the state clean only if nothing changed since the given version
+     * was captured, so edits made during a background save stay dirty.
+     */
+    public void markAsClean(long savedVersion){
+        synchronized (stateLock){
+            if (modelVersion!=savedVersion){
+                return;
+            }
+            setDirty(false);
+        }
+        deliverUnlessBatched();
+    }
+    private void setDirty(boolean dirty){
         boolean oldDirty=this.isUnsaved;
-        this.isUnsaved=false;
-        if (oldDirty){
-            propertyChangeSupport.firePropertyChange("dirty", oldDirty, false);
+        this.isUnsaved=dirty;
+        if (oldDirty!=dirty){
+            recordChange("dirty", oldDirty, dirty);
         }
     }
     public void goToToday(){
@@ -160,22 +253,22 @@ public class AppState {
         setSelectedDate(date);
     }
     public void navigateToPreviousDay(){
-        setSelectedDate(selectedDate.minusDays(1));
+        updateSelectedDate(date->date.minusDays(1));
     }
     public void navigateToNextDay(){
-        setSelectedDate(selectedDate.plusDays(1));
+        updateSelectedDate(date->date.plusDays(1));
     }
     public void navigateToPreviousWeek(){
-        setSelectedDate(selectedDate.minusWeeks(1));
+        updateSelectedDate(date->date.minusWeeks(1));
     }
     public void navigateToNextWeek(){
-        setSelectedDate(selectedDate.plusWeeks(1));
+        updateSelectedDate(date->date.plusWeeks(1));
     }
     public void navigateToPreviousMonth(){
-        setSelectedDate(selectedDate.minusMonths(1));
+        updateSelectedDate(date->date.minusMonths(1));
     }
     public void navigateToNextMonth(){
-        setSelectedDate(selectedDate.plusMonths(1));
+        updateSelectedDate(date->date.plusMonths(1));
     }
     public List<model.Event> getEventsForSelectedDate(){
         return calendarModel.getEventsByDate(selectedDate);
@@ -195,21 +288,278 @@ public class AppState {
     public boolean isEmpty(){
         return calendarModel.isEmpty();
     }
+    /**
+     * Announces a change nobody described, such as a reload or a cleared
+     * calendar; every date counts as affected.
+     */
     public void notifyEventsChanged(){
-        markAsDirty();
-        propertyChangeSupport.firePropertyChange(PROPERTY_EVENTS_CHANGED, null, calendarModel);
+        notifyEdit(PROPERTY_EVENTS_CHANGED, null, calendarModel, null, null);
+    }
+    /**
+     * Announces exactly which events were added and removed.
+     */
+    public void notifyEventsChanged(Collection<model.Event> added, Collection<model.Event> removed){
+        notifyEdit(PROPERTY_EVENTS_CHANGED, null, calendarModel, added, removed);
+    }
+    /**
+     * Announces events that were read from storage rather than edited, so
+     * views refresh without the calendar being marked unsaved.
+     */
+    public void notifyEventsLoaded(){
+        synchronized (stateLock){
+            recordChange(PROPERTY_EVENTS_CHANGED, null, calendarModel, null, null);
+        }
+        deliverUnlessBatched();
     }
+    public void notifyEventsLoaded(Collection<model.Event> loaded){
+        synchronized (stateLock){
+            recordChange(PROPERTY_EVENTS_CHANGED, null, calendarModel, loaded, Collections.emptySet());
+        }
+        deliverUnlessBatched();
+    }
+    /**
+     * Announces an edit without the event it replaced; the delta then only
+     * knows the date.
+     */
     public void notifyEventModified(model.Event event){
-        markAsDirty();
-        propertyChangeSupport.firePropertyChange("eventModified", null, event);
+        synchronized (stateLock){
+            modelVersion++;
+            setDirty(true);
+            if (recordChange("eventModified", null, event)){
+                pendingBatch.addAffectedDate(event.getDate());
+                pendingBatch.markInexact();
+                pendingBatch.markEdited();
+            }
+        }
+        deliverUnlessBatched();
+    }
+    /**
+     * Announces an edit as the original event removed and the updated one
+     * added, so a move to another date affects both dates.
+     */
+    public void notifyEventModified(model.Event originalEvent, model.Event updatedEvent){
+        notifyEdit("eventModified", originalEvent, updatedEvent, Collections.singleton(updatedEvent), Collections.singleton(originalEvent));
     }
     public void notifyEventAdded(model.Event event){
-        markAsDirty();
-        propertyChangeSupport.firePropertyChange("eventAdded", null, event);
+        notifyEdit("eventAdded", null, event, Collections.singleton(event), Collections.emptySet());
     }
     public void notifyEventDeleted(model.Event event){
-        markAsDirty();
-        propertyChangeSupport.firePropertyChange("eventDeleted", null, event);
+        notifyEdit("eventDeleted", null, event, Collections.emptySet(), Collections.singleton(event));
+    }
+    /**
+     * Announces the events an undo or redo added and removed. The change is
+     * saved like any edit but does not become an undo step itself.
+     */
+    public void notifyHistoryApplied(Collection<model.Event> added, Collection<model.Event> removed){
+        synchronized (stateLock){
+            if (recordEdit(PROPERTY_EVENTS_CHANGED, null, calendarModel, added, removed)){
+                pendingBatch.markHistoryApplied();
+            }
+        }
+        deliverUnlessBatched();
+    }
+    /**
+     * Clears the undo history once the pending changes are delivered, as
+     * after a calendar was loaded.
+     */
+    public void resetUndoHistory(){
+        synchronized (stateLock){
+            if (pendingBatch!=null){
+                pendingBatch.markHistoryReset();
+                return;
+            }
+            undoHistory.reset(calendarModel);
+        }
+    }
+    public UndoHistory getUndoHistory(){
+        return undoHistory;
+    }
+    private void notifyEdit(String propertyName, Object oldValue, Object newValue, Collection<model.Event> added, Collection<model.Event> removed){
+        synchronized (stateLock){
+            recordEdit(propertyName, oldValue, newValue, added, removed);
+        }
+        deliverUnlessBatched();
+    }
+    /**
+     * Bumps the version, marks the calendar dirty and records the change as
+     * one transition. Must hold stateLock.
+     */
+    private boolean recordEdit(String propertyName, Object oldValue, Object newValue, Collection<model.Event> added, Collection<model.Event> removed){
+        modelVersion++;
+        setDirty(true);
+        if (!recordChange(propertyName, oldValue, newValue, added, removed)){
+            return false;
+        }
+        pendingBatch.markEdited();
+        return true;
+    }
+    /**
+     * Starts collecting changes instead of delivering them. Batches nest;
+     * the merged notification goes out when the outermost one ends.
+     */
+    public void beginBatch(){
+        synchronized (stateLock){
+            batchDepth++;
+        }
+    }
+    public void endBatch(){
+        boolean ready=false;
+        synchronized (stateLock){
+            if (batchDepth==0){
+                return;
+            }
+            batchDepth--;
+            if (batchDepth==0&&!frameFlushScheduled){
+                ready=queuePendingBatch();
+            }
+        }
+        if (ready){
+            dispatchOutbox();
+        }
+    }
+    public void runInBatch(Runnable changes){
+        beginBatch();
+        try{
+            changes.run();
+        }
+        finally{
+            endBatch();
+        }
+    }
+    /**
+     * Chooses where listeners are called. null, the default, delivers on the
+     * EDT; Runnable::run delivers on the thread that finished the batch.
+     * Batches are delivered in order either way.
+     */
+    public void setListenerExecutor(Executor executor){
+        this.listenerExecutor=executor;
+    }
+    public Executor getListenerExecutor(){
+        return listenerExecutor;
+    }
+    private boolean recordChange(String propertyName, Object oldValue, Object newValue){
+        return recordChange(propertyName, oldValue, newValue, Collections.emptySet(), Collections.emptySet());
+    }
+    /**
+     * Records a change in the pending batch. added and removed are null
+     * when the change may touch any event, and empty when it touches none.
+     * Must hold stateLock; the caller delivers once it released it.
+     */
+    private boolean recordChange(String propertyName, Object oldValue, Object newValue, Collection<model.Event> added, Collection<model.Event> removed){
+        if (oldValue!=null&&oldValue.equals(newValue)){
+            return false;
+        }
+        if (pendingBatch==null){
+            pendingBatch=new ChangeBatch();
+        }
+        pendingBatch.record(propertyName, oldValue, newValue);
+        if (added==null||removed==null){
+            pendingBatch.markAllDatesAffected();
+        }
+        else{
+            for (model.Event event:removed){
+                pendingBatch.removeEvent(event);
+            }
+            for (model.Event event:added){
+                pendingBatch.addEvent(event);
+            }
+        }
+        return true;
+    }
+    /**
+     * Delivers the pending batch now, unless a batch is open or the EDT
+     * frame will deliver it.
+     */
+    private void deliverUnlessBatched(){
+        boolean ready=false;
+        synchronized (stateLock){
+            if (pendingBatch!=null&&batchDepth==0&&!frameFlushScheduled){
+                if (EventQueue.isDispatchThread()){
+                    frameFlushScheduled=true;
+                    EventQueue.invokeLater(this::flushFrame);
+                }
+                else{
+                    ready=queuePendingBatch();
+                }
+            }
+        }
+        if (ready){
+            dispatchOutbox();
+        }
+    }
+    private void flushFrame(){
+        synchronized (stateLock){
+            frameFlushScheduled=false;
+            if (batchDepth>0||!queuePendingBatch()){
+                return;
+            }
+        }
+        dispatchOutbox();
+    }
+    /**
+     * Moves the pending batch to the outbox and the undo history along with
+     * it, so history steps follow delivery order. Must hold stateLock.
+     */
+    private boolean queuePendingBatch(){
+        ChangeBatch batch=pendingBatch;
+        pendingBatch=null;
+        if (batch==null||batch.isEmpty()){
+            return false;
+        }
+        undoHistory.record(batch, calendarModel);
+        outbox.add(batch);
+        return true;
+    }
+    private void dispatchOutbox(){
+        Executor executor=listenerExecutor;
+        if (executor!=null){
+            executor.execute(this::drainOutbox);
+        }
+        else if (EventQueue.isDispatchThread()){
+            drainOutbox();
+        }
+        else{
+            EventQueue.invokeLater(this::drainOutbox);
+        }
+    }
+    /**
+     * Delivers queued batches in order. Only one thread drains at a time;
+     * batches queued meanwhile, also by listeners, are picked up by the
+     * running drain instead of overtaking the batch being delivered.
+     */
+    private void drainOutbox(){
+        synchronized (stateLock){
+            if (draining){
+                return;
+            }
+            draining=true;
+        }
+        while (true){
+            ChangeBatch batch;
+            synchronized (stateLock){
+                batch=outbox.poll();
+                if (batch==null){
+                    draining=false;
+                    return;
+                }
+            }
+            try{
+                deliver(batch);
+            }
+            catch (RuntimeException exception){
+                System.err.println("State listener failed: "+exception);
+            }
+        }
+    }
+    private void deliver(ChangeBatch batch){
+        for (String propertyName:batch.getPropertyNames()){
+            propertyChangeSupport.firePropertyChange(propertyName, batch.getOldValue(propertyName), batch.getNewValue(propertyName));
+        }
+        EventDelta delta=batch.getEventDelta();
+        if (delta!=null){
+            propertyChangeSupport.firePropertyChange(PROPERTY_EVENT_DELTA, null, delta);
+        }
+        propertyChangeSupport.firePropertyChange(PROPERTY_CHANGE_BATCH, null, batch);
     }
     public void addPropertyChangeListener(PropertyChangeListener listener){
         propertyChangeSupport.addPropertyChangeListener(listener);
@@ -217,52 +567,107 @@ public class AppState {
     public void addPropertyChangeListener(String propertyName, PropertyChangeListener listener){
         propertyChangeSupport.addPropertyChangeListener(propertyName, listener);
     }
+    /**
+     * Registers a listener that is called on its own executor, in order,
+     * so a slow one such as a file exporter holds up nobody else.
+     */
+    public void addPropertyChangeListener(String propertyName, PropertyChangeListener listener, Executor executor){
+        propertyChangeSupport.addPropertyChangeListener(propertyName, new ExecutorListener(listener, executor));
+    }
     public void removePropertyChangeListener(PropertyChangeListener listener){
         propertyChangeSupport.removePropertyChangeListener(listener);
     }
     public void removePropertyChangeListener(String propertyName, PropertyChangeListener listener){
         propertyChangeSupport.removePropertyChangeListener(propertyName, listener);
+        for (PropertyChangeListener registered:propertyChangeSupport.getPropertyChangeListeners(propertyName)){
+            if (registered instanceof ExecutorListener&&((ExecutorListener) registered).listener==listener){
+                propertyChangeSupport.removePropertyChangeListener(propertyName, registered);
+            }
+        }
     }
     public PropertyChangeListener[] getPropertyChangeListeners(){
         return propertyChangeSupport.getPropertyChangeListeners();
     }
     public void reset(){
-        CalendarModel oldModel=this.calendarModel;
-        LocalDate oldDate=this.selectedDate;
-        ViewMode oldViewMode=this.currentViewMode;
-        String oldFilterText=this.filterText;
-        this.calendarModel=new CalendarModel();
-        this.selectedDate=LocalDate.now();
-        this.selectedEvent=null;
-        this.currentViewMode=ViewMode.MONTH_VIEW;
-        this.filterText="";
-        this.isUnsaved=false;
-        propertyChangeSupport.firePropertyChange(PROPERTY_MODEL, oldModel, calendarModel);
-        propertyChangeSupport.firePropertyChange(PROPERTY_SELECTED_DATE, oldDate, selectedDate);
-        propertyChangeSupport.firePropertyChange(PROPERTY_VIEW_MODE, oldViewMode, currentViewMode);
-        propertyChangeSupport.firePropertyChange(PROPERTY_FILTER_TEXT, oldFilterText, filterText);
-        propertyChangeSupport.firePropertyChange("reset", false, true);
-    }
+        synchronized (stateLock){
+            CalendarModel oldModel=this.calendarModel;
+            LocalDate oldDate=this.selectedDate;
+            ViewMode oldViewMode=this.currentViewMode;
+            String oldFilterText=this.filterText;
+            this.calendarModel=new CalendarModel();
+            this.selectedDate=LocalDate.now();
+            this.selectedEvent=null;
+            this.currentViewMode=ViewMode.MONTH_VIEW;
+            this.filterText="";
+            this.isUnsaved=false;
+            modelVersion++;
+            recordChange(PROPERTY_MODEL, oldModel, calendarModel, null, null);
+            recordChange(PROPERTY_SELECTED_DATE, oldDate, selectedDate);
+            recordChange(PROPERTY_VIEW_MODE, oldViewMode, currentViewMode);
+            recordChange(PROPERTY_FILTER_TEXT, oldFilterText, filterText);
+            recordChange("reset", false, true);
+        }
+        deliverUnlessBatched();
+    }
+    /**
+     * Captures the current state. Changes still waiting for the end of the
+     * EDT frame are delivered first, so the undo history's version covers
+     * them; inside an open batch the events are copied from the model
+     * instead.
+     */
     public StateSnapshot createSnapshot(){
-        return new StateSnapshot(
-            this.calendarModel,
-            this.selectedDate,
-            this.selectedEvent,
-            this.currentViewMode,
-            this.filterText,
-            this.isUnsaved
-        );
-    }
+        StateSnapshot snapshot;
+        boolean ready=false;
+        synchronized (stateLock){
+            if (pendingBatch!=null&&batchDepth==0){
+                ready=queuePendingBatch();
+            }
+            PersistentEventSet events=pendingBatch==null?undoHistory.getCurrentVersion():PersistentEventSet.of(calendarModel.getSortedEvents());
+            snapshot=new StateSnapshot(
+                this.calendarModel,
+                this.selectedDate,
+                this.selectedEvent,
+                this.currentViewMode,
+                this.filterText,
+                this.isUnsaved,
+                events
+            );
+        }
+        if (ready){
+            dispatchOutbox();
+        }
+        return snapshot;
+    }
+    /**
+     * Restores the selected date and event, the view and the filter of the
+     * snapshot. A snapshot of another model swaps that model in and marks
+     * the calendar unsaved. The events of the current model are put back by
+     * CalendarController.restoreSnapshot(), which records them for storage
+     * and then calls this.
+     */
     public void restoreFromSnapshot(StateSnapshot snapshot){
-        if (snapshot!=null){
-            this.calendarModel=snapshot.getModel();
+        if (snapshot==null){
+            return;
+        }
+        synchronized (stateLock){
+            if (snapshot.getModel()!=calendarModel){
+                replaceModel(snapshot.getModel());
+            }
+            LocalDate oldDate=this.selectedDate;
+            model.Event oldEvent=this.selectedEvent;
+            ViewMode oldViewMode=this.currentViewMode;
+            String oldFilterText=this.filterText;
             this.selectedDate=snapshot.getSelectedDate();
             this.selectedEvent=snapshot.getSelectedEvent();
             this.currentViewMode=snapshot.getViewMode();
             this.filterText=snapshot.getFilterText();
-            this.isUnsaved=snapshot.isUnsaved();
-            propertyChangeSupport.firePropertyChange("stateRestored", false, true);
+            recordChange(PROPERTY_SELECTED_DATE, oldDate, selectedDate);
+            recordChange(PROPERTY_SELECTED_EVENT, oldEvent, selectedEvent);
+            recordChange(PROPERTY_VIEW_MODE, oldViewMode, currentViewMode);
+            recordChange(PROPERTY_FILTER_TEXT, oldFilterText, filterText);
+            recordChange("stateRestored", false, true);
         }
+        deliverUnlessBatched();
     }
     @Override
     public String toString(){
@@ -285,6 +690,57 @@ public class AppState {
             isUnsaved?"Yes":"No"
         );
     }
+    /**
+     * Hands events to a listener on its executor, one at a time and in the
+     * order they were fired.
+     */
+    private static class ExecutorListener implements PropertyChangeListener{
+        private PropertyChangeListener listener;
+        private Executor executor;
+        private ArrayDeque<PropertyChangeEvent> queue=new ArrayDeque<>();
+        private boolean running;
+        private ExecutorListener(PropertyChangeListener listener, Executor executor){
+            this.listener=listener;
+            this.executor=executor;
+        }
+        @Override
+        public void propertyChange(PropertyChangeEvent evt){
+            synchronized (this){
+                queue.add(evt);
+                if (running){
+                    return;
+                }
+                running=true;
+            }
+            try{
+                executor.execute(this::drain);
+            }
+            catch (RejectedExecutionException exception){
+                synchronized (this){
+                    queue.clear();
+                    running=false;
+                }
+            }
+        }
+        private void drain(){
+            while (true){
+                PropertyChangeEvent evt;
+                synchronized (this){
+                    evt=queue.poll();
+                    if (evt==null){
+                        running=false;
+                        return;
+                    }
+                }
+                try{
+                    listener.propertyChange(evt);
+                }
+                catch (RuntimeException exception){
+                    System.err.println("State listener failed: "+exception);
+                }
+            }
+        }
+    }
     public static class StateSnapshot{
         private CalendarModel model;
         private LocalDate selectedDate;
@@ -292,8 +748,10 @@ public class AppState {
         private ViewMode viewMode;
         private String filterText;
         private boolean dirty;
-        private StateSnapshot(CalendarModel model, LocalDate selectedDate, model.Event selectedEvent, ViewMode viewMode, String filterText, boolean dirty){
+        private PersistentEventSet events;
+        private StateSnapshot(CalendarModel model, LocalDate selectedDate, model.Event selectedEvent, ViewMode viewMode, String filterText, boolean dirty, PersistentEventSet events){
             this.model=model;
+            this.events=events;
             this.selectedDate=selectedDate;
             this.selectedEvent=selectedEvent;
             this.viewMode=viewMode;
@@ -303,6 +761,13 @@ public class AppState {
         public CalendarModel getModel(){
             return model;
         }
+        /**
+         * The events the model held when the snapshot was taken. Unlike the
+         * model, this version never changes.
+         */
+        public PersistentEventSet getEvents(){
+            return events;
+        }
         public LocalDate getSelectedDate(){
             return selectedDate;
         }
@@ -319,4 +784,4 @@ public class AppState {
             return dirty;
         }
     }
-}
\ No newline at end of file
+}
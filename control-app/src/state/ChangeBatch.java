@@ -0,0 +1,193 @@
+package state;
+/*
+ * One merged notification for every AppState change made in a batch.
+ *
+ * Responsibilities:
+ * - Record which properties changed, keeping the first old value and the
+ *   last new value of each
+ * - Record the dates whose events were added, changed or removed, and
+ *   the events themselves as an EventDelta
+ * - Answer whether a date or range of dates was affected
+ *
+ * Java data types used:
+ * - LinkedHashMap<String, Object[]>
+ * - TreeSet<LocalDate>
+ *
+ * Java technologies involved:
+ * - Observer pattern
+ *
+ * Design intent:
+ * Listeners get one batch per transaction or EDT frame and can skip work
+ * for dates nothing touched. When the whole calendar was replaced or the
+ * changed dates are unknown, every date counts as affected.
+ */
+
+import model.Event;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class ChangeBatch {
+    private Map<String, Object[]> changes=new LinkedHashMap<>();
+    private TreeSet<LocalDate> affectedDates=new TreeSet<>();
+    private boolean allDatesAffected;
+    private Set<Event> addedEvents=new LinkedHashSet<>();
+    private Set<Event> removedEvents=new LinkedHashSet<>();
+    private boolean exact=true;
+    private boolean edited;
+    private boolean historyApplied;
+    private boolean historyReset;
+    private EventDelta eventDelta;
+    private int notificationCount;
+    void record(String propertyName, Object oldValue, Object newValue){
+        Object[] change=changes.get(propertyName);
+        if (change==null){
+            changes.put(propertyName, new Object[]{oldValue, newValue});
+        }
+        else{
+            change[1]=newValue;
+        }
+        notificationCount++;
+    }
+    void addAffectedDate(LocalDate date){
+        if (date!=null){
+            affectedDates.add(date);
+        }
+    }
+    void addAffectedDates(Collection<LocalDate> dates){
+        for (LocalDate date:dates){
+            addAffectedDate(date);
+        }
+    }
+    void markAllDatesAffected(){
+        allDatesAffected=true;
+    }
+    /**
+     * Records an added event; adding one removed earlier in the batch
+     * cancels the removal.
+     */
+    void addEvent(Event event){
+        if (!removedEvents.remove(event)){
+            addedEvents.add(event);
+        }
+        addAffectedDate(event.getDate());
+    }
+    void removeEvent(Event event){
+        if (!addedEvents.remove(event)){
+            removedEvents.add(event);
+        }
+        addAffectedDate(event.getDate());
+    }
+    /**
+     * Notes a change announced only by its dates.
+     */
+    void markInexact(){
+        exact=false;
+    }
+    /**
+     * Notes that events were edited rather than read from storage, which
+     * makes the batch an undo step.
+     */
+    void markEdited(){
+        edited=true;
+    }
+    void markHistoryApplied(){
+        historyApplied=true;
+    }
+    void markHistoryReset(){
+        historyReset=true;
+    }
+    boolean isEdited(){
+        return edited;
+    }
+    boolean isHistoryApplied(){
+        return historyApplied;
+    }
+    boolean isHistoryReset(){
+        return historyReset;
+    }
+    boolean isEmpty(){
+        return changes.isEmpty();
+    }
+    public Set<String> getPropertyNames(){
+        return Collections.unmodifiableSet(changes.keySet());
+    }
+    public boolean contains(String propertyName){
+        return changes.containsKey(propertyName);
+    }
+    /**
+     * The value the property had before the first change in this batch.
+     */
+    public Object getOldValue(String propertyName){
+        Object[] change=changes.get(propertyName);
+        return change!=null?change[0]:null;
+    }
+    /**
+     * The value the property has after the last change in this batch.
+     */
+    public Object getNewValue(String propertyName){
+        Object[] change=changes.get(propertyName);
+        return change!=null?change[1]:null;
+    }
+    /**
+     * Dates whose events changed, empty when only the view or selection
+     * changed. Meaningless when isAllDatesAffected() is true.
+     */
+    public NavigableSet<LocalDate> getAffectedDates(){
+        return Collections.unmodifiableNavigableSet(affectedDates);
+    }
+    public boolean isAllDatesAffected(){
+        return allDatesAffected;
+    }
+    /**
+     * True when the calendar contents changed at all.
+     */
+    public boolean hasEventChanges(){
+        return allDatesAffected||!affectedDates.isEmpty();
+    }
+    public boolean affects(LocalDate date){
+        return allDatesAffected||affectedDates.contains(date);
+    }
+    /**
+     * True when any date from start to end, both inclusive, was affected.
+     */
+    public boolean affectsRange(LocalDate start, LocalDate end){
+        if (allDatesAffected){
+            return true;
+        }
+        LocalDate first=affectedDates.ceiling(start);
+        return first!=null&&!first.isAfter(end);
+    }
+    /**
+     * The events added and removed in this batch, or null when the calendar
+     * contents did not change.
+     */
+    public EventDelta getEventDelta(){
+        if (eventDelta==null&&hasEventChanges()){
+            eventDelta=new EventDelta(new ArrayList<>(addedEvents), new ArrayList<>(removedEvents), affectedDates, allDatesAffected, exact);
+        }
+        return eventDelta;
+    }
+    /**
+     * How many single notifications were merged into this batch.
+     */
+    public int getNotificationCount(){
+        return notificationCount;
+    }
+    @Override
+    public String toString(){
+        return String.format("ChangeBatch{properties=%s, dates=%s, notifications=%d}",
+            changes.keySet(),
+            allDatesAffected?"all":affectedDates.size(),
+            notificationCount
+        );
+    }
+}
@@ -0,0 +1,149 @@
+package state;
+/*
+ * Typed description of how the calendar contents changed in one batch.
+ *
+ * Responsibilities:
+ * - List the events added and removed, with an edit counted as the old
+ *   event removed and the new one added
+ * - List the affected dates and merge them into contiguous ranges
+ * - Flag full reloads, after which listeners must rebuild everything
+ *
+ * Java data types used:
+ * - List<Event>
+ * - NavigableSet<LocalDate>
+ * - DateRange
+ *
+ * Java technologies involved:
+ * - Immutable value objects
+ *
+ * Design intent:
+ * Views and caches invalidate only the cells of affected dates instead of
+ * assuming the whole model changed. An event added and removed again in
+ * the same batch cancels out. When a change was announced by date only,
+ * isExact() is false: the dates are still right, but listeners have to
+ * re-read the events on them.
+ */
+
+import model.Event;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+public class EventDelta {
+    private List<Event> added;
+    private List<Event> removed;
+    private NavigableSet<LocalDate> affectedDates;
+    private boolean fullReload;
+    private boolean exact;
+    EventDelta(List<Event> added, List<Event> removed, NavigableSet<LocalDate> affectedDates, boolean fullReload, boolean exact){
+        this.added=Collections.unmodifiableList(new ArrayList<>(added));
+        this.removed=Collections.unmodifiableList(new ArrayList<>(removed));
+        this.affectedDates=Collections.unmodifiableNavigableSet(new TreeSet<>(affectedDates));
+        this.fullReload=fullReload;
+        this.exact=exact&&!fullReload;
+    }
+    public List<Event> getAdded(){
+        return added;
+    }
+    public List<Event> getRemoved(){
+        return removed;
+    }
+    /**
+     * Dates whose events changed. Meaningless after a full reload.
+     */
+    public NavigableSet<LocalDate> getAffectedDates(){
+        return affectedDates;
+    }
+    /**
+     * The affected dates merged into ranges of consecutive days.
+     */
+    public List<DateRange> getAffectedRanges(){
+        List<DateRange> ranges=new ArrayList<>();
+        LocalDate start=null;
+        LocalDate end=null;
+        for (LocalDate date:affectedDates){
+            if (end!=null&&date.equals(end.plusDays(1))){
+                end=date;
+                continue;
+            }
+            if (start!=null){
+                ranges.add(new DateRange(start, end));
+            }
+            start=date;
+            end=date;
+        }
+        if (start!=null){
+            ranges.add(new DateRange(start, end));
+        }
+        return ranges;
+    }
+    /**
+     * True when the model was replaced or cleared, or changed in a way
+     * nobody described; every date counts as affected.
+     */
+    public boolean isFullReload(){
+        return fullReload;
+    }
+    /**
+     * True when getAdded() and getRemoved() list every change.
+     */
+    public boolean isExact(){
+        return exact;
+    }
+    public boolean isEmpty(){
+        return !fullReload&&affectedDates.isEmpty();
+    }
+    public boolean affects(LocalDate date){
+        return fullReload||affectedDates.contains(date);
+    }
+    /**
+     * True when any date from start to end, both inclusive, was affected.
+     */
+    public boolean affectsRange(LocalDate start, LocalDate end){
+        if (fullReload){
+            return true;
+        }
+        LocalDate first=affectedDates.ceiling(start);
+        return first!=null&&!first.isAfter(end);
+    }
+    @Override
+    public String toString(){
+        if (fullReload){
+            return "EventDelta{full reload}";
+        }
+        return String.format("EventDelta{added=%d, removed=%d, ranges=%s%s}",
+            added.size(),
+            removed.size(),
+            getAffectedRanges(),
+            exact?"":", inexact"
+        );
+    }
+    /**
+     * Inclusive range of days.
+     */
+    public static class DateRange {
+        private LocalDate start;
+        private LocalDate end;
+        public DateRange(LocalDate start, LocalDate end){
+            this.start=start;
+            this.end=end;
+        }
+        public LocalDate getStart(){
+            return start;
+        }
+        public LocalDate getEnd(){
+            return end;
+        }
+        public boolean contains(LocalDate date){
+            return !date.isBefore(start)&&!date.isAfter(end);
+        }
+        @Override
+        public String toString(){
+            return start.equals(end)?start.toString():start+".."+end;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package state;
+/*
+ * Undo and redo history of the calendar contents.
+ *
+ * Responsibilities:
+ * - Keep the current calendar contents as a PersistentEventSet version
+ * - Record every delivered batch that edited events as one undo step
+ * - Hand out the events to add and remove to undo or redo a step
+ * - Shrink a step to the part of it that could be applied
+ *
+ * Java data types used:
+ * - PersistentEventSet
+ * - ArrayDeque<Step>
+ *
+ * Java technologies involved:
+ * - Persistent data structures
+ * - Command pattern
+ *
+ * Design intent:
+ * A step is the EventDelta of one batch, so it costs memory for the events
+ * it changed only, never a copy of the calendar. The tracked version shares
+ * all untouched nodes with the previous one, which makes taking a snapshot
+ * O(1) and lets changes announced without their events be recovered by
+ * diffing two versions. Events read from storage move the current version
+ * without becoming steps; loading or replacing the whole calendar clears
+ * the history.
+ */
+
+import model.CalendarModel;
+import model.Event;
+import model.PersistentEventSet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class UndoHistory {
+    public static int DEFAULT_MAX_STEPS=500;
+    private PersistentEventSet current=PersistentEventSet.empty();
+    private ArrayDeque<Step> undoSteps=new ArrayDeque<>();
+    private ArrayDeque<Step> redoSteps=new ArrayDeque<>();
+    private int maxSteps=DEFAULT_MAX_STEPS;
+    /**
+     * Moves the current version along with a batch about to be delivered.
+     * Batches that replay an undo or redo were already applied by it.
+     */
+    synchronized void record(ChangeBatch batch, CalendarModel model){
+        EventDelta delta=batch.getEventDelta();
+        if (delta==null||batch.isHistoryApplied()){
+            if (batch.isHistoryReset()){
+                reset(model);
+            }
+            return;
+        }
+        PersistentEventSet before=current;
+        if (delta.isExact()){
+            current=current.withChanges(delta.getAdded(), delta.getRemoved());
+        }
+        else{
+            current=PersistentEventSet.of(model.getSortedEvents());
+        }
+        if (batch.isHistoryReset()||(delta.isFullReload()&&!batch.isEdited())){
+            clearSteps();
+            return;
+        }
+        if (!batch.isEdited()){
+            return;
+        }
+        List<Event> added=delta.getAdded();
+        List<Event> removed=delta.getRemoved();
+        if (!delta.isExact()){
+            added=new ArrayList<>();
+            removed=new ArrayList<>();
+            before.diff(current, added, removed);
+        }
+        if (added.isEmpty()&&removed.isEmpty()){
+            return;
+        }
+        undoSteps.push(new Step(added, removed));
+        while (undoSteps.size()>maxSteps){
+            undoSteps.removeLast();
+        }
+        redoSteps.clear();
+    }
+    /**
+     * Starts over from the model's current contents.
+     */
+    synchronized void reset(CalendarModel model){
+        current=PersistentEventSet.of(model.getSortedEvents());
+        clearSteps();
+    }
+    /**
+     * Takes the newest step off the undo stack.
+     *
+     * @return the events that undo it, or null when there is nothing to undo
+     */
+    public synchronized Change undo(){
+        Step step=undoSteps.poll();
+        if (step==null){
+            return null;
+        }
+        redoSteps.push(step);
+        current=current.withChanges(step.removed, step.added);
+        return new Change(step, true, step.removed, step.added);
+    }
+    /**
+     * @return the events that redo the last undone step, or null
+     */
+    public synchronized Change redo(){
+        Step step=redoSteps.poll();
+        if (step==null){
+            return null;
+        }
+        undoSteps.push(step);
+        current=current.withChanges(step.added, step.removed);
+        return new Change(step, false, step.added, step.removed);
+    }
+    /**
+     * Records that only part of a change handed out by undo() or redo() was
+     * applied. Events that could not be added leave the current version
+     * again, and the step keeps only what was applied, so undoing or redoing
+     * it later reverses exactly that; a step left with nothing is dropped.
+     */
+    public synchronized void applyPartially(Change change, List<Event> appliedAdded, List<Event> appliedRemoved){
+        List<Event> skippedAdded=new ArrayList<>(change.added);
+        for (Event event:appliedAdded){
+            skippedAdded.remove(event);
+        }
+        current=current.withChanges(Collections.emptyList(), skippedAdded);
+        ArrayDeque<Step> steps=change.undo?redoSteps:undoSteps;
+        if (steps.peek()!=change.step){
+            return;
+        }
+        steps.pop();
+        if (appliedAdded.isEmpty()&&appliedRemoved.isEmpty()){
+            return;
+        }
+        if (change.undo){
+            steps.push(new Step(new ArrayList<>(appliedRemoved), new ArrayList<>(appliedAdded)));
+        }
+        else{
+            steps.push(new Step(new ArrayList<>(appliedAdded), new ArrayList<>(appliedRemoved)));
+        }
+    }
+    public synchronized boolean canUndo(){
+        return !undoSteps.isEmpty();
+    }
+    public synchronized boolean canRedo(){
+        return !redoSteps.isEmpty();
+    }
+    public synchronized int getUndoCount(){
+        return undoSteps.size();
+    }
+    public synchronized int getRedoCount(){
+        return redoSteps.size();
+    }
+    /**
+     * The calendar contents as of the last delivered batch. The version
+     * never changes, so it can be kept as a snapshot.
+     */
+    public synchronized PersistentEventSet getCurrentVersion(){
+        return current;
+    }
+    public synchronized int getMaxSteps(){
+        return maxSteps;
+    }
+    /**
+     * Limits the undo stack; the oldest steps are dropped first.
+     */
+    public synchronized void setMaxSteps(int maxSteps){
+        this.maxSteps=Math.max(1, maxSteps);
+        while (undoSteps.size()>this.maxSteps){
+            undoSteps.removeLast();
+        }
+    }
+    public synchronized void clear(){
+        clearSteps();
+    }
+    private void clearSteps(){
+        undoSteps.clear();
+        redoSteps.clear();
+    }
+    @Override
+    public synchronized String toString(){
+        return String.format("UndoHistory{undo=%d, redo=%d, events=%d}",
+            undoSteps.size(),
+            redoSteps.size(),
+            current.size()
+        );
+    }
+    private static class Step {
+        private List<Event> added;
+        private List<Event> removed;
+        private Step(List<Event> added, List<Event> removed){
+            this.added=added;
+            this.removed=removed;
+        }
+    }
+    /**
+     * The events to add and remove to move the calendar one step.
+     */
+    public static class Change {
+        private Step step;
+        private boolean undo;
+        private List<Event> added;
+        private List<Event> removed;
+        private Change(Step step, boolean undo, List<Event> added, List<Event> removed){
+            this.step=step;
+            this.undo=undo;
+            this.added=Collections.unmodifiableList(added);
+            this.removed=Collections.unmodifiableList(removed);
+        }
+        public List<Event> getAdded(){
+            return added;
+        }
+        public List<Event> getRemoved(){
+            return removed;
+        }
+    }
+}
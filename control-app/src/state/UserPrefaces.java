@@ -5,20 +5,48 @@ package state;
  * Responsibilities:
  * - Store UI preferences
  * - Store overlay sync preferences
+ * - Parse each value once and cache it for typed keys
+ * - Notify listeners when a preference changes
+ * - Write changes to the backing store in the background
  *
  * Java data types used:
- * - Map<String, String>
- * - HashMap<String, String>
+ * - Map<String, Entry>
+ * - ConcurrentHashMap<String, Entry>
+ * - Key<T>
+ * - ScheduledExecutorService
  *
  * Java technologies involved:
  * - Key-value configuration
+ * - java.util.prefs
+ * - Observer pattern
  *
  * Design intent:
- * Preferences are separated from core state.
+ * Preferences are separated from core state. Reads are cheap enough for
+ * renderers to call on every paint: a value is parsed the first time it
+ * is read and the result is kept next to the raw string it came from, so
+ * replacing the string can never leave a stale parse behind. Writes only
+ * update memory and queue the key; the queue goes to java.util.prefs once
+ * writes have been quiet for a moment, at the latest after a few seconds,
+ * and when the JVM exits. One exit hook serves every instance and only
+ * holds those with writes still queued.
  */
 
+import java.beans.PropertyChangeListener;
+import java.beans.PropertyChangeSupport;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
 public class UserPrefaces {
@@ -59,107 +87,163 @@ public class UserPrefaces {
     public static int DEFAULT_AUTO_SAVE_INTERVAL=5;
     public static boolean DEFAULT_CONFIRM_DELETE=true;
     public static boolean DEFAULT_CONFIRM_EXIT=true;
-    private Map<String, String> preferences;
+    public static Key<String> KEY_THEME=Key.ofString(PREF_THEME, DEFAULT_THEME);
+    public static Key<String> KEY_LANGUAGE=Key.ofString(PREF_LANGUAGE, DEFAULT_LANGUAGE);
+    public static Key<String> KEY_FIRST_DAY_OF_WEEK=Key.ofString(PREF_FIRST_DAY_OF_WEEK, DEFAULT_FIRST_DAY_OF_WEEK);
+    public static Key<Boolean> KEY_SHOW_WEEK_NUMBERS=Key.ofBoolean(PREF_SHOW_WEEK_NUMBERS, DEFAULT_SHOW_WEEK_NUMBERS);
+    public static Key<String> KEY_DEFAULT_VIEW=Key.ofString(PREF_DEFAULT_VIEW, DEFAULT_DEFAULT_VIEW);
+    public static Key<Boolean> KEY_SHOW_WORK_HOURS=Key.ofBoolean(PREF_SHOW_WORK_HOURS, DEFAULT_SHOW_WORK_HOURS);
+    public static Key<Integer> KEY_WORK_START_HOUR=Key.ofInt(PREF_WORK_START_HOUR, DEFAULT_WORK_START_HOUR);
+    public static Key<Integer> KEY_WORK_END_HOUR=Key.ofInt(PREF_WORK_END_HOUR, DEFAULT_WORK_END_HOUR);
+    public static Key<Integer> KEY_REMINDER_TIME=Key.ofInt(PREF_REMINDER_TIME, DEFAULT_REMINDER_TIME);
+    public static Key<Boolean> KEY_SYNC_ENABLED=Key.ofBoolean(PREF_SYNC_ENABLED, DEFAULT_SYNC_ENABLED);
+    public static Key<String> KEY_SYNC_FREQUENCY=Key.ofString(PREF_SYNC_FREQUENCY, DEFAULT_SYNC_FREQUENCY);
+    public static Key<Boolean> KEY_OVERLAY_ENABLED=Key.ofBoolean(PREF_OVERLAY_ENABLED, DEFAULT_OVERLAY_ENABLED);
+    public static Key<Double> KEY_OVERLAY_OPACITY=Key.ofDouble(PREF_OVERLAY_OPACITY, DEFAULT_OVERLAY_OPACITY);
+    public static Key<String> KEY_OVERLAY_POSITION=Key.ofString(PREF_OVERLAY_POSITION, DEFAULT_OVERLAY_POSITION);
+    public static Key<Boolean> KEY_AUTO_SAVE=Key.ofBoolean(PREF_AUTO_SAVE, DEFAULT_AUTO_SAVE);
+    public static Key<Integer> KEY_AUTO_SAVE_INTERVAL=Key.ofInt(PREF_AUTO_SAVE_INTERVAL, DEFAULT_AUTO_SAVE_INTERVAL);
+    public static Key<Boolean> KEY_CONFIRM_DELETE=Key.ofBoolean(PREF_CONFIRM_DELETE, DEFAULT_CONFIRM_DELETE);
+    public static Key<Boolean> KEY_CONFIRM_EXIT=Key.ofBoolean(PREF_CONFIRM_EXIT, DEFAULT_CONFIRM_EXIT);
+    private static List<Key<?>> DEFAULT_KEYS=List.of(
+        KEY_THEME, KEY_LANGUAGE, KEY_FIRST_DAY_OF_WEEK, KEY_SHOW_WEEK_NUMBERS, KEY_DEFAULT_VIEW,
+        KEY_SHOW_WORK_HOURS, KEY_WORK_START_HOUR, KEY_WORK_END_HOUR, KEY_REMINDER_TIME,
+        KEY_SYNC_ENABLED, KEY_SYNC_FREQUENCY, KEY_OVERLAY_ENABLED, KEY_OVERLAY_OPACITY,
+        KEY_OVERLAY_POSITION, KEY_AUTO_SAVE, KEY_AUTO_SAVE_INTERVAL, KEY_CONFIRM_DELETE, KEY_CONFIRM_EXIT
+    );
+    private static long DEFAULT_QUIET_PERIOD_MILLIS=500;
+    private static long MAX_FLUSH_DELAY_MILLIS=5000;
+    private static ScheduledExecutorService flushExecutor;
+    private static Set<UserPrefaces> unflushed=ConcurrentHashMap.newKeySet();
+    private static boolean exitFlushRegistered;
+    private Map<String, Entry> preferences;
     private Preferences systemPreferences;
+    private PropertyChangeSupport changeSupport=new PropertyChangeSupport(this);
+    private Map<String, String> pendingWrites=new LinkedHashMap<>();
+    private boolean clearPending;
+    private ScheduledFuture<?> pendingFlush;
+    private long firstPendingWriteAt;
+    private long quietPeriodMillis=DEFAULT_QUIET_PERIOD_MILLIS;
+    private Object flushLock=new Object();
     public UserPrefaces(){
-        this.preferences=new HashMap<>();
+        this.preferences=new ConcurrentHashMap<>();
         this.systemPreferences=Preferences.userNodeForPackage(UserPrefaces.class);
         loadDefaults();
         loadFromSystem();
     }
     public UserPrefaces(Map<String, String> initialPreferences){
-        this.preferences=new HashMap<>(initialPreferences);
+        this.preferences=new ConcurrentHashMap<>();
+        for (Map.Entry<String, String> entry:initialPreferences.entrySet()){
+            if (entry.getValue()!=null){
+                preferences.put(entry.getKey(), new Entry(entry.getValue()));
+            }
+        }
         this.systemPreferences=Preferences.userNodeForPackage(UserPrefaces.class);
         loadDefaults();
     }
     private void loadDefaults(){
-        setDefaultIfMissing(PREF_THEME, DEFAULT_THEME);
-        setDefaultIfMissing(PREF_LANGUAGE, DEFAULT_LANGUAGE);
-        setDefaultIfMissing(PREF_FIRST_DAY_OF_WEEK, DEFAULT_FIRST_DAY_OF_WEEK);
-        setDefaultIfMissing(PREF_SHOW_WEEK_NUMBERS, String.valueOf(DEFAULT_SHOW_WEEK_NUMBERS));
-        setDefaultIfMissing(PREF_DEFAULT_VIEW, DEFAULT_DEFAULT_VIEW);
-        setDefaultIfMissing(PREF_SHOW_WORK_HOURS, String.valueOf(DEFAULT_SHOW_WORK_HOURS));
-        setDefaultIfMissing(PREF_WORK_START_HOUR, String.valueOf(DEFAULT_WORK_START_HOUR));
-        setDefaultIfMissing(PREF_WORK_END_HOUR, String.valueOf(DEFAULT_WORK_END_HOUR));
-        setDefaultIfMissing(PREF_REMINDER_TIME, String.valueOf(DEFAULT_REMINDER_TIME));
-        setDefaultIfMissing(PREF_SYNC_ENABLED, String.valueOf(DEFAULT_SYNC_ENABLED));
-        setDefaultIfMissing(PREF_SYNC_FREQUENCY, DEFAULT_SYNC_FREQUENCY);
-        setDefaultIfMissing(PREF_OVERLAY_ENABLED, String.valueOf(DEFAULT_OVERLAY_ENABLED));
-        setDefaultIfMissing(PREF_OVERLAY_OPACITY, String.valueOf(DEFAULT_OVERLAY_OPACITY));
-        setDefaultIfMissing(PREF_OVERLAY_POSITION, DEFAULT_OVERLAY_POSITION);
-        setDefaultIfMissing(PREF_AUTO_SAVE, String.valueOf(DEFAULT_AUTO_SAVE));
-        setDefaultIfMissing(PREF_AUTO_SAVE_INTERVAL, String.valueOf(DEFAULT_AUTO_SAVE_INTERVAL));
-        setDefaultIfMissing(PREF_CONFIRM_DELETE, String.valueOf(DEFAULT_CONFIRM_DELETE));
-        setDefaultIfMissing(PREF_CONFIRM_EXIT, String.valueOf(DEFAULT_CONFIRM_EXIT));
+        for (Key<?> key:DEFAULT_KEYS){
+            preferences.putIfAbsent(key.name, new Entry(String.valueOf(key.defaultValue)));
+        }
     }
     private void loadFromSystem(){
         for (String key:preferences.keySet()){
             String systemValue=systemPreferences.get(key, null);
             if (systemValue!=null){
-                preferences.put(key, systemValue);
+                preferences.put(key, new Entry(systemValue));
             }
         }
     }
-    private void setDefaultIfMissing(String key, String defaultValue){
-        if (!preferences.containsKey(key)){
-            preferences.put(key, defaultValue);
+    /**
+     * Reads a typed preference. The stored string is parsed on the first
+     * read only; a missing or unparsable value gives the key's default.
+     */
+    public <T> T get(Key<T> key){
+        T value=parsed(key.name, key.type, key.parser);
+        return value!=null?value:key.defaultValue;
+    }
+    /**
+     * Stores a typed preference, keeping the value as its cached parse.
+     */
+    public <T> void set(Key<T> key, T value){
+        if (value==null){
+            remove(key.name);
+            return;
         }
+        Entry entry=new Entry(String.valueOf(value));
+        entry.parsed=value;
+        store(key.name, entry);
     }
     public String getString(String key){
-        return preferences.get(key);
+        Entry entry=preferences.get(key);
+        return entry!=null?entry.raw:null;
     }
     public String getString(String key, String defaultValue){
-        return preferences.getOrDefault(key, defaultValue);
+        Entry entry=preferences.get(key);
+        return entry!=null?entry.raw:defaultValue;
     }
     public int getInt(String key){
-        try{
-            return Integer.parseInt(preferences.get(key));
-        }
-        catch (NumberFormatException|NullPointerException e){
-            return 0;
-        }
+        return getInt(key, 0);
     }
     public int getInt(String key, int defaultValue){
-        try{
-            return Integer.parseInt(preferences.get(key));
-        }
-        catch (NumberFormatException|NullPointerException e){
-            return defaultValue;
-        }
+        Integer value=parsed(key, Integer.class, Integer::valueOf);
+        return value!=null?value:defaultValue;
     }
     public boolean getBoolean(String key){
-        String value=preferences.get(key);
-        if (value==null){
-            return false;
-        }
-        return Boolean.parseBoolean(value);
+        return getBoolean(key, false);
     }
     public boolean getBoolean(String key, boolean defaultValue){
-        String value=preferences.get(key);
-        if (value==null){
-            return defaultValue;
-        }
-        return Boolean.parseBoolean(value);
+        Boolean value=parsed(key, Boolean.class, Boolean::valueOf);
+        return value!=null?value:defaultValue;
     }
     public double getDouble(String key){
-        try{
-            return Double.parseDouble(preferences.get(key));
-        }
-        catch (NumberFormatException|NullPointerException e){
-            return 0.0;
-        }
+        return getDouble(key, 0.0);
     }
     public double getDouble(String key, double defaultValue){
+        Double value=parsed(key, Double.class, Double::valueOf);
+        return value!=null?value:defaultValue;
+    }
+    /**
+     * Returns the cached parse of a preference, parsing and caching it when
+     * the cache holds nothing or another type. A string that does not parse
+     * as the type is remembered as such, so it is not parsed again on every
+     * read.
+     *
+     * @return null when the preference is missing or does not parse
+     */
+    private <T> T parsed(String key, Class<T> type, Function<String, T> parser){
+        Entry entry=preferences.get(key);
+        if (entry==null){
+            return null;
+        }
+        Object cached=entry.parsed;
+        if (type.isInstance(cached)){
+            return type.cast(cached);
+        }
+        if (cached instanceof Unparsable&&((Unparsable) cached).type==type){
+            return null;
+        }
         try{
-            return Double.parseDouble(preferences.get(key));
+            T value=parser.apply(entry.raw);
+            entry.parsed=value;
+            return value;
         }
-        catch (NumberFormatException|NullPointerException e){
-            return defaultValue;
+        catch (NumberFormatException e){
+            entry.parsed=new Unparsable(type);
+            return null;
         }
     }
     public void set(String key, String value){
-        preferences.put(key, value);
-        systemPreferences.put(key, value);
+        if (value==null){
+            remove(key);
+            return;
+        }
+        store(key, new Entry(value));
+    }
+    private void store(String key, Entry entry){
+        Entry old=preferences.put(key, entry);
+        queueWrite(key, entry.raw);
+        changeSupport.firePropertyChange(key, old!=null?old.raw:null, entry.raw);
     }
     public void setInt(String key, int value){
         set(key, String.valueOf(value));
@@ -171,167 +255,328 @@ public class UserPrefaces {
         set(key, String.valueOf(value));
     }
     public void remove(String key){
-        preferences.remove(key);
-        systemPreferences.remove(key);
+        Entry old=preferences.remove(key);
+        queueWrite(key, null);
+        if (old!=null){
+            changeSupport.firePropertyChange(key, old.raw, null);
+        }
     }
     public boolean contains(String key){
         return preferences.containsKey(key);
     }
     public void clear(){
+        Map<String, Entry> old=new HashMap<>(preferences);
         preferences.clear();
-        try{
-            systemPreferences.clear();
+        synchronized (this){
+            pendingWrites.clear();
+            clearPending=true;
         }
-        catch (Exception e){
-
+        scheduleFlush();
+        for (Map.Entry<String, Entry> entry:old.entrySet()){
+            changeSupport.firePropertyChange(entry.getKey(), entry.getValue().raw, null);
         }
     }
     public Map<String, String> getAllPreferences(){
-        return new HashMap<>(preferences);
+        Map<String, String> all=new HashMap<>();
+        for (Map.Entry<String, Entry> entry:preferences.entrySet()){
+            all.put(entry.getKey(), entry.getValue().raw);
+        }
+        return all;
     }
     public void setAllPreferences(Map<String, String> newPreferences){
-        preferences.clear();
-        preferences.putAll(newPreferences);
+        for (String key:getAllPreferences().keySet()){
+            if (!newPreferences.containsKey(key)){
+                Entry old=preferences.remove(key);
+                if (old!=null){
+                    changeSupport.firePropertyChange(key, old.raw, null);
+                }
+            }
+        }
         for (Map.Entry<String, String> entry:newPreferences.entrySet()){
-            systemPreferences.put(entry.getKey(), entry.getValue());
+            set(entry.getKey(), entry.getValue());
         }
     }
+    /**
+     * Listens for changes to any preference. Events carry the preference
+     * name and the old and new stored strings; read typed values with
+     * get(Key).
+     */
+    public void addPropertyChangeListener(PropertyChangeListener listener){
+        changeSupport.addPropertyChangeListener(listener);
+    }
+    public void addPropertyChangeListener(String key, PropertyChangeListener listener){
+        changeSupport.addPropertyChangeListener(key, listener);
+    }
+    public void addPropertyChangeListener(Key<?> key, PropertyChangeListener listener){
+        changeSupport.addPropertyChangeListener(key.name, listener);
+    }
+    public void removePropertyChangeListener(PropertyChangeListener listener){
+        changeSupport.removePropertyChangeListener(listener);
+    }
+    public void removePropertyChangeListener(String key, PropertyChangeListener listener){
+        changeSupport.removePropertyChangeListener(key, listener);
+    }
+    public void removePropertyChangeListener(Key<?> key, PropertyChangeListener listener){
+        changeSupport.removePropertyChangeListener(key.name, listener);
+    }
     public String getTheme(){
-        return getString(PREF_THEME, DEFAULT_THEME);
+        return get(KEY_THEME);
     }
     public void setTheme(String theme){
-        set(PREF_THEME, theme);
+        set(KEY_THEME, theme);
     }
     public String getLanguage(){
-        return getString(PREF_LANGUAGE, DEFAULT_LANGUAGE);
+        return get(KEY_LANGUAGE);
     }
     public void setLanguage(String language){
-        set(PREF_LANGUAGE, language);
+        set(KEY_LANGUAGE, language);
     }
     public String getFirstDayOfWeek(){
-        return getString(PREF_FIRST_DAY_OF_WEEK, DEFAULT_FIRST_DAY_OF_WEEK);
+        return get(KEY_FIRST_DAY_OF_WEEK);
     }
     public void setFirstDayOfWeek(String day){
-        set(PREF_FIRST_DAY_OF_WEEK, day);
+        set(KEY_FIRST_DAY_OF_WEEK, day);
     }
     public boolean getShowWeekNumbers(){
-        return getBoolean(PREF_SHOW_WEEK_NUMBERS, DEFAULT_SHOW_WEEK_NUMBERS);
+        return get(KEY_SHOW_WEEK_NUMBERS);
     }
     public void setShowWeekNumbers(boolean show){
-        setBoolean(PREF_SHOW_WEEK_NUMBERS, show);
+        set(KEY_SHOW_WEEK_NUMBERS, show);
     }
     public String getDefaultView(){
-        return getString(PREF_DEFAULT_VIEW, DEFAULT_DEFAULT_VIEW);
+        return get(KEY_DEFAULT_VIEW);
     }
     public void setDefaultView(String view){
-        set(PREF_DEFAULT_VIEW, view);
+        set(KEY_DEFAULT_VIEW, view);
     }
     public boolean getShowWorkHours(){
-        return getBoolean(PREF_SHOW_WORK_HOURS, DEFAULT_SHOW_WORK_HOURS);
+        return get(KEY_SHOW_WORK_HOURS);
     }
     public void setShowWorkHours(boolean show){
-        setBoolean(PREF_SHOW_WORK_HOURS, show);
+        set(KEY_SHOW_WORK_HOURS, show);
     }
     public int getWorkStartHour(){
-        return getInt(PREF_WORK_START_HOUR, DEFAULT_WORK_START_HOUR);
+        return get(KEY_WORK_START_HOUR);
     }
     public void setWorkStartHour(int hour){
-        setInt(PREF_WORK_START_HOUR, hour);
+        set(KEY_WORK_START_HOUR, hour);
     }
     public int getWorkEndHour(){
-        return getInt(PREF_WORK_END_HOUR, DEFAULT_WORK_END_HOUR);
+        return get(KEY_WORK_END_HOUR);
     }
     public void setWorkEndHour(int hour){
-        setInt(PREF_WORK_END_HOUR, hour);
+        set(KEY_WORK_END_HOUR, hour);
     }
     public int getReminderTime(){
-        return getInt(PREF_REMINDER_TIME, DEFAULT_REMINDER_TIME);
+        return get(KEY_REMINDER_TIME);
     }
     public void setReminderTime(int minutes){
-        setInt(PREF_REMINDER_TIME, minutes);
+        set(KEY_REMINDER_TIME, minutes);
     }
     public boolean getSyncEnabled(){
-        return getBoolean(PREF_SYNC_ENABLED, DEFAULT_SYNC_ENABLED);
+        return get(KEY_SYNC_ENABLED);
     }
     public void setSyncEnabled(boolean enabled){
-        setBoolean(PREF_SYNC_ENABLED, enabled);
+        set(KEY_SYNC_ENABLED, enabled);
     }
     public String getSyncFrequency(){
-        return getString(PREF_SYNC_FREQUENCY, DEFAULT_SYNC_FREQUENCY);
+        return get(KEY_SYNC_FREQUENCY);
     }
     public void setSyncFrequency(String frequency){
-        set(PREF_SYNC_FREQUENCY, frequency);
+        set(KEY_SYNC_FREQUENCY, frequency);
     }
     public boolean getOverlayEnabled(){
-        return getBoolean(PREF_OVERLAY_ENABLED, DEFAULT_OVERLAY_ENABLED);
+        return get(KEY_OVERLAY_ENABLED);
     }
     public void setOverlayEnabled(boolean enabled){
-        setBoolean(PREF_OVERLAY_ENABLED, enabled);
+        set(KEY_OVERLAY_ENABLED, enabled);
     }
     public double getOverlayOpacity(){
-        return getDouble(PREF_OVERLAY_OPACITY, DEFAULT_OVERLAY_OPACITY);
+        return get(KEY_OVERLAY_OPACITY);
     }
     public void setOverlayOpacity(double opacity){
-        setDouble(PREF_OVERLAY_OPACITY, opacity);
+        set(KEY_OVERLAY_OPACITY, opacity);
     }
     public String getOverlayPosition(){
-        return getString(PREF_OVERLAY_POSITION, DEFAULT_OVERLAY_POSITION);
+        return get(KEY_OVERLAY_POSITION);
     }
     public void setOverlayPosition(String position){
-        set(PREF_OVERLAY_POSITION, position);
+        set(KEY_OVERLAY_POSITION, position);
     }
     public boolean getAutoSave(){
-        return getBoolean(PREF_AUTO_SAVE, DEFAULT_AUTO_SAVE);
+        return get(KEY_AUTO_SAVE);
     }
     public void setAutoSave(boolean autoSave){
-        setBoolean(PREF_AUTO_SAVE, autoSave);
+        set(KEY_AUTO_SAVE, autoSave);
     }
     public int getAutoSaveInterval(){
-        return getInt(PREF_AUTO_SAVE_INTERVAL, DEFAULT_AUTO_SAVE_INTERVAL);
+        return get(KEY_AUTO_SAVE_INTERVAL);
     }
     public void setAutoSaveInterval(int minutes){
-        setInt(PREF_AUTO_SAVE_INTERVAL, minutes);
+        set(KEY_AUTO_SAVE_INTERVAL, minutes);
     }
     public boolean getConfirmDelete(){
-        return getBoolean(PREF_CONFIRM_DELETE, DEFAULT_CONFIRM_DELETE);
+        return get(KEY_CONFIRM_DELETE);
     }
     public void setConfirmDelete(boolean confirm){
-        setBoolean(PREF_CONFIRM_DELETE, confirm);
+        set(KEY_CONFIRM_DELETE, confirm);
     }
     public boolean getConfirmExit(){
-        return getBoolean(PREF_CONFIRM_EXIT, DEFAULT_CONFIRM_EXIT);
+        return get(KEY_CONFIRM_EXIT);
     }
     public void setConfirmExit(boolean confirm){
-        setBoolean(PREF_CONFIRM_EXIT, confirm);
+        set(KEY_CONFIRM_EXIT, confirm);
     }
+    /**
+     * Writes every preference to the backing store now.
+     */
     public void saveToSystem(){
-        for (Map.Entry<String, String> entry:preferences.entrySet()){
-            systemPreferences.put(entry.getKey(), entry.getValue());
+        synchronized (this){
+            for (Map.Entry<String, Entry> entry:preferences.entrySet()){
+                pendingWrites.put(entry.getKey(), entry.getValue().raw);
+            }
         }
+        flush();
     }
+    /**
+     * Reloads the preferences from the backing store and notifies listeners
+     * of every preference whose stored string changed.
+     */
     public void loadFromSystem(boolean keepExisting){
+        flush();
+        Map<String, String> old=getAllPreferences();
         if (!keepExisting){
             preferences.clear();
         }
         try{
             String[] keys=systemPreferences.keys();
             for (String key:keys){
-                preferences.put(key, systemPreferences.get(key, ""));
+                preferences.put(key, new Entry(systemPreferences.get(key, "")));
             }
         }
-        catch (Exception e){
-
+        catch (BackingStoreException|IllegalStateException e){
+            System.err.println("Failed to read preferences: "+e.getMessage());
         }
         loadDefaults();
+        Map<String, String> loaded=getAllPreferences();
+        Set<String> keys=new HashSet<>(old.keySet());
+        keys.addAll(loaded.keySet());
+        for (String key:keys){
+            if (!Objects.equals(old.get(key), loaded.get(key))){
+                changeSupport.firePropertyChange(key, old.get(key), loaded.get(key));
+            }
+        }
     }
     public Map<String, String> exportPreferences(){
-        return new HashMap<>(preferences);
+        return getAllPreferences();
     }
     public void importPreferences(Map<String, String> importedPrefs){
-        preferences.clear();
-        preferences.putAll(importedPrefs);
+        setAllPreferences(importedPrefs);
         saveToSystem();
     }
+    /**
+     * Waits this long after the last write before flushing, so a burst of
+     * changes such as dragging a slider is written once.
+     */
+    public void setQuietPeriodMillis(long quietPeriodMillis){
+        this.quietPeriodMillis=quietPeriodMillis;
+    }
+    public long getQuietPeriodMillis(){
+        return quietPeriodMillis;
+    }
+    public synchronized boolean hasPendingWrites(){
+        return clearPending||!pendingWrites.isEmpty();
+    }
+    private void queueWrite(String key, String value){
+        synchronized (this){
+            pendingWrites.put(key, value);
+        }
+        scheduleFlush();
+    }
+    /**
+     * Restarts the quiet-period countdown, unless writes have been waiting
+     * longer than MAX_FLUSH_DELAY_MILLIS, in which case they are flushed now.
+     */
+    private synchronized void scheduleFlush(){
+        long now=System.currentTimeMillis();
+        if (firstPendingWriteAt==0){
+            firstPendingWriteAt=now;
+        }
+        if (pendingFlush!=null){
+            pendingFlush.cancel(false);
+        }
+        long delay=quietPeriodMillis;
+        long deadline=firstPendingWriteAt+MAX_FLUSH_DELAY_MILLIS;
+        if (now+delay>deadline){
+            delay=Math.max(0, deadline-now);
+        }
+        pendingFlush=getFlushExecutor().schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        unflushed.add(this);
+    }
+    /**
+     * Writes the queued changes to the backing store now. Flushes run one
+     * at a time, so later values never get overwritten by earlier ones.
+     */
+    public void flush(){
+        synchronized (flushLock){
+            Map<String, String> writes;
+            boolean clear;
+            synchronized (this){
+                writes=pendingWrites;
+                clear=clearPending;
+                pendingWrites=new LinkedHashMap<>();
+                clearPending=false;
+                firstPendingWriteAt=0;
+                if (pendingFlush!=null){
+                    pendingFlush.cancel(false);
+                    pendingFlush=null;
+                }
+                unflushed.remove(this);
+            }
+            if (writes.isEmpty()&&!clear){
+                return;
+            }
+            try{
+                if (clear){
+                    systemPreferences.clear();
+                }
+                for (Map.Entry<String, String> write:writes.entrySet()){
+                    if (write.getValue()==null){
+                        systemPreferences.remove(write.getKey());
+                    }
+                    else{
+                        systemPreferences.put(write.getKey(), write.getValue());
+                    }
+                }
+                systemPreferences.flush();
+            }
+            catch (BackingStoreException|IllegalStateException e){
+                System.err.println("Failed to write preferences: "+e.getMessage());
+            }
+        }
+    }
+    /**
+     * Creates the flush thread and, once per JVM, the exit hook that
+     * flushes whatever instances still have writes queued.
+     */
+    private static synchronized ScheduledExecutorService getFlushExecutor(){
+        if (!exitFlushRegistered){
+            Runtime.getRuntime().addShutdownHook(new Thread(()->{
+                for (UserPrefaces preferences:unflushed){
+                    preferences.flush();
+                }
+            }, "preferences-exit-flush"));
+            exitFlushRegistered=true;
+        }
+        if (flushExecutor==null){
+            flushExecutor=Executors.newSingleThreadScheduledExecutor(runnable->{
+                Thread thread=new Thread(runnable, "preferences-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return flushExecutor;
+    }
     @Override
     public String toString(){
         return "UserPrefaces{"+"preferences="+preferences.size()+" entries"+", theme='"+getTheme()+"'"+", language='"+getLanguage()+"'"+", syncEnabled="+getSyncEnabled()+", overlayEnabled="+getOverlayEnabled()+'}';
@@ -349,4 +594,62 @@ public class UserPrefaces {
         stringBuilder.append("  Total Preferences: ").append(preferences.size()).append("\n");
         return stringBuilder.toString();
     }
-}
\ No newline at end of file
+    /**
+     * A stored string and its parse, which is filled in on the first typed
+     * read. Replacing a preference replaces the entry, never its string.
+     */
+    private static class Entry {
+        private final String raw;
+        private volatile Object parsed;
+        private Entry(String raw){
+            this.raw=raw;
+        }
+    }
+    /**
+     * Cached in place of a parse when the stored string is not a valid
+     * value of the type.
+     */
+    private static class Unparsable {
+        private Class<?> type;
+        private Unparsable(Class<?> type){
+            this.type=type;
+        }
+    }
+    /**
+     * Typed name of a preference with its default value.
+     */
+    public static class Key<T> {
+        private String name;
+        private Class<T> type;
+        private T defaultValue;
+        private Function<String, T> parser;
+        private Key(String name, Class<T> type, T defaultValue, Function<String, T> parser){
+            this.name=name;
+            this.type=type;
+            this.defaultValue=defaultValue;
+            this.parser=parser;
+        }
+        public static Key<String> ofString(String name, String defaultValue){
+            return new Key<>(name, String.class, defaultValue, raw->raw);
+        }
+        public static Key<Integer> ofInt(String name, int defaultValue){
+            return new Key<>(name, Integer.class, defaultValue, Integer::valueOf);
+        }
+        public static Key<Boolean> ofBoolean(String name, boolean defaultValue){
+            return new Key<>(name, Boolean.class, defaultValue, Boolean::valueOf);
+        }
+        public static Key<Double> ofDouble(String name, double defaultValue){
+            return new Key<>(name, Double.class, defaultValue, Double::valueOf);
+        }
+        public String getName(){
+            return name;
+        }
+        public T getDefaultValue(){
+            return defaultValue;
+        }
+        @Override
+        public String toString(){
+            return name;
+        }
+    }
+}
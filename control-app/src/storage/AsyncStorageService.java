@@ -0,0 +1,287 @@
+package storage;
+
+/**
+ * Single-writer asynchronous front end for a StorageBackend.
+ *
+ * Responsibilities:
+ *-Capture model snapshots on the calling thread
+ *-Queue saves, exports and backups for one writer thread
+ *-Collapse queued saves into the newest snapshot
+ *-Complete a CompletableFuture for every request
+ *-Track save latency and queue depth
+ *
+ * Java data types used:
+ *-BlockingQueue<WriteTask>
+ *-CompletableFuture<Boolean>
+ *-AtomicLong
+ *
+ * Java technologies involved:
+ *-java.util.concurrent
+ *
+ * Design intent:
+ * Callers never wait on disk, and only one thread ever writes the files,
+ * so writes cannot interleave.
+ */
+import model.CalendarModel;
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+public class AsyncStorageService implements Closeable{
+    private static int DEFAULT_QUEUE_CAPACITY=16;
+    private static long CLOSE_TIMEOUT_MILLIS=30000;
+    private StorageBackend store;
+    private BlockingQueue<WriteTask> queue;
+    private SaveTask queuedSave;
+    private Thread writerThread;
+    private volatile boolean closed;
+    private AtomicLong savesCompleted=new AtomicLong();
+    private AtomicLong savesCollapsed=new AtomicLong();
+    private AtomicLong failures=new AtomicLong();
+    private AtomicLong totalSaveLatencyNanos=new AtomicLong();
+    private volatile long lastSaveLatencyNanos;
+    private volatile long maxSaveLatencyNanos;
+    private volatile int maxQueueDepth;
+    public AsyncStorageService(StorageBackend store){
+        this(store, DEFAULT_QUEUE_CAPACITY);
+    }
+    public AsyncStorageService(StorageBackend store, int queueCapacity){
+        this.store=store;
+        this.queue=new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    }
+    public synchronized void start(){
+        if (writerThread!=null){
+            return;
+        }
+        closed=false;
+        writerThread=new Thread(this::runWriter, "calendar-storage-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+    /**
+     * Queues a save. If a save is already waiting, its snapshot is replaced
+     * by this newer one and both callers share the result.
+     */
+    public CompletableFuture<Boolean> save(CalendarModel model){
+        SaveTask task;
+        synchronized (this){
+            SaveBatch batch=store.captureSave(model);
+            if (queuedSave!=null){
+                queuedSave.batch.mergeNewer(batch);
+                savesCollapsed.incrementAndGet();
+                return queuedSave.result;
+            }
+            task=new SaveTask(batch, false);
+            queuedSave=task;
+        }
+        return enqueue(task);
+    }
+    /**
+     * Queues a save that also folds the journal into a full snapshot.
+     */
+    public CompletableFuture<Boolean> compact(CalendarModel model){
+        SaveTask task;
+        synchronized (this){
+            SaveBatch batch=store.captureSave(model);
+            if (queuedSave!=null){
+                queuedSave.batch.mergeNewer(batch);
+                queuedSave.compact=true;
+                savesCollapsed.incrementAndGet();
+                return queuedSave.result;
+            }
+            task=new SaveTask(batch, true);
+            queuedSave=task;
+        }
+        return enqueue(task);
+    }
+    public CompletableFuture<Boolean> export(CalendarModel model, Path exportPath){
+        SaveBatch batch=store.captureSnapshot(model);
+        return enqueue(new WriteTask(()->store.exportCalendar(batch, exportPath)));
+    }
+    public CompletableFuture<Boolean> backup(CalendarModel model){
+        SaveBatch batch=store.captureSnapshot(model);
+        return enqueue(new WriteTask(()->store.createManualBackup(batch)));
+    }
+    /**
+     * Completes once every request queued before it has been written.
+     */
+    public CompletableFuture<Boolean> flush(){
+        return enqueue(new WriteTask(()->true));
+    }
+    private CompletableFuture<Boolean> enqueue(WriteTask task){
+        if (closed){
+            synchronized (this){
+                if (queuedSave==task){
+                    queuedSave=null;
+                }
+            }
+            task.result.complete(false);
+            return task.result;
+        }
+        try{
+            queue.put(task);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            task.result.complete(false);
+            return task.result;
+        }
+        int depth=queue.size();
+        if (depth>maxQueueDepth){
+            maxQueueDepth=depth;
+        }
+        return task.result;
+    }
+    private void runWriter(){
+        while (true){
+            WriteTask task;
+            try{
+                task=queue.poll(100, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e){
+                break;
+            }
+            if (task==null){
+                if (closed){
+                    break;
+                }
+                continue;
+            }
+            synchronized (this){
+                if (task==queuedSave){
+                    queuedSave=null;
+                }
+            }
+            boolean success;
+            try{
+                success=task.run();
+            }
+            catch (RuntimeException e){
+                System.err.println("Storage write failed: "+e.getMessage());
+                success=false;
+            }
+            if (!success){
+                failures.incrementAndGet();
+            }
+            if (task instanceof SaveTask){
+                long latency=System.nanoTime()-((SaveTask) task).batch.getCapturedAt();
+                savesCompleted.incrementAndGet();
+                totalSaveLatencyNanos.addAndGet(latency);
+                lastSaveLatencyNanos=latency;
+                if (latency>maxSaveLatencyNanos){
+                    maxSaveLatencyNanos=latency;
+                }
+            }
+            task.result.complete(success);
+        }
+    }
+    /**
+     * Writes everything already queued, then stops the writer thread.
+     */
+    @Override
+    public void close(){
+        Thread thread;
+        synchronized (this){
+            if (writerThread==null){
+                return;
+            }
+            closed=true;
+            thread=writerThread;
+            writerThread=null;
+        }
+        try{
+            thread.join(CLOSE_TIMEOUT_MILLIS);
+        }
+        catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        WriteTask abandoned;
+        while ((abandoned=queue.poll())!=null){
+            abandoned.result.complete(false);
+        }
+    }
+    public int getQueueDepth(){
+        return queue.size();
+    }
+    public Metrics getMetrics(){
+        return new Metrics(this);
+    }
+    private static class WriteTask{
+        private Supplier<Boolean> operation;
+        CompletableFuture<Boolean> result=new CompletableFuture<>();
+        private WriteTask(Supplier<Boolean> operation){
+            this.operation=operation;
+        }
+        boolean run(){
+            return operation.get();
+        }
+    }
+    private class SaveTask extends WriteTask{
+        private SaveBatch batch;
+        private boolean compact;
+        private SaveTask(SaveBatch batch, boolean compact){
+            super(null);
+            this.batch=batch;
+            this.compact=compact;
+        }
+        @Override
+        boolean run(){
+            return compact?store.compact(batch):store.saveCalendar(batch);
+        }
+    }
+    /**
+     * Point-in-time copy of the writer statistics.
+     */
+    public static class Metrics{
+        private long savesCompleted;
+        private long savesCollapsed;
+        private long failures;
+        private double averageSaveLatencyMillis;
+        private double lastSaveLatencyMillis;
+        private double maxSaveLatencyMillis;
+        private int queueDepth;
+        private int maxQueueDepth;
+        private Metrics(AsyncStorageService service){
+            this.savesCompleted=service.savesCompleted.get();
+            this.savesCollapsed=service.savesCollapsed.get();
+            this.failures=service.failures.get();
+            this.averageSaveLatencyMillis=savesCompleted==0?0:service.totalSaveLatencyNanos.get()/1e6/savesCompleted;
+            this.lastSaveLatencyMillis=service.lastSaveLatencyNanos/1e6;
+            this.maxSaveLatencyMillis=service.maxSaveLatencyNanos/1e6;
+            this.queueDepth=service.queue.size();
+            this.maxQueueDepth=service.maxQueueDepth;
+        }
+        public long getSavesCompleted(){
+            return savesCompleted;
+        }
+        public long getSavesCollapsed(){
+            return savesCollapsed;
+        }
+        public long getFailures(){
+            return failures;
+        }
+        public double getAverageSaveLatencyMillis(){
+            return averageSaveLatencyMillis;
+        }
+        public double getLastSaveLatencyMillis(){
+            return lastSaveLatencyMillis;
+        }
+        public double getMaxSaveLatencyMillis(){
+            return maxSaveLatencyMillis;
+        }
+        public int getQueueDepth(){
+            return queueDepth;
+        }
+        public int getMaxQueueDepth(){
+            return maxQueueDepth;
+        }
+        @Override
+        public String toString(){
+            return String.format("saves=%d collapsed=%d failures=%d latency avg=%.1fms last=%.1fms max=%.1fms queue=%d (max %d)", savesCompleted, savesCollapsed, failures, averageSaveLatencyMillis, lastSaveLatencyMillis, maxSaveLatencyMillis, queueDepth, maxQueueDepth);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package storage;
+
+/**
+ * Temp-file-and-rename helpers shared by the storage formats.
+ *
+ * Responsibilities:
+ *-Create a temp file next to the target
+ *-Force finished files to disk, then atomically move them into place
+ *-Fingerprint file contents with SHA-256
+ *-Keep a checksum file next to the calendar file
+ *
+ * Java data types used:
+ *-Path
+ *
+ * Java technologies involved:
+ *-Java NIO file moves
+ *
+ * Design intent:
+ * Readers only ever see a complete old file or a complete new file, and
+ * after a crash the file on disk is one of the two.
+ */
+import model.Event;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.BufferedReader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+final class AtomicFiles{
+    private static int BUFFER_SIZE=64*1024;
+    private static String CHECKSUM_SUFFIX=".sha256";
+    private AtomicFiles(){
+
+    }
+    interface ReplaceListener{
+        void beforeReplace(byte[] digest) throws IOException;
+    }
+    static Path createTempSibling(Path target) throws IOException{
+        Path parentDir=target.toAbsolutePath().getParent();
+        return Files.createTempFile(parentDir, target.getFileName().toString(), ".tmp");
+    }
+    /**
+     * Renames a finished file over the target and syncs the directory, so the
+     * rename itself survives a crash.
+     */
+    static void moveIntoPlace(Path source, Path target) throws IOException{
+        try{
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException e){
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(target.toAbsolutePath().getParent());
+    }
+    /**
+     * Forces a file's contents to disk.
+     */
+    static void sync(Path path) throws IOException{
+        try (FileChannel channel=FileChannel.open(path, StandardOpenOption.WRITE)){
+            channel.force(true);
+        }
+    }
+    /**
+     * Forces directory entries to disk. Not every platform can open a
+     * directory, in which case the rename is left to the file system.
+     */
+    private static void syncDirectory(Path directory){
+        if (directory==null){
+            return;
+        }
+        try (FileChannel channel=FileChannel.open(directory, StandardOpenOption.READ)){
+            channel.force(true);
+        }
+        catch (IOException e){
+            // Directories cannot be opened on Windows; renames are durable there.
+        }
+    }
+    /**
+     * Writes a calendar file atomically.
+     *
+     * @return the SHA-256 digest of the bytes written
+     */
+    static byte[] writeCalendar(List<Event> events, Path target) throws IOException{
+        return writeCalendar(events, target, null);
+    }
+    /**
+     * Writes a calendar file atomically, encrypted when a cipher is given.
+     *
+     * @return the SHA-256 digest of the bytes written to disk
+     */
+    static byte[] writeCalendar(List<Event> events, Path target, CalendarCipher cipher) throws IOException{
+        return writeCalendar(events, target, cipher, null);
+    }
+    /**
+     * Writes a calendar file atomically and tells the listener the digest of
+     * the new file before it replaces the target, so whatever depends on
+     * knowing the new content is in place when readers first see it.
+     */
+    static byte[] writeCalendar(List<Event> events, Path target, CalendarCipher cipher, ReplaceListener listener) throws IOException{
+        Path tempPath=createTempSibling(target);
+        try{
+            MessageDigest digest=newDigest();
+            OutputStream out=new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath), BUFFER_SIZE), digest);
+            if (cipher!=null){
+                out=cipher.encrypt(out);
+            }
+            try (JsonEventWriter writer=new JsonEventWriter(out)){
+                writer.writeCalendar(events, LocalDateTime.now());
+            }
+            sync(tempPath);
+            byte[] written=digest.digest();
+            if (listener!=null){
+                listener.beforeReplace(written);
+            }
+            moveIntoPlace(tempPath, target);
+            return written;
+        }
+        finally{
+            Files.deleteIfExists(tempPath);
+        }
+    }
+    /**
+     * Computes the SHA-256 digest of a file, streaming it in fixed-size blocks.
+     */
+    static byte[] digest(Path path) throws IOException{
+        MessageDigest digest=newDigest();
+        ByteBuffer buffer=ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel=FileChannel.open(path, StandardOpenOption.READ)){
+            while (channel.read(buffer)!=-1){
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+    static Path getChecksumPath(Path target){
+        return target.resolveSibling(target.getFileName()+CHECKSUM_SUFFIX);
+    }
+    /**
+     * Records a file's digest next to it, in the format sha256sum reads.
+     */
+    static void writeChecksum(Path target, byte[] digest) throws IOException{
+        Path checksumPath=getChecksumPath(target);
+        Path tempPath=createTempSibling(checksumPath);
+        try{
+            try (Writer writer=Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)){
+                writer.write(toHex(digest)+"  "+target.getFileName()+"\n");
+            }
+            sync(tempPath);
+            moveIntoPlace(tempPath, checksumPath);
+        }
+        finally{
+            Files.deleteIfExists(tempPath);
+        }
+    }
+    /**
+     * Returns the digest recorded next to a file, or null when there is none
+     * or it cannot be read.
+     */
+    static byte[] readChecksum(Path target){
+        Path checksumPath=getChecksumPath(target);
+        if (!Files.exists(checksumPath)){
+            return null;
+        }
+        try (BufferedReader reader=Files.newBufferedReader(checksumPath, StandardCharsets.UTF_8)){
+            String line=reader.readLine();
+            if (line==null||line.length()<64){
+                return null;
+            }
+            return fromHex(line.substring(0, 64));
+        }
+        catch (IOException|IllegalArgumentException e){
+            return null;
+        }
+    }
+    /**
+     * Returns true when the file no longer matches its recorded digest and
+     * was not modified after the digest was written, which means it was
+     * damaged rather than edited by another program.
+     */
+    static boolean isDamaged(Path target, byte[] actualDigest) throws IOException{
+        byte[] expected=readChecksum(target);
+        if (expected==null||Arrays.equals(expected, actualDigest)){
+            return false;
+        }
+        return Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(getChecksumPath(target)))<=0;
+    }
+    static String toHex(byte[] bytes){
+        StringBuilder hex=new StringBuilder(bytes.length*2);
+        for (byte b:bytes){
+            hex.append(Character.forDigit((b>>4)&0xF, 16)).append(Character.forDigit(b&0xF, 16));
+        }
+        return hex.toString();
+    }
+    private static byte[] fromHex(String hex){
+        byte[] bytes=new byte[hex.length()/2];
+        for (int i=0;i<bytes.length;i++){
+            int high=Character.digit(hex.charAt(2*i), 16);
+            int low=Character.digit(hex.charAt(2*i+1), 16);
+            if (high<0||low<0){
+                throw new IllegalArgumentException("Not a hex digest: "+hex);
+            }
+            bytes[i]=(byte) ((high<<4)|low);
+        }
+        return bytes;
+    }
+    static MessageDigest newDigest(){
+        try{
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
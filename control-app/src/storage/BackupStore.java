@@ -0,0 +1,537 @@
+package storage;
+
+/**
+ * Content-addressed, deduplicated backup store.
+ *
+ * Responsibilities:
+ *-Split files into content-defined chunks
+ *-Store each distinct chunk once, gzip-compressed, named by its SHA-256
+ *-Record every backup as a small index of chunk hashes
+ *-Rotate old backups and sweep chunks nothing refers to
+ *-Restore any backup, or the latest one before a point in time
+ *-Verify restored bytes against the backup's SHA-256
+ *
+ * Layout:
+ *-<backup file>.store/objects/ab/abcd....gz: compressed chunks
+ *-<backup file>.store/snapshots/<millis>-<label>.idx: one index per backup
+ *
+ * Java data types used:
+ *-MessageDigest
+ *-List<Entry>
+ *-Set<String>
+ *
+ * Java technologies involved:
+ *-java.util.zip compression
+ *-Content-defined chunking with a gear rolling hash
+ *
+ * Design intent:
+ * Chunk boundaries follow the content, so an edit only produces new
+ * chunks around the change and an unchanged save stores nothing.
+ */
+import model.Event;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+public class BackupStore{
+    public static String LABEL_AUTO="auto";
+    public static String LABEL_MANUAL="manual";
+    private static String STORE_SUFFIX=".store";
+    private static String INDEX_SUFFIX=".idx";
+    private static String INDEX_HEADER="CALBACKUP 1";
+    private static int MIN_CHUNK_SIZE=8*1024;
+    private static int MAX_CHUNK_SIZE=128*1024;
+    private static long BOUNDARY_MASK=(1L<<15)-1;
+    private static long[] GEAR=createGearTable();
+    private static int DEFAULT_KEEP_RECENT=10;
+    private static int DEFAULT_KEEP_DAILY=14;
+    private static int DEFAULT_KEEP_MANUAL=20;
+    private Path directory;
+    private Path objectsDirectory;
+    private Path snapshotsDirectory;
+    private int keepRecent=DEFAULT_KEEP_RECENT;
+    private int keepDaily=DEFAULT_KEEP_DAILY;
+    private int keepManual=DEFAULT_KEEP_MANUAL;
+    public BackupStore(Path backupPath){
+        this.directory=backupPath.resolveSibling(backupPath.getFileName()+STORE_SUFFIX);
+        this.objectsDirectory=directory.resolve("objects");
+        this.snapshotsDirectory=directory.resolve("snapshots");
+    }
+    /**
+     * Fixed pseudo-random table so chunk boundaries are stable across runs.
+     */
+    private static long[] createGearTable(){
+        long[] table=new long[256];
+        Random random=new Random(0x43414C42L);
+        for (int i=0;i<table.length;i++){
+            table[i]=random.nextLong();
+        }
+        return table;
+    }
+    /**
+     * Backs up a file. An automatic backup identical to the newest backup is
+     * not recorded again.
+     *
+     * @return the backup entry, or the existing one when nothing changed
+     */
+    public synchronized Entry backup(Path source, String label) throws IOException{
+        try (InputStream in=Files.newInputStream(source)){
+            return backup(in, label);
+        }
+    }
+    public synchronized Entry backup(InputStream source, String label) throws IOException{
+        Files.createDirectories(objectsDirectory);
+        Files.createDirectories(snapshotsDirectory);
+        MessageDigest fileDigest=AtomicFiles.newDigest();
+        List<String> chunkLines=new ArrayList<>();
+        long size=0;
+        byte[] buffer=new byte[MAX_CHUNK_SIZE];
+        byte[] chunk=new byte[MAX_CHUNK_SIZE];
+        int length=0;
+        long hash=0;
+        int read;
+        while ((read=source.read(buffer))!=-1){
+            for (int i=0;i<read;i++){
+                int b=buffer[i]&0xFF;
+                chunk[length++]=(byte) b;
+                hash=(hash<<1)+GEAR[b];
+                if (length>=MAX_CHUNK_SIZE||(length>=MIN_CHUNK_SIZE&&(hash&BOUNDARY_MASK)==0)){
+                    chunkLines.add(storeChunk(Arrays.copyOf(chunk, length), fileDigest));
+                    size+=length;
+                    length=0;
+                    hash=0;
+                }
+            }
+        }
+        if (length>0){
+            chunkLines.add(storeChunk(Arrays.copyOf(chunk, length), fileDigest));
+            size+=length;
+        }
+        String contentHash=AtomicFiles.toHex(fileDigest.digest());
+        List<Entry> existing=listBackups();
+        if (LABEL_AUTO.equals(label)&&!existing.isEmpty()&&contentHash.equals(existing.get(existing.size()-1).contentHash)){
+            return existing.get(existing.size()-1);
+        }
+        long createdAt=System.currentTimeMillis();
+        for (Entry entry:existing){
+            if (entry.createdAt>=createdAt){
+                createdAt=entry.createdAt+1;
+            }
+        }
+        Entry entry=new Entry(createdAt+"-"+label, createdAt, label, size, contentHash);
+        writeIndex(entry, chunkLines);
+        applyRetention();
+        return entry;
+    }
+    private String storeChunk(byte[] data, MessageDigest fileDigest) throws IOException{
+        fileDigest.update(data);
+        String hash=AtomicFiles.toHex(AtomicFiles.newDigest().digest(data));
+        Path chunkPath=getChunkPath(hash);
+        if (!Files.exists(chunkPath)){
+            Files.createDirectories(chunkPath.getParent());
+            Path tempPath=AtomicFiles.createTempSibling(chunkPath);
+            try{
+                try (OutputStream out=new GZIPOutputStream(Files.newOutputStream(tempPath))){
+                    out.write(data);
+                }
+                AtomicFiles.sync(tempPath);
+                AtomicFiles.moveIntoPlace(tempPath, chunkPath);
+            }
+            finally{
+                Files.deleteIfExists(tempPath);
+            }
+        }
+        return hash+" "+data.length;
+    }
+    private void writeIndex(Entry entry, List<String> chunkLines) throws IOException{
+        Path indexPath=snapshotsDirectory.resolve(entry.id+INDEX_SUFFIX);
+        Path tempPath=AtomicFiles.createTempSibling(indexPath);
+        try{
+            try (Writer writer=Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)){
+                writer.write(INDEX_HEADER+"\n");
+                writer.write("created "+entry.createdAt+"\n");
+                writer.write("label "+entry.label+"\n");
+                writer.write("size "+entry.size+"\n");
+                writer.write("sha256 "+entry.contentHash+"\n");
+                for (String line:chunkLines){
+                    writer.write("chunk "+line+"\n");
+                }
+            }
+            AtomicFiles.sync(tempPath);
+            AtomicFiles.moveIntoPlace(tempPath, indexPath);
+        }
+        finally{
+            Files.deleteIfExists(tempPath);
+        }
+    }
+    /**
+     * Lists every backup, oldest first.
+     */
+    public synchronized List<Entry> listBackups() throws IOException{
+        List<Entry> entries=new ArrayList<>();
+        if (!Files.isDirectory(snapshotsDirectory)){
+            return entries;
+        }
+        try (DirectoryStream<Path> stream=Files.newDirectoryStream(snapshotsDirectory, "*"+INDEX_SUFFIX)){
+            for (Path path:stream){
+                try{
+                    entries.add(readEntry(path));
+                }
+                catch (IOException|RuntimeException e){
+                    System.err.println("Ignoring unreadable backup index "+path+": "+e.getMessage());
+                }
+            }
+        }
+        entries.sort(Comparator.comparingLong(Entry::getCreatedAt));
+        return entries;
+    }
+    /**
+     * Returns the newest backup taken at or before the given instant.
+     */
+    public Entry findBackup(Instant pointInTime) throws IOException{
+        Entry found=null;
+        for (Entry entry:listBackups()){
+            if (entry.createdAt<=pointInTime.toEpochMilli()){
+                found=entry;
+            }
+        }
+        return found;
+    }
+    public Entry getLatestBackup() throws IOException{
+        List<Entry> entries=listBackups();
+        return entries.isEmpty()?null:entries.get(entries.size()-1);
+    }
+    /**
+     * Streams the original bytes of a backup, decompressing chunks in order.
+     * Reading to the end fails if the bytes do not match the backup's hash.
+     */
+    public InputStream openBackup(Entry entry) throws IOException{
+        List<String> hashes=readChunkHashes(snapshotsDirectory.resolve(entry.id+INDEX_SUFFIX));
+        for (String hash:hashes){
+            if (!Files.exists(getChunkPath(hash))){
+                throw new IOException("Backup "+entry.id+" is missing chunk "+hash);
+            }
+        }
+        Iterator<String> chunks=hashes.iterator();
+        InputStream joined=new SequenceInputStream(new Enumeration<InputStream>(){
+            @Override
+            public boolean hasMoreElements(){
+                return chunks.hasNext();
+            }
+            @Override
+            public InputStream nextElement(){
+                if (!chunks.hasNext()){
+                    throw new NoSuchElementException();
+                }
+                try{
+                    return new GZIPInputStream(Files.newInputStream(getChunkPath(chunks.next())));
+                }
+                catch (IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        return new VerifyingInputStream(joined, entry);
+    }
+    public List<Event> readEvents(Entry entry) throws IOException{
+        return readEvents(entry, null);
+    }
+    /**
+     * Parses a backup of a calendar file, checking it against its hash.
+     * Encrypted backups are decrypted with the given cipher.
+     */
+    public List<Event> readEvents(Entry entry, CalendarCipher cipher) throws IOException{
+        List<Event> events=new ArrayList<>();
+        try (InputStream raw=new BufferedInputStream(openBackup(entry))){
+            InputStream in=raw;
+            if (CalendarCipher.isEncrypted(raw)){
+                if (cipher==null){
+                    throw new IOException("Backup "+entry.id+" is encrypted and no passphrase is set");
+                }
+                in=cipher.decrypt(raw);
+            }
+            try (JsonEventReader reader=new JsonEventReader(new InputStreamReader(in, StandardCharsets.UTF_8))){
+                reader.readEvents(events::add);
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+        }
+        return events;
+    }
+    /**
+     * Reads the newest backup that is intact, trying older generations when
+     * a newer one is damaged.
+     *
+     * @return the events, or null when no backup could be read
+     */
+    public List<Event> readLatestIntact(){
+        return readLatestIntact(null);
+    }
+    public List<Event> readLatestIntact(CalendarCipher cipher){
+        List<Entry> entries;
+        try{
+            entries=listBackups();
+        }
+        catch (IOException e){
+            System.err.println("Failed to list backups: "+e.getMessage());
+            return null;
+        }
+        for (int i=entries.size()-1;i>=0;i--){
+            Entry entry=entries.get(i);
+            try{
+                List<Event> events=readEvents(entry, cipher);
+                System.out.println("Loaded backup "+entry.getId());
+                return events;
+            }
+            catch (IOException|RuntimeException e){
+                System.err.println("Skipping damaged backup "+entry.getId()+": "+e.getMessage());
+            }
+        }
+        return null;
+    }
+    /**
+     * Writes a backup back out as a regular file, atomically.
+     */
+    public void restore(Entry entry, Path target) throws IOException{
+        Path tempPath=AtomicFiles.createTempSibling(target);
+        try{
+            try (InputStream in=openBackup(entry)){
+                Files.copy(in, tempPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            AtomicFiles.sync(tempPath);
+            AtomicFiles.moveIntoPlace(tempPath, target);
+        }
+        finally{
+            Files.deleteIfExists(tempPath);
+        }
+    }
+    /**
+     * Keeps the newest automatic backups, the newest automatic backup of
+     * each recent day and the newest manual backups, then deletes chunks
+     * that no remaining backup refers to.
+     */
+    public synchronized void applyRetention() throws IOException{
+        List<Entry> entries=listBackups();
+        Collections.reverse(entries);
+        Set<String> keep=new HashSet<>();
+        Set<LocalDate> days=new HashSet<>();
+        LocalDate cutoffDay=LocalDate.now().minusDays(keepDaily);
+        int recent=0;
+        int manual=0;
+        for (Entry entry:entries){
+            if (LABEL_MANUAL.equals(entry.label)){
+                if (manual++<keepManual){
+                    keep.add(entry.id);
+                }
+                continue;
+            }
+            LocalDate day=Instant.ofEpochMilli(entry.createdAt).atZone(ZoneId.systemDefault()).toLocalDate();
+            if (recent++<keepRecent||(day.isAfter(cutoffDay)&&days.add(day))){
+                keep.add(entry.id);
+            }
+        }
+        boolean removed=false;
+        for (Entry entry:entries){
+            if (!keep.contains(entry.id)){
+                Files.deleteIfExists(snapshotsDirectory.resolve(entry.id+INDEX_SUFFIX));
+                removed=true;
+            }
+        }
+        if (removed){
+            sweepChunks();
+        }
+    }
+    private void sweepChunks() throws IOException{
+        Set<String> referenced=new HashSet<>();
+        try (DirectoryStream<Path> stream=Files.newDirectoryStream(snapshotsDirectory, "*"+INDEX_SUFFIX)){
+            for (Path path:stream){
+                referenced.addAll(readChunkHashes(path));
+            }
+        }
+        if (!Files.isDirectory(objectsDirectory)){
+            return;
+        }
+        try (DirectoryStream<Path> prefixes=Files.newDirectoryStream(objectsDirectory)){
+            for (Path prefix:prefixes){
+                try (DirectoryStream<Path> chunks=Files.newDirectoryStream(prefix, "*.gz")){
+                    for (Path chunk:chunks){
+                        String name=chunk.getFileName().toString();
+                        if (!referenced.contains(name.substring(0, name.length()-3))){
+                            Files.deleteIfExists(chunk);
+                        }
+                    }
+                }
+            }
+        }
+    }
+    private Entry readEntry(Path indexPath) throws IOException{
+        long createdAt=0;
+        String label="";
+        long size=0;
+        String contentHash="";
+        try (BufferedReader reader=Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)){
+            if (!INDEX_HEADER.equals(reader.readLine())){
+                throw new IOException("Not a backup index");
+            }
+            String line;
+            while ((line=reader.readLine())!=null&&!line.startsWith("chunk ")){
+                String[] fields=line.split(" ", 2);
+                switch (fields[0]){
+                    case "created": createdAt=Long.parseLong(fields[1]); break;
+                    case "label": label=fields[1]; break;
+                    case "size": size=Long.parseLong(fields[1]); break;
+                    case "sha256": contentHash=fields[1]; break;
+                    default: break;
+                }
+            }
+        }
+        String name=indexPath.getFileName().toString();
+        return new Entry(name.substring(0, name.length()-INDEX_SUFFIX.length()), createdAt, label, size, contentHash);
+    }
+    private List<String> readChunkHashes(Path indexPath) throws IOException{
+        List<String> hashes=new ArrayList<>();
+        try (BufferedReader reader=Files.newBufferedReader(indexPath, StandardCharsets.UTF_8)){
+            String line;
+            while ((line=reader.readLine())!=null){
+                if (line.startsWith("chunk ")){
+                    hashes.add(line.split(" ")[1]);
+                }
+            }
+        }
+        return hashes;
+    }
+    private Path getChunkPath(String hash){
+        return objectsDirectory.resolve(hash.substring(0, 2)).resolve(hash+".gz");
+    }
+    public Path getDirectory(){
+        return directory;
+    }
+    public int getKeepRecent(){
+        return keepRecent;
+    }
+    public void setKeepRecent(int keepRecent){
+        this.keepRecent=Math.max(1, keepRecent);
+    }
+    public int getKeepDaily(){
+        return keepDaily;
+    }
+    public void setKeepDaily(int keepDaily){
+        this.keepDaily=Math.max(0, keepDaily);
+    }
+    public int getKeepManual(){
+        return keepManual;
+    }
+    public void setKeepManual(int keepManual){
+        this.keepManual=Math.max(0, keepManual);
+    }
+    /**
+     * Hashes everything read and compares it with the backup's content hash
+     * once the end is reached.
+     */
+    private static class VerifyingInputStream extends FilterInputStream{
+        private MessageDigest digest=AtomicFiles.newDigest();
+        private Entry entry;
+        private boolean verified;
+        private VerifyingInputStream(InputStream in, Entry entry){
+            super(in);
+            this.entry=entry;
+        }
+        @Override
+        public int read() throws IOException{
+            int value=super.read();
+            if (value==-1){
+                verify();
+            }
+            else{
+                digest.update((byte) value);
+            }
+            return value;
+        }
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException{
+            int read=super.read(buffer, offset, length);
+            if (read==-1){
+                verify();
+            }
+            else{
+                digest.update(buffer, offset, read);
+            }
+            return read;
+        }
+        @Override
+        public long skip(long count) throws IOException{
+            byte[] skipped=new byte[(int) Math.min(count, 8192)];
+            int read=read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+        private void verify() throws IOException{
+            if (verified){
+                return;
+            }
+            verified=true;
+            if (!entry.contentHash.isEmpty()&&!AtomicFiles.toHex(digest.digest()).equals(entry.contentHash)){
+                throw new IOException("Backup "+entry.id+" does not match its checksum");
+            }
+        }
+    }
+    public static class Entry{
+        private String id;
+        private long createdAt;
+        private String label;
+        private long size;
+        private String contentHash;
+        private Entry(String id, long createdAt, String label, long size, String contentHash){
+            this.id=id;
+            this.createdAt=createdAt;
+            this.label=label;
+            this.size=size;
+            this.contentHash=contentHash;
+        }
+        public String getId(){
+            return id;
+        }
+        public long getCreatedAt(){
+            return createdAt;
+        }
+        public String getLabel(){
+            return label;
+        }
+        public long getSize(){
+            return size;
+        }
+        public String getContentHash(){
+            return contentHash;
+        }
+        @Override
+        public String toString(){
+            return id+" ("+size+" bytes)";
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package storage;
+
+/**
+ * Storage backend built from a binary snapshot plus a mutation journal.
+ *
+ * Responsibilities:
+ *-Map the binary snapshot and replay the journal on load
+ *-Append each save's changes to the journal with one fsync
+ *-Fold the journal into a new snapshot once it grows past a threshold
+ *
+ * Layout:
+ *-<storage file>: BinarySnapshot format
+ *-<storage file>.journal: MutationJournal records written since that
+ * snapshot
+ *
+ * Java data types used:
+ *-BinarySnapshot
+ *-MutationJournal
+ *
+ * Java technologies involved:
+ *-Java NIO memory-mapped files
+ *-Group commit
+ *
+ * Design intent:
+ * Startup cost is a file map, save cost is the size of the change.
+ * Nothing here is readable by the overlays, so a JSON copy is kept in
+ * the backup store every time the snapshot is rewritten.
+ */
+import model.CalendarModel;
+import model.Event;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+public class BinaryJournalStore extends FileStorageBackend{
+    private static long DEFAULT_COMPACTION_THRESHOLD=256*1024;
+    private MutationJournal journal;
+    private long compactionThreshold=DEFAULT_COMPACTION_THRESHOLD;
+    public BinaryJournalStore(Path storagePath, Path backupPath){
+        super(storagePath, backupPath);
+        this.journal=new MutationJournal(storagePath);
+    }
+    @Override
+    public String getName(){
+        return "binary";
+    }
+    @Override
+    public CalendarModel loadCalendar(){
+        CalendarModel model=new CalendarModel();
+        try{
+            if (saveFileExists()){
+                model.loadSortedEvents(BinarySnapshot.open(getStoragePath()).asList());
+            }
+        }
+        catch (IOException e){
+            System.err.println("Failed to load calendar snapshot: "+e.getMessage());
+            model=loadLatestBackup();
+        }
+        try{
+            int replayed=journal.replay(model, getStoragePath());
+            if (replayed>0){
+                System.out.println("Replayed "+replayed+" journal records");
+            }
+            setRecording(true);
+        }
+        catch (IOException e){
+            System.err.println("Failed to replay journal: "+e.getMessage());
+        }
+        return model;
+    }
+    /**
+     * Appends the batch's changes to the journal. The first save after the
+     * store was created, or after recording was lost, writes a snapshot.
+     */
+    @Override
+    public boolean saveCalendar(SaveBatch batch){
+        if (!isRecording()){
+            return compact(batch);
+        }
+        try{
+            journal.commit(batch.journalRecords);
+        }
+        catch (IOException e){
+            requeue(batch);
+            System.err.println("Failed to commit journal: "+e.getMessage());
+            return false;
+        }
+        if (journal.getCommittedSize()>=compactionThreshold){
+            compact(batch.model.getEvents());
+        }
+        return true;
+    }
+    /**
+     * Writes a full snapshot and drops the journal it covers.
+     */
+    @Override
+    public boolean compact(SaveBatch batch){
+        if (isRecording()){
+            try{
+                journal.commit(batch.journalRecords);
+            }
+            catch (IOException e){
+                System.err.println("Failed to commit journal before compaction: "+e.getMessage());
+            }
+        }
+        boolean written=compact(batch.model.getEvents());
+        if (written){
+            setRecording(true);
+        }
+        return written;
+    }
+    private boolean compact(List<Event> events){
+        if (!BinarySnapshot.canRepresent(events)){
+            System.err.println("Calendar has sub-second times, which the binary snapshot cannot store");
+            return false;
+        }
+        try{
+            Path rotated=journal.beginCompaction();
+            BinarySnapshot.write(events, getStoragePath(), written->journal.markCovered(rotated, written));
+            journal.finishCompaction(rotated);
+            backupEvents(events, BackupStore.LABEL_AUTO);
+            return true;
+        }
+        catch (IOException e){
+            System.err.println("Failed to write calendar snapshot: "+e.getMessage());
+            return false;
+        }
+    }
+    public long getCompactionThreshold(){
+        return compactionThreshold;
+    }
+    public void setCompactionThreshold(long bytes){
+        this.compactionThreshold=bytes;
+    }
+    @Override
+    protected void appendStorageInfo(StringBuilder info) throws IOException{
+        Path journalPath=journal.getJournalPath();
+        info.append("Journal Size: ").append(Files.exists(journalPath)?Files.size(journalPath):0).append(" bytes\n");
+    }
+    @Override
+    public void close(){
+        try{
+            journal.close();
+        }
+        catch (IOException e){
+            System.err.println("Failed to close journal: "+e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package storage;
+
+/**
+ * Versioned binary snapshot of the calendar for fast startup.
+ *
+ * Responsibilities:
+ *-Write events as fixed-width records plus a UTF-8 title table
+ *-Map the snapshot with FileChannel.map on load and verify its checksum
+ *-Decode each event lazily the first time it is accessed
+ *
+ * Layout (big-endian):
+ *-Header, 32 bytes: magic "CALB", format version, event count,
+ * CRC32 of everything after the header (version 3 and later, zero
+ * before), title table offset, creation time in epoch millis
+ *-Records, 20 bytes each, in start order: start and end as epoch
+ * minutes (UTC wall clock), title offset and title length in bytes,
+ * start and end seconds, two reserved bytes (version 1 records are the
+ * first 16 bytes only)
+ *-Title table: concatenated UTF-8 titles
+ *
+ * Java data types used:
+ *-MappedByteBuffer
+ *-AbstractList<Event>
+ *-Event[]
+ *
+ * Java technologies involved:
+ *-Java NIO memory-mapped files
+ *
+ * Design intent:
+ * A startup cache next to the JSON file, never a replacement for it.
+ * JSON stays the interchange format read by the overlays. Records keep
+ * second precision, so calendars with fractional seconds are not written.
+ */
+import model.Event;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.zip.CRC32;
+public class BinarySnapshot{
+    private static int MAGIC=0x43414C42;
+    private static int FORMAT_VERSION=3;
+    private static int HEADER_SIZE=32;
+    private static int RECORD_SIZE=20;
+    private static int V1_RECORD_SIZE=16;
+    private static int BUFFER_SIZE=64*1024;
+    private MappedByteBuffer buffer;
+    private int version;
+    private int recordSize;
+    private int eventCount;
+    private long titlesOffset;
+    private long createdAt;
+    private BinarySnapshot(MappedByteBuffer buffer) throws IOException{
+        this.buffer=buffer;
+        if (buffer.capacity()<HEADER_SIZE||buffer.getInt(0)!=MAGIC){
+            throw new IOException("Not a calendar snapshot");
+        }
+        this.version=buffer.getInt(4);
+        if (version<1||version>FORMAT_VERSION){
+            throw new IOException("Unsupported snapshot version "+version);
+        }
+        this.recordSize=version==1?V1_RECORD_SIZE:RECORD_SIZE;
+        this.eventCount=buffer.getInt(8);
+        this.titlesOffset=buffer.getLong(16);
+        this.createdAt=buffer.getLong(24);
+        if (eventCount<0||titlesOffset!=HEADER_SIZE+(long) eventCount*recordSize||titlesOffset>buffer.capacity()){
+            throw new IOException("Corrupt snapshot header");
+        }
+        if (version>=3){
+            CRC32 crc=new CRC32();
+            crc.update(buffer.slice(HEADER_SIZE, buffer.capacity()-HEADER_SIZE));
+            if ((int) crc.getValue()!=buffer.getInt(12)){
+                throw new IOException("Snapshot does not match its checksum");
+            }
+        }
+    }
+    /**
+     * Maps a snapshot file and checks it. Nothing beyond the header is
+     * decoded here.
+     */
+    public static BinarySnapshot open(Path path) throws IOException{
+        try (FileChannel channel=FileChannel.open(path, StandardOpenOption.READ)){
+            return new BinarySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+    /**
+     * Returns true when every event can be stored at second precision.
+     */
+    public static boolean canRepresent(List<Event> events){
+        for (Event event:events){
+            if (event.getStartTime().getNano()!=0||event.getEndTime().getNano()!=0){
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Writes events, which must already be in start order, to a temp file
+     * that is then renamed over the target.
+     */
+    public static void write(List<Event> events, Path target) throws IOException{
+        write(events, target, null);
+    }
+    /**
+     * Writes the snapshot and tells the listener its digest before it
+     * replaces the target.
+     */
+    static void write(List<Event> events, Path target, AtomicFiles.ReplaceListener listener) throws IOException{
+        Path tempPath=AtomicFiles.createTempSibling(target);
+        try{
+            try (FileChannel channel=FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                writeTo(channel, events);
+                channel.force(false);
+            }
+            if (listener!=null){
+                listener.beforeReplace(AtomicFiles.digest(tempPath));
+            }
+            AtomicFiles.moveIntoPlace(tempPath, target);
+        }
+        finally{
+            Files.deleteIfExists(tempPath);
+        }
+    }
+    private static void writeTo(FileChannel channel, List<Event> events) throws IOException{
+        int count=events.size();
+        long titlesOffset=HEADER_SIZE+(long) count*RECORD_SIZE;
+        ByteBuffer out=ByteBuffer.allocate(BUFFER_SIZE);
+        CRC32 crc=new CRC32();
+        out.putInt(MAGIC);
+        out.putInt(FORMAT_VERSION);
+        out.putInt(count);
+        out.putInt(0);
+        out.putLong(titlesOffset);
+        out.putLong(System.currentTimeMillis());
+        long titleOffset=0;
+        for (Event event:events){
+            int titleLength=utf8Length(event.getTitle());
+            if (titleOffset+titleLength>Integer.MAX_VALUE){
+                throw new IOException("Title table too large for snapshot");
+            }
+            if (out.remaining()<RECORD_SIZE){
+                drain(channel, out, crc);
+            }
+            out.putInt(toEpochMinute(event.getStartTime()));
+            out.putInt(toEpochMinute(event.getEndTime()));
+            out.putInt((int) titleOffset);
+            out.putInt(titleLength);
+            out.put((byte) event.getStartTime().getSecond());
+            out.put((byte) event.getEndTime().getSecond());
+            out.putShort((short) 0);
+            titleOffset+=titleLength;
+        }
+        for (Event event:events){
+            byte[] title=event.getTitle().getBytes(StandardCharsets.UTF_8);
+            int written=0;
+            while (written<title.length){
+                if (!out.hasRemaining()){
+                    drain(channel, out, crc);
+                }
+                int chunk=Math.min(out.remaining(), title.length-written);
+                out.put(title, written, chunk);
+                written+=chunk;
+            }
+        }
+        drain(channel, out, crc);
+        ByteBuffer checksum=ByteBuffer.allocate(4).putInt((int) crc.getValue());
+        checksum.flip();
+        channel.write(checksum, 12);
+    }
+    /**
+     * Writes the buffer out, adding everything past the header to the
+     * checksum.
+     */
+    private static void drain(FileChannel channel, ByteBuffer out, CRC32 crc) throws IOException{
+        out.flip();
+        long position=channel.position();
+        if (position+out.limit()>HEADER_SIZE){
+            int skip=(int) Math.max(0, HEADER_SIZE-position);
+            crc.update(out.slice(skip, out.limit()-skip));
+        }
+        while (out.hasRemaining()){
+            channel.write(out);
+        }
+        out.clear();
+    }
+    private static int toEpochMinute(LocalDateTime dateTime){
+        return Math.toIntExact(Math.floorDiv(dateTime.toEpochSecond(ZoneOffset.UTC), 60L));
+    }
+    private static LocalDateTime fromEpochMinute(int epochMinute){
+        return LocalDateTime.ofEpochSecond(epochMinute*60L, 0, ZoneOffset.UTC);
+    }
+    private static int utf8Length(String text){
+        int length=0;
+        for (int i=0;i<text.length();i++){
+            char c=text.charAt(i);
+            if (c<0x80){
+                length++;
+            }
+            else if (c<0x800){
+                length+=2;
+            }
+            else if (Character.isHighSurrogate(c)&&i+1<text.length()&&Character.isLowSurrogate(text.charAt(i+1))){
+                length+=4;
+                i++;
+            }
+            else if (Character.isSurrogate(c)){
+                length++;
+            }
+            else{
+                length+=3;
+            }
+        }
+        return length;
+    }
+    public int size(){
+        return eventCount;
+    }
+    public long getCreatedAt(){
+        return createdAt;
+    }
+    public LocalDateTime getStartTime(int index){
+        int recordOffset=HEADER_SIZE+index*recordSize;
+        LocalDateTime start=fromEpochMinute(buffer.getInt(recordOffset));
+        return version==1?start:start.plusSeconds(buffer.get(recordOffset+16));
+    }
+    /**
+     * Decodes a single event straight from the mapped records.
+     */
+    public Event decode(int index){
+        if (index<0||index>=eventCount){
+            throw new IndexOutOfBoundsException("Index "+index+" out of "+eventCount);
+        }
+        int recordOffset=HEADER_SIZE+index*recordSize;
+        LocalDateTime start=fromEpochMinute(buffer.getInt(recordOffset));
+        LocalDateTime end=fromEpochMinute(buffer.getInt(recordOffset+4));
+        if (version!=1){
+            start=start.plusSeconds(buffer.get(recordOffset+16));
+            end=end.plusSeconds(buffer.get(recordOffset+17));
+        }
+        int titleOffset=buffer.getInt(recordOffset+8);
+        int titleLength=buffer.getInt(recordOffset+12);
+        byte[] title=new byte[titleLength];
+        buffer.get((int) titlesOffset+titleOffset, title);
+        return new Event(new String(title, StandardCharsets.UTF_8), start.toLocalDate(), start.toLocalTime(), end.toLocalTime());
+    }
+    /**
+     * Returns a read-only list view that decodes and caches events on access.
+     */
+    public List<Event> asList(){
+        return new LazyEventList();
+    }
+    private class LazyEventList extends AbstractList<Event> implements RandomAccess{
+        private Event[] decoded=new Event[eventCount];
+        @Override
+        public Event get(int index){
+            Event event=decoded[index];
+            if (event==null){
+                event=decode(index);
+                decoded[index]=event;
+            }
+            return event;
+        }
+        @Override
+        public int size(){
+            return eventCount;
+        }
+    }
+}
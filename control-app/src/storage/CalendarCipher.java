@@ -0,0 +1,392 @@
+package storage;
+
+/**
+ * Chunked, streaming AES-256-GCM encryption for calendar files.
+ *
+ * Responsibilities:
+ *-Derive the data keys from a passphrase once per salt and cache them
+ *-Encrypt and decrypt streams chunk by chunk
+ *-Detect encrypted files by their header
+ *
+ * Layout (big-endian):
+ *-Header, 28 bytes: magic "CALE", format version, 16-byte PBKDF2 salt,
+ * plaintext chunk size
+ *-Chunks: plaintext length with the top bit set on the last chunk, the
+ * 12-byte nonce, then the ciphertext and 16-byte tag. The header, chunk
+ * index and last-chunk flag are authenticated with each chunk, so chunks
+ * cannot be reordered, dropped or cut off at the end without decryption
+ * failing.
+ *
+ * Nonces are synthetic: an HMAC-SHA256 of the chunk's position and
+ * plaintext under a second key. A nonce only repeats for the same
+ * plaintext at the same position, which then encrypts to the same bytes.
+ *
+ * Java data types used:
+ *-SecretKey
+ *-Cipher
+ *-Mac
+ *-Map<String, Keys>
+ *
+ * Java technologies involved:
+ *-javax.crypto (AES-256-GCM, HMAC-SHA256, PBKDF2)
+ *
+ * Design intent:
+ * The expensive key derivation happens once per session, and no more
+ * than one chunk of plaintext is ever held in memory, so encrypted saves
+ * and loads cost about the same as plain ones. Chunks are fixed 64 KB
+ * slices of the plaintext and each one's nonce depends on its index and
+ * contents, so a save with the same contents and salt gives the same
+ * bytes, but an edit that changes the file's length shifts every later
+ * chunk. The backup store therefore deduplicates encrypted generations
+ * only up to the first edited chunk; the rest of each generation is
+ * stored again.
+ */
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+public class CalendarCipher{
+    private static int MAGIC=0x43414C45;
+    private static int FORMAT_VERSION=1;
+    private static int HEADER_SIZE=28;
+    private static int SALT_LENGTH=16;
+    private static int NONCE_LENGTH=12;
+    private static int TAG_LENGTH=16;
+    private static int CHUNK_SIZE=64*1024;
+    private static int KEY_BYTES=32;
+    private static int ITERATIONS=65536;
+    private static int LAST_CHUNK_FLAG=0x80000000;
+    private char[] passphrase;
+    private Map<String, Keys> keys=new HashMap<>();
+    private byte[] writeSalt;
+    private SecureRandom random=new SecureRandom();
+    public CalendarCipher(char[] passphrase){
+        this.passphrase=passphrase.clone();
+    }
+    /**
+     * Returns true when the file starts with the encrypted calendar header.
+     */
+    public static boolean isEncrypted(Path path){
+        if (!Files.exists(path)){
+            return false;
+        }
+        try (FileChannel channel=FileChannel.open(path, StandardOpenOption.READ)){
+            ByteBuffer magic=ByteBuffer.allocate(4);
+            while (magic.hasRemaining()){
+                if (channel.read(magic)==-1){
+                    return false;
+                }
+            }
+            return magic.getInt(0)==MAGIC;
+        }
+        catch (IOException e){
+            return false;
+        }
+    }
+    /**
+     * Returns true when the stream, which must support mark, starts with the
+     * encrypted calendar header. The stream is left where it was.
+     */
+    static boolean isEncrypted(InputStream in) throws IOException{
+        in.mark(4);
+        byte[] magic=in.readNBytes(4);
+        in.reset();
+        return magic.length==4&&ByteBuffer.wrap(magic).getInt()==MAGIC;
+    }
+    /**
+     * Derives the keys for a salt, or returns the ones already derived this
+     * session.
+     */
+    private synchronized Keys getKeys(byte[] salt) throws IOException{
+        String id=AtomicFiles.toHex(salt);
+        Keys derived=keys.get(id);
+        if (derived==null){
+            if (passphrase==null){
+                throw new IOException("Encryption key was destroyed");
+            }
+            try{
+                PBEKeySpec spec=new PBEKeySpec(passphrase, salt, ITERATIONS, 2*KEY_BYTES*8);
+                byte[] keyBytes=SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+                spec.clearPassword();
+                derived=new Keys(new SecretKeySpec(keyBytes, 0, KEY_BYTES, "AES"), new SecretKeySpec(keyBytes, KEY_BYTES, KEY_BYTES, "HmacSHA256"));
+                Arrays.fill(keyBytes, (byte) 0);
+            }
+            catch (GeneralSecurityException e){
+                throw new IOException("Failed to derive calendar key: "+e.getMessage(), e);
+            }
+            keys.put(id, derived);
+            if (writeSalt==null){
+                writeSalt=salt.clone();
+            }
+        }
+        return derived;
+    }
+    /**
+     * Salt for new files: the one of the first key derived this session, so
+     * a session that loads and then saves derives only once.
+     */
+    private synchronized byte[] getWriteSalt(){
+        if (writeSalt==null){
+            writeSalt=new byte[SALT_LENGTH];
+            random.nextBytes(writeSalt);
+        }
+        return writeSalt.clone();
+    }
+    /**
+     * Wraps a stream so everything written to it is encrypted. Closing the
+     * returned stream writes the last chunk and closes the target.
+     */
+    public OutputStream encrypt(OutputStream target) throws IOException{
+        byte[] salt=getWriteSalt();
+        ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).put(salt).putInt(CHUNK_SIZE);
+        return new EncryptingOutputStream(target, getKeys(salt), header.array());
+    }
+    /**
+     * Wraps a stream positioned at the start of an encrypted file.
+     */
+    public InputStream decrypt(InputStream source) throws IOException{
+        DataInputStream in=new DataInputStream(source);
+        byte[] header=new byte[HEADER_SIZE];
+        in.readFully(header);
+        ByteBuffer fields=ByteBuffer.wrap(header);
+        if (fields.getInt()!=MAGIC){
+            throw new IOException("Not an encrypted calendar file");
+        }
+        int version=fields.getInt();
+        if (version!=FORMAT_VERSION){
+            throw new IOException("Unsupported encrypted calendar version "+version);
+        }
+        byte[] salt=new byte[SALT_LENGTH];
+        fields.get(salt);
+        int chunkSize=fields.getInt();
+        if (chunkSize<=0||chunkSize>16*CHUNK_SIZE){
+            throw new IOException("Corrupt encrypted calendar header");
+        }
+        return new DecryptingInputStream(in, getKeys(salt), header, chunkSize);
+    }
+    /**
+     * Forgets the passphrase and every derived key.
+     */
+    public synchronized void destroy(){
+        if (passphrase!=null){
+            Arrays.fill(passphrase, '\0');
+            passphrase=null;
+        }
+        keys.clear();
+        writeSalt=null;
+    }
+    private static byte[] associatedData(byte[] header, long index, boolean last){
+        return ByteBuffer.allocate(HEADER_SIZE+9).put(header).putLong(index).put((byte) (last?1:0)).array();
+    }
+    private static Cipher newCipher() throws IOException{
+        try{
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        }
+        catch (GeneralSecurityException e){
+            throw new IOException("AES-GCM not available: "+e.getMessage(), e);
+        }
+    }
+    private static class Keys{
+        private SecretKey encryption;
+        private SecretKey nonce;
+        private Keys(SecretKey encryption, SecretKey nonce){
+            this.encryption=encryption;
+            this.nonce=nonce;
+        }
+    }
+    /**
+     * Holds back one full chunk, since a chunk can only be sealed once it is
+     * known whether more data follows.
+     */
+    private static class EncryptingOutputStream extends FilterOutputStream{
+        private Cipher cipher=newCipher();
+        private Mac mac;
+        private Keys keys;
+        private byte[] header;
+        private byte[] plaintext=new byte[CHUNK_SIZE];
+        private byte[] sealed=new byte[4+NONCE_LENGTH+CHUNK_SIZE+TAG_LENGTH];
+        private int length;
+        private long index;
+        private boolean closed;
+        private EncryptingOutputStream(OutputStream out, Keys keys, byte[] header) throws IOException{
+            super(out);
+            this.keys=keys;
+            this.header=header;
+            try{
+                mac=Mac.getInstance("HmacSHA256");
+                mac.init(keys.nonce);
+            }
+            catch (GeneralSecurityException e){
+                throw new IOException("HMAC-SHA256 not available: "+e.getMessage(), e);
+            }
+            out.write(header);
+        }
+        @Override
+        public void write(int b) throws IOException{
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+        @Override
+        public void write(byte[] data, int offset, int count) throws IOException{
+            while (count>0){
+                if (length==CHUNK_SIZE){
+                    sealChunk(false);
+                }
+                int copied=Math.min(count, CHUNK_SIZE-length);
+                System.arraycopy(data, offset, plaintext, length, copied);
+                length+=copied;
+                offset+=copied;
+                count-=copied;
+            }
+        }
+        private void sealChunk(boolean last) throws IOException{
+            try{
+                byte[] associated=associatedData(header, index, last);
+                mac.update(associated);
+                mac.update(plaintext, 0, length);
+                byte[] nonce=Arrays.copyOf(mac.doFinal(), NONCE_LENGTH);
+                cipher.init(Cipher.ENCRYPT_MODE, keys.encryption, new GCMParameterSpec(TAG_LENGTH*8, nonce));
+                cipher.updateAAD(associated);
+                int count=cipher.doFinal(plaintext, 0, length, sealed, 4+NONCE_LENGTH);
+                ByteBuffer.wrap(sealed, 0, 4+NONCE_LENGTH).putInt(last?length|LAST_CHUNK_FLAG:length).put(nonce);
+                out.write(sealed, 0, 4+NONCE_LENGTH+count);
+            }
+            catch (GeneralSecurityException e){
+                throw new IOException("Failed to encrypt calendar: "+e.getMessage(), e);
+            }
+            index++;
+            length=0;
+        }
+        @Override
+        public void flush() throws IOException{
+            out.flush();
+        }
+        @Override
+        public void close() throws IOException{
+            if (closed){
+                return;
+            }
+            closed=true;
+            try{
+                sealChunk(true);
+                out.flush();
+            }
+            finally{
+                Arrays.fill(plaintext, (byte) 0);
+                out.close();
+            }
+        }
+    }
+    private static class DecryptingInputStream extends InputStream{
+        private DataInputStream in;
+        private Cipher cipher=newCipher();
+        private Keys keys;
+        private byte[] header;
+        private byte[] nonce=new byte[NONCE_LENGTH];
+        private byte[] ciphertext;
+        private byte[] plaintext;
+        private int position;
+        private int limit;
+        private long index;
+        private boolean finished;
+        private DecryptingInputStream(DataInputStream in, Keys keys, byte[] header, int chunkSize) throws IOException{
+            this.in=in;
+            this.keys=keys;
+            this.header=header;
+            this.ciphertext=new byte[chunkSize+TAG_LENGTH];
+            this.plaintext=new byte[chunkSize+TAG_LENGTH];
+        }
+        /**
+         * Reads and authenticates the next chunk.
+         *
+         * @return false once the last chunk has been consumed
+         */
+        private boolean nextChunk() throws IOException{
+            if (finished){
+                if (in.read()!=-1){
+                    throw new IOException("Unexpected data after the last encrypted chunk");
+                }
+                return false;
+            }
+            int lengthField;
+            try{
+                lengthField=in.readInt();
+            }
+            catch (EOFException e){
+                throw new IOException("Encrypted calendar file is truncated");
+            }
+            boolean last=(lengthField&LAST_CHUNK_FLAG)!=0;
+            int length=lengthField&~LAST_CHUNK_FLAG;
+            if (length>ciphertext.length-TAG_LENGTH){
+                throw new IOException("Corrupt encrypted chunk length");
+            }
+            try{
+                in.readFully(nonce);
+                in.readFully(ciphertext, 0, length+TAG_LENGTH);
+            }
+            catch (EOFException e){
+                throw new IOException("Encrypted calendar file is truncated");
+            }
+            try{
+                cipher.init(Cipher.DECRYPT_MODE, keys.encryption, new GCMParameterSpec(TAG_LENGTH*8, nonce));
+                cipher.updateAAD(associatedData(header, index, last));
+                limit=cipher.doFinal(ciphertext, 0, length+TAG_LENGTH, plaintext, 0);
+            }
+            catch (GeneralSecurityException e){
+                throw new IOException("Encrypted calendar chunk "+index+" failed authentication (wrong passphrase or damaged file)");
+            }
+            position=0;
+            index++;
+            finished=last;
+            return true;
+        }
+        @Override
+        public int read() throws IOException{
+            byte[] single=new byte[1];
+            return read(single, 0, 1)==-1?-1:single[0]&0xFF;
+        }
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException{
+            if (count==0){
+                return 0;
+            }
+            while (position==limit){
+                if (!nextChunk()){
+                    return -1;
+                }
+            }
+            int copied=Math.min(count, limit-position);
+            System.arraycopy(plaintext, position, buffer, offset, copied);
+            position+=copied;
+            return copied;
+        }
+        @Override
+        public int available(){
+            return limit-position;
+        }
+        @Override
+        public void close() throws IOException{
+            Arrays.fill(plaintext, (byte) 0);
+            in.close();
+        }
+    }
+}
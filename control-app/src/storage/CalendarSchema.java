@@ -0,0 +1,366 @@
+package storage;
+
+/**
+ * Check plan compiled from the shared calendar schema.
+ *
+ * Responsibilities:
+ *-Compile shared/calendar_schema.json once per session
+ *-Record, for the root object and for event objects, each field's JSON
+ * type, string format and whether it is required
+ *
+ * Java data types used:
+ *-Map<String, Integer>
+ *-ValueType[] and Format[]
+ *-long bit masks
+ *
+ * Java technologies involved:
+ *-Regular expressions (at compile time only)
+ *
+ * Design intent:
+ * shared/calendar_schema.json is an example document rather than a JSON
+ * Schema, so the plan is inferred from it: every field of the example
+ * root, and every field that all example events share, is required with
+ * the type of its example value, and string values that look like a date,
+ * a time or a date-time must keep that shape. The relationships between
+ * fields described in calendar_schema.md are checked by
+ * CalendarSchemaValidator. JsonEventReader looks a field up once for
+ * each key it caches, so a value's checks start from an array index and
+ * a bit test.
+ */
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+public class CalendarSchema{
+    public static String SCHEMA_PROPERTY="calendar.schema";
+    private static String BUILT_IN="{\"version\":\"1.0\",\"savedAt\":\"2026-01-18T14:30:00\",\"events\":[{\"title\":\"Team Meeting\",\"date\":\"2026-01-18\",\"startTime\":\"09:00:00\",\"endTime\":\"10:00:00\",\"startDateTime\":\"2026-01-18T09:00:00\",\"endDateTime\":\"2026-01-18T10:00:00\"}]}";
+    private static Pattern DATE_PATTERN=Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
+    private static Pattern TIME_PATTERN=Pattern.compile("\\d{2}:\\d{2}(:\\d{2}(\\.\\d{1,9})?)?");
+    private static Pattern DATE_TIME_PATTERN=Pattern.compile("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}(:\\d{2}(\\.\\d{1,9})?)?");
+    private static CalendarSchema defaultSchema;
+    public enum ValueType{
+        STRING, NUMBER, BOOLEAN, NULL, OBJECT, ARRAY;
+        public String describe(){
+            return this==ARRAY||this==OBJECT?"an "+name().toLowerCase():"a "+name().toLowerCase();
+        }
+    }
+    public enum Format{
+        TEXT(""), DATE("YYYY-MM-DD"), TIME("HH:MM[:SS[.fraction]]"), DATE_TIME("YYYY-MM-DDTHH:MM[:SS[.fraction]]");
+        private String pattern;
+        Format(String pattern){
+            this.pattern=pattern;
+        }
+        public String getPattern(){
+            return pattern;
+        }
+    }
+    private String source;
+    private String eventsField;
+    private ObjectPlan root;
+    private ObjectPlan event;
+    private CalendarSchema(String source){
+        this.source=source;
+    }
+    /**
+     * Returns the schema named by the calendar.schema property, or
+     * shared/calendar_schema.json when it can be found from the working
+     * directory, or a built-in copy of it. Compiled once per session.
+     */
+    public static synchronized CalendarSchema getDefault(){
+        if (defaultSchema==null){
+            Path file=findSchemaFile();
+            if (file!=null){
+                try{
+                    defaultSchema=compile(file);
+                }
+                catch (IOException e){
+                    System.err.println("Failed to compile calendar schema "+file+", using the built-in one: "+e.getMessage());
+                }
+            }
+            if (defaultSchema==null){
+                try{
+                    defaultSchema=compile(BUILT_IN, "built-in schema");
+                }
+                catch (IOException e){
+                    throw new IllegalStateException("Built-in calendar schema is invalid", e);
+                }
+            }
+        }
+        return defaultSchema;
+    }
+    private static Path findSchemaFile(){
+        String configured=System.getProperty(SCHEMA_PROPERTY);
+        if (configured!=null){
+            return Paths.get(configured);
+        }
+        for (Path candidate:new Path[]{Paths.get("shared", "calendar_schema.json"), Paths.get("..", "shared", "calendar_schema.json")}){
+            if (Files.isRegularFile(candidate)){
+                return candidate;
+            }
+        }
+        return null;
+    }
+    public static CalendarSchema compile(Path file) throws IOException{
+        return compile(new String(Files.readAllBytes(file), StandardCharsets.UTF_8), file.toString());
+    }
+    /**
+     * Compiles an example calendar document into a check plan.
+     *
+     * @throws IOException if the example is not valid JSON or has no events
+     * array of objects
+     */
+    static CalendarSchema compile(String example, String source) throws IOException{
+        Object document=new ExampleParser(example).parseDocument();
+        if (!(document instanceof Map)){
+            throw new IOException("Schema example must be an object");
+        }
+        CalendarSchema schema=new CalendarSchema(source);
+        Map<?, ?> rootExample=(Map<?, ?>) document;
+        schema.root=new ObjectPlan();
+        for (Map.Entry<?, ?> entry:rootExample.entrySet()){
+            String name=(String) entry.getKey();
+            schema.root.add(name, entry.getValue(), true);
+            if (schema.eventsField==null&&entry.getValue() instanceof List){
+                schema.eventsField=name;
+            }
+        }
+        if (schema.eventsField==null){
+            throw new IOException("Schema example has no events array");
+        }
+        List<?> events=(List<?>) rootExample.get(schema.eventsField);
+        if (events.isEmpty()||!(events.get(0) instanceof Map)){
+            throw new IOException("Schema example needs at least one event object");
+        }
+        schema.event=new ObjectPlan();
+        for (Map.Entry<?, ?> entry:((Map<?, ?>) events.get(0)).entrySet()){
+            boolean required=true;
+            for (Object other:events){
+                if (!(other instanceof Map)||!((Map<?, ?>) other).containsKey(entry.getKey())){
+                    required=false;
+                }
+            }
+            schema.event.add((String) entry.getKey(), entry.getValue(), required);
+        }
+        return schema;
+    }
+    public String getSource(){
+        return source;
+    }
+    public String getEventsField(){
+        return eventsField;
+    }
+    ObjectPlan getRootPlan(){
+        return root;
+    }
+    ObjectPlan getEventPlan(){
+        return event;
+    }
+    private static ValueType typeOf(Object value){
+        if (value instanceof String){
+            return ValueType.STRING;
+        }
+        if (value instanceof Boolean){
+            return ValueType.BOOLEAN;
+        }
+        if (value instanceof Map){
+            return ValueType.OBJECT;
+        }
+        if (value instanceof List){
+            return ValueType.ARRAY;
+        }
+        return value==null?ValueType.NULL:ValueType.NUMBER;
+    }
+    private static Format formatOf(Object value){
+        if (!(value instanceof String)){
+            return Format.TEXT;
+        }
+        String text=(String) value;
+        if (DATE_TIME_PATTERN.matcher(text).matches()){
+            return Format.DATE_TIME;
+        }
+        if (DATE_PATTERN.matcher(text).matches()){
+            return Format.DATE;
+        }
+        if (TIME_PATTERN.matcher(text).matches()){
+            return Format.TIME;
+        }
+        return Format.TEXT;
+    }
+    /**
+     * The fields of one kind of object, indexed so a field's rules are found
+     * with one lookup and its presence tracked in one bit.
+     */
+    static class ObjectPlan{
+        private Map<String, Integer> indexes=new HashMap<>();
+        private List<String> names=new ArrayList<>();
+        private List<ValueType> types=new ArrayList<>();
+        private List<Format> formats=new ArrayList<>();
+        private long requiredMask;
+        private void add(String name, Object example, boolean required) throws IOException{
+            if (names.size()==Long.SIZE){
+                throw new IOException("Schema objects are limited to "+Long.SIZE+" fields");
+            }
+            int index=names.size();
+            indexes.put(name, index);
+            names.add(name);
+            types.add(typeOf(example));
+            formats.add(formatOf(example));
+            if (required){
+                requiredMask|=1L<<index;
+            }
+        }
+        int indexOf(String name){
+            Integer index=indexes.get(name);
+            return index!=null?index:-1;
+        }
+        int size(){
+            return names.size();
+        }
+        String getName(int index){
+            return names.get(index);
+        }
+        ValueType getType(int index){
+            return types.get(index);
+        }
+        Format getFormat(int index){
+            return formats.get(index);
+        }
+        long getRequiredMask(){
+            return requiredMask;
+        }
+    }
+    /**
+     * Minimal recursive parser for the example document, which is small and
+     * read once.
+     */
+    private static class ExampleParser{
+        private String text;
+        private int position;
+        private ExampleParser(String text){
+            this.text=text;
+        }
+        private Object parseDocument() throws IOException{
+            Object value=parseValue();
+            skipWhitespace();
+            if (position<text.length()){
+                throw error("Unexpected content after the document");
+            }
+            return value;
+        }
+        private Object parseValue() throws IOException{
+            skipWhitespace();
+            if (position>=text.length()){
+                throw error("Unexpected end of schema");
+            }
+            char c=text.charAt(position);
+            if (c=='{'){
+                position++;
+                Map<String, Object> object=new LinkedHashMap<>();
+                skipWhitespace();
+                if (peek()=='}'){
+                    position++;
+                    return object;
+                }
+                while (true){
+                    skipWhitespace();
+                    String key=parseString();
+                    skipWhitespace();
+                    expect(':');
+                    object.put(key, parseValue());
+                    skipWhitespace();
+                    if (peek()=='}'){
+                        position++;
+                        return object;
+                    }
+                    expect(',');
+                }
+            }
+            if (c=='['){
+                position++;
+                List<Object> array=new ArrayList<>();
+                skipWhitespace();
+                if (peek()==']'){
+                    position++;
+                    return array;
+                }
+                while (true){
+                    array.add(parseValue());
+                    skipWhitespace();
+                    if (peek()==']'){
+                        position++;
+                        return array;
+                    }
+                    expect(',');
+                }
+            }
+            if (c=='"'){
+                return parseString();
+            }
+            int start=position;
+            while (position<text.length()&&",}] \t\r\n".indexOf(text.charAt(position))<0){
+                position++;
+            }
+            String literal=text.substring(start, position);
+            switch (literal){
+                case "true": return Boolean.TRUE;
+                case "false": return Boolean.FALSE;
+                case "null": return null;
+                default:
+                    try{
+                        return Double.valueOf(literal);
+                    }
+                    catch (NumberFormatException e){
+                        throw error("Invalid literal '"+literal+"'");
+                    }
+            }
+        }
+        private String parseString() throws IOException{
+            expect('"');
+            StringBuilder value=new StringBuilder();
+            while (position<text.length()){
+                char c=text.charAt(position++);
+                if (c=='"'){
+                    return value.toString();
+                }
+                if (c=='\\'&&position<text.length()){
+                    char escaped=text.charAt(position++);
+                    if (escaped=='u'&&position+4<=text.length()){
+                        value.append((char) Integer.parseInt(text.substring(position, position+4), 16));
+                        position+=4;
+                    }
+                    else{
+                        value.append(escaped=='n'?'\n':escaped=='t'?'\t':escaped=='r'?'\r':escaped=='b'?'\b':escaped=='f'?'\f':escaped);
+                    }
+                }
+                else{
+                    value.append(c);
+                }
+            }
+            throw error("Unterminated string");
+        }
+        private void skipWhitespace(){
+            while (position<text.length()&&Character.isWhitespace(text.charAt(position))){
+                position++;
+            }
+        }
+        private char peek(){
+            return position<text.length()?text.charAt(position):'\0';
+        }
+        private void expect(char expected) throws IOException{
+            if (peek()!=expected){
+                throw error("Expected '"+expected+"'");
+            }
+            position++;
+        }
+        private IOException error(String message){
+            return new IOException(message+" at character "+position);
+        }
+    }
+}
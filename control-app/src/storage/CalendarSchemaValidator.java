@@ -0,0 +1,442 @@
+package storage;
+
+/**
+ * Streaming validator for calendar files.
+ *
+ * Responsibilities:
+ *-Check each value against the compiled CalendarSchema as the reader
+ * passes it
+ *-Check the field relationships documented in calendar_schema.md: the
+ * date-times repeat the date and times, and events end after they start
+ *-Collect every violation with its character offset, and turn offsets
+ * into lines and columns once there is something to report
+ *-Validate files from the command line
+ *
+ * Java data types used:
+ *-CalendarSchema
+ *-List<Violation>
+ *-long bit masks
+ *
+ * Java technologies involved:
+ *-Streaming validation
+ *
+ * Design intent:
+ * The validator never reads the file itself; JsonEventReader calls it
+ * with values it has already decoded, so a load that validates parses
+ * the file only once. Formats are checked by hand on the characters
+ * rather than with regular expressions, and a date-time that equals its
+ * valid date and time is not checked a second time. Positions are kept as
+ * character offsets while reading; counting lines costs a pass over the
+ * text, which is only made for files that have violations. Overlapping
+ * events are a business rule and stay with CalendarValidationService.
+ */
+import model.Event;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+public class CalendarSchemaValidator{
+    private CalendarSchema schema;
+    private List<Violation> violations=new ArrayList<>();
+    private ObjectState root;
+    private ObjectState event;
+    private int eventIndex=-1;
+    private int dateField;
+    private int startTimeField;
+    private int endTimeField;
+    private int startDateTimeField;
+    private int endDateTimeField;
+    public CalendarSchemaValidator(CalendarSchema schema){
+        this.schema=schema;
+        this.root=new ObjectState(schema.getRootPlan());
+        this.event=new ObjectState(schema.getEventPlan());
+        CalendarSchema.ObjectPlan eventPlan=schema.getEventPlan();
+        dateField=eventPlan.indexOf("date");
+        startTimeField=eventPlan.indexOf("startTime");
+        endTimeField=eventPlan.indexOf("endTime");
+        startDateTimeField=eventPlan.indexOf("startDateTime");
+        endDateTimeField=eventPlan.indexOf("endDateTime");
+        event.deferFormat(startDateTimeField);
+        event.deferFormat(endDateTimeField);
+    }
+    /**
+     * Validates a plain calendar file.
+     *
+     * @return every violation found, including a syntax error that stopped
+     * the file from being read to the end
+     * @throws IOException if the file cannot be read
+     */
+    public static List<Violation> validate(Path file, CalendarSchema schema) throws IOException{
+        return validate(file, schema, event->{
+
+        });
+    }
+    /**
+     * Validates a plain calendar file, handing the events it reads to the
+     * sink in the same pass.
+     */
+    public static List<Violation> validate(Path file, CalendarSchema schema, Consumer<Event> sink) throws IOException{
+        CalendarSchemaValidator validator=new CalendarSchemaValidator(schema);
+        try (JsonEventReader reader=new JsonEventReader(FileChannel.open(file, StandardOpenOption.READ))){
+            reader.setValidator(validator);
+            reader.readEvents(sink);
+        }
+        catch (IOException e){
+            if (!validator.hasSyntaxError()){
+                throw e;
+            }
+        }
+        if (!validator.isValid()){
+            try (Reader text=Channels.newReader(FileChannel.open(file, StandardOpenOption.READ), StandardCharsets.UTF_8.newDecoder(), 64*1024)){
+                validator.resolvePositions(text);
+            }
+        }
+        return validator.getViolations();
+    }
+    public boolean isValid(){
+        return violations.isEmpty();
+    }
+    public List<Violation> getViolations(){
+        return violations;
+    }
+    public String getEventsField(){
+        return schema.getEventsField();
+    }
+    /**
+     * Gives every violation its line and column by counting lines in the
+     * text it was found in, which must be the same text the reader saw.
+     */
+    public void resolvePositions(Reader text) throws IOException{
+        List<Violation> pending=new ArrayList<>(violations);
+        pending.sort(Comparator.comparingLong(violation->violation.offset));
+        char[] buffer=new char[64*1024];
+        long offset=0;
+        long lineStart=0;
+        int line=1;
+        int next=0;
+        int read;
+        while (next<pending.size()&&(read=text.read(buffer))>0){
+            for (int i=0;i<read;i++){
+                while (next<pending.size()&&pending.get(next).offset<=offset+i){
+                    pending.get(next++).locate(line, lineStart);
+                }
+                if (buffer[i]=='\n'){
+                    line++;
+                    lineStart=offset+i+1;
+                }
+            }
+            offset+=read;
+        }
+        while (next<pending.size()){
+            pending.get(next++).locate(line, lineStart);
+        }
+    }
+    private boolean hasSyntaxError(){
+        return !violations.isEmpty()&&violations.get(violations.size()-1).syntax;
+    }
+    void beginRoot(long offset){
+        root.begin(offset);
+    }
+    /**
+     * The root field's index in the plan, or -1 for fields the schema does
+     * not name.
+     */
+    int rootField(String key){
+        return root.plan.indexOf(key);
+    }
+    int eventField(String key){
+        return event.plan.indexOf(key);
+    }
+    void rootValue(int field, CalendarSchema.ValueType type, String value, long offset){
+        root.value(field, type, value, offset);
+    }
+    void endRoot(){
+        root.end();
+    }
+    void beginEvent(long offset){
+        eventIndex++;
+        event.begin(offset);
+    }
+    void eventValue(int field, CalendarSchema.ValueType type, String value, long offset){
+        event.value(field, type, value, offset);
+    }
+    void endEvent(){
+        event.end();
+        if (event.isValid(startTimeField)&&event.isValid(endTimeField)&&event.values[endTimeField].compareTo(event.values[startTimeField])<=0){
+            event.report(endTimeField, "endTime must be after startTime ("+event.values[startTimeField]+" -> "+event.values[endTimeField]+")");
+        }
+        checkCombined(startDateTimeField, startTimeField);
+        checkCombined(endDateTimeField, endTimeField);
+    }
+    void syntaxError(String message, long offset){
+        Violation violation=new Violation(offset, message);
+        violation.syntax=true;
+        violations.add(violation);
+    }
+    /**
+     * Checks that a date-time field equals date + "T" + time. Its own format
+     * is only checked when it does not, or when date or time is unusable.
+     */
+    private void checkCombined(int dateTimeField, int timeField){
+        if (!event.isValid(dateTimeField)){
+            return;
+        }
+        String dateTime=event.values[dateTimeField];
+        boolean combinable=event.isValid(dateField)&&event.isValid(timeField);
+        String date=combinable?event.values[dateField]:null;
+        String time=combinable?event.values[timeField]:null;
+        if (combinable&&dateTime.length()==date.length()+1+time.length()&&dateTime.startsWith(date)&&dateTime.charAt(date.length())=='T'&&dateTime.endsWith(time)){
+            return;
+        }
+        String name=schema.getEventPlan().getName(dateTimeField);
+        if (!matches(CalendarSchema.Format.DATE_TIME, dateTime)){
+            event.report(dateTimeField, "invalid "+name+" \""+dateTime+"\", expected "+CalendarSchema.Format.DATE_TIME.getPattern());
+        }
+        else if (combinable){
+            event.report(dateTimeField, name+" does not match date and "+schema.getEventPlan().getName(timeField)+": expected \""+date+"T"+time+"\", got \""+dateTime+"\"");
+        }
+    }
+    private static boolean matches(CalendarSchema.Format format, String value){
+        switch (format){
+            case DATE: return isDate(value, 0, value.length());
+            case TIME: return isTime(value, 0, value.length());
+            case DATE_TIME:
+                int separator=value.indexOf('T');
+                return separator>0&&isDate(value, 0, separator)&&isTime(value, separator+1, value.length());
+            default: return true;
+        }
+    }
+    /**
+     * Accepts yyyy-MM-dd naming a real day, the ISO-8601 form the readers
+     * parse.
+     */
+    private static boolean isDate(String value, int start, int end){
+        if (end-start!=10||value.charAt(start+4)!='-'||value.charAt(start+7)!='-'){
+            return false;
+        }
+        return isDay(digits(value, start, start+4), twoDigits(value, start+5), twoDigits(value, start+8));
+    }
+    private static boolean isDay(int year, int month, int day){
+        if (year<0||month<1||month>12||day<1){
+            return false;
+        }
+        if (month==2){
+            boolean leap=(year%4==0&&year%100!=0)||year%400==0;
+            return day<=(leap?29:28);
+        }
+        return day<=(month==4||month==6||month==9||month==11?30:31);
+    }
+    /**
+     * Accepts HH:MM, HH:MM:SS and HH:MM:SS with a fraction of up to nine
+     * digits within a day, the ISO-8601 forms the readers parse. Files
+     * written by older versions use HH:MM times and a savedAt with
+     * nanoseconds.
+     */
+    private static boolean isTime(String value, int start, int end){
+        int length=end-start;
+        if (length<5||value.charAt(start+2)!=':'){
+            return false;
+        }
+        int hour=twoDigits(value, start);
+        int minute=twoDigits(value, start+3);
+        if (hour<0||hour>=24||minute<0||minute>=60){
+            return false;
+        }
+        if (length==5){
+            return true;
+        }
+        if (length<8||value.charAt(start+5)!=':'){
+            return false;
+        }
+        int second=twoDigits(value, start+6);
+        if (second<0||second>=60){
+            return false;
+        }
+        if (length==8){
+            return true;
+        }
+        if (length<10||length>18||value.charAt(start+8)!='.'){
+            return false;
+        }
+        return digits(value, start+9, end)>=0;
+    }
+    private static int twoDigits(String value, int start){
+        int tens=value.charAt(start)-'0';
+        int ones=value.charAt(start+1)-'0';
+        return tens>=0&&tens<=9&&ones>=0&&ones<=9?tens*10+ones:-1;
+    }
+    private static int digits(String value, int start, int end){
+        int result=0;
+        for (int i=start;i<end;i++){
+            int digit=value.charAt(i)-'0';
+            if (digit<0||digit>9){
+                return -1;
+            }
+            result=result*10+digit;
+        }
+        return result;
+    }
+    /**
+     * Validates the given files, or the .json files in the given
+     * directories, and prints every violation as file:line:column.
+     */
+    public static void main(String[] args){
+        if (args.length==0){
+            System.out.println("Usage: CalendarSchemaValidator <file_or_directory>... (-Dcalendar.schema=<schema.json>)");
+            System.exit(2);
+        }
+        CalendarSchema schema=CalendarSchema.getDefault();
+        System.out.println("Schema: "+schema.getSource());
+        int files=0;
+        int invalidFiles=0;
+        int total=0;
+        for (String arg:args){
+            File target=new File(arg);
+            File[] inputs=target.isDirectory()?target.listFiles((dir, name)->name.toLowerCase().endsWith(".json")):new File[]{target};
+            if (inputs==null){
+                continue;
+            }
+            for (File input:inputs){
+                files++;
+                try{
+                    List<Violation> found=validate(Paths.get(input.getPath()), schema);
+                    for (Violation violation:found){
+                        System.out.println(input.getPath()+":"+violation);
+                    }
+                    if (!found.isEmpty()){
+                        invalidFiles++;
+                        total+=found.size();
+                    }
+                }
+                catch (IOException e){
+                    System.out.println(input.getPath()+": "+e.getMessage());
+                    invalidFiles++;
+                    total++;
+                }
+            }
+        }
+        System.out.println(files+" files, "+(files-invalidFiles)+" valid, "+total+" violations");
+        System.exit(invalidFiles>0?1:0);
+    }
+    /**
+     * One schema violation and where it is in the file.
+     */
+    public static class Violation{
+        private long offset;
+        private int line;
+        private int column;
+        private String message;
+        private boolean syntax;
+        private Violation(long offset, String message){
+            this.offset=offset;
+            this.message=message;
+        }
+        private void locate(int line, long lineStart){
+            this.line=line;
+            this.column=(int) (offset-lineStart)+1;
+        }
+        public long getOffset(){
+            return offset;
+        }
+        /**
+         * The 1-based line, or 0 until resolvePositions has run.
+         */
+        public int getLine(){
+            return line;
+        }
+        public int getColumn(){
+            return column;
+        }
+        public String getMessage(){
+            return message;
+        }
+        @Override
+        public String toString(){
+            return line>0?line+":"+column+": "+message:"character "+offset+": "+message;
+        }
+    }
+    /**
+     * The fields seen so far in the current root or event object.
+     */
+    private class ObjectState{
+        private CalendarSchema.ObjectPlan plan;
+        private CalendarSchema.ValueType[] types;
+        private CalendarSchema.Format[] formats;
+        private String[] values;
+        private long[] offsets;
+        private long seen;
+        private long valid;
+        private long deferred;
+        private long start;
+        private ObjectState(CalendarSchema.ObjectPlan plan){
+            this.plan=plan;
+            this.types=new CalendarSchema.ValueType[plan.size()];
+            this.formats=new CalendarSchema.Format[plan.size()];
+            for (int i=0;i<plan.size();i++){
+                types[i]=plan.getType(i);
+                formats[i]=plan.getFormat(i);
+            }
+            this.values=new String[plan.size()];
+            this.offsets=new long[plan.size()];
+        }
+        /**
+         * Leaves a field's format to be checked when the object ends.
+         */
+        private void deferFormat(int index){
+            if (index>=0){
+                deferred|=1L<<index;
+            }
+        }
+        private void begin(long offset){
+            this.start=offset;
+            seen=0;
+            valid=0;
+        }
+        private void value(int index, CalendarSchema.ValueType type, String value, long offset){
+            long bit=1L<<index;
+            offsets[index]=offset;
+            values[index]=value;
+            if ((seen&bit)!=0){
+                report(index, "duplicate field \""+plan.getName(index)+"\"");
+            }
+            seen|=bit;
+            CalendarSchema.ValueType expected=types[index];
+            if (type!=expected){
+                report(index, "field \""+plan.getName(index)+"\" must be "+expected.describe()+", found "+type.describe());
+                return;
+            }
+            CalendarSchema.Format format=formats[index];
+            if (value!=null&&format!=CalendarSchema.Format.TEXT&&(deferred&bit)==0&&!matches(format, value)){
+                report(index, "invalid "+plan.getName(index)+" \""+value+"\", expected "+format.getPattern());
+                return;
+            }
+            valid|=bit;
+        }
+        private void end(){
+            long missing=plan.getRequiredMask()&~seen;
+            for (int index=0;missing!=0;index++,missing>>>=1){
+                if ((missing&1)!=0){
+                    violations.add(new Violation(start, prefix()+"missing required field \""+plan.getName(index)+"\""));
+                }
+            }
+        }
+        private boolean isValid(int index){
+            return index>=0&&(valid&(1L<<index))!=0;
+        }
+        private void report(int index, String message){
+            violations.add(new Violation(offsets[index], prefix()+message));
+        }
+        private String prefix(){
+            return this==root?"":"event "+eventIndex+": ";
+        }
+    }
+}
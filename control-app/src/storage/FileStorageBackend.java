@@ -0,0 +1,255 @@
+package storage;
+
+/**
+ * Shared base for backends that keep the calendar in one native file.
+ *
+ * Responsibilities:
+ *-Own the storage and backup paths
+ *-Export, import, back up and restore in the JSON interchange format
+ *-Buffer recorded changes until a save batch takes them
+ *
+ * Java data types used:
+ *-Path
+ *-BackupStore
+ *-List<String>
+ *
+ * Java technologies involved:
+ *-Java NIO
+ *-JSON serialization
+ *
+ * Design intent:
+ * Subclasses only decide how events and changes are laid out on disk.
+ * Changes are recorded as MutationJournal records, so every backend
+ * shares one change format.
+ */
+import model.CalendarModel;
+import model.Event;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+public abstract class FileStorageBackend implements StorageBackend{
+    private Path storagePath;
+    private Path backupPath;
+    private BackupStore backupStore;
+    private List<String> pending=new ArrayList<>();
+    private volatile boolean recording;
+    protected FileStorageBackend(Path storagePath, Path backupPath){
+        this.storagePath=storagePath;
+        this.backupPath=backupPath;
+        try{
+            Path parentDir=storagePath.toAbsolutePath().getParent();
+            if (parentDir!=null){
+                Files.createDirectories(parentDir);
+            }
+        }
+        catch (IOException e){
+            System.err.println("Failed to create storage directory: "+e.getMessage());
+        }
+    }
+    /**
+     * Starts or stops buffering changes. Recording starts once the store
+     * holds the calendar, either after a load or after a first full write.
+     */
+    protected void setRecording(boolean recording){
+        this.recording=recording;
+        if (!recording){
+            synchronized (this){
+                pending.clear();
+            }
+        }
+    }
+    protected boolean isRecording(){
+        return recording;
+    }
+    private synchronized void record(String record){
+        if (recording){
+            pending.add(record);
+        }
+    }
+    @Override
+    public void recordEventAdded(Event event){
+        record(MutationJournal.addRecord(event));
+    }
+    @Override
+    public void recordEventDeleted(Event event){
+        record(MutationJournal.deleteRecord(event));
+    }
+    @Override
+    public void recordEventUpdated(Event oldEvent, Event newEvent){
+        record(MutationJournal.updateRecord(oldEvent, newEvent));
+    }
+    @Override
+    public void recordEventsCleared(){
+        record(MutationJournal.clearRecord());
+    }
+    @Override
+    public SaveBatch captureSave(CalendarModel model){
+        SaveBatch batch=new SaveBatch();
+        synchronized (model){
+            synchronized (this){
+                batch.journalRecords=pending;
+                pending=new ArrayList<>();
+            }
+            batch.captureModel(model);
+        }
+        return batch;
+    }
+    @Override
+    public SaveBatch captureSnapshot(CalendarModel model){
+        SaveBatch batch=new SaveBatch();
+        batch.captureModel(model);
+        return batch;
+    }
+    /**
+     * Puts the records of a batch that failed to save back in front of
+     * newer ones.
+     */
+    protected synchronized void requeue(SaveBatch batch){
+        pending.addAll(0, batch.journalRecords);
+    }
+    /**
+     * Records the given events in the backup store as JSON. Unchanged
+     * content adds nothing.
+     */
+    protected boolean backupEvents(List<Event> events, String label){
+        Path tempPath=null;
+        try{
+            tempPath=AtomicFiles.createTempSibling(storagePath);
+            AtomicFiles.writeCalendar(events, tempPath);
+            getBackupStore().backup(tempPath, label);
+            return true;
+        }
+        catch (IOException e){
+            System.err.println("Failed to create backup: "+e.getMessage());
+            return false;
+        }
+        finally{
+            if (tempPath!=null){
+                try{
+                    Files.deleteIfExists(tempPath);
+                }
+                catch (IOException e){
+                    System.err.println("Failed to remove temporary backup file: "+e.getMessage());
+                }
+            }
+        }
+    }
+    /**
+     * Loads the newest intact backup, used when the storage file cannot be
+     * read.
+     */
+    protected CalendarModel loadLatestBackup(){
+        CalendarModel model=new CalendarModel();
+        List<Event> events=getBackupStore().readLatestIntact();
+        if (events!=null){
+            model.addEvents(events);
+        }
+        return model;
+    }
+    private CalendarModel readBackup(BackupStore.Entry entry) throws IOException{
+        CalendarModel model=new CalendarModel();
+        model.addEvents(getBackupStore().readEvents(entry));
+        return model;
+    }
+    @Override
+    public boolean createManualBackup(SaveBatch batch){
+        return backupEvents(batch.model.getEvents(), BackupStore.LABEL_MANUAL);
+    }
+    public synchronized BackupStore getBackupStore(){
+        if (backupStore==null){
+            backupStore=new BackupStore(backupPath);
+        }
+        return backupStore;
+    }
+    @Override
+    public List<BackupStore.Entry> listBackups(){
+        try{
+            return getBackupStore().listBackups();
+        }
+        catch (IOException e){
+            System.err.println("Failed to list backups: "+e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    @Override
+    public CalendarModel restoreBackup(Instant pointInTime){
+        try{
+            BackupStore.Entry entry=getBackupStore().findBackup(pointInTime);
+            return entry!=null?readBackup(entry):null;
+        }
+        catch (IOException e){
+            System.err.println("Failed to restore backup: "+e.getMessage());
+            return null;
+        }
+    }
+    @Override
+    public boolean exportCalendar(SaveBatch batch, Path exportPath){
+        try{
+            AtomicFiles.writeCalendar(batch.model.getEvents(), exportPath);
+            return true;
+        }
+        catch (IOException e){
+            System.err.println("Failed to export calendar: "+e.getMessage());
+            return false;
+        }
+    }
+    @Override
+    public CalendarModel importCalendar(Path importPath, ImportListener listener){
+        CalendarModel model=new CalendarModel();
+        if (!Files.exists(importPath)){
+            System.out.println("File not found: "+importPath);
+            return model;
+        }
+        try{
+            model.addEvents(MappedJsonEventReader.readFile(importPath, listener));
+        }
+        catch (IOException e){
+            System.err.println("Failed to import calendar: "+e.getMessage());
+        }
+        catch (CancellationException e){
+            System.out.println(e.getMessage());
+            return null;
+        }
+        return model;
+    }
+    @Override
+    public Path getStoragePath(){
+        return storagePath;
+    }
+    public Path getBackupPath(){
+        return backupPath;
+    }
+    @Override
+    public boolean saveFileExists(){
+        return Files.exists(storagePath);
+    }
+    /**
+     * Backend-specific lines appended to the storage info.
+     */
+    protected void appendStorageInfo(StringBuilder info) throws IOException{
+
+    }
+    @Override
+    public String getStorageInfo(){
+        try{
+            StringBuilder info=new StringBuilder();
+            info.append("Backend: ").append(getName()).append("\n");
+            info.append("Storage Path: ").append(storagePath).append("\n");
+            info.append("File Exists: ").append(saveFileExists()).append("\n");
+            if (saveFileExists()){
+                info.append("File Size: ").append(Files.size(storagePath)).append(" bytes\n");
+                info.append("Last Modified: ").append(Files.getLastModifiedTime(storagePath)).append("\n");
+            }
+            info.append("Backups: ").append(listBackups().size()).append("\n");
+            appendStorageInfo(info);
+            return info.toString();
+        }
+        catch (IOException e){
+            return "Error getting storage info: "+e.getMessage();
+        }
+    }
+}
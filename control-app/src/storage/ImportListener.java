@@ -0,0 +1,31 @@
+package storage;
+
+/**
+ * Receives progress from a long-running import and can cancel it.
+ *
+ * Responsibilities:
+ *-Report how much of the file has been read
+ *-Let the caller stop the import between events
+ *
+ * Design intent:
+ * Both methods are called on the importing thread, so implementations
+ * that update a UI must hand the values over to the event thread.
+ */
+public interface ImportListener{
+    ImportListener NONE=new ImportListener(){
+
+    };
+    /**
+     * Called every few hundred kilobytes and once at the end.
+     */
+    default void progress(long bytesRead, long totalBytes, int eventsRead){
+
+    }
+    /**
+     * Polled at the same points as progress; returning true abandons the
+     * import.
+     */
+    default boolean isCancelled(){
+        return false;
+    }
+}
@@ -0,0 +1,474 @@
+package storage;
+
+/**
+ * Single-pass streaming JSON parser for calendar files.
+ *
+ * Responsibilities:
+ *-Tokenize the calendar file straight from a channel
+ *-Decode string escapes, including \\uXXXX sequences
+ *-Emit each Event as soon as its object closes
+ *-Feed values and their character offsets to an optional
+ * CalendarSchemaValidator
+ *
+ * Java data types used:
+ *-ReadableByteChannel
+ *-char[]
+ *-Consumer<Event>
+ *
+ * Java technologies involved:
+ *-Java NIO channels
+ *-Recursive-descent parsing
+ *
+ * Design intent:
+ * The file is read once, front to back, with a fixed-size buffer.
+ * Unknown fields are skipped so older and newer files stay readable.
+ */
+import model.Event;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.function.Consumer;
+public class JsonEventReader implements Closeable{
+    private static int BUFFER_SIZE=64*1024;
+    private static int KEY_CACHE_SIZE=16;
+    private Reader in;
+    private char[] buffer=new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private long consumed;
+    private StringBuilder text=new StringBuilder(64);
+    private String[] keyCache=new String[KEY_CACHE_SIZE];
+    private int[] keyFields=new int[KEY_CACHE_SIZE];
+    private int keyField;
+    private int skippedEvents;
+    private CalendarSchemaValidator validator;
+    public JsonEventReader(ReadableByteChannel channel){
+        this.in=Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), BUFFER_SIZE);
+    }
+    public JsonEventReader(Reader reader){
+        this.in=reader;
+    }
+    /**
+     * Validates the document while it is read. Only character offsets are
+     * passed on; the validator turns them into lines and columns when it
+     * has something to report.
+     */
+    public void setValidator(CalendarSchemaValidator validator){
+        this.validator=validator;
+        Arrays.fill(keyCache, null);
+    }
+    /**
+     * Reads the whole document and hands every well-formed event to the sink.
+     *
+     * @return the number of events emitted
+     * @throws IOException on I/O failure or malformed JSON
+     */
+    public int readEvents(Consumer<Event> sink) throws IOException{
+        int count=0;
+        if (validator!=null){
+            validator.beginRoot(markValue());
+        }
+        expect('{');
+        if (peekToken()=='}'){
+            next();
+            if (validator!=null){
+                validator.endRoot();
+            }
+            return 0;
+        }
+        while (true){
+            String key=readString();
+            expect(':');
+            String value=validator!=null?validateValue(validator.rootField(key), peekToken(), true):null;
+            if ("events".equals(key)){
+                count+=readEventsArray(sink);
+            }
+            else if (value==null){
+                skipValue();
+            }
+            int c=nextToken();
+            if (c=='}'){
+                break;
+            }
+            if (c!=','){
+                throw error("Expected ',' or '}' in root object");
+            }
+        }
+        if (validator!=null){
+            validator.endRoot();
+        }
+        return count;
+    }
+    public int getSkippedEvents(){
+        return skippedEvents;
+    }
+    private int readEventsArray(Consumer<Event> sink) throws IOException{
+        int count=0;
+        expect('[');
+        if (peekToken()==']'){
+            next();
+            return 0;
+        }
+        EventFields fields=new EventFields();
+        while (true){
+            fields.clear();
+            if (validator!=null){
+                validator.beginEvent(markValue());
+            }
+            readEventObject(fields);
+            if (validator!=null){
+                validator.endEvent();
+            }
+            Event event=fields.toEvent();
+            if (event!=null){
+                sink.accept(event);
+                count++;
+            }
+            else{
+                skippedEvents++;
+            }
+            int c=nextToken();
+            if (c==']'){
+                break;
+            }
+            if (c!=','){
+                throw error("Expected ',' or ']' in events array");
+            }
+        }
+        return count;
+    }
+    private void readEventObject(EventFields fields) throws IOException{
+        expect('{');
+        if (peekToken()=='}'){
+            next();
+            return;
+        }
+        int ordinal=0;
+        while (true){
+            String key=readKey(ordinal++);
+            expect(':');
+            int c=peekToken();
+            if (c=='"'){
+                String value=validator!=null?validateValue(keyField, c, false):readString();
+                switch (key){
+                    case "title": fields.title=value; break;
+                    case "date": fields.date=value; break;
+                    case "startTime": fields.startTime=value; break;
+                    case "endTime": fields.endTime=value; break;
+                    case "startDateTime": fields.startDateTime=value; break;
+                    case "endDateTime": fields.endDateTime=value; break;
+                    default: break;
+                }
+            }
+            else{
+                if (validator!=null){
+                    validateValue(keyField, c, false);
+                }
+                skipValue();
+            }
+            c=nextToken();
+            if (c=='}'){
+                return;
+            }
+            if (c!=','){
+                throw error("Expected ',' or '}' in event object");
+            }
+        }
+    }
+    /**
+     * Passes the value starting with c, already peeked at the current
+     * position, to the validator. A string value is consumed and returned;
+     * any other value is left in place.
+     */
+    private String validateValue(int field, int c, boolean rootValue) throws IOException{
+        long offset=consumed+position;
+        String value=c=='"'?readString():null;
+        if (field<0){
+            return value;
+        }
+        if (rootValue){
+            validator.rootValue(field, valueType(c), value, offset);
+        }
+        else{
+            validator.eventValue(field, valueType(c), value, offset);
+        }
+        return value;
+    }
+    private static CalendarSchema.ValueType valueType(int c){
+        switch (c){
+            case '"': return CalendarSchema.ValueType.STRING;
+            case '{': return CalendarSchema.ValueType.OBJECT;
+            case '[': return CalendarSchema.ValueType.ARRAY;
+            case 't': case 'f': return CalendarSchema.ValueType.BOOLEAN;
+            case 'n': return CalendarSchema.ValueType.NULL;
+            default: return CalendarSchema.ValueType.NUMBER;
+        }
+    }
+    /**
+     * Skips whitespace and returns the offset of the next token.
+     */
+    private long markValue() throws IOException{
+        peekToken();
+        return consumed+position;
+    }
+    private void skipValue() throws IOException{
+        int c=peekToken();
+        if (c=='"'){
+            readString();
+        }
+        else if (c=='{'||c=='['){
+            int close=c=='{'?'}':']';
+            next();
+            if (peekToken()==close){
+                next();
+                return;
+            }
+            while (true){
+                if (c=='{'){
+                    readString();
+                    expect(':');
+                }
+                skipValue();
+                int separator=nextToken();
+                if (separator==close){
+                    return;
+                }
+                if (separator!=','){
+                    throw error("Expected ',' in nested value");
+                }
+            }
+        }
+        else{
+            int read;
+            while ((read=peek())!=-1&&read!=','&&read!='}'&&read!=']'&&!isWhitespace(read)){
+                next();
+            }
+        }
+    }
+    /**
+     * Reads a field name. Events repeat the same fields in the same order,
+     * so the name at each position is compared in place with the one read
+     * there last time and that String is reused when it matches, saving the
+     * allocation and keeping its hash code cached. The name's schema field
+     * is looked up with it and left in keyField.
+     */
+    private String readKey(int ordinal) throws IOException{
+        if (ordinal>=KEY_CACHE_SIZE){
+            String key=readString();
+            keyField=validator!=null?validator.eventField(key):-1;
+            return key;
+        }
+        String cached=keyCache[ordinal];
+        if (cached!=null&&peekToken()=='"'){
+            int length=cached.length();
+            int start=position+1;
+            if (start+length<limit&&buffer[start+length]=='"'){
+                boolean same=true;
+                for (int i=0;i<length;i++){
+                    if (buffer[start+i]!=cached.charAt(i)){
+                        same=false;
+                        break;
+                    }
+                }
+                if (same){
+                    position=start+length+1;
+                    keyField=keyFields[ordinal];
+                    return cached;
+                }
+            }
+        }
+        String key=readString();
+        keyField=validator!=null?validator.eventField(key):-1;
+        if (key.indexOf('"')<0&&key.indexOf('\\')<0){
+            keyCache[ordinal]=key;
+            keyFields[ordinal]=keyField;
+        }
+        return key;
+    }
+    private String readString() throws IOException{
+        expect('"');
+        text.setLength(0);
+        while (true){
+            if (position>=limit&&!fill()){
+                throw error("Unterminated string");
+            }
+            int runStart=position;
+            while (position<limit){
+                char c=buffer[position];
+                if (c=='"'||c=='\\'){
+                    break;
+                }
+                position++;
+            }
+            text.append(buffer, runStart, position-runStart);
+            if (position>=limit){
+                continue;
+            }
+            char c=buffer[position++];
+            if (c=='"'){
+                return text.toString();
+            }
+            int escaped=next();
+            switch (escaped){
+                case '"': text.append('"'); break;
+                case '\\': text.append('\\'); break;
+                case '/': text.append('/'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u': text.append(readUnicodeEscape()); break;
+                default: throw error("Invalid escape sequence");
+            }
+        }
+    }
+    private char readUnicodeEscape() throws IOException{
+        int value=0;
+        for (int i=0;i<4;i++){
+            int digit=Character.digit(next(), 16);
+            if (digit<0){
+                throw error("Invalid \\u escape");
+            }
+            value=(value<<4)|digit;
+        }
+        return (char) value;
+    }
+    private void expect(char expected) throws IOException{
+        if (nextToken()!=expected){
+            throw error("Expected '"+expected+"'");
+        }
+    }
+    private int nextToken() throws IOException{
+        int c=peekToken();
+        if (c!=-1){
+            position++;
+        }
+        return c;
+    }
+    private int peekToken() throws IOException{
+        while (true){
+            int c=peek();
+            if (c==-1||!isWhitespace(c)){
+                return c;
+            }
+            position++;
+        }
+    }
+    private int peek() throws IOException{
+        if (position>=limit&&!fill()){
+            return -1;
+        }
+        return buffer[position];
+    }
+    private int next() throws IOException{
+        if (position>=limit&&!fill()){
+            throw error("Unexpected end of file");
+        }
+        return buffer[position++];
+    }
+    private boolean fill() throws IOException{
+        consumed+=limit;
+        position=0;
+        limit=0;
+        int read=in.read(buffer, 0, buffer.length);
+        if (read<=0){
+            return false;
+        }
+        limit=read;
+        return true;
+    }
+    private static boolean isWhitespace(int c){
+        return c==' '||c=='\n'||c=='\r'||c=='\t';
+    }
+    private IOException error(String message){
+        if (validator!=null){
+            validator.syntaxError(message, consumed+position);
+        }
+        return new IOException(message+" at character "+(consumed+position));
+    }
+    @Override
+    public void close() throws IOException{
+        in.close();
+    }
+    private static class EventFields{
+        private String title;
+        private String date;
+        private String startTime;
+        private String endTime;
+        private String startDateTime;
+        private String endDateTime;
+        private void clear(){
+            title=null;
+            date=null;
+            startTime=null;
+            endTime=null;
+            startDateTime=null;
+            endDateTime=null;
+        }
+        private Event toEvent(){
+            try{
+                LocalDate eventDate=date!=null?parseDate(date):null;
+                LocalTime start=startTime!=null?parseTime(startTime):null;
+                LocalTime end=endTime!=null?parseTime(endTime):null;
+                if (start==null&&startDateTime!=null){
+                    LocalDateTime startDate=LocalDateTime.parse(startDateTime, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+                    eventDate=startDate.toLocalDate();
+                    start=startDate.toLocalTime();
+                }
+                if (end==null&&endDateTime!=null){
+                    end=LocalDateTime.parse(endDateTime, DateTimeFormatter.ISO_LOCAL_DATE_TIME).toLocalTime();
+                }
+                if (title==null||eventDate==null||start==null||end==null){
+                    return null;
+                }
+                return new Event(title, eventDate, start, end);
+            }
+            catch (RuntimeException e){
+                return null;
+            }
+        }
+    }
+    static LocalDate parseDate(String value){
+        if (value.length()==10&&value.charAt(4)=='-'&&value.charAt(7)=='-'){
+            int year=digits(value, 0, 4);
+            int month=digits(value, 5, 2);
+            int day=digits(value, 8, 2);
+            if (year>=0&&month>=0&&day>=0){
+                return LocalDate.of(year, month, day);
+            }
+        }
+        return LocalDate.parse(value, DateTimeFormatter.ISO_LOCAL_DATE);
+    }
+    static LocalTime parseTime(String value){
+        int length=value.length();
+        if ((length==8||length==5)&&value.charAt(2)==':'&&(length==5||value.charAt(5)==':')){
+            int hour=digits(value, 0, 2);
+            int minute=digits(value, 3, 2);
+            int second=length==8?digits(value, 6, 2):0;
+            if (hour>=0&&minute>=0&&second>=0){
+                return LocalTime.of(hour, minute, second);
+            }
+        }
+        return LocalTime.parse(value, DateTimeFormatter.ISO_LOCAL_TIME);
+    }
+    private static int digits(String value, int offset, int count){
+        int result=0;
+        for (int i=offset;i<offset+count;i++){
+            int digit=value.charAt(i)-'0';
+            if (digit<0||digit>9){
+                return -1;
+            }
+            result=result*10+digit;
+        }
+        return result;
+    }
+}
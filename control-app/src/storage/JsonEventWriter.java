@@ -0,0 +1,175 @@
+package storage;
+
+/**
+ * Streaming JSON encoder for calendar files.
+ *
+ * Responsibilities:
+ *-Write the calendar root object and events array
+ *-Encode each event directly into a buffered UTF-8 stream
+ *-Format dates and times once, without intermediate Strings
+ *
+ * Java data types used:
+ *-Writer
+ *-char[]
+ *-Event
+ *
+ * Java technologies involved:
+ *-java.io buffered streams
+ *
+ * Design intent:
+ * Memory use stays constant no matter how many events are written.
+ * Output matches the layout described in shared/calendar_schema.md.
+ */
+import model.Event;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+public class JsonEventWriter implements Closeable{
+    private static int BUFFER_SIZE=64*1024;
+    private Writer out;
+    private char[] scratch=new char[32];
+    private boolean firstEvent=true;
+    public JsonEventWriter(OutputStream stream){
+        this.out=new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+    /**
+     * Writes the root fields. savedAt is written to the second, the format
+     * the shared schema gives it.
+     */
+    public void writeHeader(LocalDateTime savedAt) throws IOException{
+        out.write("{\n");
+        out.write("  \"version\": \"1.0\",\n");
+        out.write("  \"savedAt\": \"");
+        writeDateTime(savedAt.truncatedTo(ChronoUnit.SECONDS));
+        out.write("\",\n");
+        out.write("  \"events\": [\n");
+    }
+    public void writeEvent(Event event) throws IOException{
+        if (!firstEvent){
+            out.write(",\n");
+        }
+        firstEvent=false;
+        LocalDate date=event.getDate();
+        LocalTime startTime=event.getStartTime().toLocalTime();
+        LocalTime endTime=event.getEndTime().toLocalTime();
+        out.write("    {\n");
+        out.write("      \"title\": \"");
+        writeEscaped(event.getTitle());
+        out.write("\",\n      \"date\": \"");
+        writeDate(date);
+        out.write("\",\n      \"startTime\": \"");
+        writeTime(startTime);
+        out.write("\",\n      \"endTime\": \"");
+        writeTime(endTime);
+        out.write("\",\n      \"startDateTime\": \"");
+        writeDate(date);
+        out.write('T');
+        writeTime(startTime);
+        out.write("\",\n      \"endDateTime\": \"");
+        writeDate(date);
+        out.write('T');
+        writeTime(endTime);
+        out.write("\"\n    }");
+    }
+    public void writeFooter() throws IOException{
+        if (!firstEvent){
+            out.write("\n");
+        }
+        out.write("  ]\n");
+        out.write("}");
+        out.flush();
+    }
+    public void writeCalendar(Iterable<Event> events, LocalDateTime savedAt) throws IOException{
+        writeHeader(savedAt);
+        for (Event event:events){
+            writeEvent(event);
+        }
+        writeFooter();
+    }
+    private void writeDateTime(LocalDateTime dateTime) throws IOException{
+        writeDate(dateTime.toLocalDate());
+        out.write('T');
+        writeTime(dateTime.toLocalTime());
+    }
+    private void writeDate(LocalDate date) throws IOException{
+        int year=date.getYear();
+        if (year<0||year>9999){
+            out.write(date.format(DateTimeFormatter.ISO_LOCAL_DATE));
+            return;
+        }
+        scratch[0]=(char) ('0'+year/1000);
+        scratch[1]=(char) ('0'+year/100%10);
+        scratch[2]=(char) ('0'+year/10%10);
+        scratch[3]=(char) ('0'+year%10);
+        scratch[4]='-';
+        putTwoDigits(5, date.getMonthValue());
+        scratch[7]='-';
+        putTwoDigits(8, date.getDayOfMonth());
+        out.write(scratch, 0, 10);
+    }
+    private void writeTime(LocalTime time) throws IOException{
+        if (time.getNano()!=0){
+            out.write(time.format(DateTimeFormatter.ISO_LOCAL_TIME));
+            return;
+        }
+        putTwoDigits(0, time.getHour());
+        scratch[2]=':';
+        putTwoDigits(3, time.getMinute());
+        scratch[5]=':';
+        putTwoDigits(6, time.getSecond());
+        out.write(scratch, 0, 8);
+    }
+    private void putTwoDigits(int offset, int value){
+        scratch[offset]=(char) ('0'+value/10);
+        scratch[offset+1]=(char) ('0'+value%10);
+    }
+    private void writeEscaped(String input) throws IOException{
+        if (input==null){
+            return;
+        }
+        int runStart=0;
+        int length=input.length();
+        for (int i=0;i<length;i++){
+            char c=input.charAt(i);
+            String replacement;
+            if (c=='"'){
+                replacement="\\\"";
+            }
+            else if (c=='\\'){
+                replacement="\\\\";
+            }
+            else if (c=='\n'){
+                replacement="\\n";
+            }
+            else if (c=='\r'){
+                replacement="\\r";
+            }
+            else if (c=='\t'){
+                replacement="\\t";
+            }
+            else if (c<0x20){
+                replacement=String.format("\\u%04x", (int) c);
+            }
+            else{
+                continue;
+            }
+            out.write(input, runStart, i-runStart);
+            out.write(replacement);
+            runStart=i+1;
+        }
+        out.write(input, runStart, length-runStart);
+    }
+    @Override
+    public void close() throws IOException{
+        out.close();
+    }
+}
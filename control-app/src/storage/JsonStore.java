@@ -6,6 +6,9 @@ package storage;
  * Responsibilities:
  *-Save calendar events to disk
  *-Load calendar events from disk
+ *-Journal incremental changes between full snapshots
+ *-Optionally split storage into month files loaded on demand
+ *-Optionally encrypt the calendar file and its backups at rest
  *
  * Java data types used:
  *-Path
@@ -21,23 +24,58 @@ package storage;
  */
 import model.CalendarModel;
 import model.Event;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-public class JsonStore {
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+public class JsonStore implements StorageBackend{
     private static String DEFAULT_FILE_NAME="calendar_events.json";
     private static String BACKUP_FILE_NAME="calendar_events_backup.json";
-    private static DateTimeFormatter DATE_FORMATTER=DateTimeFormatter.ISO_LOCAL_DATE;
-    private static DateTimeFormatter TIME_FORMATTER=DateTimeFormatter.ISO_LOCAL_TIME;
+    private static long DEFAULT_COMPACTION_THRESHOLD=256*1024;
+    private static long DEFAULT_BACKUP_INTERVAL_MILLIS=10*60*1000;
+    private static int READ_BUFFER_SIZE=64*1024;
+    private static int MAX_LOGGED_VIOLATIONS=20;
     private Path storagePath;
     private Path backupPath;
+    private BackupStore backupStore;
+    private byte[] lastWrittenDigest;
+    private List<Event> lastWrittenEvents;
+    private MutationJournal journal;
+    private boolean journalEnabled;
+    private boolean binarySnapshotEnabled;
+    private boolean schemaValidationEnabled=true;
+    private List<CalendarSchemaValidator.Violation> lastViolations=new ArrayList<>();
+    private MonthPartitionStore partitions;
+    private CalendarCipher cipher;
+    private volatile boolean journalActive;
+    private long compactionThreshold=DEFAULT_COMPACTION_THRESHOLD;
+    private long backupIntervalMillis=DEFAULT_BACKUP_INTERVAL_MILLIS;
+    private volatile long lastBackupAt;
+    private volatile long lastWriteAt;
+    private ExecutorService compactionExecutor;
+    private AtomicBoolean compactionRunning=new AtomicBoolean(false);
+    private AtomicInteger writesInProgress=new AtomicInteger();
     public JsonStore(){
         String userHome=System.getProperty("user.home");
         this.storagePath=Paths.get(userHome, ".calendarapp", DEFAULT_FILE_NAME);
@@ -54,6 +92,16 @@ public class JsonStore {
         this.backupPath=backupPath;
         ensureStorageDirectory();
     }
+    @Override
+    public String getName(){
+        return "json";
+    }
+    private MutationJournal getJournal(){
+        if (journal==null){
+            journal=new MutationJournal(storagePath);
+        }
+        return journal;
+    }
     private void ensureStorageDirectory(){
         try{
             Path parentDir=storagePath.getParent();
@@ -65,25 +113,514 @@ public class JsonStore {
             System.err.println("Failed to create storage directory: "+e.getMessage());
         }
     }
+    /**
+     * Saves to the main storage file. With the journal enabled, once the
+     * calendar has been loaded from or fully written to this store, only the
+     * journaled changes are appended and a full snapshot is rewritten in the
+     * background when the journal grows past the compaction threshold.
+     */
+    @Override
     public boolean saveCalendar(CalendarModel model){
-        return saveCalendar(model, this.storagePath);
+        return saveCalendar(captureSave(model));
+    }
+    /**
+     * Takes everything a save needs from the live model, so the write itself
+     * can run later on another thread. Pending journal records and changed
+     * months are handed over and the model is copied under the model's lock,
+     * which the controller also holds while it edits the model and records
+     * the edit, so the copy holds exactly the changes the batch records.
+     */
+    @Override
+    public SaveBatch captureSave(CalendarModel model){
+        SaveBatch batch=new SaveBatch();
+        synchronized (model){
+            if (partitions!=null){
+                batch.cleared=partitions.isCleared();
+                batch.dirtyMonths=partitions.drainDirtyMonths();
+            }
+            else if (journalActive){
+                batch.journalRecords=getJournal().drainPending();
+            }
+            captureModel(model, batch);
+        }
+        return batch;
+    }
+    /**
+     * Copies the model for an export or backup without taking over any
+     * pending changes.
+     */
+    @Override
+    public SaveBatch captureSnapshot(CalendarModel model){
+        SaveBatch batch=new SaveBatch();
+        captureModel(model, batch);
+        return batch;
+    }
+    private void captureModel(CalendarModel model, SaveBatch batch){
+        if (partitions!=null){
+            batch.loadedMonths=partitions.getLoadedMonths();
+        }
+        batch.captureModel(model);
+    }
+    @Override
+    public boolean saveCalendar(SaveBatch batch){
+        if (partitions!=null){
+            return savePartitions(batch);
+        }
+        if (journalActive){
+            return commitJournal(batch);
+        }
+        boolean saved=saveCalendar(batch.model, this.storagePath);
+        if (saved&&binarySnapshotEnabled){
+            writeBinarySnapshot(batch.model.getEvents());
+        }
+        if (saved){
+            try{
+                getJournal().reset();
+                journalActive=journalEnabled;
+            }
+            catch (IOException e){
+                System.err.println("Failed to reset journal: "+e.getMessage());
+            }
+        }
+        return saved;
+    }
+    private boolean commitJournal(SaveBatch batch){
+        if (!commitRecords(batch)){
+            return false;
+        }
+        if (getJournal().getCommittedSize()>=compactionThreshold&&compactionRunning.compareAndSet(false, true)){
+            try{
+                Path rotated=getJournal().beginCompaction();
+                List<Event> events=batch.model.getEvents();
+                getCompactionExecutor().execute(()->{
+                    try{
+                        writeSnapshot(events, rotated);
+                    }
+                    finally{
+                        compactionRunning.set(false);
+                    }
+                });
+            }
+            catch (IOException|RuntimeException e){
+                compactionRunning.set(false);
+                System.err.println("Failed to start compaction: "+e.getMessage());
+            }
+        }
+        return true;
+    }
+    /**
+     * Commits pending journal records and folds them into a fresh snapshot,
+     * waiting for the write to finish. Used before shutdown so the JSON file
+     * read by the overlays is current.
+     */
+    @Override
+    public boolean compact(CalendarModel model){
+        return compact(captureSave(model));
+    }
+    @Override
+    public boolean compact(SaveBatch batch){
+        if (partitions!=null||!journalActive){
+            return saveCalendar(batch);
+        }
+        if (!commitRecords(batch)){
+            return false;
+        }
+        try{
+            Path rotated=getJournal().beginCompaction();
+            List<Event> events=batch.model.getEvents();
+            return getCompactionExecutor().submit(()->writeSnapshot(events, rotated)).get();
+        }
+        catch (IOException|InterruptedException|ExecutionException e){
+            System.err.println("Failed to compact calendar: "+e.getMessage());
+            return false;
+        }
+    }
+    private boolean commitRecords(SaveBatch batch){
+        try{
+            getJournal().commit(batch.journalRecords);
+            return true;
+        }
+        catch (IOException e){
+            getJournal().requeue(batch.journalRecords);
+            System.err.println("Failed to commit journal: "+e.getMessage());
+            return false;
+        }
+    }
+    private boolean writeSnapshot(List<Event> events, Path rotatedJournal){
+        writesInProgress.incrementAndGet();
+        try{
+            checkNotLockedOut();
+            backupForeignContent();
+            byte[] digest=AtomicFiles.writeCalendar(events, storagePath, cipher, written->{
+                getJournal().markCovered(rotatedJournal, written);
+                rememberWrite(written, events);
+            });
+            commitWrite(digest);
+            if (binarySnapshotEnabled){
+                writeBinarySnapshot(events);
+            }
+            getJournal().finishCompaction(rotatedJournal);
+            return true;
+        }
+        catch (IOException e){
+            System.err.println("Failed to write calendar snapshot: "+e.getMessage());
+            return false;
+        }
+        finally{
+            writesInProgress.decrementAndGet();
+        }
+    }
+    private void writeBinarySnapshot(List<Event> events){
+        Path snapshotPath=getBinarySnapshotPath();
+        try{
+            if (BinarySnapshot.canRepresent(events)){
+                BinarySnapshot.write(events, snapshotPath);
+            }
+            else{
+                Files.deleteIfExists(snapshotPath);
+            }
+        }
+        catch (IOException e){
+            System.err.println("Failed to write binary snapshot: "+e.getMessage());
+        }
+    }
+    /**
+     * Loads the binary snapshot when it is at least as new as the JSON file,
+     * which means nothing else rewrote the JSON since the snapshot was taken.
+     */
+    private CalendarModel tryLoadBinarySnapshot(){
+        Path snapshotPath=getBinarySnapshotPath();
+        try{
+            if (!Files.exists(snapshotPath)){
+                return null;
+            }
+            if (Files.exists(storagePath)&&Files.getLastModifiedTime(snapshotPath).compareTo(Files.getLastModifiedTime(storagePath))<0){
+                return null;
+            }
+            BinarySnapshot snapshot=BinarySnapshot.open(snapshotPath);
+            CalendarModel model=new CalendarModel();
+            model.loadSortedEvents(snapshot.asList());
+            return model;
+        }
+        catch (IOException e){
+            System.err.println("Ignoring unreadable binary snapshot: "+e.getMessage());
+            return null;
+        }
+    }
+    public Path getBinarySnapshotPath(){
+        return storagePath.resolveSibling(storagePath.getFileName()+".bin");
+    }
+    public boolean isBinarySnapshotEnabled(){
+        return binarySnapshotEnabled;
+    }
+    public void setBinarySnapshotEnabled(boolean enabled){
+        if (enabled&&cipher!=null){
+            System.err.println("Binary snapshots are not available for encrypted calendars");
+            return;
+        }
+        this.binarySnapshotEnabled=enabled;
+    }
+    /**
+     * Encrypts the calendar file and its backups from the next save on, or
+     * stops encrypting when the cipher is null. Encrypted and plain files
+     * are both read as long as the cipher is set. The journal, binary
+     * snapshot and month partitions store plain text, so they are turned
+     * off while encryption is on; pending journal records are still
+     * replayed on load and dropped at the next full save.
+     */
+    public void setEncryption(CalendarCipher cipher){
+        this.cipher=cipher;
+        if (cipher!=null){
+            setJournalEnabled(false);
+            binarySnapshotEnabled=false;
+            setPartitionedStorageEnabled(false);
+            try{
+                Files.deleteIfExists(getBinarySnapshotPath());
+            }
+            catch (IOException e){
+                System.err.println("Failed to remove plain binary snapshot: "+e.getMessage());
+            }
+        }
+    }
+    public boolean isEncryptionEnabled(){
+        return cipher!=null;
+    }
+    private boolean savePartitions(SaveBatch batch){
+        try{
+            partitions.writeMonths(batch.model, batch.dirtyMonths, batch.loadedMonths, batch.cleared);
+            return true;
+        }
+        catch (IOException e){
+            System.err.println("Failed to save calendar months: "+e.getMessage());
+            return false;
+        }
+    }
+    /**
+     * Switches between the single calendar file and month partitions. An
+     * existing calendar file is split into months on the next load. The
+     * overlays keep reading the single file, which is no longer rewritten
+     * while partitions are enabled.
+     */
+    public void setPartitionedStorageEnabled(boolean enabled){
+        if (enabled==(partitions!=null)){
+            return;
+        }
+        if (enabled&&cipher!=null){
+            System.err.println("Month partitions are not available for encrypted calendars");
+            return;
+        }
+        this.partitions=enabled?new MonthPartitionStore(storagePath):null;
+        this.journalActive=false;
+    }
+    @Override
+    public boolean isPartitionedStorageEnabled(){
+        return partitions!=null;
+    }
+    public Path getPartitionDirectory(){
+        return new MonthPartitionStore(storagePath).getDirectory();
+    }
+    /**
+     * Loads the calendar for a session focused on the given date. With month
+     * partitions only that month and its neighbours are read; the rest can be
+     * fetched later through loadMonth. Without partitions the whole calendar
+     * is loaded.
+     */
+    @Override
+    public CalendarModel loadCalendarAround(LocalDate focusDate){
+        if (partitions==null){
+            return loadCalendar();
+        }
+        CalendarModel model=new CalendarModel();
+        try{
+            partitions.open();
+            if (!partitions.exists()&&Files.exists(storagePath)){
+                migrateToPartitions();
+            }
+            YearMonth center=YearMonth.from(focusDate);
+            List<Event> events=new ArrayList<>();
+            for (int offset=-1;offset<=1;offset++){
+                YearMonth month=center.plusMonths(offset);
+                if (!partitions.isLoaded(month)){
+                    events.addAll(partitions.readMonth(month));
+                    partitions.markLoaded(month);
+                }
+            }
+            model.addEvents(events);
+        }
+        catch (IOException e){
+            System.err.println("Failed to load calendar months: "+e.getMessage());
+        }
+        return model;
+    }
+    private void migrateToPartitions() throws IOException{
+        CalendarModel full=loadSnapshotAndJournal();
+        partitions.writeAll(full.getSortedEvents());
+        partitions.open();
+        journalActive=false;
+        getJournal().reset();
+        System.out.println("Split calendar into "+partitions.getMonths().size()+" month files");
+    }
+    /**
+     * Reads a single month from the partitions. The caller marks the month
+     * loaded once its events are in the model.
+     */
+    @Override
+    public List<Event> loadMonth(YearMonth month) throws IOException{
+        if (partitions==null){
+            return new ArrayList<>();
+        }
+        return partitions.readMonth(month);
+    }
+    @Override
+    public boolean isMonthLoaded(YearMonth month){
+        return partitions==null||partitions.isLoaded(month);
+    }
+    @Override
+    public void markMonthLoaded(YearMonth month){
+        if (partitions!=null){
+            partitions.markLoaded(month);
+        }
+    }
+    private List<Event> getAllEvents(CalendarModel model) throws IOException{
+        if (partitions==null){
+            return model.getSortedEvents();
+        }
+        return partitions.collectAllEvents(model);
+    }
+    private List<Event> getAllEvents(SaveBatch batch) throws IOException{
+        if (partitions==null||batch.loadedMonths==null){
+            return batch.model.getEvents();
+        }
+        return partitions.collectAllEvents(batch.model, batch.loadedMonths);
+    }
+    private synchronized ExecutorService getCompactionExecutor(){
+        if (compactionExecutor==null){
+            compactionExecutor=Executors.newSingleThreadExecutor(runnable->{
+                Thread thread=new Thread(runnable, "calendar-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return compactionExecutor;
+    }
+    @Override
+    public void recordEventAdded(Event event){
+        if (partitions!=null){
+            partitions.markDirty(event.getDate());
+        }
+        else if (journalActive){
+            getJournal().recordAdd(event);
+        }
+    }
+    @Override
+    public void recordEventDeleted(Event event){
+        if (partitions!=null){
+            partitions.markDirty(event.getDate());
+        }
+        else if (journalActive){
+            getJournal().recordDelete(event);
+        }
+    }
+    @Override
+    public void recordEventUpdated(Event oldEvent, Event newEvent){
+        if (partitions!=null){
+            partitions.markDirty(oldEvent.getDate());
+            partitions.markDirty(newEvent.getDate());
+        }
+        else if (journalActive){
+            getJournal().recordUpdate(oldEvent, newEvent);
+        }
+    }
+    @Override
+    public void recordEventsCleared(){
+        if (partitions!=null){
+            partitions.markCleared();
+        }
+        else if (journalActive){
+            getJournal().recordClear();
+        }
+    }
+    @Override
+    public void close(){
+        closeJournal();
+        if (lastWriteAt>lastBackupAt&&Files.exists(storagePath)){
+            createBackup(storagePath);
+        }
+    }
+    private void closeJournal(){
+        if (journal!=null){
+            try{
+                journal.close();
+            }
+            catch (IOException e){
+                System.err.println("Failed to close journal: "+e.getMessage());
+            }
+        }
+    }
+    public boolean isSchemaValidationEnabled(){
+        return schemaValidationEnabled;
+    }
+    /**
+     * Checks files against the shared schema while they load. On by
+     * default; violations are logged and kept, and do not stop the load.
+     */
+    public void setSchemaValidationEnabled(boolean enabled){
+        this.schemaValidationEnabled=enabled;
+    }
+    /**
+     * Every schema violation found by the last validated load.
+     */
+    public List<CalendarSchemaValidator.Violation> getLastViolations(){
+        return lastViolations;
+    }
+    public boolean isJournalEnabled(){
+        return journalEnabled;
+    }
+    /**
+     * Turns incremental saves on or off. Off by default: the overlays read
+     * the JSON file directly and do not know about the journal, so with it
+     * on they only see changes once the journal is compacted or the app
+     * shuts down cleanly. Journal records left on disk are replayed on load
+     * either way.
+     */
+    public void setJournalEnabled(boolean enabled){
+        if (enabled&&cipher!=null){
+            System.err.println("The journal is not available for encrypted calendars");
+            return;
+        }
+        this.journalEnabled=enabled;
+        if (!enabled){
+            journalActive=false;
+        }
+    }
+    public long getCompactionThreshold(){
+        return compactionThreshold;
+    }
+    public void setCompactionThreshold(long bytes){
+        this.compactionThreshold=bytes;
+    }
+    public long getBackupIntervalMillis(){
+        return backupIntervalMillis;
+    }
+    /**
+     * Sets how old the newest automatic backup may get before the next save
+     * records the file it replaces. 0 backs up before every save.
+     */
+    public void setBackupIntervalMillis(long millis){
+        this.backupIntervalMillis=millis;
     }
     public boolean saveCalendar(CalendarModel model, Path filePath){
+        boolean primary=filePath.equals(storagePath);
+        if (primary){
+            writesInProgress.incrementAndGet();
+        }
         try{
-            if (Files.exists(filePath)){
-                createBackup(filePath);
+            if (primary){
+                checkNotLockedOut();
+                backupForeignContent();
             }
-            String json=convertToJson(model);
-            Files.writeString(filePath, json);
+            List<Event> events=getAllEvents(model);
+            if (!primary){
+                AtomicFiles.writeCalendar(events, filePath);
+                return true;
+            }
+            commitWrite(AtomicFiles.writeCalendar(events, filePath, cipher, written->rememberWrite(written, events)));
             return true;
         }
         catch (IOException e){
             System.err.println("Failed to save calendar: "+e.getMessage());
             return false;
         }
+        finally{
+            if (primary){
+                writesInProgress.decrementAndGet();
+            }
+        }
     }
+    @Override
     public CalendarModel loadCalendar(){
-        return loadCalendar(this.storagePath);
+        if (partitions!=null){
+            return loadCalendarAround(LocalDate.now());
+        }
+        return loadSnapshotAndJournal();
+    }
+    private CalendarModel loadSnapshotAndJournal(){
+        CalendarModel model=binarySnapshotEnabled?tryLoadBinarySnapshot():null;
+        if (model==null){
+            model=loadCalendar(this.storagePath);
+        }
+        try{
+            getJournal().discardPending();
+            int replayed=getJournal().replay(model, storagePath);
+            if (replayed>0){
+                System.out.println("Replayed "+replayed+" journal records");
+            }
+            journalActive=journalEnabled;
+        }
+        catch (IOException e){
+            System.err.println("Failed to replay journal: "+e.getMessage());
+        }
+        return model;
     }
     public CalendarModel loadCalendar(Path filePath){
         try{
@@ -91,20 +628,32 @@ public class JsonStore {
                 System.out.println("File not found: "+filePath);
                 return new CalendarModel();
             }
-            String json=Files.readString(filePath);
-            return parseFromJson(json);
+            if (filePath.equals(storagePath)&&isStorageFileDamaged()){
+                System.err.println("Checksum mismatch for "+filePath+", loading the last good generation");
+                return tryLoadFromBackup();
+            }
+            return readCalendar(filePath);
         }
         catch (IOException e){
             System.err.println("Failed to load calendar: "+e.getMessage());
             return tryLoadFromBackup();
         }
     }
+    /**
+     * Loads the newest intact generation from the backup store, falling back
+     * to the legacy single-file backup.
+     */
     private CalendarModel tryLoadFromBackup(){
+        List<Event> events=getBackupStore().readLatestIntact(cipher);
+        if (events!=null){
+            CalendarModel model=new CalendarModel();
+            model.addEvents(events);
+            return model;
+        }
         try{
             if (Files.exists(backupPath)){
                 System.out.println("Attempting to load from backup...");
-                String json=Files.readString(backupPath);
-                return parseFromJson(json);
+                return readCalendar(backupPath);
             }
         }
         catch (IOException e){
@@ -112,254 +661,238 @@ public class JsonStore {
         }
         return new CalendarModel();
     }
-    private void createBackup(Path originalPath){
-        try{
-            Files.copy(originalPath, backupPath, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    private CalendarModel readCalendar(Path filePath) throws IOException{
+        CalendarSchemaValidator validator=schemaValidationEnabled?new CalendarSchemaValidator(CalendarSchema.getDefault()):null;
+        CalendarModel model;
+        try (JsonEventReader reader=openReader(filePath)){
+            reader.setValidator(validator);
+            model=readCalendar(reader, filePath.toString());
         }
         catch (IOException e){
-            System.err.println("Failed to create backup: "+e.getMessage());
+            if (validator!=null){
+                reportViolations(filePath, validator);
+            }
+            throw e;
         }
+        if (validator!=null){
+            reportViolations(filePath, validator);
+        }
+        return model;
     }
-    private String convertToJson(CalendarModel model){
-        StringBuilder json=new StringBuilder();
-        json.append("{\n");
-        json.append("  \"version\": \"1.0\",\n");
-        json.append("  \"savedAt\": \"").append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\",\n");
-        json.append("  \"events\": [\n");
-        List<Event> events=model.getSortedEvents();
-        for (int i=0;i<events.size();i++){
-            Event event=events.get(i);
-            json.append(convertEventToJson(event));
-            if (i<events.size()-1){
-                json.append(",\n");
-            }
-            else{
-                json.append("\n");
-            }
-        }
-        json.append("  ]\n");
-        json.append("}");
-        return json.toString();
-    }
-    private String convertEventToJson(Event event){
-        StringBuilder eventJson=new StringBuilder();
-        eventJson.append("    {\n");
-        eventJson.append("      \"title\": \"").append(escapeJsonString(event.getTitle())).append("\",\n");
-        eventJson.append("      \"date\": \"").append(event.getDate().format(DATE_FORMATTER)).append("\",\n");
-        eventJson.append("      \"startTime\": \"").append(event.getStartTime().toLocalTime().format(TIME_FORMATTER)).append("\",\n");
-        eventJson.append("      \"endTime\": \"").append(event.getEndTime().toLocalTime().format(TIME_FORMATTER)).append("\",\n");
-        eventJson.append("      \"startDateTime\": \"").append(event.getStartTime().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\",\n");
-        eventJson.append("      \"endDateTime\": \"").append(event.getEndTime().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME)).append("\"\n");
-        eventJson.append("    }");
-        return eventJson.toString();
-    }
-    private CalendarModel parseFromJson(String json){
-        CalendarModel model=new CalendarModel();
+    /**
+     * Logs the first violations with their lines and columns, which are only
+     * worked out here by reading the file's text a second time.
+     */
+    private void reportViolations(Path filePath, CalendarSchemaValidator validator){
+        List<CalendarSchemaValidator.Violation> violations=validator.getViolations();
+        lastViolations=violations;
+        if (violations.isEmpty()){
+            return;
+        }
+        try (Reader text=Channels.newReader(openChannel(filePath), StandardCharsets.UTF_8.newDecoder(), READ_BUFFER_SIZE)){
+            validator.resolvePositions(text);
+        }
+        catch (IOException e){
+            System.err.println("Failed to locate schema violations in "+filePath+": "+e.getMessage());
+        }
+        System.err.println(violations.size()+" schema violations in "+filePath+":");
+        for (int i=0;i<Math.min(violations.size(), MAX_LOGGED_VIOLATIONS);i++){
+            System.err.println("  "+filePath.getFileName()+":"+violations.get(i));
+        }
+        if (violations.size()>MAX_LOGGED_VIOLATIONS){
+            System.err.println("  ... and "+(violations.size()-MAX_LOGGED_VIOLATIONS)+" more");
+        }
+    }
+    /**
+     * Opens a calendar file for parsing, decrypting it when it is encrypted.
+     */
+    private JsonEventReader openReader(Path filePath) throws IOException{
+        return new JsonEventReader(openChannel(filePath));
+    }
+    /**
+     * Opens the decrypted bytes of a calendar file.
+     */
+    private ReadableByteChannel openChannel(Path filePath) throws IOException{
+        if (!CalendarCipher.isEncrypted(filePath)){
+            return FileChannel.open(filePath, StandardOpenOption.READ);
+        }
+        if (cipher==null){
+            throw new IOException(filePath+" is encrypted and no passphrase is set");
+        }
+        InputStream in=Files.newInputStream(filePath);
         try{
-            System.out.println("Parsing JSON: "+json.substring(0, Math.min(200, json.length())));
-            int eventsKeyPos=json.indexOf("\"events\"");
-            if (eventsKeyPos==-1){
-                System.err.println("ERROR: No 'events' key found in JSON");
-                return model;
-            }
-            int bracketStart=json.indexOf('[', eventsKeyPos);
-            if (bracketStart==-1){
-                System.err.println("ERROR: No opening bracket after events");
-                return model;
-            }
-            int bracketEnd=findMatchingBracket(json, bracketStart);
-            if (bracketEnd==-1){
-                System.err.println("ERROR: No matching closing bracket");
-                return model;
-            }
-            String eventsContent=json.substring(bracketStart+1, bracketEnd).trim();
-            System.out.println("Events content length: "+eventsContent.length());
-            System.out.println("Events content: "+(eventsContent.length() > 100 ? eventsContent.substring(0, 100)+"...":eventsContent));
-            if (eventsContent.isEmpty()){
-                System.out.println("INFO: Empty events array");
-                return model;
-            }
-            List<Event> events=parseEventsArray(eventsContent);
-            System.out.println("Parsed "+events.size()+" events from JSON");
-            for (Event event:events){
-                model.addEvent(event);
-            }
-        }
-        catch (Exception e){
-            System.err.println("ERROR parsing JSON: "+e.getMessage());
-            e.printStackTrace();
+            return Channels.newChannel(cipher.decrypt(new BufferedInputStream(in, READ_BUFFER_SIZE)));
+        }
+        catch (IOException e){
+            in.close();
+            throw e;
+        }
+    }
+    /**
+     * Stops a plain save from replacing an encrypted file this store cannot
+     * read, which happens when the passphrase was not supplied.
+     */
+    private void checkNotLockedOut() throws IOException{
+        if (cipher==null&&CalendarCipher.isEncrypted(storagePath)){
+            throw new IOException("Refusing to overwrite encrypted "+storagePath+" without its passphrase");
         }
+    }
+    private CalendarModel readBackup(BackupStore.Entry entry) throws IOException{
+        CalendarModel model=new CalendarModel();
+        model.addEvents(getBackupStore().readEvents(entry, cipher));
+        return model;
+    }
+    private CalendarModel readCalendar(JsonEventReader reader, String source) throws IOException{
+        CalendarModel model=new CalendarModel();
+        model.addEvents(readEvents(reader, source));
         return model;
     }
-    private List<Event> parseEventsArray(String eventsArrayJson){
+    private List<Event> readEvents(JsonEventReader reader, String source) throws IOException{
         List<Event> events=new ArrayList<>();
-        try{
-            System.out.println("parseEventsArray input: "+eventsArrayJson.substring(0, Math.min(100, eventsArrayJson.length()))+"...");  
-            String[] eventStrings=splitJsonObjects(eventsArrayJson);
-            System.out.println("Found "+eventStrings.length+" event objects after splitting");
-            for (int i=0;i<eventStrings.length;i++){
-                String eventStr=eventStrings[i].trim();
-                if (eventStr.isEmpty()){
-                    continue;
-                }
-                System.out.println("Parsing event object "+i+": "+eventStr.substring(0, Math.min(80, eventStr.length()))+"...");
-                Event event=parseEventObject(eventStr);
-                if (event!=null){
-                    events.add(event);
-                    System.out.println("Successfully parsed event: "+event.getTitle());
-                }
-                else{
-                    System.err.println("Failed to parse event object "+i);
-                }
-            }
-        }
-        catch (Exception e){
-            System.err.println("Error parsing events array: "+e.getMessage());
-            e.printStackTrace();
+        reader.readEvents(events::add);
+        if (reader.getSkippedEvents()>0){
+            System.err.println("Skipped "+reader.getSkippedEvents()+" malformed events in "+source);
         }
         return events;
     }
-    private Event parseEventObject(String eventJson){
-        try{
-            String title=extractJsonField(eventJson, "title");
-            String dateStr=extractJsonField(eventJson, "date");
-            String startTimeStr=extractJsonField(eventJson, "startTime");
-            String endTimeStr=extractJsonField(eventJson, "endTime");
-            if (startTimeStr==null){
-                String startDateTimeStr=extractJsonField(eventJson, "startDateTime");
-                if (startDateTimeStr!=null){
-                    LocalDateTime startDateTime=LocalDateTime.parse(startDateTimeStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-                    dateStr=startDateTime.toLocalDate().format(DATE_FORMATTER);
-                    startTimeStr=startDateTime.toLocalTime().format(TIME_FORMATTER);
-                }
-            }
-            if (endTimeStr==null){
-                String endDateTimeStr=extractJsonField(eventJson, "endDateTime");
-                if (endDateTimeStr!=null){
-                    endTimeStr=LocalDateTime.parse(endDateTimeStr, DateTimeFormatter.ISO_LOCAL_DATE_TIME).toLocalTime().format(TIME_FORMATTER);
-                }
+    /**
+     * Reads the events of a calendar file, failing instead of falling back
+     * to a backup when the file cannot be parsed.
+     */
+    public List<Event> readEvents(Path filePath) throws IOException{
+        try (JsonEventReader reader=openReader(filePath)){
+            return readEvents(reader, filePath.toString());
+        }
+    }
+    /**
+     * Streams the events of a calendar file to the sink without keeping
+     * them, decrypting the file when it is encrypted.
+     *
+     * @return the number of events read
+     */
+    public int readEvents(Path filePath, Consumer<Event> sink) throws IOException{
+        try (JsonEventReader reader=openReader(filePath)){
+            int count=reader.readEvents(sink);
+            if (reader.getSkippedEvents()>0){
+                System.err.println("Skipped "+reader.getSkippedEvents()+" malformed events in "+filePath);
             }
-            if (title==null||dateStr==null||startTimeStr==null||endTimeStr==null){
-                return null;
+            return count;
+        }
+    }
+    /**
+     * Finishes a write of the storage file by recording the checksum
+     * computed while it was streamed. The write was already remembered as
+     * this store's own before the file was replaced. Backing the file up is
+     * left to the next replace or to close, so a save does not chunk and
+     * compress the whole calendar.
+     */
+    private void commitWrite(byte[] digest) throws IOException{
+        AtomicFiles.writeChecksum(storagePath, digest);
+        lastWriteAt=System.currentTimeMillis();
+    }
+    /**
+     * Backs up the storage file before it is replaced when it holds content
+     * this store did not write, or when the newest automatic backup is older
+     * than the backup interval. A damaged file therefore falls back to a
+     * generation at most one interval old, plus any foreign edit.
+     */
+    private void backupForeignContent(){
+        if (!Files.exists(storagePath)){
+            return;
+        }
+        try{
+            if (getWrittenEvents(digestStorageFile())==null||System.currentTimeMillis()-lastBackupAt>=backupIntervalMillis){
+                createBackup(storagePath);
             }
-            LocalDate date=LocalDate.parse(dateStr, DATE_FORMATTER);
-            LocalTime startTime=LocalTime.parse(startTimeStr, TIME_FORMATTER);
-            LocalTime endTime=LocalTime.parse(endTimeStr, TIME_FORMATTER);
-            return new Event(unescapeJsonString(title), date, startTime, endTime);
-            
         }
-        catch (Exception e){
-            System.err.println("Error parsing event: "+e.getMessage());
-            return null;
+        catch (IOException e){
+            System.err.println("Failed to check calendar file before backup: "+e.getMessage());
         }
     }
-    private String extractJsonField(String json, String fieldName){
+    /**
+     * Returns true when the storage file no longer matches the checksum
+     * written with it and was not edited since.
+     */
+    private boolean isStorageFileDamaged(){
         try{
-            String fieldPattern="\""+fieldName+"\"";
-            int fieldPos=json.indexOf(fieldPattern);
-            if (fieldPos==-1){
-                System.err.println("DEBUG: Field '"+fieldName+"' not found at all");
-                return null;
-            }
-            int colonPos=json.indexOf(":", fieldPos+fieldPattern.length());
-            if (colonPos==-1){
-                System.err.println("DEBUG: No colon after field '"+fieldName+"'");
-                return null;
-            }
-            int valueStart=colonPos+1;
-            while (valueStart<json.length()&&Character.isWhitespace(json.charAt(valueStart))){
-                valueStart++;
-            }
-            if (valueStart>=json.length()||json.charAt(valueStart)!='"'){
-                System.err.println("DEBUG: Value doesn't start with quote for field '"+fieldName+"'");
-                return null;
-            }
-            int valueEnd=valueStart+1;
-            while (valueEnd<json.length()){
-                char c=json.charAt(valueEnd);
-                if (c=='"'&&json.charAt(valueEnd - 1)!='\\'){
-                    break;
-                }
-                valueEnd++;
-            }
-            if (valueEnd>=json.length()){
-                System.err.println("DEBUG: No closing quote for field '"+fieldName+"'");
-                return null;
-            }
-            String value=json.substring(valueStart+1, valueEnd);
-            value=unescapeJsonString(value);
-            System.out.println("SUCCESS: Extracted field '"+fieldName+"'='"+value+"'");
-            return value;
+            return AtomicFiles.isDamaged(storagePath, digestStorageFile());
         }
-        catch (Exception e){
-            System.err.println("ERROR extracting field '"+fieldName+"': "+e.getMessage());
-            e.printStackTrace();
-            return null;
+        catch (IOException e){
+            return true;
         }
     }
-    private String[] splitJsonObjects(String jsonArray){
-        List<String> objects=new ArrayList<>();
-        int start=0;
-        int braceCount=0;
-        boolean inString=false;
-        String cleaned=jsonArray.replace("\n", "").replace("\r", "").trim();
-        for (int i=0;i<cleaned.length();i++){
-            char c=cleaned.charAt(i);
-            if (c=='"'&&(i==0||cleaned.charAt(i - 1)!='\\')){
-                inString=!inString;
-            }
-            if (!inString){
-                if (c=='{'){
-                    if (braceCount==0){
-                        start=i;
-                    }
-                    braceCount++;
-                }
-                else if (c=='}'){
-                    braceCount--;
-                    if (braceCount==0){
-                        String obj=cleaned.substring(start, i+1);
-                        objects.add(obj);
-                    }
-                }
-            }
+    private synchronized void rememberWrite(byte[] digest, List<Event> events){
+        this.lastWrittenDigest=digest;
+        this.lastWrittenEvents=events;
+    }
+    /**
+     * Returns the events this store last wrote to the storage file, if the
+     * given digest matches that write, or null when the content came from
+     * somewhere else.
+     */
+    public synchronized List<Event> getWrittenEvents(byte[] digest){
+        if (lastWrittenDigest!=null&&Arrays.equals(lastWrittenDigest, digest)){
+            return lastWrittenEvents;
         }
-        return objects.toArray(new String[0]);
+        return null;
     }
-    private int findMatchingBracket(String json, int start){
-        int bracketCount=0;
-        boolean inString=false;
-        for (int i=start;i<json.length();i++){
-            char c=json.charAt(i);
-            if (c=='"'&&(i==0||json.charAt(i-1)!='\\')){
-                inString=!inString;
-            }
-            if (!inString){
-                if (c=='['||c=='{'){
-                    bracketCount++;
-                }
-                else if (c==']'||c=='}'){
-                    bracketCount--;
-                    if (bracketCount==0){
-                        return i;
-                    }
-                }
-            }
+    /**
+     * Returns true while this store is writing the storage file, including
+     * its checksum and any backup of the file it replaces, so a watcher can
+     * wait instead of taking the file for someone else's edit.
+     */
+    public boolean isWriteInProgress(){
+        return writesInProgress.get()>0;
+    }
+    public byte[] digestStorageFile() throws IOException{
+        return AtomicFiles.digest(storagePath);
+    }
+    /**
+     * Records the current storage file in the backup store. Unchanged
+     * content adds nothing.
+     */
+    private void createBackup(Path originalPath){
+        try{
+            getBackupStore().backup(originalPath, BackupStore.LABEL_AUTO);
+            lastBackupAt=System.currentTimeMillis();
+        }
+        catch (IOException e){
+            System.err.println("Failed to create backup: "+e.getMessage());
         }
-        return -1;
     }
-    private String escapeJsonString(String input){
-        if (input==null){
-            return "";
+    public synchronized BackupStore getBackupStore(){
+        if (backupStore==null){
+            backupStore=new BackupStore(backupPath);
         }
-        return input.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+        return backupStore;
     }
-    private String unescapeJsonString(String input){
-        if (input==null){
-            return "";
+    @Override
+    public List<BackupStore.Entry> listBackups(){
+        try{
+            return getBackupStore().listBackups();
+        }
+        catch (IOException e){
+            System.err.println("Failed to list backups: "+e.getMessage());
+            return new ArrayList<>();
         }
-        return input.replace("\\\"", "\"").replace("\\n", "\n").replace("\\r", "\r").replace("\\t", "\t").replace("\\\\", "\\");
     }
+    /**
+     * Loads the newest backup taken at or before the given time.
+     *
+     * @return the restored calendar, or null when no such backup exists
+     */
+    @Override
+    public CalendarModel restoreBackup(Instant pointInTime){
+        try{
+            BackupStore.Entry entry=getBackupStore().findBackup(pointInTime);
+            return entry!=null?readBackup(entry):null;
+        }
+        catch (IOException e){
+            System.err.println("Failed to restore backup: "+e.getMessage());
+            return null;
+        }
+    }
+    @Override
     public Path getStoragePath(){
         return storagePath;
     }
@@ -368,26 +901,95 @@ public class JsonStore {
     }
     public void setStoragePath(Path newPath){
         this.storagePath=newPath;
+        closeJournal();
+        this.journal=null;
+        this.journalActive=false;
+        if (partitions!=null){
+            this.partitions=new MonthPartitionStore(newPath);
+        }
         ensureStorageDirectory();
     }
-    public void setBackupPath(Path newPath){
+    public synchronized void setBackupPath(Path newPath){
         this.backupPath=newPath;
+        this.backupStore=null;
     }
+    @Override
     public boolean saveFileExists(){
         return Files.exists(storagePath);
     }
     public boolean backupFileExists(){
-        return Files.exists(backupPath);
+        return Files.exists(backupPath)||!listBackups().isEmpty();
     }
     public boolean createManualBackup(CalendarModel model){
-        Path manualBackup=Paths.get(backupPath.toString()+".manual."+System.currentTimeMillis()+".json");
-        return saveCalendar(model, manualBackup);
+        return createManualBackup(captureSnapshot(model));
+    }
+    @Override
+    public boolean createManualBackup(SaveBatch batch){
+        Path tempPath=null;
+        try{
+            tempPath=AtomicFiles.createTempSibling(storagePath);
+            AtomicFiles.writeCalendar(getAllEvents(batch), tempPath, cipher);
+            getBackupStore().backup(tempPath, BackupStore.LABEL_MANUAL);
+            return true;
+        }
+        catch (IOException e){
+            System.err.println("Failed to create manual backup: "+e.getMessage());
+            return false;
+        }
+        finally{
+            if (tempPath!=null){
+                try{
+                    Files.deleteIfExists(tempPath);
+                }
+                catch (IOException e){
+                    System.err.println("Failed to remove temporary backup file: "+e.getMessage());
+                }
+            }
+        }
     }
     public boolean exportCalendar(CalendarModel model, Path exportPath){
-        return saveCalendar(model, exportPath);
+        return exportCalendar(captureSnapshot(model), exportPath);
+    }
+    @Override
+    public boolean exportCalendar(SaveBatch batch, Path exportPath){
+        try{
+            AtomicFiles.writeCalendar(getAllEvents(batch), exportPath);
+            return true;
+        }
+        catch (IOException e){
+            System.err.println("Failed to export calendar: "+e.getMessage());
+            return false;
+        }
     }
-    public CalendarModel importCalendar(Path importPath){
-        return loadCalendar(importPath);
+    /**
+     * Imports a JSON export. Plain files are memory-mapped and scanned as
+     * bytes; encrypted ones, such as copied backups, are streamed through
+     * the cipher. A file that cannot be parsed imports nothing rather than
+     * falling back to this store's own backups.
+     */
+    @Override
+    public CalendarModel importCalendar(Path importPath, ImportListener listener){
+        CalendarModel model=new CalendarModel();
+        if (!Files.exists(importPath)){
+            System.out.println("File not found: "+importPath);
+            return model;
+        }
+        try{
+            if (CalendarCipher.isEncrypted(importPath)){
+                model.addEvents(readEvents(importPath));
+            }
+            else{
+                model.addEvents(MappedJsonEventReader.readFile(importPath, listener));
+            }
+        }
+        catch (IOException e){
+            System.err.println("Failed to import calendar: "+e.getMessage());
+        }
+        catch (CancellationException e){
+            System.out.println(e.getMessage());
+            return null;
+        }
+        return model;
     }
     public long getFileSize(){
         try{
@@ -397,6 +999,7 @@ public class JsonStore {
             return 0;
         }
     }
+    @Override
     public String getStorageInfo(){
         try{
             StringBuilder info=new StringBuilder();
@@ -407,10 +1010,18 @@ public class JsonStore {
                 info.append("Last Modified: ").append(Files.getLastModifiedTime(storagePath)).append("\n");
             }
             info.append("Backup Exists: ").append(backupFileExists()).append("\n");
+            info.append("Backups: ").append(listBackups().size()).append("\n");
+            info.append("Encrypted: ").append(cipher!=null).append("\n");
+            if (partitions!=null){
+                info.append("Month Files: ").append(partitions.getMonths().size()).append(" (").append(partitions.getLoadedMonths().size()).append(" loaded)\n");
+            }
+            if (journalActive){
+                info.append("Journal Size: ").append(getJournal().getCommittedSize()).append(" bytes\n");
+            }
             return info.toString();
         }
         catch (IOException e){
             return "Error getting storage info: "+e.getMessage();
         }
     }
-}
\ No newline at end of file
+}
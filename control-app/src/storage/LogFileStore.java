@@ -0,0 +1,297 @@
+package storage;
+
+/**
+ * Storage backend that keeps the whole calendar in one log-structured file.
+ *
+ * Responsibilities:
+ *-Append each save's changes as checksummed records with one fsync
+ *-Rebuild the calendar by replaying the file on load
+ *-Cut off a torn or corrupt tail left by a crash
+ *-Rewrite the file from the live events once it is mostly history
+ *
+ * Layout (big-endian):
+ *-Header, 16 bytes: magic "CALD", format version, creation time in
+ * epoch millis
+ *-Records: payload length, CRC32 of the payload, then the payload, a
+ * MutationJournal record in UTF-8. A rewritten file holds one ADD record
+ * per event.
+ *
+ * Java data types used:
+ *-FileChannel
+ *-ByteBuffer
+ *-CRC32
+ *-Map<Event, Integer>
+ *
+ * Java technologies involved:
+ *-Java NIO file channels
+ *-Group commit
+ *
+ * Design intent:
+ * An embedded single-file store with no dependencies: one file to copy,
+ * every commit durable, and a crash never costs more than the save that
+ * was being written.
+ */
+import model.CalendarModel;
+import model.Event;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+public class LogFileStore extends FileStorageBackend{
+    private static int MAGIC=0x43414C44;
+    private static int FORMAT_VERSION=1;
+    private static int HEADER_SIZE=16;
+    private static int RECORD_HEADER_SIZE=8;
+    private static int MAX_RECORD_SIZE=1024*1024;
+    private static int WRITE_BUFFER_SIZE=64*1024;
+    private static long DEFAULT_REWRITE_THRESHOLD=256*1024;
+    private FileChannel channel;
+    private long fileSize;
+    private long rewrittenSize;
+    private long rewriteThreshold=DEFAULT_REWRITE_THRESHOLD;
+    public LogFileStore(Path storagePath, Path backupPath){
+        super(storagePath, backupPath);
+    }
+    @Override
+    public String getName(){
+        return "log";
+    }
+    @Override
+    public CalendarModel loadCalendar(){
+        closeChannel();
+        CalendarModel model=new CalendarModel();
+        if (!saveFileExists()){
+            return model;
+        }
+        try{
+            Map<Event, Integer> events=new HashMap<>();
+            long validEnd=replay(events);
+            long size=Files.size(getStoragePath());
+            if (validEnd<size){
+                System.err.println("Truncating "+(size-validEnd)+" unreadable bytes at the end of "+getStoragePath());
+                try (FileChannel out=FileChannel.open(getStoragePath(), StandardOpenOption.WRITE)){
+                    out.truncate(validEnd);
+                    out.force(true);
+                }
+            }
+            fileSize=validEnd;
+            rewrittenSize=validEnd;
+            model.addEvents(MutationJournal.expandCounts(events));
+            setRecording(true);
+            return model;
+        }
+        catch (IOException e){
+            System.err.println("Failed to load calendar log: "+e.getMessage());
+            return loadLatestBackup();
+        }
+    }
+    /**
+     * Applies every intact record in file order.
+     *
+     * @return the offset just past the last intact record
+     */
+    private long replay(Map<Event, Integer> events) throws IOException{
+        try (FileChannel in=FileChannel.open(getStoragePath(), StandardOpenOption.READ)){
+            ByteBuffer buffer=in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (buffer.capacity()<HEADER_SIZE||buffer.getInt(0)!=MAGIC){
+                throw new IOException("Not a calendar log");
+            }
+            if (buffer.getInt(4)!=FORMAT_VERSION){
+                throw new IOException("Unsupported calendar log version "+buffer.getInt(4));
+            }
+            CRC32 crc=new CRC32();
+            int position=HEADER_SIZE;
+            while (buffer.capacity()-position>=RECORD_HEADER_SIZE){
+                int length=buffer.getInt(position);
+                int checksum=buffer.getInt(position+4);
+                if (length<0||length>MAX_RECORD_SIZE||length>buffer.capacity()-position-RECORD_HEADER_SIZE){
+                    break;
+                }
+                ByteBuffer payload=buffer.slice(position+RECORD_HEADER_SIZE, length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue()!=checksum){
+                    break;
+                }
+                try{
+                    MutationJournal.applyRecord(StandardCharsets.UTF_8.decode(payload).toString(), events);
+                }
+                catch (RuntimeException e){
+                    System.err.println("Ignoring unreadable record in "+getStoragePath()+": "+e.getMessage());
+                }
+                position+=RECORD_HEADER_SIZE+length;
+            }
+            return position;
+        }
+    }
+    /**
+     * Appends the batch's changes. A store that holds nothing yet, or whose
+     * file has grown well past its live size, is rewritten instead.
+     */
+    @Override
+    public boolean saveCalendar(SaveBatch batch){
+        if (!isRecording()||!saveFileExists()){
+            return compact(batch);
+        }
+        try{
+            append(batch.journalRecords);
+        }
+        catch (IOException e){
+            requeue(batch);
+            closeChannel();
+            System.err.println("Failed to append to calendar log: "+e.getMessage());
+            return false;
+        }
+        if (fileSize-rewrittenSize>Math.max(rewriteThreshold, rewrittenSize)){
+            rewrite(batch.model.getEvents());
+        }
+        return true;
+    }
+    @Override
+    public boolean compact(SaveBatch batch){
+        boolean written=rewrite(batch.model.getEvents());
+        if (written){
+            setRecording(true);
+        }
+        else if (isRecording()){
+            requeue(batch);
+        }
+        return written;
+    }
+    private void append(List<String> records) throws IOException{
+        if (records.isEmpty()){
+            return;
+        }
+        List<byte[]> payloads=new ArrayList<>(records.size());
+        int total=0;
+        for (String record:records){
+            byte[] payload=record.getBytes(StandardCharsets.UTF_8);
+            payloads.add(payload);
+            total+=RECORD_HEADER_SIZE+payload.length;
+        }
+        ByteBuffer out=ByteBuffer.allocate(total);
+        putRecords(out, payloads);
+        out.flip();
+        FileChannel log=openChannel();
+        log.position(fileSize);
+        while (out.hasRemaining()){
+            log.write(out);
+        }
+        log.force(false);
+        fileSize+=total;
+    }
+    private static void putRecords(ByteBuffer out, List<byte[]> payloads){
+        CRC32 crc=new CRC32();
+        for (byte[] payload:payloads){
+            crc.reset();
+            crc.update(payload);
+            out.putInt(payload.length);
+            out.putInt((int) crc.getValue());
+            out.put(payload);
+        }
+    }
+    /**
+     * Writes the live events to a new file that replaces the log, then
+     * keeps a JSON copy in the backup store.
+     */
+    private boolean rewrite(List<Event> events){
+        Path target=getStoragePath();
+        Path tempPath=null;
+        try{
+            tempPath=AtomicFiles.createTempSibling(target);
+            long written=HEADER_SIZE;
+            try (FileChannel out=FileChannel.open(tempPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                ByteBuffer header=ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(System.currentTimeMillis()).flip();
+                while (header.hasRemaining()){
+                    out.write(header);
+                }
+                List<byte[]> payloads=new ArrayList<>();
+                int batchSize=0;
+                for (Event event:events){
+                    byte[] payload=MutationJournal.addRecord(event).getBytes(StandardCharsets.UTF_8);
+                    payloads.add(payload);
+                    batchSize+=RECORD_HEADER_SIZE+payload.length;
+                    if (batchSize>=WRITE_BUFFER_SIZE){
+                        written+=writeRecords(out, payloads, batchSize);
+                        payloads.clear();
+                        batchSize=0;
+                    }
+                }
+                written+=writeRecords(out, payloads, batchSize);
+                out.force(true);
+            }
+            closeChannel();
+            AtomicFiles.moveIntoPlace(tempPath, target);
+            fileSize=written;
+            rewrittenSize=written;
+        }
+        catch (IOException e){
+            System.err.println("Failed to rewrite calendar log: "+e.getMessage());
+            return false;
+        }
+        finally{
+            if (tempPath!=null){
+                try{
+                    Files.deleteIfExists(tempPath);
+                }
+                catch (IOException e){
+                    System.err.println("Failed to remove temporary log file: "+e.getMessage());
+                }
+            }
+        }
+        backupEvents(events, BackupStore.LABEL_AUTO);
+        return true;
+    }
+    private static int writeRecords(FileChannel out, List<byte[]> payloads, int size) throws IOException{
+        if (payloads.isEmpty()){
+            return 0;
+        }
+        ByteBuffer buffer=ByteBuffer.allocate(size);
+        putRecords(buffer, payloads);
+        buffer.flip();
+        while (buffer.hasRemaining()){
+            out.write(buffer);
+        }
+        return size;
+    }
+    private FileChannel openChannel() throws IOException{
+        if (channel==null||!channel.isOpen()){
+            channel=FileChannel.open(getStoragePath(), StandardOpenOption.WRITE);
+        }
+        return channel;
+    }
+    private void closeChannel(){
+        if (channel!=null){
+            try{
+                channel.close();
+            }
+            catch (IOException e){
+                System.err.println("Failed to close calendar log: "+e.getMessage());
+            }
+            channel=null;
+        }
+    }
+    public long getRewriteThreshold(){
+        return rewriteThreshold;
+    }
+    public void setRewriteThreshold(long bytes){
+        this.rewriteThreshold=bytes;
+    }
+    @Override
+    protected void appendStorageInfo(StringBuilder info){
+        info.append("Log Growth: ").append(fileSize-rewrittenSize).append(" bytes since last rewrite\n");
+    }
+    @Override
+    public void close(){
+        closeChannel();
+    }
+}
@@ -0,0 +1,514 @@
+package storage;
+
+/**
+ * Byte-level JSON parser for importing large calendar files.
+ *
+ * Responsibilities:
+ *-Map the file and scan its UTF-8 bytes in place
+ *-Match keys and skip unknown values without decoding them
+ *-Parse ASCII dates and times straight from the bytes
+ *-Report progress and honour cancellation between events
+ *
+ * Java data types used:
+ *-MappedByteBuffer
+ *-byte[]
+ *-Consumer<Event>
+ *
+ * Java technologies involved:
+ *-Java NIO memory-mapped files
+ *
+ * Design intent:
+ * The import counterpart of JsonEventReader. Nothing is copied or
+ * decoded until an event is built, and then only the title becomes a
+ * String; dates and times in the usual ISO form never do. Files that
+ * use other forms still parse through JsonEventReader's fallbacks.
+ * Files over 2 GB cannot be mapped in one piece and are rejected.
+ */
+import model.Event;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+public class MappedJsonEventReader{
+    private static long PROGRESS_INTERVAL=256*1024;
+    private static byte[] EVENTS=ascii("events");
+    private static byte[] TITLE=ascii("title");
+    private static byte[] DATE=ascii("date");
+    private static byte[] START_TIME=ascii("startTime");
+    private static byte[] END_TIME=ascii("endTime");
+    private static byte[] START_DATE_TIME=ascii("startDateTime");
+    private static byte[] END_DATE_TIME=ascii("endDateTime");
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+    private ImportListener listener;
+    private long nextProgress=PROGRESS_INTERVAL;
+    private int eventsRead;
+    private int skippedEvents;
+    private byte[] scratch=new byte[128];
+    private int spanStart;
+    private int spanEnd;
+    private boolean spanEscaped;
+    public MappedJsonEventReader(ByteBuffer buffer, ImportListener listener){
+        this.buffer=buffer;
+        this.position=buffer.position();
+        this.limit=buffer.limit();
+        this.listener=listener;
+        if (limit-position>=3&&(buffer.get(position)&0xFF)==0xEF&&(buffer.get(position+1)&0xFF)==0xBB&&(buffer.get(position+2)&0xFF)==0xBF){
+            position+=3;
+        }
+    }
+    /**
+     * Maps a calendar file and reads all of its events.
+     *
+     * @throws IOException on I/O failure or malformed JSON
+     * @throws CancellationException if the listener cancelled the import
+     */
+    public static List<Event> readFile(Path path, ImportListener listener) throws IOException{
+        List<Event> events=new ArrayList<>();
+        try (FileChannel channel=FileChannel.open(path, StandardOpenOption.READ)){
+            long size=channel.size();
+            if (size>Integer.MAX_VALUE){
+                throw new IOException(path+" is too large to import ("+size+" bytes)");
+            }
+            MappedByteBuffer mapped=channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            MappedJsonEventReader reader=new MappedJsonEventReader(mapped, listener);
+            reader.readEvents(events::add);
+            if (reader.getSkippedEvents()>0){
+                System.err.println("Skipped "+reader.getSkippedEvents()+" malformed events in "+path);
+            }
+        }
+        return events;
+    }
+    /**
+     * Reads the whole document and hands every well-formed event to the sink.
+     *
+     * @return the number of events emitted
+     */
+    public int readEvents(Consumer<Event> sink) throws IOException{
+        expect('{');
+        if (peekToken()!='}'){
+            while (true){
+                boolean events=readKey(EVENTS);
+                expect(':');
+                if (events){
+                    readEventsArray(sink);
+                }
+                else{
+                    skipValue();
+                }
+                int c=nextToken();
+                if (c=='}'){
+                    break;
+                }
+                if (c!=','){
+                    throw error("Expected ',' or '}' in root object");
+                }
+            }
+        }
+        else{
+            position++;
+        }
+        listener.progress(limit, limit, eventsRead);
+        return eventsRead;
+    }
+    public int getSkippedEvents(){
+        return skippedEvents;
+    }
+    private void readEventsArray(Consumer<Event> sink) throws IOException{
+        expect('[');
+        if (peekToken()==']'){
+            position++;
+            return;
+        }
+        EventFields fields=new EventFields();
+        while (true){
+            fields.clear();
+            readEventObject(fields);
+            Event event=toEvent(fields);
+            if (event!=null){
+                sink.accept(event);
+                eventsRead++;
+            }
+            else{
+                skippedEvents++;
+            }
+            if (position>=nextProgress){
+                reportProgress();
+            }
+            int c=nextToken();
+            if (c==']'){
+                return;
+            }
+            if (c!=','){
+                throw error("Expected ',' or ']' in events array");
+            }
+        }
+    }
+    private void reportProgress(){
+        nextProgress=position+PROGRESS_INTERVAL;
+        listener.progress(position, limit, eventsRead);
+        if (listener.isCancelled()){
+            throw new CancellationException("Import cancelled after "+eventsRead+" events");
+        }
+    }
+    private void readEventObject(EventFields fields) throws IOException{
+        expect('{');
+        if (peekToken()=='}'){
+            position++;
+            return;
+        }
+        while (true){
+            readString();
+            int keyStart=spanStart;
+            int keyEnd=spanEnd;
+            boolean keyEscaped=spanEscaped;
+            expect(':');
+            if (peekToken()=='"'){
+                readString();
+                String escapedKey=keyEscaped?decode(keyStart, keyEnd, true):null;
+                if (matches(keyStart, keyEnd, escapedKey, TITLE)){
+                    fields.title=span();
+                }
+                else if (matches(keyStart, keyEnd, escapedKey, DATE)){
+                    fields.date=span();
+                }
+                else if (matches(keyStart, keyEnd, escapedKey, START_TIME)){
+                    fields.startTime=span();
+                }
+                else if (matches(keyStart, keyEnd, escapedKey, END_TIME)){
+                    fields.endTime=span();
+                }
+                else if (matches(keyStart, keyEnd, escapedKey, START_DATE_TIME)){
+                    fields.startDateTime=span();
+                }
+                else if (matches(keyStart, keyEnd, escapedKey, END_DATE_TIME)){
+                    fields.endDateTime=span();
+                }
+            }
+            else{
+                skipValue();
+            }
+            int c=nextToken();
+            if (c=='}'){
+                return;
+            }
+            if (c!=','){
+                throw error("Expected ',' or '}' in event object");
+            }
+        }
+    }
+    /**
+     * Packs the last string's bounds and escape flag into one long, so the
+     * event fields need no objects of their own.
+     */
+    private long span(){
+        return ((long) spanStart<<32)|((long) (spanEnd-spanStart)<<1)|(spanEscaped?1:0);
+    }
+    private Event toEvent(EventFields fields){
+        try{
+            if (fields.title==EventFields.ABSENT){
+                return null;
+            }
+            LocalDate eventDate=fields.date!=EventFields.ABSENT?parseDate(fields.date):null;
+            LocalTime start=fields.startTime!=EventFields.ABSENT?parseTime(fields.startTime):null;
+            LocalTime end=fields.endTime!=EventFields.ABSENT?parseTime(fields.endTime):null;
+            if (start==null&&fields.startDateTime!=EventFields.ABSENT){
+                LocalDateTime startDate=parseDateTime(fields.startDateTime);
+                eventDate=startDate.toLocalDate();
+                start=startDate.toLocalTime();
+            }
+            if (end==null&&fields.endDateTime!=EventFields.ABSENT){
+                end=parseDateTime(fields.endDateTime).toLocalTime();
+            }
+            if (eventDate==null||start==null||end==null){
+                return null;
+            }
+            return new Event(decode(fields.title), eventDate, start, end);
+        }
+        catch (RuntimeException e){
+            return null;
+        }
+    }
+    private LocalDate parseDate(long span){
+        int start=(int) (span>>>32);
+        if ((span&1)==0&&length(span)==10){
+            LocalDate date=parseDate(start);
+            if (date!=null){
+                return date;
+            }
+        }
+        return JsonEventReader.parseDate(decode(span));
+    }
+    private LocalTime parseTime(long span){
+        int start=(int) (span>>>32);
+        int length=length(span);
+        if ((span&1)==0&&(length==5||length==8)){
+            LocalTime time=parseTime(start, length);
+            if (time!=null){
+                return time;
+            }
+        }
+        return JsonEventReader.parseTime(decode(span));
+    }
+    private LocalDateTime parseDateTime(long span){
+        int start=(int) (span>>>32);
+        int length=length(span);
+        if ((span&1)==0&&(length==16||length==19)&&buffer.get(start+10)=='T'){
+            LocalDate date=parseDate(start);
+            LocalTime time=parseTime(start+11, length-11);
+            if (date!=null&&time!=null){
+                return LocalDateTime.of(date, time);
+            }
+        }
+        return LocalDateTime.parse(decode(span), DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+    }
+    /**
+     * Parses yyyy-MM-dd at the given offset, or returns null when the bytes
+     * have another shape.
+     */
+    private LocalDate parseDate(int start){
+        if (buffer.get(start+4)!='-'||buffer.get(start+7)!='-'){
+            return null;
+        }
+        int year=digits(start, 4);
+        int month=digits(start+5, 2);
+        int day=digits(start+8, 2);
+        if (year<0||month<0||day<0){
+            return null;
+        }
+        return LocalDate.of(year, month, day);
+    }
+    /**
+     * Parses HH:mm or HH:mm:ss at the given offset, or returns null when the
+     * bytes have another shape.
+     */
+    private LocalTime parseTime(int start, int length){
+        if (buffer.get(start+2)!=':'||(length==8&&buffer.get(start+5)!=':')){
+            return null;
+        }
+        int hour=digits(start, 2);
+        int minute=digits(start+3, 2);
+        int second=length==8?digits(start+6, 2):0;
+        if (hour<0||minute<0||second<0){
+            return null;
+        }
+        return LocalTime.of(hour, minute, second);
+    }
+    private int digits(int offset, int count){
+        int result=0;
+        for (int i=offset;i<offset+count;i++){
+            int digit=buffer.get(i)-'0';
+            if (digit<0||digit>9){
+                return -1;
+            }
+            result=result*10+digit;
+        }
+        return result;
+    }
+    private static int length(long span){
+        return (int) (span&0xFFFFFFFFL)>>>1;
+    }
+    private String decode(long span){
+        int start=(int) (span>>>32);
+        return decode(start, start+length(span), (span&1)!=0);
+    }
+    /**
+     * Decodes the raw bytes of a string, without its quotes, into a String.
+     */
+    private String decode(int start, int end, boolean escaped){
+        if (!escaped){
+            return new String(copy(start, end), 0, end-start, StandardCharsets.UTF_8);
+        }
+        StringBuilder text=new StringBuilder(end-start);
+        int run=start;
+        int i=start;
+        while (i<end){
+            if (buffer.get(i)!='\\'){
+                i++;
+                continue;
+            }
+            if (i>run){
+                text.append(new String(copy(run, i), 0, i-run, StandardCharsets.UTF_8));
+            }
+            byte escape=buffer.get(i+1);
+            i+=2;
+            switch (escape){
+                case '"': text.append('"'); break;
+                case '\\': text.append('\\'); break;
+                case '/': text.append('/'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'n': text.append('\n'); break;
+                case 'r': text.append('\r'); break;
+                case 't': text.append('\t'); break;
+                case 'u':
+                    int value=0;
+                    for (int j=0;j<4;j++){
+                        int digit=i+j<end?Character.digit(buffer.get(i+j), 16):-1;
+                        if (digit<0){
+                            throw new IllegalArgumentException("Invalid \\u escape");
+                        }
+                        value=(value<<4)|digit;
+                    }
+                    text.append((char) value);
+                    i+=4;
+                    break;
+                default: throw new IllegalArgumentException("Invalid escape sequence");
+            }
+            run=i;
+        }
+        if (end>run){
+            text.append(new String(copy(run, end), 0, end-run, StandardCharsets.UTF_8));
+        }
+        return text.toString();
+    }
+    private byte[] copy(int start, int end){
+        if (scratch.length<end-start){
+            scratch=new byte[Math.max(end-start, scratch.length*2)];
+        }
+        buffer.get(start, scratch, 0, end-start);
+        return scratch;
+    }
+    /**
+     * Compares a key with an ASCII name, byte by byte unless the key held
+     * escapes and had to be decoded.
+     */
+    private boolean matches(int start, int end, String escapedKey, byte[] name){
+        if (escapedKey!=null){
+            return escapedKey.equals(new String(name, StandardCharsets.US_ASCII));
+        }
+        if (end-start!=name.length){
+            return false;
+        }
+        for (int i=0;i<name.length;i++){
+            if (buffer.get(start+i)!=name[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+    private boolean readKey(byte[] name) throws IOException{
+        readString();
+        return matches(spanStart, spanEnd, spanEscaped?decode(spanStart, spanEnd, true):null, name);
+    }
+    /**
+     * Scans a string and leaves its raw bounds in spanStart and spanEnd.
+     */
+    private void readString() throws IOException{
+        expect('"');
+        spanStart=position;
+        spanEscaped=false;
+        while (position<limit){
+            byte b=buffer.get(position);
+            if (b=='"'){
+                spanEnd=position++;
+                return;
+            }
+            if (b=='\\'){
+                spanEscaped=true;
+                position++;
+            }
+            position++;
+        }
+        throw error("Unterminated string");
+    }
+    private void skipValue() throws IOException{
+        int c=peekToken();
+        if (c=='"'){
+            readString();
+        }
+        else if (c=='{'||c=='['){
+            int depth=0;
+            do{
+                c=peekToken();
+                if (c=='"'){
+                    readString();
+                    continue;
+                }
+                if (c==-1){
+                    throw error("Unexpected end of file");
+                }
+                if (c=='{'||c=='['){
+                    depth++;
+                }
+                else if (c=='}'||c==']'){
+                    depth--;
+                }
+                position++;
+            }
+            while (depth>0);
+        }
+        else{
+            while (position<limit){
+                byte b=buffer.get(position);
+                if (b==','||b=='}'||b==']'||isWhitespace(b)){
+                    break;
+                }
+                position++;
+            }
+        }
+    }
+    private void expect(char expected) throws IOException{
+        if (nextToken()!=expected){
+            throw error("Expected '"+expected+"'");
+        }
+    }
+    private int nextToken(){
+        int c=peekToken();
+        if (c!=-1){
+            position++;
+        }
+        return c;
+    }
+    private int peekToken(){
+        while (position<limit){
+            byte b=buffer.get(position);
+            if (!isWhitespace(b)){
+                return b;
+            }
+            position++;
+        }
+        return -1;
+    }
+    private static boolean isWhitespace(int c){
+        return c==' '||c=='\n'||c=='\r'||c=='\t';
+    }
+    private IOException error(String message){
+        return new IOException(message+" at byte "+position);
+    }
+    private static byte[] ascii(String text){
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+    /**
+     * Field values as packed spans into the buffer.
+     */
+    private static class EventFields{
+        private static long ABSENT=-1;
+        private long title;
+        private long date;
+        private long startTime;
+        private long endTime;
+        private long startDateTime;
+        private long endDateTime;
+        private void clear(){
+            title=ABSENT;
+            date=ABSENT;
+            startTime=ABSENT;
+            endTime=ABSENT;
+            startDateTime=ABSENT;
+            endDateTime=ABSENT;
+        }
+    }
+}
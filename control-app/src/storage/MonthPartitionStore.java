@@ -0,0 +1,301 @@
+package storage;
+
+/**
+ * Month-partitioned calendar storage.
+ *
+ * Responsibilities:
+ *-Keep one JSON file per month plus a small manifest of months
+ *-Read single months on demand
+ *-Track which months were loaded and which changed
+ *-Rewrite only the months that changed
+ *
+ * Layout:
+ *-<storage file>.months/manifest: one "yyyy-MM<TAB>event count" line per month
+ *-<storage file>.months/yyyy-MM.json: the events of that month, in the
+ * same format as the main calendar file
+ *
+ * Java data types used:
+ *-YearMonth
+ *-Map<YearMonth, Integer>
+ *-Set<YearMonth>
+ *
+ * Java technologies involved:
+ *-Java NIO
+ *-JSON serialization
+ *
+ * Design intent:
+ * Memory and save cost follow the months the user looks at, not the
+ * size of the whole calendar history.
+ */
+import model.CalendarModel;
+import model.Event;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+public class MonthPartitionStore{
+    private static String DIRECTORY_SUFFIX=".months";
+    private static String MANIFEST_FILE_NAME="manifest";
+    private Path directory;
+    private Map<YearMonth, Integer> manifest=new TreeMap<>();
+    private Set<YearMonth> loadedMonths=new HashSet<>();
+    private Set<YearMonth> dirtyMonths=new TreeSet<>();
+    private boolean cleared;
+    public MonthPartitionStore(Path storagePath){
+        this.directory=storagePath.resolveSibling(storagePath.getFileName()+DIRECTORY_SUFFIX);
+    }
+    public Path getDirectory(){
+        return directory;
+    }
+    public Path getMonthPath(YearMonth month){
+        return directory.resolve(month+".json");
+    }
+    private Path getManifestPath(){
+        return directory.resolve(MANIFEST_FILE_NAME);
+    }
+    public boolean exists(){
+        return Files.exists(getManifestPath());
+    }
+    /**
+     * Reads the manifest and forgets any loaded or dirty state from a
+     * previous session.
+     */
+    public synchronized void open() throws IOException{
+        manifest.clear();
+        loadedMonths.clear();
+        dirtyMonths.clear();
+        cleared=false;
+        if (!exists()){
+            return;
+        }
+        try (BufferedReader reader=Files.newBufferedReader(getManifestPath(), StandardCharsets.UTF_8)){
+            String line;
+            while ((line=reader.readLine())!=null){
+                if (line.isEmpty()){
+                    continue;
+                }
+                String[] fields=line.split("\t");
+                try{
+                    manifest.put(YearMonth.parse(fields[0]), fields.length>1?Integer.parseInt(fields[1]):0);
+                }
+                catch (RuntimeException e){
+                    System.err.println("Ignoring unreadable manifest line: "+line);
+                }
+            }
+        }
+    }
+    /**
+     * Splits a full calendar into month files, replacing any existing
+     * partitions. Used once when switching an existing calendar over.
+     */
+    public synchronized void writeAll(List<Event> sortedEvents) throws IOException{
+        Files.createDirectories(directory);
+        for (YearMonth month:new ArrayList<>(manifest.keySet())){
+            Files.deleteIfExists(getMonthPath(month));
+        }
+        manifest.clear();
+        int start=0;
+        while (start<sortedEvents.size()){
+            YearMonth month=YearMonth.from(sortedEvents.get(start).getDate());
+            int end=start;
+            while (end<sortedEvents.size()&&YearMonth.from(sortedEvents.get(end).getDate()).equals(month)){
+                end++;
+            }
+            AtomicFiles.writeCalendar(sortedEvents.subList(start, end), getMonthPath(month));
+            manifest.put(month, end-start);
+            start=end;
+        }
+        writeManifest();
+        loadedMonths.addAll(manifest.keySet());
+        dirtyMonths.clear();
+        cleared=false;
+    }
+    /**
+     * Reads one month from disk. A month missing from the manifest is empty.
+     */
+    public List<Event> readMonth(YearMonth month) throws IOException{
+        List<Event> events=new ArrayList<>();
+        Path monthPath=getMonthPath(month);
+        if (!Files.exists(monthPath)){
+            return events;
+        }
+        try (JsonEventReader reader=new JsonEventReader(FileChannel.open(monthPath, StandardOpenOption.READ))){
+            reader.readEvents(events::add);
+            if (reader.getSkippedEvents()>0){
+                System.err.println("Skipped "+reader.getSkippedEvents()+" malformed events in "+monthPath);
+            }
+        }
+        return events;
+    }
+    public synchronized boolean isLoaded(YearMonth month){
+        return cleared||loadedMonths.contains(month)||!manifest.containsKey(month);
+    }
+    public synchronized void markLoaded(YearMonth month){
+        loadedMonths.add(month);
+    }
+    public synchronized void markDirty(LocalDate date){
+        dirtyMonths.add(YearMonth.from(date));
+    }
+    /**
+     * Records that every event was removed, including months never loaded.
+     */
+    public synchronized void markCleared(){
+        cleared=true;
+        dirtyMonths.addAll(manifest.keySet());
+    }
+    public synchronized boolean hasDirtyMonths(){
+        return !dirtyMonths.isEmpty();
+    }
+    public synchronized boolean isCleared(){
+        return cleared;
+    }
+    /**
+     * Hands the changed months to the caller, to be written later against a
+     * model snapshot taken right after.
+     */
+    public synchronized Set<YearMonth> drainDirtyMonths(){
+        Set<YearMonth> drained=new TreeSet<>(dirtyMonths);
+        dirtyMonths.clear();
+        return drained;
+    }
+    public synchronized Set<YearMonth> getMonths(){
+        return new TreeSet<>(manifest.keySet());
+    }
+    /**
+     * Returns the months whose events are all in memory. A cleared calendar
+     * holds every month, since nothing on disk survives the clear.
+     */
+    public synchronized Set<YearMonth> getLoadedMonths(){
+        Set<YearMonth> loaded=new TreeSet<>(loadedMonths);
+        if (cleared){
+            loaded.addAll(manifest.keySet());
+        }
+        return loaded;
+    }
+    /**
+     * Rewrites every month touched since the last save.
+     *
+     * @return the number of month files written or deleted
+     */
+    public int writeDirtyMonths(CalendarModel model) throws IOException{
+        boolean wasCleared=isCleared();
+        Set<YearMonth> months=drainDirtyMonths();
+        return writeMonths(model, months, getLoadedMonths(), wasCleared);
+    }
+    /**
+     * Rewrites the given months. The model must have been read after the
+     * loaded months were captured, so every month in that set is complete
+     * in it and is written as is. Other months are merged with what is
+     * already on disk. Months are marked dirty again if writing fails.
+     */
+    public int writeMonths(CalendarModel model, Set<YearMonth> months, Set<YearMonth> loaded, boolean clearedBefore) throws IOException{
+        if (months.isEmpty()){
+            return 0;
+        }
+        Map<YearMonth, Integer> counts=new TreeMap<>();
+        try{
+            Files.createDirectories(directory);
+            for (YearMonth month:months){
+                LocalDateTime from=month.atDay(1).atStartOfDay();
+                LocalDateTime to=month.plusMonths(1).atDay(1).atStartOfDay();
+                List<Event> events=model.getEventsBetween(from, to);
+                if (!loaded.contains(month)){
+                    Set<Event> merged=new LinkedHashSet<>(readMonth(month));
+                    merged.addAll(events);
+                    events=new ArrayList<>(merged);
+                    events.sort(Event.START_ORDER);
+                }
+                if (events.isEmpty()){
+                    Files.deleteIfExists(getMonthPath(month));
+                }
+                else{
+                    AtomicFiles.writeCalendar(events, getMonthPath(month));
+                }
+                counts.put(month, events.size());
+            }
+        }
+        catch (IOException e){
+            synchronized (this){
+                dirtyMonths.addAll(months);
+            }
+            throw e;
+        }
+        synchronized (this){
+            for (Map.Entry<YearMonth, Integer> entry:counts.entrySet()){
+                if (entry.getValue()==0){
+                    manifest.remove(entry.getKey());
+                }
+                else{
+                    manifest.put(entry.getKey(), entry.getValue());
+                }
+            }
+            if (clearedBefore){
+                loadedMonths.addAll(months);
+                cleared=false;
+            }
+            writeManifest();
+        }
+        return counts.size();
+    }
+    /**
+     * Returns every event in the calendar, reading months that are not in
+     * memory. Used for exports and manual backups.
+     */
+    public List<Event> collectAllEvents(CalendarModel model) throws IOException{
+        Set<YearMonth> loaded=getLoadedMonths();
+        return collectAllEvents(model, loaded);
+    }
+    /**
+     * Same as collectAllEvents, for a model snapshot taken after the given
+     * loaded months were captured.
+     */
+    public List<Event> collectAllEvents(CalendarModel model, Set<YearMonth> loaded) throws IOException{
+        List<Event> events=model.getSortedEvents();
+        Set<Event> merged=null;
+        for (YearMonth month:getMonths()){
+            if (!loaded.contains(month)){
+                if (merged==null){
+                    merged=new LinkedHashSet<>(events);
+                }
+                merged.addAll(readMonth(month));
+            }
+        }
+        if (merged==null){
+            return events;
+        }
+        List<Event> result=new ArrayList<>(merged);
+        result.sort(Event.START_ORDER);
+        return result;
+    }
+    private void writeManifest() throws IOException{
+        Path manifestPath=getManifestPath();
+        Path tempPath=AtomicFiles.createTempSibling(manifestPath);
+        try{
+            try (Writer writer=Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)){
+                for (Map.Entry<YearMonth, Integer> entry:manifest.entrySet()){
+                    writer.write(entry.getKey()+"\t"+entry.getValue()+"\n");
+                }
+            }
+            AtomicFiles.sync(tempPath);
+            AtomicFiles.moveIntoPlace(tempPath, manifestPath);
+        }
+        finally{
+            Files.deleteIfExists(tempPath);
+        }
+    }
+}
@@ -0,0 +1,477 @@
+package storage;
+
+/**
+ * Append-only write-ahead log of calendar mutations.
+ *
+ * Responsibilities:
+ *-Buffer add, update, delete and clear records in memory
+ *-Append buffered records with a single fsync per commit
+ *-Protect every record with a CRC32
+ *-Replay records on top of the last JSON snapshot, stopping at and
+ * cutting off a torn or damaged tail
+ *-Rotate the log out of the way while a snapshot is compacted
+ *
+ * Java data types used:
+ *-Path
+ *-FileChannel
+ *-List<String>
+ *-Map<Event, Integer> (how many copies of each event)
+ *
+ * Record format: "~" and the CRC32 of the record as 8 hex digits, a tab,
+ * then the tab-separated record. Lines without the prefix were written
+ * before records carried checksums and are accepted as they are.
+ *
+ * Java technologies involved:
+ *-Java NIO file channels
+ *-Group commit
+ *
+ * Design intent:
+ * Save cost is proportional to the size of the change, not the calendar.
+ * The calendar may hold identical events, so replay counts copies and a
+ * delete removes one of them; applying a record twice is therefore not
+ * harmless. Before a compacted snapshot replaces the calendar file, the
+ * rotated journal it covers is marked with the snapshot's digest, and
+ * replay skips a rotated journal whose mark matches the file on disk, so
+ * a crash before the rotated file is deleted does not apply it twice.
+ */
+import model.CalendarModel;
+import model.Event;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+public class MutationJournal implements Closeable{
+    private static String JOURNAL_SUFFIX=".journal";
+    private static String OP_ADD="ADD";
+    private static String OP_DELETE="DELETE";
+    private static String OP_UPDATE="UPDATE";
+    private static String OP_CLEAR="CLEAR";
+    private static String OP_COVERED="COVERED";
+    private static char CHECKSUM_PREFIX='~';
+    private Path journalPath;
+    private List<String> pending=new ArrayList<>();
+    private FileChannel channel;
+    private long committedSize;
+    public MutationJournal(Path storagePath){
+        this.journalPath=storagePath.resolveSibling(storagePath.getFileName()+JOURNAL_SUFFIX);
+        try{
+            this.committedSize=Files.exists(journalPath)?Files.size(journalPath):0;
+        }
+        catch (IOException e){
+            this.committedSize=0;
+        }
+    }
+    public synchronized void recordAdd(Event event){
+        pending.add(addRecord(event));
+    }
+    public synchronized void recordDelete(Event event){
+        pending.add(deleteRecord(event));
+    }
+    public synchronized void recordUpdate(Event oldEvent, Event newEvent){
+        pending.add(updateRecord(oldEvent, newEvent));
+    }
+    public synchronized void recordClear(){
+        pending.add(clearRecord());
+    }
+    static String addRecord(Event event){
+        return OP_ADD+"\t"+encodeEvent(event);
+    }
+    static String deleteRecord(Event event){
+        return OP_DELETE+"\t"+encodeEvent(event);
+    }
+    static String updateRecord(Event oldEvent, Event newEvent){
+        return OP_UPDATE+"\t"+encodeEvent(oldEvent)+"\t"+encodeEvent(newEvent);
+    }
+    static String clearRecord(){
+        return OP_CLEAR;
+    }
+    public synchronized boolean hasPending(){
+        return !pending.isEmpty();
+    }
+    public synchronized void discardPending(){
+        pending.clear();
+    }
+    /**
+     * Hands the buffered records to the caller, typically together with a
+     * model snapshot taken right after, so the two can be written later.
+     */
+    public synchronized List<String> drainPending(){
+        List<String> drained=pending;
+        pending=new ArrayList<>();
+        return drained;
+    }
+    /**
+     * Puts records that failed to commit back in front of newer ones.
+     */
+    public synchronized void requeue(List<String> records){
+        pending.addAll(0, records);
+    }
+    /**
+     * Appends every buffered record and forces them to disk once.
+     *
+     * @return the number of records committed
+     */
+    public synchronized int commit() throws IOException{
+        List<String> records=drainPending();
+        try{
+            return commit(records);
+        }
+        catch (IOException e){
+            requeue(records);
+            throw e;
+        }
+    }
+    /**
+     * Appends previously drained records with a single fsync.
+     */
+    public synchronized int commit(List<String> records) throws IOException{
+        if (records.isEmpty()){
+            return 0;
+        }
+        StringBuilder batch=new StringBuilder();
+        for (String record:records){
+            batch.append(formatLine(record));
+        }
+        ByteBuffer bytes=StandardCharsets.UTF_8.encode(batch.toString());
+        FileChannel out=openChannel();
+        while (bytes.hasRemaining()){
+            committedSize+=out.write(bytes);
+        }
+        out.force(false);
+        return records.size();
+    }
+    private static String formatLine(String record){
+        return CHECKSUM_PREFIX+String.format("%08x", checksum(record))+"\t"+record+"\n";
+    }
+    public synchronized long getCommittedSize(){
+        return committedSize;
+    }
+    /**
+     * Drops the journal entirely, used after a full snapshot was written
+     * while no compaction was in flight.
+     */
+    public synchronized void reset() throws IOException{
+        closeChannel();
+        pending.clear();
+        Files.deleteIfExists(journalPath);
+        for (Path rotated:listRotated()){
+            Files.deleteIfExists(rotated);
+        }
+        committedSize=0;
+    }
+    /**
+     * Moves the committed journal aside so a snapshot can be written while
+     * new records keep landing in a fresh journal file.
+     *
+     * @return the rotated file, or null when nothing was committed
+     */
+    public synchronized Path beginCompaction() throws IOException{
+        closeChannel();
+        committedSize=0;
+        if (!Files.exists(journalPath)){
+            return null;
+        }
+        List<Path> rotated=listRotated();
+        long generation=rotated.isEmpty()?1:rotatedGeneration(rotated.get(rotated.size()-1))+1;
+        Path target=journalPath.resolveSibling(journalPath.getFileName()+"."+generation);
+        Files.move(journalPath, target);
+        return target;
+    }
+    /**
+     * Marks a rotated file as covered by the snapshot with the given digest.
+     * Called once the snapshot is on disk but before it replaces the
+     * calendar file.
+     */
+    public synchronized void markCovered(Path rotatedPath, byte[] snapshotDigest) throws IOException{
+        if (rotatedPath==null){
+            return;
+        }
+        ByteBuffer bytes=StandardCharsets.UTF_8.encode(formatLine(OP_COVERED+"\t"+AtomicFiles.toHex(snapshotDigest)));
+        try (FileChannel out=FileChannel.open(rotatedPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)){
+            while (bytes.hasRemaining()){
+                out.write(bytes);
+            }
+            out.force(false);
+        }
+    }
+    /**
+     * Deletes the rotated file and any older ones, all of which are covered
+     * by the snapshot that was just written.
+     */
+    public synchronized void finishCompaction(Path rotatedPath) throws IOException{
+        if (rotatedPath==null){
+            return;
+        }
+        long generation=rotatedGeneration(rotatedPath);
+        for (Path rotated:listRotated()){
+            if (rotatedGeneration(rotated)<=generation){
+                Files.deleteIfExists(rotated);
+            }
+        }
+    }
+    /**
+     * Applies the rotated and live journals on top of a model freshly loaded
+     * from the snapshot file. Rotated journals the snapshot already covers
+     * are skipped.
+     *
+     * @return the number of records applied
+     */
+    public synchronized int replay(CalendarModel model, Path snapshotPath) throws IOException{
+        List<Path> files=listRotated();
+        if (Files.exists(journalPath)){
+            files.add(journalPath);
+        }
+        if (files.isEmpty()){
+            return 0;
+        }
+        Map<Event, Integer> events=countEvents(model.getEvents());
+        String snapshotDigest=null;
+        int applied=0;
+        for (Path file:files){
+            List<String> records=readRecords(file);
+            String covering=getCoveringDigest(records);
+            if (covering!=null){
+                if (snapshotDigest==null&&Files.exists(snapshotPath)){
+                    snapshotDigest=AtomicFiles.toHex(AtomicFiles.digest(snapshotPath));
+                }
+                if (covering.equals(snapshotDigest)){
+                    continue;
+                }
+                records.remove(records.size()-1);
+            }
+            for (String record:records){
+                try{
+                    applyRecord(record, events);
+                    applied++;
+                }
+                catch (RuntimeException e){
+                    System.err.println("Ignoring unreadable journal record in "+file+": "+e.getMessage());
+                }
+            }
+        }
+        if (applied>0){
+            model.clearEvents();
+            model.addEvents(expandCounts(events));
+        }
+        return applied;
+    }
+    private List<Path> listRotated() throws IOException{
+        List<Path> rotated=new ArrayList<>();
+        Path directory=journalPath.toAbsolutePath().getParent();
+        String prefix=journalPath.getFileName()+".";
+        if (directory==null||!Files.isDirectory(directory)){
+            return rotated;
+        }
+        try (DirectoryStream<Path> stream=Files.newDirectoryStream(directory, prefix+"*")){
+            for (Path path:stream){
+                if (rotatedGeneration(path)>0){
+                    rotated.add(path);
+                }
+            }
+        }
+        rotated.sort(Comparator.comparingLong(MutationJournal::rotatedGeneration));
+        return rotated;
+    }
+    private static long rotatedGeneration(Path path){
+        String name=path.getFileName().toString();
+        String suffix=name.substring(name.lastIndexOf('.')+1);
+        try{
+            return Long.parseLong(suffix);
+        }
+        catch (NumberFormatException e){
+            return -1;
+        }
+    }
+    /**
+     * Reads the intact records of one file. Reading stops at the first line
+     * that is incomplete or fails its checksum, and the file is cut off
+     * there so later commits do not land behind damaged bytes.
+     */
+    private List<String> readRecords(Path path) throws IOException{
+        List<String> records=new ArrayList<>();
+        if (!Files.exists(path)){
+            return records;
+        }
+        byte[] data=Files.readAllBytes(path);
+        int validEnd=0;
+        int start=0;
+        while (start<data.length){
+            int end=start;
+            while (end<data.length&&data[end]!='\n'){
+                end++;
+            }
+            if (end==data.length){
+                break;
+            }
+            String line=new String(data, start, end-start, StandardCharsets.UTF_8);
+            if (!line.isEmpty()){
+                String record=verifyRecord(line);
+                if (record==null){
+                    break;
+                }
+                records.add(record);
+            }
+            start=end+1;
+            validEnd=start;
+        }
+        if (validEnd<data.length){
+            System.err.println("Cutting off "+(data.length-validEnd)+" damaged bytes at the end of "+path);
+            try (FileChannel out=FileChannel.open(path, StandardOpenOption.WRITE)){
+                out.truncate(validEnd);
+                out.force(true);
+            }
+            if (path.equals(journalPath)){
+                committedSize=validEnd;
+            }
+        }
+        return records;
+    }
+    /**
+     * @return the snapshot digest a rotated journal was marked with, or null
+     */
+    private static String getCoveringDigest(List<String> records){
+        if (records.isEmpty()){
+            return null;
+        }
+        String last=records.get(records.size()-1);
+        return last.startsWith(OP_COVERED+"\t")?last.substring(OP_COVERED.length()+1):null;
+    }
+    /**
+     * Strips and checks the checksum prefix of a journal line.
+     *
+     * @return the record, or null when the checksum does not match
+     */
+    private static String verifyRecord(String line){
+        if (line.charAt(0)!=CHECKSUM_PREFIX){
+            return line;
+        }
+        int tab=line.indexOf('\t');
+        if (tab!=9){
+            return null;
+        }
+        String record=line.substring(tab+1);
+        try{
+            return Long.parseLong(line.substring(1, tab), 16)==checksum(record)?record:null;
+        }
+        catch (NumberFormatException e){
+            return null;
+        }
+    }
+    private static long checksum(String record){
+        CRC32 crc=new CRC32();
+        crc.update(record.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+    /**
+     * Applies one record to events counted by copies. A delete removes one
+     * copy. Throws on unreadable records.
+     */
+    static void applyRecord(String record, Map<Event, Integer> events){
+        String[] fields=record.split("\t", -1);
+        String op=fields[0];
+        if (OP_CLEAR.equals(op)){
+            events.clear();
+        }
+        else if (OP_ADD.equals(op)){
+            events.merge(decodeEvent(fields, 1), 1, Integer::sum);
+        }
+        else if (OP_DELETE.equals(op)){
+            removeCopy(events, decodeEvent(fields, 1));
+        }
+        else if (OP_UPDATE.equals(op)){
+            removeCopy(events, decodeEvent(fields, 1));
+            events.merge(decodeEvent(fields, 5), 1, Integer::sum);
+        }
+        else{
+            throw new IllegalArgumentException("Unknown operation "+op);
+        }
+    }
+    private static void removeCopy(Map<Event, Integer> events, Event event){
+        events.computeIfPresent(event, (key, count)->count>1?count-1:null);
+    }
+    static Map<Event, Integer> countEvents(List<Event> events){
+        Map<Event, Integer> counts=new HashMap<>();
+        for (Event event:events){
+            counts.merge(event, 1, Integer::sum);
+        }
+        return counts;
+    }
+    static List<Event> expandCounts(Map<Event, Integer> counts){
+        List<Event> events=new ArrayList<>();
+        for (Map.Entry<Event, Integer> entry:counts.entrySet()){
+            for (int i=0;i<entry.getValue();i++){
+                events.add(entry.getKey());
+            }
+        }
+        return events;
+    }
+    private static String encodeEvent(Event event){
+        return escape(event.getTitle())+"\t"+event.getDate()+"\t"+event.getStartTime().toLocalTime()+"\t"+event.getEndTime().toLocalTime();
+    }
+    private static Event decodeEvent(String[] fields, int offset){
+        return new Event(unescape(fields[offset]), LocalDate.parse(fields[offset+1]), LocalTime.parse(fields[offset+2]), LocalTime.parse(fields[offset+3]));
+    }
+    private static String escape(String input){
+        return input.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+    private static String unescape(String input){
+        if (input.indexOf('\\')<0){
+            return input;
+        }
+        StringBuilder result=new StringBuilder(input.length());
+        for (int i=0;i<input.length();i++){
+            char c=input.charAt(i);
+            if (c=='\\'&&i+1<input.length()){
+                char escaped=input.charAt(++i);
+                if (escaped=='t'){
+                    result.append('\t');
+                }
+                else if (escaped=='n'){
+                    result.append('\n');
+                }
+                else if (escaped=='r'){
+                    result.append('\r');
+                }
+                else{
+                    result.append(escaped);
+                }
+            }
+            else{
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+    private FileChannel openChannel() throws IOException{
+        if (channel==null||!channel.isOpen()){
+            channel=FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        return channel;
+    }
+    private void closeChannel() throws IOException{
+        if (channel!=null){
+            channel.close();
+            channel=null;
+        }
+    }
+    public Path getJournalPath(){
+        return journalPath;
+    }
+    @Override
+    public synchronized void close() throws IOException{
+        closeChannel();
+    }
+}
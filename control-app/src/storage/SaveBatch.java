@@ -0,0 +1,65 @@
+package storage;
+
+/**
+ * Everything a storage backend needs to write one save later.
+ *
+ * Responsibilities:
+ *-Hold a read-only copy of the model
+ *-Hold the changes recorded before that copy was taken
+ *-Merge with a newer batch when the older one was never written
+ *
+ * Java data types used:
+ *-CalendarModel
+ *-List<String>
+ *-Set<YearMonth>
+ *
+ * Java technologies involved:
+ *-Snapshot isolation
+ *
+ * Design intent:
+ * Captured on the thread that owns the model, written on the storage
+ * writer thread, never shared while being written.
+ */
+import model.CalendarModel;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+public class SaveBatch{
+    CalendarModel model;
+    List<String> journalRecords=new ArrayList<>();
+    Set<YearMonth> dirtyMonths=new TreeSet<>();
+    Set<YearMonth> loadedMonths;
+    boolean cleared;
+    private long capturedAt=System.nanoTime();
+    SaveBatch(){
+
+    }
+    /**
+     * Copies the model into a read-only model. Any pending changes must have
+     * been handed over to the batch before this is called.
+     */
+    void captureModel(CalendarModel source){
+        this.model=new CalendarModel();
+        this.model.loadSortedEvents(Collections.unmodifiableList(source.getSortedEvents()));
+    }
+    /**
+     * Folds a newer batch into this one. The newer model copy wins and the
+     * recorded changes of both are kept in order.
+     */
+    public void mergeNewer(SaveBatch newer){
+        this.model=newer.model;
+        this.journalRecords.addAll(newer.journalRecords);
+        this.dirtyMonths.addAll(newer.dirtyMonths);
+        this.loadedMonths=newer.loadedMonths;
+        this.cleared|=newer.cleared;
+    }
+    public CalendarModel getModel(){
+        return model;
+    }
+    public long getCapturedAt(){
+        return capturedAt;
+    }
+}
@@ -0,0 +1,112 @@
+package storage;
+
+/**
+ * Storage backend SPI used by the controller.
+ *
+ * Responsibilities:
+ *-Load the calendar, fully or around a date
+ *-Record individual changes and write them as save batches
+ *-Export, import, back up and restore
+ *
+ * Java data types used:
+ *-CalendarModel
+ *-SaveBatch
+ *-Path
+ *
+ * Java technologies involved:
+ *-Interfaces with default methods
+ *
+ * Design intent:
+ * The controller and the storage writer thread only see this interface,
+ * so a backend can be picked per deployment. Exports, imports and manual
+ * backups always use the JSON interchange format.
+ */
+import model.CalendarModel;
+import model.Event;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+public interface StorageBackend{
+    /**
+     * Short name used to select the backend, such as "json".
+     */
+    String getName();
+    CalendarModel loadCalendar();
+    /**
+     * Loads at least the events around the given date. Backends that always
+     * load everything need not override this.
+     */
+    default CalendarModel loadCalendarAround(LocalDate focusDate){
+        return loadCalendar();
+    }
+    /**
+     * Hands pending changes to a batch and copies the model after them.
+     * Both happen while holding the model's lock, so callers that change
+     * the model and report the change under that lock are never half
+     * captured.
+     */
+    SaveBatch captureSave(CalendarModel model);
+    /**
+     * Copies the model without taking over pending changes.
+     */
+    SaveBatch captureSnapshot(CalendarModel model);
+    /**
+     * Writes a batch. Once the store holds the calendar, only the changes
+     * reported through the record methods are guaranteed to be written, so
+     * changes made without them need a compact.
+     */
+    boolean saveCalendar(SaveBatch batch);
+    default boolean saveCalendar(CalendarModel model){
+        return saveCalendar(captureSave(model));
+    }
+    /**
+     * Writes the whole model and folds any incremental log into it.
+     */
+    default boolean compact(SaveBatch batch){
+        return saveCalendar(batch);
+    }
+    default boolean compact(CalendarModel model){
+        return compact(captureSave(model));
+    }
+    void recordEventAdded(Event event);
+    void recordEventDeleted(Event event);
+    void recordEventUpdated(Event oldEvent, Event newEvent);
+    void recordEventsCleared();
+    boolean exportCalendar(SaveBatch batch, Path exportPath);
+    default CalendarModel importCalendar(Path importPath){
+        return importCalendar(importPath, ImportListener.NONE);
+    }
+    /**
+     * Reads a JSON export into a new model, reporting progress as it goes.
+     *
+     * @return the imported events, or null if the listener cancelled
+     */
+    CalendarModel importCalendar(Path importPath, ImportListener listener);
+    boolean createManualBackup(SaveBatch batch);
+    List<BackupStore.Entry> listBackups();
+    /**
+     * Loads the newest backup taken at or before the given time, or returns
+     * null when there is none.
+     */
+    CalendarModel restoreBackup(Instant pointInTime);
+    default boolean isPartitionedStorageEnabled(){
+        return false;
+    }
+    default boolean isMonthLoaded(YearMonth month){
+        return true;
+    }
+    default List<Event> loadMonth(YearMonth month) throws IOException{
+        return new ArrayList<>();
+    }
+    default void markMonthLoaded(YearMonth month){
+
+    }
+    Path getStoragePath();
+    boolean saveFileExists();
+    String getStorageInfo();
+    void close();
+}
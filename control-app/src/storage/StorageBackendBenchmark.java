@@ -0,0 +1,310 @@
+package storage;
+
+/**
+ * Conformance checks and benchmarks shared by every storage backend.
+ *
+ * Responsibilities:
+ *-Run the same behavioural checks against each backend
+ *-Time full saves, loads and incremental saves on a generated calendar
+ *-Report on-disk size
+ *
+ * Usage:
+ * java storage.StorageBackendBenchmark [event count] [backend...]
+ *
+ * Java data types used:
+ *-StorageBackend
+ *-CalendarModel
+ *-Path
+ *
+ * Java technologies involved:
+ *-System.nanoTime
+ *-Temporary directories
+ *
+ * Design intent:
+ * A new backend is not done until it passes the same checks as the
+ * others. Every run works in a fresh temporary directory.
+ */
+import model.CalendarModel;
+import model.Event;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+public class StorageBackendBenchmark{
+    private static int DEFAULT_EVENT_COUNT=20000;
+    private static int INCREMENTAL_SAVES=100;
+    private String backendName;
+    private Path directory;
+    private List<String> failures=new ArrayList<>();
+    public StorageBackendBenchmark(String backendName, Path directory){
+        this.backendName=backendName;
+        this.directory=directory;
+    }
+    public static void main(String[] args) throws IOException{
+        int eventCount=args.length>0?Integer.parseInt(args[0]):DEFAULT_EVENT_COUNT;
+        List<String> names=new ArrayList<>();
+        for (int i=1;i<args.length;i++){
+            names.add(args[i]);
+        }
+        if (names.isEmpty()){
+            names.addAll(StorageBackends.names());
+        }
+        boolean passed=true;
+        List<String> rows=new ArrayList<>();
+        for (String name:names){
+            Path directory=Files.createTempDirectory("calendar-"+name+"-");
+            try{
+                StorageBackendBenchmark suite=new StorageBackendBenchmark(name, directory);
+                List<String> failed=suite.runConformance();
+                if (failed.isEmpty()){
+                    System.out.println(name+": all conformance checks passed");
+                }
+                else{
+                    passed=false;
+                    for (String failure:failed){
+                        System.out.println(name+": FAILED "+failure);
+                    }
+                }
+                rows.add(suite.runBenchmark(eventCount));
+            }
+            finally{
+                deleteRecursively(directory);
+            }
+        }
+        System.out.println();
+        System.out.println(String.format("%-8s %10s %10s %12s %12s", "backend", "save ms", "load ms", "edit+save ms", "disk bytes"));
+        for (String row:rows){
+            System.out.println(row);
+        }
+        if (!passed){
+            System.exit(1);
+        }
+    }
+    private StorageBackend open(String fileName){
+        return StorageBackends.create(backendName, directory.resolve(fileName));
+    }
+    /**
+     * Runs every check against fresh stores.
+     *
+     * @return a description of each failed check, empty when all passed
+     */
+    public List<String> runConformance(){
+        failures.clear();
+        check("empty load", this::checkEmptyLoad);
+        check("round trip", this::checkRoundTrip);
+        check("incremental changes", this::checkIncrementalChanges);
+        check("clear", this::checkClear);
+        check("compaction", this::checkCompaction);
+        check("export and import", this::checkExportImport);
+        check("backup and restore", this::checkBackupRestore);
+        return new ArrayList<>(failures);
+    }
+    private void check(String name, Check check){
+        try{
+            check.run();
+        }
+        catch (Exception|AssertionError e){
+            failures.add(name+": "+e.getMessage());
+        }
+    }
+    private void checkEmptyLoad(){
+        StorageBackend store=open("empty");
+        expectSame(new ArrayList<>(), store.loadCalendar());
+        store.close();
+    }
+    private void checkRoundTrip(){
+        List<Event> events=sampleEvents();
+        StorageBackend store=open("roundtrip");
+        store.loadCalendar();
+        CalendarModel model=new CalendarModel();
+        model.addEvents(events);
+        expect(store.compact(model), "save failed");
+        store.close();
+        expectSame(events, open("roundtrip").loadCalendar());
+    }
+    private void checkIncrementalChanges(){
+        StorageBackend store=open("incremental");
+        CalendarModel model=store.loadCalendar();
+        model.addEvents(sampleEvents());
+        expect(store.compact(model), "initial save failed");
+        Event added=new Event("Added later", LocalDate.of(2026, 3, 1), LocalTime.of(9, 0), LocalTime.of(10, 0));
+        model.addEvent(added);
+        store.recordEventAdded(added);
+        Event deleted=model.getSortedEvents().get(0);
+        model.removeEvent(deleted);
+        store.recordEventDeleted(deleted);
+        Event oldEvent=model.getSortedEvents().get(1);
+        Event newEvent=new Event(oldEvent.getTitle()+" (moved)", oldEvent.getDate().plusDays(1), LocalTime.of(14, 0), LocalTime.of(15, 30));
+        model.removeEvent(oldEvent);
+        model.addEvent(newEvent);
+        store.recordEventUpdated(oldEvent, newEvent);
+        expect(store.saveCalendar(model), "incremental save failed");
+        store.close();
+        expectSame(model.getEvents(), open("incremental").loadCalendar());
+    }
+    private void checkClear(){
+        StorageBackend store=open("clear");
+        CalendarModel model=store.loadCalendar();
+        model.addEvents(sampleEvents());
+        expect(store.compact(model), "initial save failed");
+        model.clearEvents();
+        store.recordEventsCleared();
+        Event kept=new Event("After clear", LocalDate.of(2026, 5, 5), LocalTime.of(8, 0), LocalTime.of(8, 30));
+        model.addEvent(kept);
+        store.recordEventAdded(kept);
+        expect(store.saveCalendar(model), "save after clear failed");
+        store.close();
+        expectSame(model.getEvents(), open("clear").loadCalendar());
+    }
+    private void checkCompaction(){
+        StorageBackend store=open("compact");
+        CalendarModel model=store.loadCalendar();
+        model.addEvents(sampleEvents());
+        expect(store.compact(model), "initial save failed");
+        Event added=new Event("Before compaction", LocalDate.of(2026, 7, 1), LocalTime.of(12, 0), LocalTime.of(13, 0));
+        model.addEvent(added);
+        store.recordEventAdded(added);
+        expect(store.compact(model), "compaction failed");
+        store.close();
+        StorageBackend reopened=open("compact");
+        expectSame(model.getEvents(), reopened.loadCalendar());
+        Event later=new Event("After compaction", LocalDate.of(2026, 7, 2), LocalTime.of(12, 0), LocalTime.of(13, 0));
+        model.addEvent(later);
+        reopened.recordEventAdded(later);
+        expect(reopened.saveCalendar(model), "save after compaction failed");
+        reopened.close();
+        expectSame(model.getEvents(), open("compact").loadCalendar());
+    }
+    private void checkExportImport(){
+        StorageBackend store=open("export");
+        CalendarModel model=store.loadCalendar();
+        model.addEvents(sampleEvents());
+        Path exportPath=directory.resolve("export.json");
+        expect(store.exportCalendar(store.captureSnapshot(model), exportPath), "export failed");
+        expectSame(model.getEvents(), store.importCalendar(exportPath));
+        store.close();
+    }
+    private void checkBackupRestore() throws InterruptedException{
+        StorageBackend store=open("backup");
+        CalendarModel model=store.loadCalendar();
+        model.addEvents(sampleEvents());
+        expect(store.compact(model), "initial save failed");
+        expect(store.createManualBackup(store.captureSnapshot(model)), "manual backup failed");
+        List<Event> backedUp=model.getEvents();
+        Thread.sleep(5);
+        Instant afterBackup=Instant.now();
+        Thread.sleep(5);
+        model.clearEvents();
+        store.recordEventsCleared();
+        expect(store.compact(model), "save after backup failed");
+        expect(!store.listBackups().isEmpty(), "no backups listed");
+        CalendarModel restored=store.restoreBackup(afterBackup);
+        expect(restored!=null, "no backup found before "+afterBackup);
+        expectSame(backedUp, restored);
+        store.close();
+    }
+    /**
+     * A small calendar covering the awkward cases: characters that need
+     * escaping, second precision and several events on one day.
+     */
+    private static List<Event> sampleEvents(){
+        List<Event> events=new ArrayList<>();
+        events.add(new Event("Plain", LocalDate.of(2026, 1, 10), LocalTime.of(9, 0), LocalTime.of(10, 0)));
+        events.add(new Event("Quote \" and \\ backslash", LocalDate.of(2026, 1, 10), LocalTime.of(11, 0), LocalTime.of(12, 0)));
+        events.add(new Event("Tab\tnew\nline", LocalDate.of(2026, 1, 11), LocalTime.of(13, 0), LocalTime.of(14, 0)));
+        events.add(new Event("Unicode éè 日本 📅", LocalDate.of(2026, 2, 1), LocalTime.of(8, 15), LocalTime.of(8, 45)));
+        events.add(new Event("Seconds", LocalDate.of(2026, 2, 2), LocalTime.of(7, 0, 30), LocalTime.of(7, 59, 59)));
+        events.add(new Event("", LocalDate.of(1999, 12, 31), LocalTime.of(23, 0), LocalTime.of(23, 59)));
+        return events;
+    }
+    private static void expect(boolean condition, String message){
+        if (!condition){
+            throw new AssertionError(message);
+        }
+    }
+    private static void expectSame(List<Event> expected, CalendarModel actual){
+        List<Event> events=actual.getEvents();
+        expect(events.size()==expected.size(), "expected "+expected.size()+" events, found "+events.size());
+        expect(new HashSet<>(events).equals(new HashSet<>(expected)), "loaded events differ from saved events");
+    }
+    /**
+     * Times the backend on a generated calendar of the given size.
+     *
+     * @return one formatted table row
+     */
+    public String runBenchmark(int eventCount) throws IOException{
+        String fileName="benchmark";
+        CalendarModel model=new CalendarModel();
+        model.addEvents(generateEvents(eventCount));
+        StorageBackend store=open(fileName);
+        store.loadCalendar();
+        long start=System.nanoTime();
+        boolean saved=store.compact(model);
+        double saveMillis=(System.nanoTime()-start)/1e6;
+        store.close();
+        start=System.nanoTime();
+        StorageBackend reopened=open(fileName);
+        CalendarModel loaded=reopened.loadCalendar();
+        double loadMillis=(System.nanoTime()-start)/1e6;
+        Random random=new Random(7);
+        start=System.nanoTime();
+        for (int i=0;i<INCREMENTAL_SAVES;i++){
+            List<Event> events=loaded.getSortedEvents();
+            Event oldEvent=events.get(random.nextInt(events.size()));
+            Event newEvent=new Event(oldEvent.getTitle()+" *", oldEvent.getDate(), oldEvent.getStartTime().toLocalTime(), oldEvent.getEndTime().toLocalTime());
+            loaded.removeEvent(oldEvent);
+            loaded.addEvent(newEvent);
+            reopened.recordEventUpdated(oldEvent, newEvent);
+            saved&=reopened.saveCalendar(loaded);
+        }
+        double editMillis=(System.nanoTime()-start)/1e6/INCREMENTAL_SAVES;
+        reopened.close();
+        if (!saved||loaded.getEventCount()!=eventCount){
+            failures.add("benchmark: saves failed or events were lost");
+        }
+        return String.format("%-8s %10.1f %10.1f %12.2f %12d", backendName, saveMillis, loadMillis, editMillis, diskSize(fileName));
+    }
+    private static List<Event> generateEvents(int count){
+        Random random=new Random(42);
+        List<Event> events=new ArrayList<>(count);
+        LocalDate first=LocalDate.of(2020, 1, 1);
+        for (int i=0;i<count;i++){
+            LocalTime startTime=LocalTime.of(6+random.nextInt(14), 15*random.nextInt(4));
+            events.add(new Event("Event "+i, first.plusDays(random.nextInt(2500)), startTime, startTime.plusMinutes(15+15*random.nextInt(8))));
+        }
+        return events;
+    }
+    /**
+     * Bytes in the storage file and its journals, not counting backups.
+     */
+    private long diskSize(String fileName) throws IOException{
+        long total=0;
+        try (Stream<Path> files=Files.list(directory)){
+            for (Path file:(Iterable<Path>) files::iterator){
+                String name=file.getFileName().toString();
+                if (name.startsWith(fileName)&&!name.contains(".backup")&&Files.isRegularFile(file)){
+                    total+=Files.size(file);
+                }
+            }
+        }
+        return total;
+    }
+    private static void deleteRecursively(Path root) throws IOException{
+        try (Stream<Path> paths=Files.walk(root)){
+            for (Path path:(Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator){
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+    private interface Check{
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,86 @@
+package storage;
+
+/**
+ * Factory for the available storage backends.
+ *
+ * Responsibilities:
+ *-Map backend names to implementations
+ *-Pick the default backend from the calendar.storage.backend property
+ *-Turn on JSON encryption when CALENDAR_STORAGE_PASSPHRASE is set
+ *
+ * Java data types used:
+ *-Path
+ *-List<String>
+ *
+ * Design intent:
+ * One place to add a backend; callers only pass a name around.
+ */
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+public class StorageBackends{
+    public static String BACKEND_PROPERTY="calendar.storage.backend";
+    public static String PASSPHRASE_VARIABLE="CALENDAR_STORAGE_PASSPHRASE";
+    public static String JSON="json";
+    public static String BINARY="binary";
+    public static String LOG="log";
+    private StorageBackends(){
+
+    }
+    public static List<String> names(){
+        return Arrays.asList(JSON, BINARY, LOG);
+    }
+    /**
+     * Creates the backend named by the calendar.storage.backend system
+     * property in the default data directory, falling back to JSON.
+     */
+    public static StorageBackend createDefault(){
+        String name=System.getProperty(BACKEND_PROPERTY, JSON);
+        if (JSON.equals(name)){
+            return withEncryption(new JsonStore());
+        }
+        Path directory=Paths.get(System.getProperty("user.home"), ".calendarapp");
+        return create(name, directory.resolve(getDefaultFileName(name)));
+    }
+    /**
+     * Creates a backend storing its data at the given file, with backups
+     * next to it.
+     *
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static StorageBackend create(String name, Path storageFile){
+        Path backupPath=storageFile.resolveSibling(storageFile.getFileName()+".backup");
+        if (JSON.equals(name)){
+            return withEncryption(new JsonStore(storageFile, backupPath));
+        }
+        if (BINARY.equals(name)){
+            return new BinaryJournalStore(storageFile, backupPath);
+        }
+        if (LOG.equals(name)){
+            return new LogFileStore(storageFile, backupPath);
+        }
+        throw new IllegalArgumentException("Unknown storage backend: "+name+" (expected one of "+names()+")");
+    }
+    /**
+     * Encrypts the store when a passphrase is in the environment. The
+     * environment is used rather than a system property so the passphrase
+     * does not show up in process listings.
+     */
+    private static JsonStore withEncryption(JsonStore store){
+        String passphrase=System.getenv(PASSPHRASE_VARIABLE);
+        if (passphrase!=null&&!passphrase.isEmpty()){
+            store.setEncryption(new CalendarCipher(passphrase.toCharArray()));
+        }
+        return store;
+    }
+    public static String getDefaultFileName(String name){
+        if (BINARY.equals(name)){
+            return "calendar_events.bin";
+        }
+        if (LOG.equals(name)){
+            return "calendar_events.caldb";
+        }
+        return "calendar_events.json";
+    }
+}
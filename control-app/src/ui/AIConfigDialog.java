@@ -444,10 +444,12 @@ public class AIConfigDialog extends JDialog {
             System.out.println("Saving endpoint: "+endpoint);
             System.out.println("Saving apiKey: "+(apiKey.isEmpty()?"empty":"[non-empty]"));
             System.out.println("Saving model: "+model);
-            settingsManager.saveSetting("provider", provider);
-            settingsManager.saveSetting("endpoint", endpoint);
-            settingsManager.saveSetting("apiKey", apiKey);
-            settingsManager.saveSetting("model", model);
+            Map<String, String> values=new LinkedHashMap<>();
+            values.put("provider", provider);
+            values.put("endpoint", endpoint);
+            values.put("apiKey", apiKey);
+            values.put("model", model);
+            settingsManager.saveSettings(values);
             System.out.println("Settings saved successfully.");
             JOptionPane.showMessageDialog(this, "Settings saved.", "Info", JOptionPane.INFORMATION_MESSAGE);
         }
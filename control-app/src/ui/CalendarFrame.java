@@ -2,6 +2,7 @@ package ui;
 import app.CalendarController;
 import model.Event;
 import state.AppState;
+import state.ChangeBatch;
 import ui.EventEditor.UIComponentFactory;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
@@ -18,6 +19,10 @@ import java.util.Locale;
  * Main application window.
  */
 public class CalendarFrame extends JFrame implements PropertyChangeListener{
+    /**
+     * Fired once, after the window has painted itself for the first time.
+     */
+    public static final String PROPERTY_FIRST_PAINT="firstPaint";
     private static final String APP_NAME="CalendarApp";
     private static final Color PRIMARY_BLUE=new Color(66, 133, 244);
     private static final Color PRIMARY_GREEN=new Color(30, 120, 83);
@@ -43,6 +48,7 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
     private JLabel statusLabel;
     private JLabel unsavedLabel;
     private JFrame audioPlayerWindow;
+    private boolean painted;
     public CalendarFrame(CalendarController controller){
         Locale.setDefault(Locale.ENGLISH);
         this.controller=controller;
@@ -54,6 +60,7 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
         setJMenuBar(MenuBuilder.createMenuBar(this, controller));
         setupListeners();
         updateUIFromState();
+        controller.getInitialLoad().thenRun(()->SwingUtilities.invokeLater(this::updateStatusBar));
         setVisible(true);
         addWindowListener(new java.awt.event.WindowAdapter(){
             @Override
@@ -62,6 +69,14 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
             }
         });
     }
+    @Override
+    public void paint(Graphics g){
+        super.paint(g);
+        if (!painted){
+            painted=true;
+            firePropertyChange(PROPERTY_FIRST_PAINT, false, true);
+        }
+    }
     private void initializeWindow(){
         setTitle(APP_NAME);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -199,7 +214,7 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
         addEventButton.addActionListener(e->showAddEventDialog());
     }
     private void setupListeners(){
-        appState.addPropertyChangeListener(this);
+        appState.addPropertyChangeListener(AppState.PROPERTY_CHANGE_BATCH, this);
         JPopupMenu popupMenu=new JPopupMenu();
         JMenuItem deleteMenuItem=new JMenuItem("Delete Event");
         deleteMenuItem.addActionListener(e->handleEventDeletion());
@@ -220,9 +235,19 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
             }
         });
     }
+    /**
+     * Receives one merged ChangeBatch per transaction or EDT frame and
+     * rebuilds only the parts of the window showing an affected date.
+     */
     @Override
     public void propertyChange(PropertyChangeEvent evt){
-        SwingUtilities.invokeLater(()->updateUIFromState());
+        ChangeBatch batch=(ChangeBatch) evt.getNewValue();
+        if (SwingUtilities.isEventDispatchThread()){
+            updateUIFromState(batch);
+        }
+        else{
+            SwingUtilities.invokeLater(()->updateUIFromState(batch));
+        }
     }
     private void updateUIFromState(){
         updateCalendar();
@@ -230,6 +255,32 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
         updateSidebar();
         updateStatusBar();
     }
+    private void updateUIFromState(ChangeBatch batch){
+        boolean viewChanged=batch.contains(AppState.PROPERTY_SELECTED_DATE)||batch.contains(AppState.PROPERTY_VIEW_MODE)||batch.contains(AppState.PROPERTY_MODEL)||batch.contains(AppState.PROPERTY_FILTER_TEXT);
+        if (viewChanged||affectsVisibleDates(batch)){
+            updateCalendar();
+        }
+        if (viewChanged||batch.affects(appState.getSelectedDate())){
+            updateEvents();
+            updateSidebar();
+        }
+        updateStatusBar();
+    }
+    /**
+     * Whether the batch touched a date the calendar grid shows. The month
+     * grid also shows the edges of the neighbouring months.
+     */
+    private boolean affectsVisibleDates(ChangeBatch batch){
+        LocalDate selectedDate=appState.getSelectedDate();
+        switch (appState.getCurrentViewMode()){
+            case DAY_VIEW:
+                return batch.affects(selectedDate);
+            case WEEK_VIEW:
+                return batch.affectsRange(selectedDate.minusDays(7), selectedDate.plusDays(7));
+            default:
+                return batch.affectsRange(selectedDate.withDayOfMonth(1).minusDays(7), selectedDate.withDayOfMonth(selectedDate.lengthOfMonth()).plusDays(7));
+        }
+    }
     private void updateCalendar(){
         EventEditor.CalendarRenderer.renderCalendar(appState.getCurrentViewMode(), appState.getSelectedDate(), controller, calendarGrid, monthYearLabel, calendarScrollPane, currentSelectedDate, appState, this);
         updateViewModeButtonStates();
@@ -248,37 +299,31 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
         }
     }
     private void updateEvents(){
-        SwingUtilities.invokeLater(()->{
-            eventsListModel.clear();
-            LocalDate selectedDate=appState.getSelectedDate();
-            List<Event> events=controller.getEventsbyDate(selectedDate);
-            events.sort(Comparator.comparing(Event::getStartTime));
-            for (Event event:events){
-                eventsListModel.addElement(event);
-            }
-            if (events.isEmpty()){
-                eventsListModel.addElement(null);
-            }
-        });
+        eventsListModel.clear();
+        LocalDate selectedDate=appState.getSelectedDate();
+        List<Event> events=controller.getEventsbyDate(selectedDate);
+        events.sort(Comparator.comparing(Event::getStartTime));
+        for (Event event:events){
+            eventsListModel.addElement(event);
+        }
+        if (events.isEmpty()){
+            eventsListModel.addElement(null);
+        }
     }
     private void updateSidebar(){
-        SwingUtilities.invokeLater(()->{
-            LocalDate selectedDate=appState.getSelectedDate();
-            List<Event> events=controller.getEventsbyDate(selectedDate);
-            selectedDateLabel.setText(selectedDate.format(dateFormatter));
-            eventCountLabel.setText(events.size()+" event"+(events.size()!=1 ? "s":""));
-        });
+        LocalDate selectedDate=appState.getSelectedDate();
+        List<Event> events=controller.getEventsbyDate(selectedDate);
+        selectedDateLabel.setText(selectedDate.format(dateFormatter));
+        eventCountLabel.setText(events.size()+" event"+(events.size()!=1 ? "s":""));
     }
 
     private void updateStatusBar(){
-        SwingUtilities.invokeLater(()->{
-            int totalEvents=controller.getEventCount();
-            List<Event> todaysEvents=controller.getEventsbyDate(LocalDate.now());
-            String status=String.format("Total events: %d | Today: %d event%s | View: %s", totalEvents, todaysEvents.size(), todaysEvents.size()!=1 ? "s":"", appState.getCurrentViewMode().toString().replace("_VIEW", ""));
-            statusLabel.setText(status);
-            unsavedLabel.setText(controller.hasUnsavedChanges() ? "Unsaved changes":"All changes saved");
-            unsavedLabel.setForeground(controller.hasUnsavedChanges() ? PRIMARY_RED:TEXT_SECONDARY);
-        });
+        int totalEvents=controller.getEventCount();
+        List<Event> todaysEvents=controller.getEventsbyDate(LocalDate.now());
+        String status=String.format("Total events: %d | Today: %d event%s | View: %s", totalEvents, todaysEvents.size(), todaysEvents.size()!=1 ? "s":"", appState.getCurrentViewMode().toString().replace("_VIEW", ""));
+        statusLabel.setText(controller.isLoading() ? "Loading calendar... | "+status:status);
+        unsavedLabel.setText(controller.hasUnsavedChanges() ? "Unsaved changes":"All changes saved");
+        unsavedLabel.setForeground(controller.hasUnsavedChanges() ? PRIMARY_RED:TEXT_SECONDARY);
     }
     private void showAddEventDialog(){
         EventEditor.showAddEventDialog(this, controller, appState.getSelectedDate(), PRIMARY_BLUE, PRIMARY_RED, NEUTRAL_BG, NEUTRAL_MID, TEXT_PRIMARY, TEXT_SECONDARY);
@@ -296,6 +341,7 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
                 return;
             }
         }
+        controller.shutdown();
         if (audioPlayerWindow!=null&&audioPlayerWindow.isVisible()){
              Component contentPane=audioPlayerWindow.getContentPane();
              if (contentPane instanceof ui.AudioPlayerFrame){
@@ -306,13 +352,15 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
         System.exit(0);
     }
     private void handleSaveAction(){
-        boolean saved=controller.saveCalendar();
-        if (saved){
-            statusLabel.setText("Calendar saved successfully!");
-        }
-        else{
-            statusLabel.setText("Save failed!");
-        }
+        statusLabel.setText("Saving...");
+        controller.saveCalendarAsync().thenAccept(saved -> SwingUtilities.invokeLater(() -> {
+            if (saved){
+                statusLabel.setText("Calendar saved successfully!");
+            }
+            else{
+                statusLabel.setText("Save failed!");
+            }
+        }));
     }
     private void handleEventDeletion(){
         Event selectedEvent=eventsList.getSelectedValue();
@@ -322,8 +370,6 @@ public class CalendarFrame extends JFrame implements PropertyChangeListener{
                 boolean deleted=controller.deleteEvent(selectedEvent);
                 if (deleted){
                     statusLabel.setText("Event deleted: "+selectedEvent.getTitle());
-                    updateEvents();
-                    updateSidebar();
                 }
             }
         }
@@ -14,9 +14,11 @@ public class MenuBuilder{
     public static JMenuBar createMenuBar(CalendarFrame frame, CalendarController controller){
         JMenuBar menuBar=new JMenuBar();
         JMenu fileMenu=createFileMenu(frame, controller);
+        JMenu editMenu=createEditMenu(controller);
         JMenu toolsMenu=createToolsMenu(frame);
         JMenu helpMenu=createHelpMenu(frame);
         menuBar.add(fileMenu);
+        menuBar.add(editMenu);
         menuBar.add(toolsMenu);
         menuBar.add(helpMenu);
         return menuBar;
@@ -34,6 +36,33 @@ public class MenuBuilder{
         fileMenu.add(exitMenuItem);
         return fileMenu;
     }
+    private static JMenu createEditMenu(CalendarController controller){
+        JMenu editMenu=new JMenu("Edit");
+        editMenu.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
+        int shortcutMask=Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx();
+        JMenuItem undoMenuItem=new JMenuItem("Undo");
+        undoMenuItem.setAccelerator(KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Z, shortcutMask));
+        undoMenuItem.addActionListener(e -> controller.undo());
+        JMenuItem redoMenuItem=new JMenuItem("Redo");
+        redoMenuItem.setAccelerator(KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Y, shortcutMask));
+        redoMenuItem.addActionListener(e -> controller.redo());
+        editMenu.addMenuListener(new javax.swing.event.MenuListener(){
+            public void menuSelected(javax.swing.event.MenuEvent e){
+                undoMenuItem.setEnabled(controller.canUndo());
+                redoMenuItem.setEnabled(controller.canRedo());
+            }
+            public void menuDeselected(javax.swing.event.MenuEvent e){
+                undoMenuItem.setEnabled(true);
+                redoMenuItem.setEnabled(true);
+            }
+            public void menuCanceled(javax.swing.event.MenuEvent e){
+                menuDeselected(e);
+            }
+        });
+        editMenu.add(undoMenuItem);
+        editMenu.add(redoMenuItem);
+        return editMenu;
+    }
     private static JMenu createToolsMenu(CalendarFrame frame) {
         JMenu toolsMenu=new JMenu("Tools");
         toolsMenu.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
@@ -55,13 +84,14 @@ public class MenuBuilder{
         return helpMenu;
     }
     private static void handleSaveAction(CalendarFrame frame, CalendarController controller){
-        boolean saved=controller.saveCalendar();
-        if (saved){
-            JOptionPane.showMessageDialog(frame,"Calendar saved to: "+controller.getStorage().getStoragePath(),"Save Successful",JOptionPane.INFORMATION_MESSAGE);
-        }
-        else{
-            JOptionPane.showMessageDialog(frame,"Failed to save calendar","Save Error",JOptionPane.ERROR_MESSAGE);
-        }
+        controller.saveCalendarAsync().thenAccept(saved -> SwingUtilities.invokeLater(() -> {
+            if (saved){
+                JOptionPane.showMessageDialog(frame,"Calendar saved to: "+controller.getStorage().getStoragePath(),"Save Successful",JOptionPane.INFORMATION_MESSAGE);
+            }
+            else{
+                JOptionPane.showMessageDialog(frame,"Failed to save calendar","Save Error",JOptionPane.ERROR_MESSAGE);
+            }
+        }));
     }
     private static void showAboutDialog(CalendarFrame frame){
         JDialog aboutDialog=new JDialog(frame, "About Calendar App", true);
@@ -0,0 +1,87 @@
+#!/usr/bin/env python3
+
+import os
+import sys
+import subprocess
+import platform
+from pathlib import Path
+
+EXIT_OVER_BUDGET = 1
+REPORT_HEADER = "Startup report"
+DEFAULT_TIMEOUT_SECONDS = 120
+
+class StartupBudgetCheck:
+    def __init__(self, project_root="."):
+        self.project_root = Path(project_root).absolute()
+        self.build_dir = self.project_root / "build"
+        self.jar_path = self.project_root / "dist" / "CalendarApp.jar"
+
+    def classpath(self):
+        if self.jar_path.exists():
+            return str(self.jar_path)
+        if self.build_dir.exists():
+            return str(self.build_dir)
+        return None
+
+    def run(self, budgets, runs, timeout):
+        cp = self.classpath()
+        if cp is None:
+            print("No build found. Run scripts/build-java.py first.")
+            return 2
+
+        run_cmd = ["java", "-Dcalendar.startup.failOnBudget=true"]
+        for budget in budgets:
+            phase, _, millis = budget.partition("=")
+            if not millis.isdigit():
+                print(f"Invalid budget '{budget}', expected <phase>=<ms>")
+                return 2
+            run_cmd.append(f"-Dcalendar.startup.budget.{phase}={millis}")
+        run_cmd += ["-cp", cp, "app.Main"]
+
+        if platform.system() == "Linux" and not os.environ.get("DISPLAY"):
+            print("Warning: no DISPLAY set; the first paint needs a display (try xvfb-run)")
+
+        failures = 0
+        for attempt in range(1, runs + 1):
+            print(f"Launch {attempt}/{runs}: {' '.join(run_cmd)}")
+            try:
+                result = subprocess.run(run_cmd, timeout=timeout, stdout=subprocess.PIPE, text=True)
+            except subprocess.TimeoutExpired:
+                print(f"Launch did not finish within {timeout} s")
+                return 2
+            except FileNotFoundError:
+                print("Error: java not found. Make sure a JDK or JRE is installed.")
+                return 2
+
+            print(result.stdout, end="")
+            if REPORT_HEADER not in result.stdout:
+                print(f"Launch exited with code {result.returncode} before startup finished")
+                return 2
+            if result.returncode == EXIT_OVER_BUDGET:
+                failures += 1
+                print("Startup over budget")
+            elif result.returncode != 0:
+                print(f"Launch failed with exit code {result.returncode}")
+                return 2
+
+        if failures:
+            print(f"{failures} of {runs} launches went over budget")
+            return EXIT_OVER_BUDGET
+
+        print("All launches within budget")
+        return 0
+
+def main():
+    import argparse
+
+    parser = argparse.ArgumentParser(description="Launch the calendar app as a startup measurement run and fail when a phase goes over budget")
+    parser.add_argument("--budget", action="append", default=[], metavar="PHASE=MS", help="Override a phase budget, e.g. storage-load=1500 (repeatable)")
+    parser.add_argument("--runs", type=int, default=1, help="Number of launches; any one over budget fails the check")
+    parser.add_argument("--timeout", type=int, default=DEFAULT_TIMEOUT_SECONDS, help="Seconds to wait for each launch")
+
+    args = parser.parse_args()
+
+    return StartupBudgetCheck().run(args.budget, args.runs, args.timeout)
+
+if __name__ == "__main__":
+    sys.exit(main())